@@ -0,0 +1,495 @@
+package com.lighthouse.Batch;
+
+import android.os.Build;
+
+import com.lighthouse.Data.IndexedPacketProtocol;
+import com.lighthouse.Data.LidarFrame;
+import com.lighthouse.Data.LidarProtocol;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Decodes and filters recorded captures of the raw LIDAR byte stream in parallel on a fork-join
+ * pool, using the same LidarProtocol decode and filter chain as the live progressive mode.
+ *
+ * Each capture is first split into packets and revolutions.  Finding a packet only reads its sync
+ * and index bytes, so this pass is cheap next to decoding.  Revolutions are then grouped into
+ * chunks which are decoded in parallel, every worker thread reusing its own frame, and each
+ * revolution is written straight into its place in the result so the output is in recorded order
+ * without any merging.  Several captures are processed as one task tree, so short captures do not
+ * leave cores idle.
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class CaptureProcessor {
+
+    /**
+     * Number of revolutions a task decodes or exports itself instead of splitting further.
+     */
+    private static final int REVOLUTIONS_PER_TASK = 16;
+
+    private final ForkJoinPool pool;
+
+    private final LidarProtocol protocol;
+
+    private final int minimumDistanceFilter;
+
+    private final int maximumDistanceFilter;
+
+    private final int intensityThreshold;
+
+    private final int rpmThreshold;
+
+    /**
+     * Decoding and formatting state kept by each worker thread.
+     */
+    private final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    /**
+     * Constructor which processes captures of the standard sensor on the common fork-join pool.
+     * @param minimumDistanceFilter Minimum distance filter value.
+     * @param maximumDistanceFilter Maximum distance filter value.
+     * @param intensityThreshold Intensity threshold value.
+     * @param rpmThreshold RPM threshold value.
+     */
+    public CaptureProcessor(int minimumDistanceFilter,
+                            int maximumDistanceFilter,
+                            int intensityThreshold,
+                            int rpmThreshold) {
+        this(IndexedPacketProtocol.ONE_DEGREE,
+                minimumDistanceFilter,
+                maximumDistanceFilter,
+                intensityThreshold,
+                rpmThreshold,
+                ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     * @param protocol Packet format of the captures.
+     * @param minimumDistanceFilter Minimum distance filter value.
+     * @param maximumDistanceFilter Maximum distance filter value.
+     * @param intensityThreshold Intensity threshold value.
+     * @param rpmThreshold RPM threshold value.
+     * @param pool The pool captures are processed on.
+     */
+    public CaptureProcessor(LidarProtocol protocol,
+                            int minimumDistanceFilter,
+                            int maximumDistanceFilter,
+                            int intensityThreshold,
+                            int rpmThreshold,
+                            ForkJoinPool pool) {
+        this.protocol = protocol;
+        this.minimumDistanceFilter = minimumDistanceFilter;
+        this.maximumDistanceFilter = maximumDistanceFilter;
+        this.intensityThreshold = intensityThreshold;
+        this.rpmThreshold = rpmThreshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Decodes and filters a single capture.
+     * @param capture The raw bytes read from the LIDAR device.
+     * @return The revolutions of the capture.
+     */
+    public ProcessedCapture process(byte[] capture) {
+        List<byte[]> captures = new ArrayList<>();
+        captures.add(capture);
+        return processCaptures(captures).get(0);
+    }
+
+    /**
+     * Decodes and filters several captures at once.
+     * @param captures The raw bytes of each capture.
+     * @return The revolutions of each capture, in the same order as the captures.
+     */
+    public List<ProcessedCapture> processCaptures(List<byte[]> captures) {
+        Segments[] segments = new Segments[captures.size()];
+        pool.invoke(new SplitTask(captures, segments, 0, captures.size()));
+
+        List<ProcessedCapture> results = new ArrayList<>(captures.size());
+        Chunks chunks = new Chunks();
+        for (int i = 0; i < captures.size(); i++) {
+            ProcessedCapture result = new ProcessedCapture(protocol.getSamplesPerRevolution(),
+                    segments[i].revolutionCount,
+                    segments[i].packetCount,
+                    segments[i].skippedByteCount);
+            results.add(result);
+            chunks.addCapture(i, result.getRevolutionCount());
+        }
+        pool.invoke(new DecodeTask(captures, segments, results, chunks, 0, chunks.count));
+        return results;
+    }
+
+    /**
+     * Writes a processed capture in the LIDAR file output format, one "angle,distance,intensity,rpm"
+     * line per reading, which CaptureRenderer.readCsvCapture reads back.  The angle is in degrees,
+     * with a fraction for the samples between whole degrees of finer protocols.  Revolutions are
+     * formatted in parallel and written in order.
+     * @param capture The processed capture.
+     * @param outputStream Stream the capture is written to.  It is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void exportCsv(ProcessedCapture capture, OutputStream outputStream) throws IOException {
+        Chunks chunks = new Chunks();
+        chunks.addCapture(0, capture.getRevolutionCount());
+        byte[][] formatted = new byte[chunks.count][];
+        pool.invoke(new ExportTask(capture, chunks, formatted, 0, chunks.count));
+        for (byte[] bytes : formatted) {
+            outputStream.write(bytes);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Processes capture files and writes each result as a CSV file.  Every input is read into
+     * memory, so very large batches should be passed in parts.
+     * @param inputFiles Raw capture files.
+     * @param outputFiles File each result is written to.
+     * @throws IOException If a capture could not be read or written.
+     */
+    public void processFiles(List<File> inputFiles, List<File> outputFiles) throws IOException {
+        if (inputFiles.size() != outputFiles.size()) {
+            throw new IllegalArgumentException("Every capture needs an output file");
+        }
+        List<byte[]> captures = new ArrayList<>(inputFiles.size());
+        for (File file : inputFiles) {
+            captures.add(readCapture(file));
+        }
+        List<ProcessedCapture> results = processCaptures(captures);
+        captures.clear();
+        for (int i = 0; i < results.size(); i++) {
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFiles.get(i)), 64 * 1024)) {
+                exportCsv(results.get(i), outputStream);
+            }
+        }
+    }
+
+    /**
+     * Reads a raw capture file.
+     * @param file The capture file.
+     * @return The bytes of the capture.
+     * @throws IOException If reading fails.
+     */
+    public static byte[] readCapture(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Capture too large: " + file);
+        }
+        byte[] capture = new byte[(int) length];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read = 0;
+            while (read < capture.length) {
+                int count = inputStream.read(capture, read, capture.length - read);
+                if (count < 0) {
+                    throw new EOFException("Capture shorter than expected: " + file);
+                }
+                read += count;
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * Finds the packets of a capture and the packet each revolution starts at, reading only packet
+     * headers.  Bytes which do not start a packet are skipped one at a time until the stream is
+     * back in sync, the same way the live reader recovers from dropped bytes.
+     */
+    Segments split(byte[] capture) {
+        int packetSize = protocol.getPacketSize();
+        Segments segments = new Segments(capture.length / packetSize);
+        int previousSample = -1;
+        int offset = 0;
+        while (offset + packetSize <= capture.length) {
+            if (!protocol.isPacketStart(capture, offset)) {
+                offset++;
+                segments.skippedByteCount++;
+                continue;
+            }
+            int firstSample = protocol.getFirstSample(capture, offset);
+            if (previousSample < 0 || firstSample <= previousSample) {
+                segments.addRevolution();
+            }
+            segments.addPacket(offset);
+            previousSample = firstSample;
+            offset += packetSize;
+        }
+        segments.skippedByteCount += capture.length - offset;
+        return segments;
+    }
+
+    /**
+     * Packet offsets and revolution starts of a capture.
+     */
+    static class Segments {
+
+        int[] packetOffsets;
+
+        int packetCount = 0;
+
+        /**
+         * Index of the first packet of each revolution.
+         */
+        int[] revolutionStarts = new int[16];
+
+        int revolutionCount = 0;
+
+        int skippedByteCount = 0;
+
+        Segments(int expectedPackets) {
+            packetOffsets = new int[Math.max(1, expectedPackets)];
+        }
+
+        void addPacket(int offset) {
+            if (packetCount == packetOffsets.length) {
+                packetOffsets = Arrays.copyOf(packetOffsets, packetCount * 2);
+            }
+            packetOffsets[packetCount++] = offset;
+        }
+
+        void addRevolution() {
+            if (revolutionCount == revolutionStarts.length) {
+                revolutionStarts = Arrays.copyOf(revolutionStarts, revolutionCount * 2);
+            }
+            revolutionStarts[revolutionCount++] = packetCount;
+        }
+
+        int getRevolutionEnd(int revolution) {
+            return revolution + 1 < revolutionCount ? revolutionStarts[revolution + 1] : packetCount;
+        }
+    }
+
+    /**
+     * Ranges of revolutions handled by a single task.  A chunk never spans two captures.
+     */
+    private static class Chunks {
+
+        int[] captures = new int[16];
+
+        int[] starts = new int[16];
+
+        int[] ends = new int[16];
+
+        int count = 0;
+
+        void addCapture(int capture, int revolutionCount) {
+            for (int start = 0; start < revolutionCount; start += REVOLUTIONS_PER_TASK) {
+                if (count == captures.length) {
+                    captures = Arrays.copyOf(captures, count * 2);
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                captures[count] = capture;
+                starts[count] = start;
+                ends[count] = Math.min(revolutionCount, start + REVOLUTIONS_PER_TASK);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Splits a range of captures in half until each is split into packets by its own task.
+     */
+    private class SplitTask extends RecursiveAction {
+
+        private final List<byte[]> captures;
+
+        private final Segments[] segments;
+
+        private final int start;
+
+        private final int end;
+
+        SplitTask(List<byte[]> captures, Segments[] segments, int start, int end) {
+            this.captures = captures;
+            this.segments = segments;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end > start) {
+                    segments[start] = split(captures.get(start));
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new SplitTask(captures, segments, start, middle),
+                    new SplitTask(captures, segments, middle, end));
+        }
+    }
+
+    /**
+     * Splits a range of chunks in half until a single chunk is left to decode.
+     */
+    private class DecodeTask extends RecursiveAction {
+
+        private final List<byte[]> captures;
+
+        private final Segments[] segments;
+
+        private final List<ProcessedCapture> results;
+
+        private final Chunks chunks;
+
+        private final int start;
+
+        private final int end;
+
+        DecodeTask(List<byte[]> captures,
+                   Segments[] segments,
+                   List<ProcessedCapture> results,
+                   Chunks chunks,
+                   int start,
+                   int end) {
+            this.captures = captures;
+            this.segments = segments;
+            this.results = results;
+            this.chunks = chunks;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                Worker worker = workers.get();
+                for (int chunk = start; chunk < end; chunk++) {
+                    int capture = chunks.captures[chunk];
+                    worker.decode(captures.get(capture),
+                            segments[capture],
+                            results.get(capture),
+                            chunks.starts[chunk],
+                            chunks.ends[chunk]);
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new DecodeTask(captures, segments, results, chunks, start, middle),
+                    new DecodeTask(captures, segments, results, chunks, middle, end));
+        }
+    }
+
+    /**
+     * Splits a range of chunks in half until a single chunk is left to format.
+     */
+    private class ExportTask extends RecursiveAction {
+
+        private final ProcessedCapture capture;
+
+        private final Chunks chunks;
+
+        private final byte[][] formatted;
+
+        private final int start;
+
+        private final int end;
+
+        ExportTask(ProcessedCapture capture, Chunks chunks, byte[][] formatted, int start, int end) {
+            this.capture = capture;
+            this.chunks = chunks;
+            this.formatted = formatted;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                Worker worker = workers.get();
+                for (int chunk = start; chunk < end; chunk++) {
+                    formatted[chunk] = worker.format(capture, chunks.starts[chunk], chunks.ends[chunk]);
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ExportTask(capture, chunks, formatted, start, middle),
+                    new ExportTask(capture, chunks, formatted, middle, end));
+        }
+    }
+
+    /**
+     * Reusable decoding and formatting state for a single thread.
+     */
+    private class Worker {
+
+        private final LidarFrame frame = protocol.createFrame();
+
+        private final StringBuilder builder = new StringBuilder(64 * 1024);
+
+        /**
+         * Decodes a range of revolutions of a capture.  Each packet is decoded into the worker's
+         * frame and its angles copied into the result.
+         */
+        void decode(byte[] capture, Segments segments, ProcessedCapture result, int firstRevolution, int endRevolution) {
+            int samplesPerPacket = protocol.getSamplesPerPacket();
+            for (int revolution = firstRevolution; revolution < endRevolution; revolution++) {
+                int packetEnd = segments.getRevolutionEnd(revolution);
+                for (int packet = segments.revolutionStarts[revolution]; packet < packetEnd; packet++) {
+                    int firstSample = protocol.decodePacketIntoFrame(capture,
+                            segments.packetOffsets[packet],
+                            minimumDistanceFilter,
+                            maximumDistanceFilter,
+                            intensityThreshold,
+                            rpmThreshold,
+                            frame,
+                            0);
+                    for (int sample = firstSample; sample < firstSample + samplesPerPacket; sample++) {
+                        result.setReading(revolution,
+                                sample,
+                                frame.getDistance(sample),
+                                frame.getIntensity(sample),
+                                frame.getRPM(sample));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Formats a range of revolutions in the LIDAR file output format.
+         */
+        byte[] format(ProcessedCapture capture, int firstRevolution, int endRevolution) {
+            builder.setLength(0);
+            int samples = capture.getSamplesPerRevolution();
+            int samplesPerDegree = samples / LidarFrame.ANGLES_PER_REVOLUTION;
+            for (int revolution = firstRevolution; revolution < endRevolution; revolution++) {
+                for (int sample = 0; sample < samples; sample++) {
+                    if (sample % samplesPerDegree == 0) {
+                        builder.append(sample / samplesPerDegree);
+                    } else {
+                        builder.append((float) sample / samplesPerDegree);
+                    }
+                    builder.append(',')
+                            .append(capture.getDistance(revolution, sample))
+                            .append(',')
+                            .append(capture.getIntensity(revolution, sample))
+                            .append(',')
+                            .append(capture.getRPM(revolution, sample))
+                            .append('\n');
+                }
+            }
+            return builder.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+}
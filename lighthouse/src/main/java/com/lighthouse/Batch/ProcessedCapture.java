@@ -0,0 +1,148 @@
+package com.lighthouse.Batch;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The decoded and filtered revolutions of a recorded capture, in the order they were recorded.
+ * Readings are kept in flat primitive arrays with one block of samples per revolution, so a long
+ * capture does not hold millions of DataPoint objects.  Samples which no packet covered in a
+ * revolution have a distance of 0.  With one sample per degree the sample number is the angle.
+ */
+public class ProcessedCapture {
+
+    private final int samplesPerRevolution;
+
+    private final float[] distances;
+
+    private final float[] intensities;
+
+    private final int[] rpms;
+
+    private final int revolutionCount;
+
+    private final int packetCount;
+
+    private final int skippedByteCount;
+
+    ProcessedCapture(int samplesPerRevolution, int revolutionCount, int packetCount, int skippedByteCount) {
+        this.samplesPerRevolution = samplesPerRevolution;
+        this.revolutionCount = revolutionCount;
+        this.packetCount = packetCount;
+        this.skippedByteCount = skippedByteCount;
+        distances = new float[revolutionCount * samplesPerRevolution];
+        intensities = new float[revolutionCount * samplesPerRevolution];
+        rpms = new int[revolutionCount * samplesPerRevolution];
+    }
+
+    /**
+     * Stores a single reading.  Each revolution is written by one task only.
+     */
+    void setReading(int revolution, int angle, float distance, float intensity, int RPM) {
+        int index = (revolution * samplesPerRevolution) + angle;
+        distances[index] = distance;
+        intensities[index] = intensity;
+        rpms[index] = RPM;
+    }
+
+    public int getSamplesPerRevolution() {
+        return samplesPerRevolution;
+    }
+
+    /**
+     * Returns the number of revolutions in the capture.  The first and last revolutions may be
+     * partial.
+     * @return Revolution count.
+     */
+    public int getRevolutionCount() {
+        return revolutionCount;
+    }
+
+    /**
+     * Returns the number of packets decoded from the capture.
+     * @return Packet count.
+     */
+    public int getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Returns the number of bytes skipped while looking for packet starts, which is a measure of
+     * how much of the capture was corrupt.
+     * @return Skipped byte count.
+     */
+    public int getSkippedByteCount() {
+        return skippedByteCount;
+    }
+
+    /**
+     * Returns the distance value for an angle of a revolution.
+     * @param revolution The revolution.
+     * @param angle The angle.
+     * @return Distance value.
+     */
+    public float getDistance(int revolution, int angle) {
+        return distances[(revolution * samplesPerRevolution) + angle];
+    }
+
+    /**
+     * Returns the intensity value for an angle of a revolution.
+     * @param revolution The revolution.
+     * @param angle The angle.
+     * @return Intensity value.
+     */
+    public float getIntensity(int revolution, int angle) {
+        return intensities[(revolution * samplesPerRevolution) + angle];
+    }
+
+    /**
+     * Returns the RPM during the reading for an angle of a revolution.
+     * @param revolution The revolution.
+     * @param angle The angle.
+     * @return RPM during the reading.
+     */
+    public int getRPM(int revolution, int angle) {
+        return rpms[(revolution * samplesPerRevolution) + angle];
+    }
+
+    /**
+     * Creates a DataPoint array from a revolution, with one reading per degree indexed by angle.
+     * With a finer protocol each degree gets the closest return of its samples, like the degree
+     * frame of LIDAR.  This allocates and is meant for consumers that work on whole DataPoint
+     * arrays.
+     * @param revolution The revolution.
+     * @return DataPoint array containing the revolution.
+     */
+    public DataPoint[] toDataPointArray(int revolution) {
+        int samplesPerDegree = samplesPerRevolution / LidarFrame.ANGLES_PER_REVOLUTION;
+        DataPoint[] dataPointArray = new DataPoint[LidarFrame.ANGLES_PER_REVOLUTION];
+        int offset = revolution * samplesPerRevolution;
+        for (int angle = 0; angle < LidarFrame.ANGLES_PER_REVOLUTION; angle++) {
+            int closest = offset + (angle * samplesPerDegree);
+            for (int sample = closest + 1; sample < offset + ((angle + 1) * samplesPerDegree); sample++) {
+                float distance = distances[sample];
+                if (distance > 0 && (distances[closest] <= 0 || distance < distances[closest])) {
+                    closest = sample;
+                }
+            }
+            dataPointArray[angle] = new DataPoint(distances[closest], intensities[closest], angle, rpms[closest]);
+        }
+        return dataPointArray;
+    }
+
+    /**
+     * Creates DataPoint arrays with one reading per degree for every revolution, such as for the
+     * CaptureRenderer.
+     * @return The revolutions, in order.
+     */
+    public List<DataPoint[]> toSweepList() {
+        List<DataPoint[]> sweeps = new ArrayList<>(revolutionCount);
+        for (int revolution = 0; revolution < revolutionCount; revolution++) {
+            sweeps.add(toDataPointArray(revolution));
+        }
+        return sweeps;
+    }
+}
@@ -103,6 +103,17 @@ public class Bluetooth {
         return outStream;
     }
 
+    /**
+     * Uses a pair of streams in place of the Bluetooth socket, such as a serial adapter or a
+     * synthetic source for load testing.  This replaces connectToLIDAR.
+     * @param inStream Stream which the LIDAR data is read from.
+     * @param outStream Stream which commands are written to.
+     */
+    public void connectToStreams(InputStream inStream, OutputStream outStream) {
+        this.inStream = inStream;
+        this.outStream = outStream;
+    }
+
     /**
      * Returns the input stream.
      * @return The input stream which the LIDAR device uses to send data to the application.
@@ -0,0 +1,93 @@
+package com.lighthouse.Data;
+
+/**
+ * A sweep read back from a SweepHistory.  Instances are mutable and meant to be reused, so reading
+ * history does not allocate.
+ */
+public class HistoricalSweep {
+
+    private final float[] distances = new float[LidarFrame.ANGLES_PER_REVOLUTION];
+
+    private final float[] intensities = new float[LidarFrame.ANGLES_PER_REVOLUTION];
+
+    private long sequence = -1;
+
+    private long timestamp;
+
+    private int RPM;
+
+    /**
+     * Returns the distance arrays so the history can fill them in place.
+     */
+    float[] getDistanceArray() {
+        return distances;
+    }
+
+    float[] getIntensityArray() {
+        return intensities;
+    }
+
+    /**
+     * Stores the values of the sweep.
+     */
+    void set(long sequence, long timestamp, int RPM) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.RPM = RPM;
+    }
+
+    /**
+     * Returns the sequence number of the sweep in the history.
+     * @return Sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time the sweep was stored with.
+     * @return Timestamp.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the mean RPM during the sweep.
+     * @return RPM.
+     */
+    public int getRPM() {
+        return RPM;
+    }
+
+    /**
+     * Returns the distance value for an angle, rounded to a whole unit.
+     * @param angle The angle.
+     * @return Distance value.
+     */
+    public float getDistance(int angle) {
+        return distances[angle];
+    }
+
+    /**
+     * Returns the intensity value for an angle, quantized to the intensity scale of the history.
+     * @param angle The angle.
+     * @return Intensity value.
+     */
+    public float getIntensity(int angle) {
+        return intensities[angle];
+    }
+
+    /**
+     * Creates a DataPoint array from the sweep.  This allocates and is meant for consumers that
+     * work on whole DataPoint arrays.
+     * @return DataPoint array containing the sweep.
+     */
+    public DataPoint[] toDataPointArray() {
+        DataPoint[] dataPointArray = new DataPoint[LidarFrame.ANGLES_PER_REVOLUTION];
+        for (int i = 0; i < LidarFrame.ANGLES_PER_REVOLUTION; i++) {
+            dataPointArray[i] = new DataPoint(distances[i], intensities[i], i, RPM);
+        }
+        return dataPointArray;
+    }
+}
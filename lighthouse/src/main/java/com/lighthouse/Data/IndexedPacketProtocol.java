@@ -0,0 +1,148 @@
+package com.lighthouse.Data;
+
+/**
+ * Packets which start with a sync byte and a packet index, as sent by the lighthouse sensor:
+ *
+ * <pre>
+ * byte 0      sync byte, 0xFA
+ * byte 1      packet index, from 160 for the first packet of a revolution
+ * bytes 2-3   RPM, little endian
+ * bytes 4-5   intensity, little endian
+ * then 6 bytes per sample, starting with the distance, little endian
+ * </pre>
+ *
+ * Every revolution is sent as 60 packets.  The standard sensor sends six samples of one degree
+ * per packet in 42 bytes.  The half degree variant uses the same layout with twelve samples per
+ * packet, so a packet is 78 bytes and a revolution holds 720 samples.
+ *
+ * Distances outside the distance filters are zeroed, then distances more than a standard deviation
+ * from the mean of the packet, and the whole packet is zeroed when its intensity or RPM is below
+ * the thresholds.
+ */
+public final class IndexedPacketProtocol extends LidarProtocol {
+
+    /**
+     * The byte which starts every packet.
+     */
+    public static final int SYNC_BYTE = 0xFA;
+
+    /**
+     * Value of the packet index byte of the first packet of a revolution.
+     */
+    public static final int FIRST_PACKET_INDEX = 160;
+
+    /**
+     * Number of packets in a revolution.
+     */
+    public static final int PACKETS_PER_REVOLUTION = 60;
+
+    private static final int HEADER_SIZE = 6;
+
+    private static final int BYTES_PER_SAMPLE = 6;
+
+    /**
+     * The standard sensor, with six one degree samples per 42 byte packet.
+     */
+    public static final IndexedPacketProtocol ONE_DEGREE = new IndexedPacketProtocol(6);
+
+    /**
+     * The half degree sensor, with twelve half degree samples per 78 byte packet.
+     */
+    public static final IndexedPacketProtocol HALF_DEGREE = new IndexedPacketProtocol(12);
+
+    private final int lastPacketIndex;
+
+    /**
+     * Constructor.
+     * @param samplesPerPacket Number of samples in each packet.
+     */
+    public IndexedPacketProtocol(int samplesPerPacket) {
+        super(HEADER_SIZE + (samplesPerPacket * BYTES_PER_SAMPLE),
+                samplesPerPacket,
+                samplesPerPacket * PACKETS_PER_REVOLUTION);
+        if (samplesPerPacket < 2) {
+            throw new IllegalArgumentException("The standard deviation filter needs at least two samples per packet");
+        }
+        this.lastPacketIndex = FIRST_PACKET_INDEX + PACKETS_PER_REVOLUTION - 1;
+    }
+
+    @Override
+    public boolean isPacketStart(byte[] data, int offset) {
+        int index = data[offset + 1] & 0xFF;
+        return (data[offset] & 0xFF) == SYNC_BYTE && index >= FIRST_PACKET_INDEX && index <= lastPacketIndex;
+    }
+
+    @Override
+    public int getFirstSample(byte[] data, int offset) {
+        int index = data[offset + 1] & 0xFF;
+        if (index < FIRST_PACKET_INDEX || index > lastPacketIndex) {
+            return -1;
+        }
+        return (index - FIRST_PACKET_INDEX) * getSamplesPerPacket();
+    }
+
+    @Override
+    public int getRPM(byte[] data, int offset) {
+        return (data[offset + 3] * 256) + (data[offset + 2]);
+    }
+
+    @Override
+    public int decodePacketIntoFrame(byte[] data,
+                                     int offset,
+                                     int minimumDistanceFilter,
+                                     int maximumDistanceFilter,
+                                     int intensityThreshold,
+                                     int rpmThreshold,
+                                     LidarFrame frame,
+                                     long updateTime) {
+        int firstSample = getFirstSample(data, offset);
+        if (firstSample < 0) {
+            return -1;
+        }
+        int samplesPerPacket = getSamplesPerPacket();
+
+        // Mean and sample standard deviation of the filtered distances, matching the
+        // commons-math filter used for whole chunks.
+        double sum = 0;
+        for (int x = 0; x < samplesPerPacket; x++) {
+            sum += getFilteredDistance(data, offset, x, minimumDistanceFilter, maximumDistanceFilter);
+        }
+        double mean = sum / samplesPerPacket;
+        double squaredDeviations = 0;
+        for (int x = 0; x < samplesPerPacket; x++) {
+            double deviation = getFilteredDistance(data, offset, x, minimumDistanceFilter, maximumDistanceFilter) - mean;
+            squaredDeviations += deviation * deviation;
+        }
+        double standardDeviation = Math.sqrt(squaredDeviations / (samplesPerPacket - 1));
+
+        float intensity = (data[offset + 5] * 256) + (data[offset + 4]);
+        int RPM = getRPM(data, offset);
+        boolean readingIsValid = intensity >= intensityThreshold && RPM > rpmThreshold;
+
+        for (int x = 0; x < samplesPerPacket; x++) {
+            float distance = getFilteredDistance(data, offset, x, minimumDistanceFilter, maximumDistanceFilter);
+            if (!readingIsValid || distance > (mean + standardDeviation) || distance < (mean - standardDeviation)) {
+                distance = 0;
+            }
+            frame.setReading(firstSample + x, distance, intensity, RPM, updateTime);
+        }
+        frame.publishPacket(firstSample);
+        return firstSample;
+    }
+
+    /**
+     * Returns a single distance of a packet with the distance filters applied.
+     */
+    private static int getFilteredDistance(byte[] data,
+                                           int offset,
+                                           int x,
+                                           int minimumDistanceFilter,
+                                           int maximumDistanceFilter) {
+        int position = offset + HEADER_SIZE + (x * BYTES_PER_SAMPLE);
+        int distance = (data[position + 1] * 256) + data[position];
+        if (distance > minimumDistanceFilter && distance < maximumDistanceFilter) {
+            return distance;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,261 @@
+package com.lighthouse.Data;
+
+/**
+ * A live revolution of LIDAR data which is updated in place, one packet at a time, as packets are
+ * decoded.  Values are kept in primitive arrays indexed by sample so that publishing a packet never
+ * allocates.  A frame has one sample per degree unless it was sized for a LidarProtocol with a
+ * finer resolution, in which case the angles passed to its methods are sample numbers.
+ */
+public class LidarFrame {
+
+    /**
+     * Number of angles in a single revolution.
+     */
+    public static final int ANGLES_PER_REVOLUTION = 360;
+
+    /**
+     * Cosine and sine of every whole angle, shared by everything which turns a sweep into points.
+     */
+    private static final float[] COSINE_TABLE = new float[ANGLES_PER_REVOLUTION];
+
+    private static final float[] SINE_TABLE = new float[ANGLES_PER_REVOLUTION];
+
+    static {
+        for (int i = 0; i < ANGLES_PER_REVOLUTION; i++) {
+            COSINE_TABLE[i] = (float) Math.cos(Math.toRadians(i));
+            SINE_TABLE[i] = (float) Math.sin(Math.toRadians(i));
+        }
+    }
+
+    /**
+     * Number of samples in a revolution.
+     */
+    private final int sampleCount;
+
+    /**
+     * Distance value for each angle.
+     */
+    private final float[] distances;
+
+    /**
+     * Intensity value for each angle.
+     */
+    private final float[] intensities;
+
+    /**
+     * RPM during the reading for each angle.
+     */
+    private final int[] rpms;
+
+    /**
+     * Time, from System.nanoTime, at which each angle was last updated.
+     */
+    private final long[] updateTimes;
+
+    /**
+     * The first angle of the most recently published packet, or -1 if nothing has been published.
+     */
+    private volatile int latestAngle = -1;
+
+    /**
+     * Number of packets published into the frame.
+     */
+    private volatile long packetCount = 0;
+
+    /**
+     * Number of completed revolutions, counted each time the packet angles wrap around.
+     */
+    private volatile long revolutionCount = 0;
+
+    /**
+     * Constructor for a frame with one sample per degree.
+     */
+    public LidarFrame() {
+        this(ANGLES_PER_REVOLUTION);
+    }
+
+    /**
+     * Constructor.
+     * @param sampleCount Number of samples in a revolution.
+     */
+    public LidarFrame(int sampleCount) {
+        if (sampleCount <= 0) {
+            throw new IllegalArgumentException("Sample count must be positive");
+        }
+        this.sampleCount = sampleCount;
+        distances = new float[sampleCount];
+        intensities = new float[sampleCount];
+        rpms = new int[sampleCount];
+        updateTimes = new long[sampleCount];
+    }
+
+    /**
+     * Checks that a frame has one sample per degree, which is what consumers reading its samples
+     * as angles expect.  LIDAR.getDegreeFrame returns such a frame for every protocol.
+     * @param frame The frame.
+     */
+    public static void requireDegreeFrame(LidarFrame frame) {
+        if (frame.getSampleCount() != ANGLES_PER_REVOLUTION) {
+            throw new IllegalArgumentException("The frame must have one sample per degree");
+        }
+    }
+
+    /**
+     * Returns the cosine of a whole angle from a table.
+     * @param angle The angle in degrees, from 0 to 359.
+     * @return Cosine of the angle.
+     */
+    public static float getCosine(int angle) {
+        return COSINE_TABLE[angle];
+    }
+
+    /**
+     * Returns the sine of a whole angle from a table.
+     * @param angle The angle in degrees, from 0 to 359.
+     * @return Sine of the angle.
+     */
+    public static float getSine(int angle) {
+        return SINE_TABLE[angle];
+    }
+
+    /**
+     * Stores a single reading.
+     * @param angle Angle for the reading.
+     * @param distance Distance value.
+     * @param intensity Intensity value.
+     * @param RPM RPM during the reading.
+     * @param updateTime Time, from System.nanoTime, at which the reading was decoded.
+     */
+    public void setReading(int angle, float distance, float intensity, int RPM, long updateTime) {
+        distances[angle] = distance;
+        intensities[angle] = intensity;
+        rpms[angle] = RPM;
+        updateTimes[angle] = updateTime;
+    }
+
+    /**
+     * Marks a packet as published.  This should be called once the readings of the packet have
+     * been stored so that readers on other threads see the complete packet.
+     * @param baseAngle The first angle of the packet.
+     * @return True if the packet started a new revolution.
+     */
+    public boolean publishPacket(int baseAngle) {
+        boolean wrapped = latestAngle >= 0 && baseAngle <= latestAngle;
+        if (wrapped) {
+            revolutionCount++;
+        }
+        packetCount++;
+        latestAngle = baseAngle;
+        return wrapped;
+    }
+
+    /**
+     * Returns the distance value for an angle.
+     * @param angle The angle.
+     * @return Distance value.
+     */
+    public float getDistance(int angle) {
+        return distances[angle];
+    }
+
+    /**
+     * Returns the intensity value for an angle.
+     * @param angle The angle.
+     * @return Intensity value.
+     */
+    public float getIntensity(int angle) {
+        return intensities[angle];
+    }
+
+    /**
+     * Returns the RPM during the reading for an angle.
+     * @param angle The angle.
+     * @return RPM during the reading.
+     */
+    public int getRPM(int angle) {
+        return rpms[angle];
+    }
+
+    /**
+     * Returns the time, from System.nanoTime, at which an angle was last updated.
+     * @param angle The angle.
+     * @return Update time in nanoseconds.
+     */
+    public long getUpdateTime(int angle) {
+        return updateTimes[angle];
+    }
+
+    /**
+     * Returns the first angle of the most recently published packet.
+     * @return The freshest angle, or -1 if nothing has been published.
+     */
+    public int getLatestAngle() {
+        return latestAngle;
+    }
+
+    /**
+     * Returns the number of packets published into the frame.
+     * @return Packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Returns the number of completed revolutions.
+     * @return Revolution count.
+     */
+    public long getRevolutionCount() {
+        return revolutionCount;
+    }
+
+    /**
+     * Returns the number of samples in a revolution.
+     * @return Sample count.
+     */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Copies a packet of samples into a frame with fewer samples per revolution, such as one with
+     * one sample per degree, and publishes it as a packet of that frame.  Each sample of the target
+     * gets the closest return of the samples which fall within it, so obstacles are never thinned
+     * out.
+     * @param target The frame to copy into.  Its sample count must divide this frame's.
+     * @param firstSample The first sample of the packet.
+     * @param count The number of samples in the packet.
+     * @return The first sample of the target which was updated.  The number updated is count
+     * divided by the ratio of the sample counts, rounded up.
+     */
+    public int downsampleInto(LidarFrame target, int firstSample, int count) {
+        int ratio = sampleCount / target.sampleCount;
+        int firstTarget = firstSample / ratio;
+        int endTarget = (firstSample + count + ratio - 1) / ratio;
+        for (int angle = firstTarget; angle < endTarget; angle++) {
+            int closest = angle * ratio;
+            for (int sample = closest + 1; sample < (angle + 1) * ratio; sample++) {
+                float distance = distances[sample];
+                if (distance > 0 && (distances[closest] <= 0 || distance < distances[closest])) {
+                    closest = sample;
+                }
+            }
+            target.setReading(angle, distances[closest], intensities[closest], rpms[closest], updateTimes[closest]);
+        }
+        target.publishPacket(firstTarget);
+        return firstTarget;
+    }
+
+    /**
+     * Creates a DataPoint array from the current contents of the frame.  This allocates and is
+     * meant for consumers that only need the data once per revolution.
+     * @return DataPoint array containing the frame data.
+     */
+    public DataPoint[] toDataPointArray() {
+        DataPoint[] dataPointArray = new DataPoint[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            dataPointArray[i] = new DataPoint(distances[i], intensities[i], i, rpms[i]);
+        }
+        return dataPointArray;
+    }
+}
@@ -0,0 +1,108 @@
+package com.lighthouse.Data;
+
+/**
+ * The decoded readings of a single packet, copied out of the live frame so they can be handed to
+ * other threads.  Instances are immutable.
+ */
+public class LidarPacket {
+
+    private final int baseAngle;
+
+    private final float[] distances;
+
+    private final float[] intensities;
+
+    private final int RPM;
+
+    private final long receiveTime;
+
+    private final long acquisitionTime;
+
+    /**
+     * Constructor which copies a packet out of a live frame.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     */
+    public LidarPacket(LidarFrame frame, int baseAngle, int angleCount, long receiveTime) {
+        this(frame, baseAngle, angleCount, receiveTime, receiveTime);
+    }
+
+    /**
+     * Constructor which copies a packet out of a live frame.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     * @param acquisitionTime Estimated time, from System.nanoTime, at which the device acquired
+     * the packet.
+     */
+    public LidarPacket(LidarFrame frame, int baseAngle, int angleCount, long receiveTime, long acquisitionTime) {
+        this.baseAngle = baseAngle;
+        this.distances = new float[angleCount];
+        this.intensities = new float[angleCount];
+        for (int i = 0; i < angleCount; i++) {
+            distances[i] = frame.getDistance(baseAngle + i);
+            intensities[i] = frame.getIntensity(baseAngle + i);
+        }
+        this.RPM = frame.getRPM(baseAngle);
+        this.receiveTime = receiveTime;
+        this.acquisitionTime = acquisitionTime;
+    }
+
+    /**
+     * Returns the first angle of the packet.
+     * @return Base angle.
+     */
+    public int getBaseAngle() {
+        return baseAngle;
+    }
+
+    /**
+     * Returns the number of angles in the packet.
+     * @return Angle count.
+     */
+    public int getAngleCount() {
+        return distances.length;
+    }
+
+    /**
+     * Returns the distance of an angle of the packet.
+     * @param index Index of the angle within the packet.
+     * @return Distance value.
+     */
+    public float getDistance(int index) {
+        return distances[index];
+    }
+
+    /**
+     * Returns the intensity of an angle of the packet.
+     * @param index Index of the angle within the packet.
+     * @return Intensity value.
+     */
+    public float getIntensity(int index) {
+        return intensities[index];
+    }
+
+    public int getRPM() {
+        return RPM;
+    }
+
+    /**
+     * Returns the time, from System.nanoTime, at which the packet was received.
+     * @return Receive time in nanoseconds.
+     */
+    public long getReceiveTime() {
+        return receiveTime;
+    }
+
+    /**
+     * Returns the estimated time, from System.nanoTime, at which the device acquired the packet,
+     * corrected with the ClockSynchronizer.
+     * @return Acquisition time in nanoseconds.
+     */
+    public long getAcquisitionTime() {
+        return acquisitionTime;
+    }
+}
@@ -0,0 +1,151 @@
+package com.lighthouse.Data;
+
+/**
+ * Describes the packet format of a LIDAR sensor: how long a packet is, how to recognise the start
+ * of one, how many samples it holds and how many samples make up a revolution.  The reader, frames
+ * and display are sized from it, so other sensors and finer resolutions only need a new protocol.
+ *
+ * A protocol decodes a whole packet per call, so there is a single virtual call per packet and the
+ * loop over its samples runs in the concrete implementation.  Samples are numbered from 0 around
+ * the revolution, so sample i lies at i times getDegreesPerSample() degrees.  With one sample per
+ * degree the sample number is the angle, which is what the rest of the library expects.
+ */
+public abstract class LidarProtocol {
+
+    /**
+     * Returned by getDeviceTime for packets without a timestamp.
+     */
+    public static final long NO_DEVICE_TIME = Long.MIN_VALUE;
+
+    private final int packetSize;
+
+    private final int samplesPerPacket;
+
+    private final int samplesPerRevolution;
+
+    /**
+     * Constructor.
+     * @param packetSize Number of bytes in a packet.
+     * @param samplesPerPacket Number of samples in a packet.
+     * @param samplesPerRevolution Number of samples in a revolution, which must be a whole number
+     * of samples per degree and a whole number of packets.
+     */
+    protected LidarProtocol(int packetSize, int samplesPerPacket, int samplesPerRevolution) {
+        if (packetSize <= 1 || samplesPerPacket <= 0 || samplesPerRevolution <= 0) {
+            throw new IllegalArgumentException("Packet size and sample counts must be positive");
+        }
+        if (samplesPerRevolution % LidarFrame.ANGLES_PER_REVOLUTION != 0 ||
+                samplesPerRevolution % samplesPerPacket != 0) {
+            throw new IllegalArgumentException("A revolution must hold a whole number of samples per degree and of packets");
+        }
+        this.packetSize = packetSize;
+        this.samplesPerPacket = samplesPerPacket;
+        this.samplesPerRevolution = samplesPerRevolution;
+    }
+
+    /**
+     * Returns true if a packet starts at the offset.  At least getPacketSize() bytes must be
+     * available from the offset.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the candidate packet.
+     * @return True if a packet starts at the offset.
+     */
+    public abstract boolean isPacketStart(byte[] data, int offset);
+
+    /**
+     * Returns the first sample of a packet from its header alone, without decoding it, so packets
+     * can be placed in a revolution or skipped cheaply.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the packet.
+     * @return The first sample of the packet, or -1 if the packet is not valid.
+     */
+    public abstract int getFirstSample(byte[] data, int offset);
+
+    /**
+     * Decodes a single packet into a frame with the filters applied and publishes it.  This must
+     * not allocate, since it is called for every packet as soon as it is framed.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the packet.
+     * @param minimumDistanceFilter Minimum distance filter value.
+     * @param maximumDistanceFilter Maximum distance filter value.
+     * @param intensityThreshold Intensity threshold value.
+     * @param rpmThreshold RPM threshold value.
+     * @param frame The frame the samples are written to, with getSamplesPerRevolution() samples.
+     * @param updateTime Time, from System.nanoTime, at which the packet was received.
+     * @return The first sample of the packet, or -1 if the packet is not valid.
+     */
+    public abstract int decodePacketIntoFrame(byte[] data,
+                                              int offset,
+                                              int minimumDistanceFilter,
+                                              int maximumDistanceFilter,
+                                              int intensityThreshold,
+                                              int rpmThreshold,
+                                              LidarFrame frame,
+                                              long updateTime);
+
+    /**
+     * Returns the time at which the device acquired a packet, for sensors which stamp their
+     * packets.  The ClockSynchronizer converts it to local time.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the packet.
+     * @return Device time in microseconds, or NO_DEVICE_TIME if packets are not stamped.
+     */
+    public long getDeviceTime(byte[] data, int offset) {
+        return NO_DEVICE_TIME;
+    }
+
+    /**
+     * Returns the rotation rate reported in a packet, without decoding it.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the packet.
+     * @return RPM of the packet.
+     */
+    public abstract int getRPM(byte[] data, int offset);
+
+    /**
+     * Returns true if the checksum of a packet matches its bytes.  Packets which fail are skipped
+     * like bytes which do not start a packet.  Protocols without a checksum accept every packet.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the packet.
+     * @return True if the packet is intact.
+     */
+    public boolean isChecksumValid(byte[] data, int offset) {
+        return true;
+    }
+
+    /**
+     * Creates a frame with one slot per sample of a revolution.
+     * @return A new frame.
+     */
+    public LidarFrame createFrame() {
+        return new LidarFrame(samplesPerRevolution);
+    }
+
+    public int getPacketSize() {
+        return packetSize;
+    }
+
+    public int getSamplesPerPacket() {
+        return samplesPerPacket;
+    }
+
+    public int getSamplesPerRevolution() {
+        return samplesPerRevolution;
+    }
+
+    /**
+     * Returns the number of samples in each degree.
+     * @return Samples per degree.
+     */
+    public int getSamplesPerDegree() {
+        return samplesPerRevolution / LidarFrame.ANGLES_PER_REVOLUTION;
+    }
+
+    /**
+     * Returns the angle between neighbouring samples.
+     * @return Degrees per sample.
+     */
+    public float getDegreesPerSample() {
+        return (float) LidarFrame.ANGLES_PER_REVOLUTION / samplesPerRevolution;
+    }
+}
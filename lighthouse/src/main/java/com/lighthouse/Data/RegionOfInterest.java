@@ -0,0 +1,89 @@
+package com.lighthouse.Data;
+
+/**
+ * A sector of the revolution which is the only part decoded, going counterclockwise from one angle
+ * to another and wrapping through 0, so 300 to 60 is the forward 120 degrees.  Packets are matched
+ * against the sector by their index byte alone, so packets entirely outside it are skipped without
+ * being decoded, filtered or published.
+ */
+public class RegionOfInterest {
+
+    private final int fromAngle;
+
+    private final int toAngle;
+
+    /**
+     * Constructor.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     */
+    public RegionOfInterest(int fromAngle, int toAngle) {
+        this.fromAngle = normalize(fromAngle);
+        this.toAngle = normalize(toAngle);
+    }
+
+    private static int normalize(int angle) {
+        return ((angle % LidarFrame.ANGLES_PER_REVOLUTION) + LidarFrame.ANGLES_PER_REVOLUTION) %
+                LidarFrame.ANGLES_PER_REVOLUTION;
+    }
+
+    public int getFromAngle() {
+        return fromAngle;
+    }
+
+    public int getToAngle() {
+        return toAngle;
+    }
+
+    /**
+     * Returns the number of angles in the sector.
+     * @return Angle count, from 1 to 360.
+     */
+    public int getAngleCount() {
+        return normalize(toAngle - fromAngle) + 1;
+    }
+
+    /**
+     * Returns true if an angle is within the sector.
+     * @param angle The angle.
+     * @return True if the angle is within the sector.
+     */
+    public boolean containsAngle(int angle) {
+        return normalize(angle - fromAngle) <= normalize(toAngle - fromAngle);
+    }
+
+    /**
+     * Returns true if any angle of a range is within the sector.
+     * @param firstAngle The first angle of the range.
+     * @param angleCount The number of angles in the range.
+     * @return True if the range and the sector overlap.
+     */
+    public boolean overlaps(int firstAngle, int angleCount) {
+        for (int angle = firstAngle; angle < firstAngle + angleCount; angle++) {
+            if (containsAngle(angle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates a table with an entry for each packet of a revolution of a protocol, which is true
+     * if the packet overlaps the sector.  Packets are numbered by their first sample divided by
+     * the samples per packet.
+     * @param protocol The protocol of the packets.
+     * @return Table indexed by packet number.
+     */
+    public boolean[] createPacketMask(LidarProtocol protocol) {
+        int samplesPerPacket = protocol.getSamplesPerPacket();
+        int samplesPerDegree = protocol.getSamplesPerDegree();
+        boolean[] packetMask = new boolean[protocol.getSamplesPerRevolution() / samplesPerPacket];
+        for (int packet = 0; packet < packetMask.length; packet++) {
+            int firstSample = packet * samplesPerPacket;
+            int firstAngle = firstSample / samplesPerDegree;
+            int lastAngle = (firstSample + samplesPerPacket - 1) / samplesPerDegree;
+            packetMask[packet] = overlaps(firstAngle, (lastAngle - firstAngle) + 1);
+        }
+        return packetMask;
+    }
+}
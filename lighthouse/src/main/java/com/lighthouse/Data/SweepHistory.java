@@ -0,0 +1,315 @@
+package com.lighthouse.Data;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed capacity ring of the most recent sweeps, stored compactly.  Every angle is packed into an
+ * int holding a 16 bit distance and an 8 bit intensity, and every sweep has a mean RPM and a
+ * timestamp, so a sweep takes about 1.5 KB instead of the 13 KB of a DataPoint array.  Thirty
+ * seconds of sweeps at 5 Hz fit in 220 KB.
+ *
+ * Sweeps are numbered by a sequence which starts at 0.  A single thread appends sweeps while any
+ * number of threads read them.  Each slot carries the sequence of the sweep it holds, which the
+ * writer clears while it overwrites the slot, and a read checks it before and after copying, so a
+ * reader never returns a sweep that was overwritten under it.
+ */
+public class SweepHistory {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Largest distance which can be stored.
+     */
+    public static final int MAXIMUM_DISTANCE = 0xFFFF;
+
+    private static final int MAXIMUM_INTENSITY = 0xFF;
+
+    private final int capacity;
+
+    /**
+     * One slot more than the capacity, so the slot being overwritten is never one of the sweeps
+     * the history promises to hold.
+     */
+    private final int slotCount;
+
+    private final float intensityScale;
+
+    /**
+     * Packed readings of every slot, one int per angle.
+     */
+    private final AtomicIntegerArray readings;
+
+    private final AtomicLongArray slotSequences;
+
+    private final AtomicLongArray timestamps;
+
+    private final AtomicIntegerArray rpms;
+
+    /**
+     * Sequence the next sweep will get.
+     */
+    private volatile long nextSequence = 0;
+
+    /**
+     * Visits sweeps read from the history.
+     */
+    public interface Visitor {
+
+        /**
+         * Called for each sweep, oldest first.
+         * @param sweep The sweep, which is only valid during the call.
+         * @return False to stop visiting.
+         */
+        boolean visit(HistoricalSweep sweep);
+    }
+
+    /**
+     * Constructor.
+     * @param capacity Number of sweeps kept.
+     * @param intensityScale Intensity represented by each step of the 8 bit stored intensity.
+     * Intensities above 255 steps are stored as 255.
+     */
+    public SweepHistory(int capacity, float intensityScale) {
+        if (capacity <= 0 || intensityScale <= 0) {
+            throw new IllegalArgumentException("Capacity and intensity scale must be positive");
+        }
+        this.capacity = capacity;
+        this.slotCount = capacity + 1;
+        this.intensityScale = intensityScale;
+        readings = new AtomicIntegerArray(slotCount * ANGLES);
+        slotSequences = new AtomicLongArray(slotCount);
+        timestamps = new AtomicLongArray(slotCount);
+        rpms = new AtomicIntegerArray(slotCount);
+        for (int slot = 0; slot < slotCount; slot++) {
+            slotSequences.set(slot, -1);
+        }
+    }
+
+    /**
+     * Appends a sweep, overwriting the oldest one when the history is full.  Must only be called by
+     * one thread.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param timestamp Time of the sweep, such as System.nanoTime() when it was received.
+     * @return Sequence of the sweep.
+     */
+    public long append(DataPoint[] dataPointArray, long timestamp) {
+        long sequence = nextSequence;
+        int slot = beginWrite(sequence);
+        int offset = slot * ANGLES;
+        long rpmSum = 0;
+        int rpmCount = 0;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            if (dataPoint == null) {
+                readings.lazySet(offset + angle, 0);
+                continue;
+            }
+            readings.lazySet(offset + angle, pack(dataPoint.getDistance(), dataPoint.getIntensity()));
+            if (dataPoint.getRPM() > 0) {
+                rpmSum += dataPoint.getRPM();
+                rpmCount++;
+            }
+        }
+        endWrite(sequence, slot, timestamp, rpmCount == 0 ? 0 : (int) (rpmSum / rpmCount));
+        return sequence;
+    }
+
+    /**
+     * Appends the current contents of a live frame, overwriting the oldest sweep when the history
+     * is full.  Must only be called by one thread.
+     * @param frame The frame holding the sweep.
+     * @param timestamp Time of the sweep, such as System.nanoTime() when it was received.
+     * @return Sequence of the sweep.
+     */
+    public long append(LidarFrame frame, long timestamp) {
+        long sequence = nextSequence;
+        int slot = beginWrite(sequence);
+        int offset = slot * ANGLES;
+        long rpmSum = 0;
+        int rpmCount = 0;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            readings.lazySet(offset + angle, pack(frame.getDistance(angle), frame.getIntensity(angle)));
+            int rpm = frame.getRPM(angle);
+            if (rpm > 0) {
+                rpmSum += rpm;
+                rpmCount++;
+            }
+        }
+        endWrite(sequence, slot, timestamp, rpmCount == 0 ? 0 : (int) (rpmSum / rpmCount));
+        return sequence;
+    }
+
+    private int beginWrite(long sequence) {
+        int slot = (int) (sequence % slotCount);
+        slotSequences.set(slot, -1);
+        return slot;
+    }
+
+    private void endWrite(long sequence, int slot, long timestamp, int rpm) {
+        timestamps.lazySet(slot, timestamp);
+        rpms.lazySet(slot, rpm);
+        slotSequences.set(slot, sequence);
+        nextSequence = sequence + 1;
+    }
+
+    private int pack(float distance, float intensity) {
+        int storedDistance = Math.max(0, Math.min(MAXIMUM_DISTANCE, Math.round(distance)));
+        int storedIntensity = Math.max(0, Math.min(MAXIMUM_INTENSITY, Math.round(intensity / intensityScale)));
+        return storedDistance | (storedIntensity << 16);
+    }
+
+    /**
+     * Reads a sweep.
+     * @param sequence Sequence of the sweep.
+     * @param sweep Sweep which receives the values.
+     * @return False if the sweep has not been stored yet or has already been overwritten.
+     */
+    public boolean read(long sequence, HistoricalSweep sweep) {
+        if (sequence < 0) {
+            return false;
+        }
+        int slot = (int) (sequence % slotCount);
+        if (slotSequences.get(slot) != sequence) {
+            return false;
+        }
+        float[] distances = sweep.getDistanceArray();
+        float[] intensities = sweep.getIntensityArray();
+        int offset = slot * ANGLES;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            int packed = readings.get(offset + angle);
+            distances[angle] = packed & MAXIMUM_DISTANCE;
+            intensities[angle] = ((packed >>> 16) & MAXIMUM_INTENSITY) * intensityScale;
+        }
+        long timestamp = timestamps.get(slot);
+        int rpm = rpms.get(slot);
+        if (slotSequences.get(slot) != sequence) {
+            return false;
+        }
+        sweep.set(sequence, timestamp, rpm);
+        return true;
+    }
+
+    /**
+     * Returns the timestamp of a sweep.
+     * @param sequence Sequence of the sweep.
+     * @return Timestamp, or Long.MIN_VALUE if the sweep is not in the history.
+     */
+    public long getTimestamp(long sequence) {
+        if (sequence < 0) {
+            return Long.MIN_VALUE;
+        }
+        int slot = (int) (sequence % slotCount);
+        if (slotSequences.get(slot) != sequence) {
+            return Long.MIN_VALUE;
+        }
+        long timestamp = timestamps.get(slot);
+        return slotSequences.get(slot) == sequence ? timestamp : Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns the sequence of the newest sweep.
+     * @return Sequence, or -1 if the history is empty.
+     */
+    public long getNewestSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Returns the sequence of the oldest sweep still in the history.
+     * @return Sequence, or -1 if the history is empty.
+     */
+    public long getOldestSequence() {
+        long next = nextSequence;
+        if (next == 0) {
+            return -1;
+        }
+        return Math.max(0, next - capacity);
+    }
+
+    /**
+     * Finds the sweep which was current at a time: the newest sweep with a timestamp at or before
+     * it.  Timestamps must be stored in increasing order.
+     * @param time The time.
+     * @return Sequence of the sweep, or -1 if every sweep in the history is newer.
+     */
+    public long findSequenceAt(long time) {
+        long low = getOldestSequence();
+        long high = getNewestSequence();
+        if (low < 0) {
+            return -1;
+        }
+        long found = -1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            long timestamp = getTimestamp(middle);
+            if (timestamp == Long.MIN_VALUE) {
+                // Overwritten while searching, so everything up to it is gone
+                low = middle + 1;
+            } else if (timestamp <= time) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the sweep which was current at a time.
+     * @param time The time.
+     * @param sweep Sweep which receives the values.
+     * @return False if there is no such sweep in the history.
+     */
+    public boolean readAt(long time, HistoricalSweep sweep) {
+        return read(findSequenceAt(time), sweep);
+    }
+
+    /**
+     * Visits the sweeps with timestamps within a range, oldest first.  Sweeps overwritten during
+     * the visit are skipped.
+     * @param fromTime First time of the range.
+     * @param toTime Last time of the range.
+     * @param visitor Visitor called for each sweep.
+     * @param sweep Sweep which is filled for each call.
+     * @return Number of sweeps visited.
+     */
+    public int visit(long fromTime, long toTime, Visitor visitor, HistoricalSweep sweep) {
+        long sequence = findSequenceAt(fromTime);
+        if (sequence < 0 || getTimestamp(sequence) < fromTime) {
+            sequence = sequence < 0 ? getOldestSequence() : sequence + 1;
+        }
+        if (sequence < 0) {
+            return 0;
+        }
+        int visited = 0;
+        long newest = getNewestSequence();
+        for (; sequence <= newest; sequence++) {
+            if (!read(sequence, sweep)) {
+                continue;
+            }
+            if (sweep.getTimestamp() > toTime) {
+                break;
+            }
+            visited++;
+            if (!visitor.visit(sweep)) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of sweeps currently in the history.
+     * @return Sweep count.
+     */
+    public int size() {
+        long oldest = getOldestSequence();
+        return oldest < 0 ? 0 : (int) (getNewestSequence() - oldest + 1);
+    }
+}
@@ -0,0 +1,256 @@
+package com.lighthouse.Data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Answers closest and furthest return queries over any sector of a sweep in O(log n).  Distances
+ * are kept in a minimum and a maximum segment tree with one leaf per angle, and updating a packet
+ * only touches its leaves and their ancestors.
+ *
+ * A single thread, normally the LIDAR reader, updates the index while any number of threads query
+ * it without locking.  Updates are bracketed by a version counter and a query is repeated if an
+ * update ran while it read the trees, so every query sees the index between two updates.
+ *
+ * Each node packs a distance and its angle into a long, with the float bits of the distance in the
+ * upper half.  Distances are never negative, so packed values order the same way as the distances
+ * and the angle of the closest return comes with its distance.  Angles without a return are left
+ * out of both trees.
+ */
+public class SweepIndex {
+
+    /**
+     * Returned by queries when no angle of the sector has a return.
+     */
+    public static final long NO_RETURN = -1L;
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Leaf value of an angle without a return in the minimum tree, which loses every comparison.
+     */
+    private static final long EMPTY_MINIMUM = Long.MAX_VALUE;
+
+    /**
+     * Leaf value of an angle without a return in the maximum tree, which loses every comparison.
+     */
+    private static final long EMPTY_MAXIMUM = Long.MIN_VALUE;
+
+    /**
+     * Bottom up segment trees.  Leaves are stored from index ANGLES and node i combines nodes 2i
+     * and 2i+1.
+     */
+    private final AtomicLongArray minimumTree = new AtomicLongArray(2 * ANGLES);
+
+    private final AtomicLongArray maximumTree = new AtomicLongArray(2 * ANGLES);
+
+    /**
+     * Odd while an update is running.
+     */
+    private volatile int version = 0;
+
+    /**
+     * Constructor.  Starts with no returns.
+     */
+    public SweepIndex() {
+        for (int node = 1; node < 2 * ANGLES; node++) {
+            minimumTree.set(node, EMPTY_MINIMUM);
+            maximumTree.set(node, EMPTY_MAXIMUM);
+        }
+    }
+
+    /**
+     * Packs a distance and its angle into a tree value.
+     */
+    private static long pack(float distance, int angle) {
+        return ((long) Float.floatToIntBits(distance) << 32) | angle;
+    }
+
+    /**
+     * Returns the distance of a value returned by a query.
+     * @param value Packed value.
+     * @return Distance.
+     */
+    public static float getDistance(long value) {
+        return Float.intBitsToFloat((int) (value >>> 32));
+    }
+
+    /**
+     * Returns the angle of a value returned by a query.
+     * @param value Packed value.
+     * @return Angle.
+     */
+    public static int getAngle(long value) {
+        return (int) value;
+    }
+
+    /**
+     * Updates the angles of a packet from a live frame.  Must only be called by one thread.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     */
+    public void update(LidarFrame frame, int baseAngle, int angleCount) {
+        if (baseAngle < 0 || angleCount <= 0) {
+            return;
+        }
+        int lastAngle = Math.min(baseAngle + angleCount, ANGLES) - 1;
+        version++;
+        for (int angle = baseAngle; angle <= lastAngle; angle++) {
+            setLeaf(angle, frame.getDistance(angle));
+        }
+        updateAncestors(baseAngle, lastAngle);
+        version++;
+    }
+
+    /**
+     * Replaces every angle with a whole sweep.  Must only be called by one thread.
+     * @param dataPointArray The sweep, indexed by angle.
+     */
+    public void update(DataPoint[] dataPointArray) {
+        version++;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            setLeaf(angle, dataPoint == null ? 0 : dataPoint.getDistance());
+        }
+        updateAncestors(0, ANGLES - 1);
+        version++;
+    }
+
+    /**
+     * Updates a single angle.  Must only be called by one thread.
+     * @param angle The angle.
+     * @param distance The distance, or 0 if there was no return.
+     */
+    public void update(int angle, float distance) {
+        version++;
+        setLeaf(angle, distance);
+        updateAncestors(angle, angle);
+        version++;
+    }
+
+    private void setLeaf(int angle, float distance) {
+        if (distance > 0) {
+            long value = pack(distance, angle);
+            minimumTree.set(ANGLES + angle, value);
+            maximumTree.set(ANGLES + angle, value);
+        } else {
+            minimumTree.set(ANGLES + angle, EMPTY_MINIMUM);
+            maximumTree.set(ANGLES + angle, EMPTY_MAXIMUM);
+        }
+    }
+
+    /**
+     * Recomputes the ancestors of a run of leaves, one level at a time.
+     */
+    private void updateAncestors(int firstAngle, int lastAngle) {
+        for (int left = (ANGLES + firstAngle) >> 1, right = (ANGLES + lastAngle) >> 1;
+             left >= 1;
+             left >>= 1, right >>= 1) {
+            for (int node = left; node <= right; node++) {
+                minimumTree.set(node, Math.min(minimumTree.get(2 * node), minimumTree.get((2 * node) + 1)));
+                maximumTree.set(node, Math.max(maximumTree.get(2 * node), maximumTree.get((2 * node) + 1)));
+            }
+        }
+    }
+
+    /**
+     * Returns the closest return of a sector, going counterclockwise from one angle to another and
+     * wrapping past 359.  Use getDistance and getAngle to unpack the result.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Packed distance and angle, or NO_RETURN.
+     */
+    public long findMinimum(int fromAngle, int toAngle) {
+        while (true) {
+            int startVersion = version;
+            if ((startVersion & 1) != 0) {
+                continue;
+            }
+            long value;
+            if (fromAngle <= toAngle) {
+                value = query(minimumTree, fromAngle, toAngle, true);
+            } else {
+                value = Math.min(query(minimumTree, fromAngle, ANGLES - 1, true), query(minimumTree, 0, toAngle, true));
+            }
+            if (version == startVersion) {
+                return value == EMPTY_MINIMUM ? NO_RETURN : value;
+            }
+        }
+    }
+
+    /**
+     * Returns the furthest return of a sector, going counterclockwise from one angle to another and
+     * wrapping past 359.  Use getDistance and getAngle to unpack the result.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Packed distance and angle, or NO_RETURN.
+     */
+    public long findMaximum(int fromAngle, int toAngle) {
+        while (true) {
+            int startVersion = version;
+            if ((startVersion & 1) != 0) {
+                continue;
+            }
+            long value;
+            if (fromAngle <= toAngle) {
+                value = query(maximumTree, fromAngle, toAngle, false);
+            } else {
+                value = Math.max(query(maximumTree, fromAngle, ANGLES - 1, false), query(maximumTree, 0, toAngle, false));
+            }
+            if (version == startVersion) {
+                return value == EMPTY_MAXIMUM ? NO_RETURN : value;
+            }
+        }
+    }
+
+    /**
+     * Returns the distance of the closest return of a sector.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Closest distance, or 0 if no angle of the sector has a return.
+     */
+    public float getMinimumDistance(int fromAngle, int toAngle) {
+        long value = findMinimum(fromAngle, toAngle);
+        return value == NO_RETURN ? 0 : getDistance(value);
+    }
+
+    /**
+     * Returns the distance of the furthest return of a sector.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Furthest distance, or 0 if no angle of the sector has a return.
+     */
+    public float getMaximumDistance(int fromAngle, int toAngle) {
+        long value = findMaximum(fromAngle, toAngle);
+        return value == NO_RETURN ? 0 : getDistance(value);
+    }
+
+    /**
+     * Returns the angle of the closest return of a sector.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Closest angle, or -1 if no angle of the sector has a return.
+     */
+    public int getMinimumAngle(int fromAngle, int toAngle) {
+        long value = findMinimum(fromAngle, toAngle);
+        return value == NO_RETURN ? -1 : getAngle(value);
+    }
+
+    /**
+     * Combines the nodes covering the leaves of an angle range, which takes O(log n) reads.
+     */
+    private static long query(AtomicLongArray tree, int fromAngle, int toAngle, boolean minimum) {
+        long value = minimum ? EMPTY_MINIMUM : EMPTY_MAXIMUM;
+        for (int left = ANGLES + fromAngle, right = ANGLES + toAngle + 1; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) != 0) {
+                long node = tree.get(left++);
+                value = minimum ? Math.min(value, node) : Math.max(value, node);
+            }
+            if ((right & 1) != 0) {
+                long node = tree.get(--right);
+                value = minimum ? Math.min(value, node) : Math.max(value, node);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,14 @@
+package com.lighthouse.Health;
+
+/**
+ * Receives periodic health snapshots from a SensorHealthMonitor.  Callbacks run on the monitor's
+ * timer thread, so they keep coming when the LIDAR device sends nothing at all.
+ */
+public interface SensorHealthListener {
+
+    /**
+     * Called at the reporting interval.
+     * @param snapshot Health of the sensor at the time of the call.
+     */
+    void onSensorHealth(SensorHealthSnapshot snapshot);
+}
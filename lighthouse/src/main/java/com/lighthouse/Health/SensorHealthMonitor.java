@@ -0,0 +1,292 @@
+package com.lighthouse.Health;
+
+import com.lighthouse.Data.LidarFrame;
+import com.lighthouse.Data.LidarProtocol;
+
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps streaming health statistics of a LIDAR device in fixed memory, fed by the LIDAR reader as
+ * it frames and decodes packets: link throughput, bytes skipped while framing, checksum failures,
+ * the RPM mean and jitter, packets at or below the RPM threshold, the loss rate of every packet
+ * index and the zero return ratio of every angle.  This is enough to spot a failing motor, a
+ * flaky link or a dirty window from the data, well before the output becomes unusable.
+ *
+ * Packets are expected in index order, so every index skipped between two packets counts as lost.
+ * Gaps longer than a second, such as while the device is stopped, are not counted.  Packets which
+ * the device is asked not to send, with a region of interest, show up as lost.
+ *
+ * The RPM statistics and the per index and per angle ratios are exponential moving averages, so
+ * they follow recent revolutions.  Snapshots can be taken from any thread, and listeners can be
+ * sent one at a regular interval.
+ */
+public class SensorHealthMonitor {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * Packets or revolutions further apart than this are a pause rather than a loss.
+     */
+    private static final long GAP_RESET_TIME = NANOS_PER_SECOND;
+
+    /**
+     * Weight of each packet in the RPM averages, which spans a few revolutions.
+     */
+    private static final double RPM_SMOOTHING = 0.01;
+
+    /**
+     * Weight of each revolution in the per index and per angle ratios, which spans about 50
+     * revolutions.
+     */
+    private static final float RATIO_SMOOTHING = 0.02f;
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private final float[] indexLossRates;
+
+    private final float[] zeroReturnRatios = new float[ANGLES];
+
+    private long byteCount = 0;
+
+    private long packetCount = 0;
+
+    private long lostPacketCount = 0;
+
+    private long lowRpmPacketCount = 0;
+
+    private long skippedByteCount = 0;
+
+    private long checksumFailureCount = 0;
+
+    private double rpmMean = 0;
+
+    private double rpmVariance = 0;
+
+    private boolean rpmSeen = false;
+
+    private int previousPacket = -1;
+
+    private long previousPacketTime = 0;
+
+    private long windowStart = System.nanoTime();
+
+    private long windowBytes = 0;
+
+    private long windowPackets = 0;
+
+    private double bytesPerSecond = 0;
+
+    private double packetsPerSecond = 0;
+
+    private volatile SensorHealthListener[] listeners = new SensorHealthListener[0];
+
+    private Timer reportTimer = null;
+
+    /**
+     * Constructor.
+     * @param protocol Protocol of the device, which sets the number of packet indexes.
+     */
+    public SensorHealthMonitor(LidarProtocol protocol) {
+        indexLossRates = new float[protocol.getSamplesPerRevolution() / protocol.getSamplesPerPacket()];
+    }
+
+    /**
+     * Records bytes read from the link.
+     * @param count Number of bytes.
+     * @param receiveTime Time, from System.nanoTime, at which they were read.
+     */
+    public synchronized void recordBytes(int count, long receiveTime) {
+        byteCount += count;
+        windowBytes += count;
+        long elapsed = receiveTime - windowStart;
+        if (elapsed >= NANOS_PER_SECOND) {
+            bytesPerSecond = (windowBytes * (double) NANOS_PER_SECOND) / elapsed;
+            packetsPerSecond = (windowPackets * (double) NANOS_PER_SECOND) / elapsed;
+            windowStart = receiveTime;
+            windowBytes = 0;
+            windowPackets = 0;
+        }
+    }
+
+    /**
+     * Records bytes skipped while looking for a packet start.
+     * @param count Number of bytes.
+     */
+    public synchronized void recordSkippedBytes(int count) {
+        skippedByteCount += count;
+    }
+
+    /**
+     * Records a packet which failed its checksum.
+     */
+    public synchronized void recordChecksumFailure() {
+        checksumFailureCount++;
+    }
+
+    /**
+     * Records a framed packet from its header, before it is decoded.
+     * @param firstSample The first sample of the packet, as returned by LidarProtocol.getFirstSample.
+     * @param samplesPerPacket Number of samples in each packet.
+     * @param RPM RPM of the packet.
+     * @param rpmThreshold RPM at or below which the packet's readings are zeroed.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     */
+    public synchronized void recordPacket(int firstSample, int samplesPerPacket, int RPM, int rpmThreshold, long receiveTime) {
+        if (firstSample < 0 || firstSample / samplesPerPacket >= indexLossRates.length) {
+            return;
+        }
+        int packet = firstSample / samplesPerPacket;
+        packetCount++;
+        windowPackets++;
+        if (RPM <= rpmThreshold) {
+            lowRpmPacketCount++;
+        }
+
+        if (rpmSeen) {
+            double deviation = RPM - rpmMean;
+            rpmMean += RPM_SMOOTHING * deviation;
+            rpmVariance = (1 - RPM_SMOOTHING) * (rpmVariance + (RPM_SMOOTHING * deviation * deviation));
+        } else {
+            rpmMean = RPM;
+            rpmSeen = true;
+        }
+
+        int packetsPerRevolution = indexLossRates.length;
+        if (previousPacket >= 0 && receiveTime - previousPacketTime < GAP_RESET_TIME) {
+            int missing = ((packet - previousPacket - 1) + packetsPerRevolution) % packetsPerRevolution;
+            for (int i = 1; i <= missing; i++) {
+                int lostPacket = (previousPacket + i) % packetsPerRevolution;
+                indexLossRates[lostPacket] += RATIO_SMOOTHING * (1 - indexLossRates[lostPacket]);
+            }
+            lostPacketCount += missing;
+        }
+        indexLossRates[packet] -= RATIO_SMOOTHING * indexLossRates[packet];
+        previousPacket = packet;
+        previousPacketTime = receiveTime;
+    }
+
+    /**
+     * Records the returns of a packet which was just decoded into a frame with one sample per
+     * degree.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     */
+    public synchronized void recordReturns(LidarFrame frame, int baseAngle, int angleCount) {
+        if (baseAngle < 0) {
+            return;
+        }
+        int lastAngle = Math.min(baseAngle + angleCount, ANGLES) - 1;
+        for (int angle = baseAngle; angle <= lastAngle; angle++) {
+            float zero = frame.getDistance(angle) <= 0 ? 1 : 0;
+            zeroReturnRatios[angle] += RATIO_SMOOTHING * (zero - zeroReturnRatios[angle]);
+        }
+    }
+
+    /**
+     * Copies out the current health of the device.
+     * @return A snapshot.
+     */
+    public synchronized SensorHealthSnapshot getSnapshot() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        double currentBytesPerSecond = bytesPerSecond;
+        double currentPacketsPerSecond = packetsPerSecond;
+        if (elapsed >= NANOS_PER_SECOND) {
+            // Nothing has been read for a while, so the last full second is out of date.
+            currentBytesPerSecond = (windowBytes * (double) NANOS_PER_SECOND) / elapsed;
+            currentPacketsPerSecond = (windowPackets * (double) NANOS_PER_SECOND) / elapsed;
+        }
+        return new SensorHealthSnapshot(now,
+                byteCount,
+                packetCount,
+                lostPacketCount,
+                lowRpmPacketCount,
+                skippedByteCount,
+                checksumFailureCount,
+                currentBytesPerSecond,
+                currentPacketsPerSecond,
+                rpmMean,
+                Math.sqrt(rpmVariance),
+                indexLossRates.clone(),
+                zeroReturnRatios.clone());
+    }
+
+    /**
+     * Clears every statistic.
+     */
+    public synchronized void reset() {
+        byteCount = 0;
+        packetCount = 0;
+        lostPacketCount = 0;
+        lowRpmPacketCount = 0;
+        skippedByteCount = 0;
+        checksumFailureCount = 0;
+        rpmMean = 0;
+        rpmVariance = 0;
+        rpmSeen = false;
+        previousPacket = -1;
+        windowStart = System.nanoTime();
+        windowBytes = 0;
+        windowPackets = 0;
+        bytesPerSecond = 0;
+        packetsPerSecond = 0;
+        Arrays.fill(indexLossRates, 0);
+        Arrays.fill(zeroReturnRatios, 0);
+    }
+
+    public synchronized void addListener(SensorHealthListener listener) {
+        SensorHealthListener[] current = listeners;
+        SensorHealthListener[] updated = new SensorHealthListener[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(SensorHealthListener listener) {
+        SensorHealthListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                SensorHealthListener[] updated = new SensorHealthListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts sending a snapshot to the listeners at a regular interval, replacing any earlier
+     * interval.
+     * @param interval Interval in milliseconds.
+     */
+    public synchronized void startReporting(int interval) {
+        stopReporting();
+        reportTimer = new Timer(true);
+        reportTimer.schedule(new TimerTask() {
+            public void run() {
+                SensorHealthListener[] current = listeners;
+                if (current.length == 0) {
+                    return;
+                }
+                SensorHealthSnapshot snapshot = getSnapshot();
+                for (SensorHealthListener listener : current) {
+                    listener.onSensorHealth(snapshot);
+                }
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Stops the periodic snapshots.
+     */
+    public synchronized void stopReporting() {
+        if (reportTimer != null) {
+            reportTimer.cancel();
+            reportTimer = null;
+        }
+    }
+}
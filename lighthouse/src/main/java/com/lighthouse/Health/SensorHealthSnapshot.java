@@ -0,0 +1,230 @@
+package com.lighthouse.Health;
+
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * The health of a LIDAR device at one moment, copied out of a SensorHealthMonitor so it can be
+ * kept or sent on without changing underneath.  Counts are totals since the monitor was created or
+ * reset.  Rates, ratios and the RPM statistics follow recent data, so they show the current state
+ * of the device rather than its lifetime average.
+ */
+public class SensorHealthSnapshot {
+
+    private final long time;
+
+    private final long byteCount;
+
+    private final long packetCount;
+
+    private final long lostPacketCount;
+
+    private final long lowRpmPacketCount;
+
+    private final long skippedByteCount;
+
+    private final long checksumFailureCount;
+
+    private final double bytesPerSecond;
+
+    private final double packetsPerSecond;
+
+    private final double rpmMean;
+
+    private final double rpmJitter;
+
+    private final float[] indexLossRates;
+
+    private final float[] zeroReturnRatios;
+
+    SensorHealthSnapshot(long time,
+                         long byteCount,
+                         long packetCount,
+                         long lostPacketCount,
+                         long lowRpmPacketCount,
+                         long skippedByteCount,
+                         long checksumFailureCount,
+                         double bytesPerSecond,
+                         double packetsPerSecond,
+                         double rpmMean,
+                         double rpmJitter,
+                         float[] indexLossRates,
+                         float[] zeroReturnRatios) {
+        this.time = time;
+        this.byteCount = byteCount;
+        this.packetCount = packetCount;
+        this.lostPacketCount = lostPacketCount;
+        this.lowRpmPacketCount = lowRpmPacketCount;
+        this.skippedByteCount = skippedByteCount;
+        this.checksumFailureCount = checksumFailureCount;
+        this.bytesPerSecond = bytesPerSecond;
+        this.packetsPerSecond = packetsPerSecond;
+        this.rpmMean = rpmMean;
+        this.rpmJitter = rpmJitter;
+        this.indexLossRates = indexLossRates;
+        this.zeroReturnRatios = zeroReturnRatios;
+    }
+
+    /**
+     * Returns the time the snapshot was taken.
+     * @return Time, from System.nanoTime.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the number of bytes read from the link.
+     * @return Byte count.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns the number of packets framed, including ones later rejected for their RPM.
+     * @return Packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Returns the number of packets missing from the index sequence.
+     * @return Lost packet count.
+     */
+    public long getLostPacketCount() {
+        return lostPacketCount;
+    }
+
+    /**
+     * Returns the number of packets whose RPM was at or below the RPM threshold, whose readings are
+     * all zeroed.
+     * @return Low RPM packet count.
+     */
+    public long getLowRpmPacketCount() {
+        return lowRpmPacketCount;
+    }
+
+    /**
+     * Returns the number of bytes skipped while looking for packet starts, such as corrupt bytes
+     * and sync bytes followed by a packet index out of range.
+     * @return Skipped byte count.
+     */
+    public long getSkippedByteCount() {
+        return skippedByteCount;
+    }
+
+    /**
+     * Returns the number of packets which failed their checksum.  Always 0 for protocols without a
+     * checksum.
+     * @return Checksum failure count.
+     */
+    public long getChecksumFailureCount() {
+        return checksumFailureCount;
+    }
+
+    /**
+     * Returns the fraction of packets lost from the index sequence.
+     * @return Loss rate from 0 to 1.
+     */
+    public double getPacketLossRate() {
+        long expected = packetCount + lostPacketCount;
+        return expected == 0 ? 0 : (double) lostPacketCount / expected;
+    }
+
+    /**
+     * Returns the fraction of framed packets which failed their checksum.
+     * @return Failure rate from 0 to 1.
+     */
+    public double getChecksumFailureRate() {
+        long framed = packetCount + checksumFailureCount;
+        return framed == 0 ? 0 : (double) checksumFailureCount / framed;
+    }
+
+    /**
+     * Returns the link throughput over the last full second.
+     * @return Bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Returns the packet rate over the last full second.
+     * @return Packets per second.
+     */
+    public double getPacketsPerSecond() {
+        return packetsPerSecond;
+    }
+
+    /**
+     * Returns the recent mean RPM reported by the packets.
+     * @return Mean RPM.
+     */
+    public double getRpmMean() {
+        return rpmMean;
+    }
+
+    /**
+     * Returns the recent standard deviation of the RPM, which grows as a motor wears.
+     * @return RPM jitter.
+     */
+    public double getRpmJitter() {
+        return rpmJitter;
+    }
+
+    /**
+     * Returns the number of packet indexes in a revolution.
+     * @return Index count.
+     */
+    public int getIndexCount() {
+        return indexLossRates.length;
+    }
+
+    /**
+     * Returns the recent loss rate of a packet index.
+     * @param packetNumber Number of the packet within the revolution, from 0.
+     * @return Loss rate from 0 to 1.
+     */
+    public float getIndexLossRate(int packetNumber) {
+        return indexLossRates[packetNumber];
+    }
+
+    /**
+     * Returns the highest recent loss rate of any packet index.
+     * @return Loss rate from 0 to 1.
+     */
+    public float getMaximumIndexLossRate() {
+        float maximum = 0;
+        for (float lossRate : indexLossRates) {
+            maximum = Math.max(maximum, lossRate);
+        }
+        return maximum;
+    }
+
+    /**
+     * Returns the recent fraction of readings of an angle without a return.  A sector where this
+     * climbs while the scene is unchanged points at a dirty or blocked window.
+     * @param angle The angle.
+     * @return Ratio from 0 to 1.
+     */
+    public float getZeroReturnRatio(int angle) {
+        return zeroReturnRatios[angle];
+    }
+
+    /**
+     * Returns the mean zero return ratio of a sector, going counterclockwise from one angle to
+     * another and including both.
+     * @param fromAngle First angle of the sector.
+     * @param toAngle Last angle of the sector.
+     * @return Ratio from 0 to 1.
+     */
+    public float getZeroReturnRatio(int fromAngle, int toAngle) {
+        int angleCount = ((toAngle - fromAngle + LidarFrame.ANGLES_PER_REVOLUTION) % LidarFrame.ANGLES_PER_REVOLUTION) + 1;
+        float sum = 0;
+        for (int i = 0; i < angleCount; i++) {
+            sum += zeroReturnRatios[(fromAngle + i) % LidarFrame.ANGLES_PER_REVOLUTION];
+        }
+        return sum / angleCount;
+    }
+}
@@ -6,7 +6,22 @@ import android.util.Log;
 
 
 import com.lighthouse.Data.DataPoint;
-import com.lighthouse.Data.IncomingDataHandler;
+import com.lighthouse.Data.IndexedPacketProtocol;
+import com.lighthouse.Data.LidarFrame;
+import com.lighthouse.Data.LidarPacket;
+import com.lighthouse.Data.LidarProtocol;
+import com.lighthouse.Data.RegionOfInterest;
+import com.lighthouse.Data.SweepHistory;
+import com.lighthouse.Data.SweepIndex;
+import com.lighthouse.Health.SensorHealthMonitor;
+import com.lighthouse.Power.PowerMode;
+import com.lighthouse.Power.ScanPowerManager;
+import com.lighthouse.Safety.ProtectionZoneMonitor;
+import com.lighthouse.Stream.DeltaSubscriber;
+import com.lighthouse.Stream.LidarPublisher;
+import com.lighthouse.Stream.Subscriber;
+import com.lighthouse.Stream.SweepDelta;
+import com.lighthouse.Timing.ClockSynchronizer;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -45,6 +60,23 @@ public class LIDAR extends Bluetooth {
      */
     private final String STOP_COMMAND = "stop";
 
+    /**
+     * The command used to tell the LIDAR device which sector to send, followed by the first and
+     * last angle separated by a comma.
+     */
+    private final String REGION_OF_INTEREST_COMMAND = "roi";
+
+    /**
+     * The command used to set the rotation rate of the LIDAR device, followed by the RPM.
+     */
+    private final String RPM_COMMAND = "rpm";
+
+    /**
+     * Interval, in milliseconds, at which the power manager is updated while the device may be
+     * sleeping.
+     */
+    private static final int POWER_UPDATE_INTERVAL = 100;
+
     /**
      * Configurable value used to filter out distances lower than it.
      */
@@ -108,6 +140,106 @@ public class LIDAR extends Bluetooth {
 
     private long lastReadTime = 0;
 
+    /**
+     * Boolean value to decode and publish every packet as soon as it is framed instead of waiting
+     * for a full chunk of bluetoothBytePacketSize bytes.
+     */
+    private boolean progressiveRendering = false;
+
+    /**
+     * Packet format of the LIDAR device.
+     */
+    private LidarProtocol lidarProtocol = IndexedPacketProtocol.ONE_DEGREE;
+
+    /**
+     * The live revolution which packets are decoded into, with one slot per sample of the protocol.
+     */
+    private LidarFrame liveFrame = lidarProtocol.createFrame();
+
+    /**
+     * The live revolution at one sample per degree, which the sweep index, protection zones,
+     * history and streams work on.  This is the live frame itself unless the protocol has a finer
+     * resolution, in which case each packet is downsampled into it.
+     */
+    private LidarFrame degreeFrame = liveFrame;
+
+    /**
+     * Optional index which is kept up to date with every packet or sweep for sector queries.
+     */
+    private volatile SweepIndex sweepIndex = null;
+
+    /**
+     * Optional protection zones which are evaluated as soon as each packet or sweep is decoded.
+     */
+    private volatile ProtectionZoneMonitor protectionZoneMonitor = null;
+
+    /**
+     * Optional history which every completed sweep is appended to.
+     */
+    private volatile SweepHistory sweepHistory = null;
+
+    /**
+     * Streams of decoded packets and completed sweeps which any number of consumers can subscribe
+     * to.  Packets are only streamed when rendering progressively.
+     */
+    private final LidarPublisher<LidarPacket> packetPublisher = new LidarPublisher<>();
+
+    private final LidarPublisher<DataPoint[]> sweepPublisher = new LidarPublisher<>();
+
+    /**
+     * Estimates the device clock from ping exchanges, which gives every packet and sweep a
+     * corrected acquisition time.
+     */
+    private final ClockSynchronizer clockSynchronizer = new ClockSynchronizer();
+
+    /**
+     * Configurable interval, in milliseconds, between clock pings.  0 turns pinging off.
+     */
+    private int clockSyncInterval = 0;
+
+    /**
+     * Timer sending the clock pings while the device is started.
+     */
+    private Timer clockTimer = null;
+
+    /**
+     * Optional sector which packets must overlap to be decoded.  Everything else is skipped after
+     * reading the packet index.
+     */
+    private volatile RegionOfInterest regionOfInterest = null;
+
+    /**
+     * Boolean value to also ask the LIDAR device to stop sending packets outside the region of
+     * interest, which saves link bandwidth.
+     */
+    private boolean suppressOutsideRegionOfInterest = false;
+
+    /**
+     * Optional power manager which steps the device down while the scene is still.
+     */
+    private volatile ScanPowerManager powerManager = null;
+
+    /**
+     * The mode which the device was last put in.
+     */
+    private PowerMode appliedPowerMode = PowerMode.FULL;
+
+    /**
+     * Timer asking the power manager for its mode while the device is started.
+     */
+    private Timer powerTimer = null;
+
+    /**
+     * True from startLIDAR until stopLIDAR.  Power modes are only applied while it is set, so the
+     * power manager never starts a device which was stopped.
+     */
+    private boolean started = false;
+
+    /**
+     * Optional health statistics which are fed with every byte read and packet framed.
+     */
+    private volatile SensorHealthMonitor sensorHealthMonitor = null;
+
 
     /**
      * Constructor without LidarDisplay view
@@ -136,6 +268,360 @@ public class LIDAR extends Bluetooth {
         this.rpmThreshold = rpmThreshold;
     }
 
+    /**
+     * Returns true if packets are decoded and published as soon as they arrive.
+     * @return
+     */
+    public boolean isProgressiveRendering() {
+        return progressiveRendering;
+    }
+
+    /**
+     * Pass true in order to decode and publish every packet into the live frame as soon as it is
+     * framed, and to invalidate the LidarDisplay on the next animation frame rather than on the
+     * refresh timer.  This must be set before startLIDAR is called.
+     * @param progressiveRendering boolean value for turning on and off progressive rendering.
+     */
+    public void setProgressiveRendering(boolean progressiveRendering) {
+        this.progressiveRendering = progressiveRendering;
+    }
+
+    /**
+     * Returns the live frame which packets are decoded into, at the resolution of the protocol.
+     * Its sample numbers are only angles when the protocol has one sample per degree, so use
+     * getDegreeFrame for the mapping and perception classes.
+     * @return The live frame.
+     */
+    public LidarFrame getLiveFrame() {
+        return liveFrame;
+    }
+
+    /**
+     * Returns the live revolution at one sample per degree, which is what OccupancyGrid,
+     * ScanMatcher, Localizer, FeatureExtractor, SweepClusterer, BackgroundModel,
+     * VectorFieldHistogram and ScanDescriptor expect.  This is the live frame itself when the
+     * protocol has one sample per degree.
+     * @return The frame with one sample per degree.
+     */
+    public LidarFrame getDegreeFrame() {
+        return degreeFrame;
+    }
+
+    /**
+     * Returns the packet format of the LIDAR device.
+     * @return The protocol.
+     */
+    public LidarProtocol getLidarProtocol() {
+        return lidarProtocol;
+    }
+
+    /**
+     * Sets the packet format of the LIDAR device, such as IndexedPacketProtocol.HALF_DEGREE for
+     * the half degree sensor.  The live frame, LidarDisplay and log and file outputs are sized
+     * from it.  The sweep index, protection zones, history and packet and sweep streams keep one
+     * reading per degree, taking the closest return within each degree.  This must be set before
+     * startLIDAR is called.
+     * @param lidarProtocol The protocol.
+     */
+    public void setLidarProtocol(LidarProtocol lidarProtocol) {
+        if (lidarProtocol == null) {
+            throw new NullPointerException("lidarProtocol");
+        }
+        this.lidarProtocol = lidarProtocol;
+        liveFrame = lidarProtocol.createFrame();
+        degreeFrame = lidarProtocol.getSamplesPerDegree() == 1 ? liveFrame : new LidarFrame();
+        if (bluetoothBytePacketSize % lidarProtocol.getPacketSize() != 0) {
+            // Fall back to a revolution's worth of packets.
+            bluetoothBytePacketSize = lidarProtocol.getPacketSize() *
+                    (lidarProtocol.getSamplesPerRevolution() / lidarProtocol.getSamplesPerPacket());
+        }
+        if (lidarDisplay != null) {
+            lidarDisplay.setSamplesPerRevolution(lidarProtocol.getSamplesPerRevolution());
+        }
+    }
+
+    /**
+     * Returns the sweep index kept up to date by the reader, or null if there is none.
+     * @return The sweep index.
+     */
+    public SweepIndex getSweepIndex() {
+        return sweepIndex;
+    }
+
+    /**
+     * Sets a sweep index which the reader updates with every packet when rendering progressively,
+     * or with every sweep otherwise.  Any thread can then query it for the closest return in a
+     * sector.  Pass null to stop updating it.
+     * @param sweepIndex The sweep index.
+     */
+    public void setSweepIndex(SweepIndex sweepIndex) {
+        this.sweepIndex = sweepIndex;
+    }
+
+    /**
+     * Returns the protection zone monitor evaluated by the reader, or null if there is none.
+     * @return The protection zone monitor.
+     */
+    public ProtectionZoneMonitor getProtectionZoneMonitor() {
+        return protectionZoneMonitor;
+    }
+
+    /**
+     * Sets a protection zone monitor which the reader evaluates before doing anything else with
+     * each packet when rendering progressively, or with each sweep otherwise.  Its listeners are
+     * called on the reader thread.  Pass null to stop evaluating it.
+     * @param protectionZoneMonitor The protection zone monitor.
+     */
+    public void setProtectionZoneMonitor(ProtectionZoneMonitor protectionZoneMonitor) {
+        this.protectionZoneMonitor = protectionZoneMonitor;
+    }
+
+    /**
+     * Returns the sweep history kept by the reader, or null if there is none.
+     * @return The sweep history.
+     */
+    public SweepHistory getSweepHistory() {
+        return sweepHistory;
+    }
+
+    /**
+     * Sets a sweep history which the reader appends every completed sweep to, timestamped with
+     * System.nanoTime() when it was received.  Any thread can read it while the reader appends.
+     * Pass null to stop appending.
+     * @param sweepHistory The sweep history.
+     */
+    public void setSweepHistory(SweepHistory sweepHistory) {
+        this.sweepHistory = sweepHistory;
+    }
+
+    /**
+     * Returns the stream of decoded packets.  Packets are only published when rendering
+     * progressively, as soon as each one is decoded.
+     * @return The packet publisher.
+     */
+    public LidarPublisher<LidarPacket> getPacketPublisher() {
+        return packetPublisher;
+    }
+
+    /**
+     * Returns the stream of completed sweeps.  Each sweep is a new DataPoint array shared by every
+     * subscriber, so subscribers must not modify it.
+     * The stream times delivery to each subscriber from the acquisition time of the last packet of
+     * the sweep, see LidarPublisher.getDeliveryLatency.
+     * @return The sweep publisher.
+     */
+    public LidarPublisher<DataPoint[]> getSweepPublisher() {
+        return sweepPublisher;
+    }
+
+    /**
+     * Subscribes to the sweep stream in delta mode, where only the angles which changed since the
+     * last delta sent to the subscriber are delivered, with a full keyframe at an interval.
+     * @param subscriber The subscriber.
+     * @param distanceTolerance Largest distance change which is not sent.
+     * @param intensityTolerance Largest intensity change which is not sent.
+     * @param keyframeInterval Number of sweeps between keyframes, or 0 for only the first one.
+     */
+    public DeltaSubscriber subscribeToSweepDeltas(Subscriber<? super SweepDelta> subscriber,
+                                                  float distanceTolerance,
+                                                  float intensityTolerance,
+                                                  int keyframeInterval) {
+        DeltaSubscriber deltaSubscriber =
+                new DeltaSubscriber(subscriber, distanceTolerance, intensityTolerance, keyframeInterval);
+        sweepPublisher.subscribe(deltaSubscriber);
+        return deltaSubscriber;
+    }
+
+    /**
+     * Returns the clock synchronizer which corrects acquisition times.
+     * @return The clock synchronizer.
+     */
+    public ClockSynchronizer getClockSynchronizer() {
+        return clockSynchronizer;
+    }
+
+    public int getClockSyncInterval() {
+        return clockSyncInterval;
+    }
+
+    /**
+     * Sets the interval at which the device is pinged to keep the clock estimate up to date.  The
+     * device must answer pings with ClockSynchronizer reply frames.  Until an exchange completes,
+     * acquisition times are the times packets were received.  This must be set before startLIDAR
+     * is called.
+     * @param clockSyncInterval Interval in milliseconds, or 0 to not ping.
+     */
+    public void setClockSyncInterval(int clockSyncInterval) {
+        this.clockSyncInterval = Math.max(0, clockSyncInterval);
+    }
+
+    public RegionOfInterest getRegionOfInterest() {
+        return regionOfInterest;
+    }
+
+    /**
+     * Sets the sector which is decoded.  Packets entirely outside it are skipped, and its readings
+     * are cleared, so the display, outputs, streams and analytics only see the sector.  The
+     * device is told as well when suppressOutsideRegionOfInterest is set and it is connected.
+     * @param regionOfInterest The sector, or null to decode the whole revolution.
+     */
+    public void setRegionOfInterest(RegionOfInterest regionOfInterest) {
+        this.regionOfInterest = regionOfInterest;
+        if (suppressOutsideRegionOfInterest && getOutStream() != null) {
+            sendRegionOfInterest();
+        }
+    }
+
+    public boolean isSuppressOutsideRegionOfInterest() {
+        return suppressOutsideRegionOfInterest;
+    }
+
+    /**
+     * Sets whether the LIDAR device is asked to only send packets of the region of interest.  The
+     * device firmware must support the command, otherwise it keeps sending everything and the
+     * packets are skipped on the phone instead.
+     * @param suppressOutsideRegionOfInterest True to send the region of interest to the device.
+     */
+    public void setSuppressOutsideRegionOfInterest(boolean suppressOutsideRegionOfInterest) {
+        this.suppressOutsideRegionOfInterest = suppressOutsideRegionOfInterest;
+    }
+
+    /**
+     * Sends the region of interest to the device, or the whole revolution if none is set.
+     */
+    public synchronized void sendRegionOfInterest() {
+        RegionOfInterest region = regionOfInterest;
+        String message = region == null ?
+                REGION_OF_INTEREST_COMMAND + "0," + (LidarFrame.ANGLES_PER_REVOLUTION - 1) :
+                REGION_OF_INTEREST_COMMAND + region.getFromAngle() + "," + region.getToAngle();
+        try {
+            getOutStream().write(message.getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public SensorHealthMonitor getSensorHealthMonitor() {
+        return sensorHealthMonitor;
+    }
+
+    /**
+     * Sets the health statistics which the reader feeds.  They should be created for the same
+     * protocol as the LIDAR.
+     * @param sensorHealthMonitor The health statistics, or null to not keep any.
+     */
+    public void setSensorHealthMonitor(SensorHealthMonitor sensorHealthMonitor) {
+        this.sensorHealthMonitor = sensorHealthMonitor;
+    }
+
+    public ScanPowerManager getPowerManager() {
+        return powerManager;
+    }
+
+    /**
+     * Sets the power manager which steps the device down while the scene is still, and back to
+     * full rate as soon as a packet shows motion.  This must be set before startLIDAR is called.
+     * @param powerManager The power manager, or null to always run at full rate.
+     */
+    public void setPowerManager(ScanPowerManager powerManager) {
+        this.powerManager = powerManager;
+    }
+
+    /**
+     * Marks the device as started and, with a power manager, starts asking it for its mode at a
+     * regular interval, replacing any earlier timer.
+     */
+    private synchronized void startPowerUpdates(final ScanPowerManager manager) {
+        stopPowerUpdates();
+        started = true;
+        if (manager == null) {
+            return;
+        }
+        appliedPowerMode = PowerMode.FULL;
+        manager.wake();
+        powerTimer = new Timer(true);
+        powerTimer.schedule(new TimerTask() {
+            public void run() {
+                applyPowerMode(manager, manager.update(System.nanoTime()));
+            }
+        }, POWER_UPDATE_INTERVAL, POWER_UPDATE_INTERVAL);
+    }
+
+    /**
+     * Marks the device as stopped and stops asking the power manager for its mode.
+     */
+    private synchronized void stopPowerUpdates() {
+        started = false;
+        if (powerTimer != null) {
+            powerTimer.cancel();
+            powerTimer = null;
+        }
+    }
+
+    /**
+     * Sends the commands for a power mode if the device is not already in it.  SLEEPING stops
+     * the device, and every other mode starts it again if it was sleeping and sets its rate.
+     * Nothing is sent while the device is stopped.
+     */
+    private synchronized void applyPowerMode(ScanPowerManager manager, PowerMode mode) {
+        if (!started || mode == appliedPowerMode) {
+            return;
+        }
+        PowerMode previousMode = appliedPowerMode;
+        appliedPowerMode = mode;
+        try {
+            if (mode == PowerMode.SLEEPING) {
+                getOutStream().write(STOP_COMMAND.getBytes());
+                return;
+            }
+            if (previousMode == PowerMode.SLEEPING) {
+                getOutStream().write(getStartMessage().getBytes());
+            }
+            int rpm = mode == PowerMode.REDUCED ? manager.getReducedRpm() : manager.getFullRpm();
+            if (rpm > 0) {
+                getOutStream().write((RPM_COMMAND + rpm).getBytes());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts sending clock pings at the configured interval, replacing any earlier timer.
+     */
+    private synchronized void startClockPings() {
+        stopClockPings();
+        if (clockSyncInterval > 0) {
+            clockTimer = new Timer(true);
+            clockTimer.schedule(new TimerTask() {
+                public void run() {
+                    sendClockPing();
+                }
+            }, 0, clockSyncInterval);
+        }
+    }
+
+    /**
+     * Stops the clock pings.
+     */
+    private synchronized void stopClockPings() {
+        if (clockTimer != null) {
+            clockTimer.cancel();
+            clockTimer = null;
+        }
+    }
+
+    /**
+     * Sends a single clock ping to the device.
+     */
+    public synchronized void sendClockPing() {
+        try {
+            getOutStream().write(clockSynchronizer.createPing());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Returns true if the LIDAR data is set to be output to a file.
      * @return
@@ -291,14 +777,15 @@ public class LIDAR extends Bluetooth {
 
     /**
      * Sets the size, in bytes, from which each chunk of data will be sent from the LIDAR to the
-     * phone. Returns true if successful.  False if the value passed is not a factor of 42.
+     * phone. Returns true if successful.  False if the value passed is not a multiple of the packet
+     * size of the protocol, 42 bytes for the standard sensor.
      * @param bluetoothBytePacketSize The size, in bytes, of each chunk of data sent from the LIDAR.
      * @return Success.
      */
     public boolean setBluetoothBytePacketSize(int bluetoothBytePacketSize) {
-        // Check to make sure the bluetoothBytePacketSize is in increments of 42
+        // Check to make sure the bluetoothBytePacketSize is in increments of the packet size
         // since that is the byte stream size of each array of data from the LIDAR device.
-        if (bluetoothBytePacketSize % 42 == 0) {
+        if (bluetoothBytePacketSize > 0 && bluetoothBytePacketSize % lidarProtocol.getPacketSize() == 0) {
             LIDAR.bluetoothBytePacketSize = bluetoothBytePacketSize;
             return true;
         }
@@ -310,6 +797,8 @@ public class LIDAR extends Bluetooth {
      * sending data.
      */
     public void stopLIDAR() {
+        stopPowerUpdates();
+        stopClockPings();
         final String STOP_MESSAGE = STOP_COMMAND;
         byte[] msgBuffer = STOP_MESSAGE.getBytes();
         try {
@@ -327,7 +816,7 @@ public class LIDAR extends Bluetooth {
         // Set the package size to the configured value in bluetoothBytePacketSize.
         myByteArray = new byte[bluetoothBytePacketSize];
 
-        final String START_MESSAGE = START_COMMAND + bluetoothBytePacketSize;
+        final String START_MESSAGE = getStartMessage();
         byte[] msgBuffer = START_MESSAGE.getBytes();
         try {
             getOutStream().write(msgBuffer);
@@ -335,9 +824,13 @@ public class LIDAR extends Bluetooth {
             e.printStackTrace();
         }
 
+        if (suppressOutsideRegionOfInterest) {
+            sendRegionOfInterest();
+        }
+
         new Thread(new Task()).start();
 
-        if (lidarDisplay != null) {
+        if (lidarDisplay != null && !progressiveRendering) {
             Timer timerObj = new Timer();
             TimerTask timerTaskObj = new TimerTask() {
                 public void run() {
@@ -352,6 +845,19 @@ public class LIDAR extends Bluetooth {
             timerObj.schedule(timerTaskObj, 0, lidarViewRefreshRate);
         }
 
+        startPowerUpdates(powerManager);
+
+        startClockPings();
+
+    }
+
+    /**
+     * Returns the command which starts the device with the configured chunk size.
+     */
+    private String getStartMessage() {
+        // When rendering progressively the device is asked to send every packet on its own.
+        int chunkSize = progressiveRendering ? lidarProtocol.getPacketSize() : bluetoothBytePacketSize;
+        return START_COMMAND + chunkSize;
     }
 
     /**
@@ -377,6 +883,14 @@ public class LIDAR extends Bluetooth {
      */
     private class Task implements Runnable {
 
+        /**
+         * The region of interest which the frames were last cleared for, and which packets of it
+         * are decoded, indexed by packet number.  A null mask decodes every packet.
+         */
+        private RegionOfInterest appliedRegion = null;
+
+        private boolean[] packetMask = null;
+
         @RequiresApi(api = Build.VERSION_CODES.O)
         @Override
         public void run() {
@@ -384,6 +898,15 @@ public class LIDAR extends Bluetooth {
             byte[] buffer;
             DataPoint[] dataPointArray;
 
+            if (progressiveRendering) {
+                try {
+                    readPacketsProgressively();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+
             // Continually loop and check for messages from the pi.
             while (true) {
                 if (lastReadTime == 0 || (System.currentTimeMillis() - lastReadTime) > pollingInterval) {
@@ -397,16 +920,36 @@ public class LIDAR extends Bluetooth {
                             Log.i("lighthouse", "read: " + bytes + " of data.");
                             buffer = new byte[bytes];
                             getInStream().read(buffer);
+                            long receiveTime = System.nanoTime();
+                            SensorHealthMonitor health = sensorHealthMonitor;
+                            if (health != null) {
+                                health.recordBytes(bytes, receiveTime);
+                            }
                             System.arraycopy(buffer, 0, myByteArray, 0, bluetoothBytePacketSize);
-                            dataPointArray = IncomingDataHandler.getDataPointArrayFromPiData(myByteArray,
-                                    minimumDistanceFilter,
-                                    maximumDistanceFilter,
-                                    intensityThreshold,
-                                    rpmThreshold);
+                            long acquisitionTime = decodeChunk(myByteArray, receiveTime);
+                            dataPointArray = liveFrame.toDataPointArray();
+                            DataPoint[] degreeArray = degreeFrame == liveFrame ?
+                                    dataPointArray : degreeFrame.toDataPointArray();
                             changed = true;
 
+                            ProtectionZoneMonitor monitor = protectionZoneMonitor;
+                            if (monitor != null) {
+                                monitor.evaluate(degreeArray, receiveTime);
+                            }
+                            SweepIndex index = sweepIndex;
+                            if (index != null) {
+                                index.update(degreeArray);
+                            }
+                            SweepHistory history = sweepHistory;
+                            if (history != null) {
+                                history.append(degreeArray, receiveTime);
+                            }
+                            if (sweepPublisher.hasSubscribers()) {
+                                sweepPublisher.publish(degreeArray, acquisitionTime);
+                            }
                             if (lidarDisplay != null) {
                                 lidarDisplay.updateGraphWithDataPoints(dataPointArray);
+                                lidarDisplay.markAcquisitionTime(acquisitionTime);
                             }
                             if (outputLIDARDataToLog) {
                                 new Thread(new WriteLidarDataToLog(dataPointArray)).start();
@@ -422,6 +965,309 @@ public class LIDAR extends Bluetooth {
                 }
             }
         }
+
+        /**
+         * Decodes every packet of a chunk into the live frame, and into the degree frame when the
+         * protocol has a finer resolution, and evaluates each packet with the power manager.  Clock
+         * replies are handed to the clock synchronizer and other bytes which do not start a packet
+         * are skipped.
+         * @param chunk The chunk read from the inputstream.
+         * @param receiveTime Time, from System.nanoTime, at which the chunk was received.
+         * @return The acquisition time of the last packet.
+         */
+        private long decodeChunk(byte[] chunk, long receiveTime) {
+            LidarProtocol protocol = lidarProtocol;
+            int packetSize = protocol.getPacketSize();
+            int anglesPerPacket = Math.max(1, protocol.getSamplesPerPacket() / protocol.getSamplesPerDegree());
+            SensorHealthMonitor health = sensorHealthMonitor;
+            ScanPowerManager manager = powerManager;
+            long deviceTime = LidarProtocol.NO_DEVICE_TIME;
+            int skippedBytes = 0;
+            int offset = 0;
+            while (chunk.length - offset >= packetSize) {
+                if (isClockReply(chunk, offset, chunk.length, receiveTime)) {
+                    offset += ClockSynchronizer.REPLY_SIZE;
+                    continue;
+                }
+                if (!protocol.isPacketStart(chunk, offset)) {
+                    offset++;
+                    skippedBytes++;
+                    continue;
+                }
+                if (!isPacketIntact(protocol, health, chunk, offset, receiveTime)) {
+                    offset++;
+                    continue;
+                }
+                if (isOutsideRegion(protocol, chunk, offset, receiveTime)) {
+                    offset += packetSize;
+                    continue;
+                }
+                int firstSample = protocol.decodePacketIntoFrame(chunk,
+                        offset,
+                        minimumDistanceFilter,
+                        maximumDistanceFilter,
+                        intensityThreshold,
+                        rpmThreshold,
+                        liveFrame,
+                        receiveTime);
+                if (firstSample >= 0) {
+                    int baseAngle = degreeFrame == liveFrame ?
+                            firstSample : liveFrame.downsampleInto(degreeFrame, firstSample, protocol.getSamplesPerPacket());
+                    if (manager != null) {
+                        // Evaluated per packet, so the revolution ends when the index wraps
+                        // rather than with every chunk.
+                        applyPowerMode(manager, manager.evaluate(degreeFrame, baseAngle, anglesPerPacket, receiveTime));
+                    }
+                    if (health != null) {
+                        health.recordReturns(degreeFrame, baseAngle, anglesPerPacket);
+                    }
+                }
+                deviceTime = protocol.getDeviceTime(chunk, offset);
+                offset += packetSize;
+            }
+            if (health != null && skippedBytes > 0) {
+                health.recordSkippedBytes(skippedBytes);
+            }
+            return clockSynchronizer.getAcquisitionTime(deviceTime, receiveTime);
+        }
+
+        /**
+         * Checks the checksum of a framed packet, and records the packet with the health
+         * statistics.
+         * @return False if the checksum failed and the packet must be skipped.
+         */
+        private boolean isPacketIntact(LidarProtocol protocol,
+                                       SensorHealthMonitor health,
+                                       byte[] data,
+                                       int offset,
+                                       long receiveTime) {
+            if (!protocol.isChecksumValid(data, offset)) {
+                if (health != null) {
+                    health.recordChecksumFailure();
+                }
+                return false;
+            }
+            if (health != null) {
+                health.recordPacket(protocol.getFirstSample(data, offset),
+                        protocol.getSamplesPerPacket(),
+                        protocol.getRPM(data, offset),
+                        rpmThreshold,
+                        receiveTime);
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if the packet at the offset is entirely outside the region of interest,
+         * from its index alone.  When the region has changed the frames are cleared outside it
+         * first.
+         */
+        private boolean isOutsideRegion(LidarProtocol protocol, byte[] data, int offset, long receiveTime) {
+            RegionOfInterest region = regionOfInterest;
+            if (region != appliedRegion) {
+                applyRegion(region, protocol, receiveTime);
+            }
+            if (packetMask == null) {
+                return false;
+            }
+            int firstSample = protocol.getFirstSample(data, offset);
+            return firstSample >= 0 && !packetMask[firstSample / protocol.getSamplesPerPacket()];
+        }
+
+        /**
+         * Builds the packet mask for a region of interest and clears the readings outside it, so
+         * nothing outside the region is left over from before it was set.
+         */
+        private void applyRegion(RegionOfInterest region, LidarProtocol protocol, long receiveTime) {
+            appliedRegion = region;
+            if (region == null) {
+                packetMask = null;
+                return;
+            }
+            packetMask = region.createPacketMask(protocol);
+            int samplesPerDegree = protocol.getSamplesPerDegree();
+            for (int sample = 0; sample < liveFrame.getSampleCount(); sample++) {
+                if (!region.containsAngle(sample / samplesPerDegree)) {
+                    liveFrame.setReading(sample, 0, 0, 0, receiveTime);
+                }
+            }
+            if (degreeFrame != liveFrame) {
+                for (int angle = 0; angle < LidarFrame.ANGLES_PER_REVOLUTION; angle++) {
+                    if (!region.containsAngle(angle)) {
+                        degreeFrame.setReading(angle, 0, 0, 0, receiveTime);
+                    }
+                }
+            }
+            SweepIndex index = sweepIndex;
+            if (index != null) {
+                index.update(degreeFrame, 0, LidarFrame.ANGLES_PER_REVOLUTION);
+            }
+            if (lidarDisplay != null && progressiveRendering) {
+                lidarDisplay.updateGraphWithFrame(liveFrame, 0, liveFrame.getSampleCount());
+            }
+        }
+
+        /**
+         * Hands a clock reply at the offset to the clock synchronizer.
+         * @return True if a complete reply was found.
+         */
+        private boolean isClockReply(byte[] data, int offset, int length, long receiveTime) {
+            return length - offset >= ClockSynchronizer.REPLY_SIZE &&
+                    ClockSynchronizer.isReplyStart(data, offset) &&
+                    clockSynchronizer.handleReply(data, offset, receiveTime);
+        }
+
+        /**
+         * Reads whatever bytes are available, frames them into packets and publishes each packet
+         * into the live frame straight away.  Bytes of a partial packet are kept for the next read.
+         * @throws IOException If reading from the inputstream fails.
+         */
+        private void readPacketsProgressively() throws IOException {
+            final LidarProtocol protocol = lidarProtocol;
+            final int packetSize = protocol.getPacketSize();
+            final int samplesPerPacket = protocol.getSamplesPerPacket();
+            final int anglesPerPacket = Math.max(1, samplesPerPacket / protocol.getSamplesPerDegree());
+            byte[] streamBuffer = new byte[packetSize * 64];
+            int length = 0;
+            long previousAcquisitionTime = 0;
+
+            while (true) {
+                // Blocks until the pi sends more data, so nothing waits on the polling interval.
+                int bytes = getInStream().read(streamBuffer, length, streamBuffer.length - length);
+                if (bytes < 0) {
+                    break;
+                }
+                lastReadTime = System.currentTimeMillis();
+                long receiveTime = System.nanoTime();
+                length += bytes;
+                SensorHealthMonitor health = sensorHealthMonitor;
+                if (health != null) {
+                    health.recordBytes(bytes, receiveTime);
+                }
+
+                int skippedBytes = 0;
+                int offset = 0;
+                while (length - offset >= packetSize) {
+                    if (isClockReply(streamBuffer, offset, length, receiveTime)) {
+                        offset += ClockSynchronizer.REPLY_SIZE;
+                        continue;
+                    }
+                    // Skip bytes until we are lined up with the start of a packet.
+                    if (!protocol.isPacketStart(streamBuffer, offset)) {
+                        offset++;
+                        skippedBytes++;
+                        continue;
+                    }
+                    if (!isPacketIntact(protocol, health, streamBuffer, offset, receiveTime)) {
+                        offset++;
+                        continue;
+                    }
+                    if (isOutsideRegion(protocol, streamBuffer, offset, receiveTime)) {
+                        offset += packetSize;
+                        continue;
+                    }
+                    // A packet which wraps around starts the next revolution, so the completed one
+                    // is published before the packet overwrites its first angles.
+                    int latestSample = liveFrame.getLatestAngle();
+                    int nextSample = protocol.getFirstSample(streamBuffer, offset);
+                    if (latestSample >= 0 && nextSample >= 0 && nextSample <= latestSample) {
+                        publishRevolution(receiveTime, previousAcquisitionTime);
+                    }
+                    int firstSample = protocol.decodePacketIntoFrame(streamBuffer,
+                            offset,
+                            minimumDistanceFilter,
+                            maximumDistanceFilter,
+                            intensityThreshold,
+                            rpmThreshold,
+                            liveFrame,
+                            receiveTime);
+                    long acquisitionTime = clockSynchronizer.getAcquisitionTime(
+                            protocol.getDeviceTime(streamBuffer, offset), receiveTime);
+                    offset += packetSize;
+                    if (firstSample < 0) {
+                        continue;
+                    }
+                    int baseAngle = degreeFrame == liveFrame ?
+                            firstSample : liveFrame.downsampleInto(degreeFrame, firstSample, samplesPerPacket);
+
+                    ProtectionZoneMonitor monitor = protectionZoneMonitor;
+                    if (monitor != null) {
+                        monitor.evaluate(degreeFrame, baseAngle, anglesPerPacket, receiveTime);
+                    }
+                    ScanPowerManager manager = powerManager;
+                    if (manager != null) {
+                        applyPowerMode(manager, manager.evaluate(degreeFrame, baseAngle, anglesPerPacket, receiveTime));
+                    }
+                    if (health != null) {
+                        health.recordReturns(degreeFrame, baseAngle, anglesPerPacket);
+                    }
+                    SweepIndex index = sweepIndex;
+                    if (index != null) {
+                        index.update(degreeFrame, baseAngle, anglesPerPacket);
+                    }
+                    if (packetPublisher.hasSubscribers()) {
+                        packetPublisher.publish(new LidarPacket(degreeFrame,
+                                baseAngle,
+                                anglesPerPacket,
+                                receiveTime,
+                                acquisitionTime), acquisitionTime);
+                    }
+                    if (lidarDisplay != null) {
+                        lidarDisplay.updateGraphWithFrame(liveFrame, firstSample, samplesPerPacket);
+                        lidarDisplay.markAcquisitionTime(acquisitionTime);
+                        lidarDisplay.postInvalidateOnAnimation();
+                    }
+                    previousAcquisitionTime = acquisitionTime;
+                }
+                if (health != null && skippedBytes > 0) {
+                    health.recordSkippedBytes(skippedBytes);
+                }
+                System.arraycopy(streamBuffer, offset, streamBuffer, 0, length - offset);
+                length -= offset;
+            }
+        }
+
+        /**
+         * Appends a completed revolution to the sweep history and hands it to the sweep
+         * subscribers and the log and file outputs, which work on whole DataPoint arrays.
+         * @param receiveTime Time, from System.nanoTime, at which the revolution completed.
+         * @param acquisitionTime Acquisition time of the last packet of the revolution.
+         */
+        private void publishRevolution(long receiveTime, long acquisitionTime) {
+            SweepHistory history = sweepHistory;
+            if (history != null) {
+                history.append(degreeFrame, receiveTime);
+            }
+            if (sweepPublisher.hasSubscribers()) {
+                sweepPublisher.publish(degreeFrame.toDataPointArray(), acquisitionTime);
+            }
+            if (!outputLIDARDataToLog && !writeLidarDataToFile) {
+                return;
+            }
+            DataPoint[] dataPointArray = liveFrame.toDataPointArray();
+            if (outputLIDARDataToLog) {
+                new Thread(new WriteLidarDataToLog(dataPointArray)).start();
+            }
+            if (writeLidarDataToFile) {
+                new Thread(new WriteLidarDataToFile(dataPointArray)).start();
+            }
+        }
+    }
+
+    /**
+     * Returns the angle of a sample in degrees, as written to the log and file outputs: a whole
+     * number of degrees, or with a fraction for the samples between whole degrees of finer
+     * protocols, as CaptureRenderer.readCsvCapture reads back.
+     * @param sample The sample number.
+     * @param samplesPerRevolution Number of samples in the revolution.
+     * @return The angle.
+     */
+    private static String formatSampleAngle(int sample, int samplesPerRevolution) {
+        int samplesPerDegree = Math.max(1, samplesPerRevolution / LidarFrame.ANGLES_PER_REVOLUTION);
+        if (sample % samplesPerDegree == 0) {
+            return String.valueOf(sample / samplesPerDegree);
+        }
+        return String.valueOf((float) sample / samplesPerDegree);
     }
 
     /**
@@ -444,7 +1290,7 @@ public class LIDAR extends Bluetooth {
                 for (DataPoint dataPoint : dataPointArray) {
                     if (dataPoint != null) {
                         writer.write(
-                                dataPoint.getAngle() +
+                                formatSampleAngle(dataPoint.getAngle(), dataPointArray.length) +
                                         "," +
                                         dataPoint.getDistance() +
                                         "," +
@@ -475,7 +1321,7 @@ public class LIDAR extends Bluetooth {
         public void run() {
             for (DataPoint dataPoint : dataPointArray) {
                 if (dataPoint != null) {
-                    Log.i("info", "Angle: " + dataPoint.getAngle() +
+                    Log.i("info", "Angle: " + formatSampleAngle(dataPoint.getAngle(), dataPointArray.length) +
                             " Distance: " + dataPoint.getDistance() +
                             " Intensity: " + dataPoint.getIntensity() +
                             " RPM: " + dataPoint.getRPM());
@@ -4,15 +4,21 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
 import com.lighthouse.Data.DataPoint;
 import com.lighthouse.Data.GraphPoint;
+import com.lighthouse.Data.LidarFrame;
+import com.lighthouse.Timing.LatencyHistogram;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -21,13 +27,31 @@ public class LidarDisplay extends View {
 
     private final Paint shapePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 
-    private final GraphPoint[] mGraphPointArray = new GraphPoint[360];
+    /**
+     * Number of samples in a revolution, which every per angle array is sized from.
+     */
+    private int samplesPerRevolution = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private GraphPoint[] mGraphPointArray = new GraphPoint[samplesPerRevolution];
+
+    private DataPoint[] fullDataPointArray = new DataPoint[samplesPerRevolution];
+
+    private float[] mPointArray = new float[samplesPerRevolution * 4];
+
+    /**
+     * Unzoomed chart coordinates of the latest sweep, relative to the sensor, stored as x and y
+     * pairs indexed by sample.  Samples without a distance are stored at the origin.
+     */
+    private float[] mWorldPointArray = new float[samplesPerRevolution * 2];
 
-    private final DataPoint[] fullDataPointArray = new DataPoint[360];
+    /**
+     * Unzoomed chart coordinates of previous sweeps, used as a ring of history layers.
+     */
+    private float[][] mHistoryLayers = new float[0][];
 
-    private final Paint[] mPaintArray = new Paint[360];
+    private int historyLayerCount = 0;
 
-    private float[] mPointArray;
+    private int historyCursor = 0;
 
     private String hexColorValue = "#212121";
 
@@ -43,6 +67,83 @@ public class LidarDisplay extends View {
      */
     private float lidarViewScaleRate = 8f;
 
+    /**
+     * Matrix applied to the visible points once per frame to pan and zoom the view.
+     */
+    private final Matrix viewportMatrix = new Matrix();
+
+    private float zoom = 1f;
+
+    private float minimumZoom = 0.1f;
+
+    private float maximumZoom = 50f;
+
+    private float panX = 0f;
+
+    private float panY = 0f;
+
+    private boolean panZoomEnabled = true;
+
+    /**
+     * The region of the view that is visible, in unzoomed chart coordinates.
+     */
+    private float visibleLeft, visibleTop, visibleRight, visibleBottom;
+
+    /**
+     * Points are decimated per screen cell when history layers are drawn at or below this zoom.
+     */
+    private float decimationZoomThreshold = 1f;
+
+    private int decimationCellSize = 2;
+
+    private int decimationColumns = 1;
+
+    /**
+     * Screen cells stamped with the frame that last drew a point in them, so the cells never need
+     * to be cleared between frames.
+     */
+    private int[] mDecimationCells = new int[1];
+
+    private int decimationStamp = 0;
+
+    private ScaleGestureDetector scaleGestureDetector;
+
+    private GestureDetector panGestureDetector;
+
+    /**
+     * Cosine and sine of every sample angle, used to place readings on the chart.
+     */
+    private float[] cosineTable = new float[0];
+
+    private float[] sineTable = new float[0];
+
+    /**
+     * The freshest angle received through updateGraphWithFrame, or -1 when the chart is updated
+     * with whole revolutions.
+     */
+    private int scanAngle = -1;
+
+    /**
+     * Boolean value to draw a line from the sensor through the freshest angle while updating
+     * progressively.
+     */
+    private boolean drawScanLine = true;
+
+    private final Paint scanLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private final float[] mScanLineArray = new float[4];
+
+    /**
+     * Acquisition time of the oldest data which has not been drawn yet, or Long.MIN_VALUE if
+     * everything has been drawn or no acquisition times are given.
+     */
+    private long oldestUndrawnAcquisitionTime = Long.MIN_VALUE;
+
+    /**
+     * Latencies from acquisition of the oldest undrawn data to the draw which showed it.
+     */
+    private final LatencyHistogram drawLatency = new LatencyHistogram();
+
     /**
      * Constructor
      */
@@ -86,8 +187,15 @@ public class LidarDisplay extends View {
         shapePaint.setColor(Color.parseColor(hexColorValue));
         // TODO: Allow the developer to configure this value
         shapePaint.setStrokeWidth(3);
+        scanLinePaint.setStyle(Paint.Style.STROKE);
+        scanLinePaint.setColor(Color.parseColor(hexColorValue));
+        scanLinePaint.setStrokeWidth(1);
+        scanLinePaint.setAlpha(128);
         initializeFullDataPointArray();
-        initializePaintArray();
+        initializeTrigonometryTables();
+        scaleGestureDetector = new ScaleGestureDetector(context, new ZoomGestureListener());
+        panGestureDetector = new GestureDetector(context, new PanGestureListener());
+        updateViewportMatrix();
     }
 
     private void initializeFullDataPointArray() {
@@ -96,10 +204,42 @@ public class LidarDisplay extends View {
         }
     }
 
-    private void initializePaintArray() {
-        for (int i=0; i < mPaintArray.length; i++) {
-            mPaintArray[i] = new Paint();
+    private void initializeTrigonometryTables() {
+        cosineTable = new float[samplesPerRevolution];
+        sineTable = new float[samplesPerRevolution];
+        double radiansPerSample = (2 * Math.PI) / samplesPerRevolution;
+        for (int i = 0; i < samplesPerRevolution; i++) {
+            cosineTable[i] = (float) Math.cos(i * radiansPerSample);
+            sineTable[i] = (float) Math.sin(i * radiansPerSample);
+        }
+    }
+
+    /**
+     * Returns the number of samples in a revolution which the view is sized for.
+     * @return Samples per revolution.
+     */
+    public int getSamplesPerRevolution() {
+        return samplesPerRevolution;
+    }
+
+    /**
+     * Sizes the view for a sensor with a different number of samples per revolution, such as one
+     * described by a LidarProtocol with sub-degree resolution.  DataPoint angles and frame angles
+     * passed to the view are then sample numbers.  Clears the chart and its history layers.
+     * @param samplesPerRevolution Number of samples in a revolution.
+     */
+    public synchronized void setSamplesPerRevolution(int samplesPerRevolution) {
+        if (samplesPerRevolution <= 0) {
+            throw new IllegalArgumentException("Samples per revolution must be positive");
         }
+        this.samplesPerRevolution = samplesPerRevolution;
+        mGraphPointArray = new GraphPoint[samplesPerRevolution];
+        fullDataPointArray = new DataPoint[samplesPerRevolution];
+        mWorldPointArray = new float[samplesPerRevolution * 2];
+        initializeFullDataPointArray();
+        initializeTrigonometryTables();
+        scanAngle = -1;
+        setHistoryLayerCount(historyLayerCount);
     }
 
     /**
@@ -107,10 +247,11 @@ public class LidarDisplay extends View {
      * is based upon.  It does not update the visual graph.
      * @param dataPointArray The array of DataPoints to update the graph data with.
      */
-    public void updateGraphWithDataPoints(DataPoint[] dataPointArray) {
+    public synchronized void updateGraphWithDataPoints(DataPoint[] dataPointArray) {
         if (dataPointArray != null) {
+            pushHistoryLayer();
             for (DataPoint dataPoint : dataPointArray) {
-                if (dataPoint != null) {
+                if (dataPoint != null && dataPoint.getAngle() < samplesPerRevolution) {
                     fullDataPointArray[dataPoint.getAngle()] = dataPoint;
                     GraphPoint graphPoint = new GraphPoint(dataPoint, lidarViewScaleRate);
                     if (alphaByDistance) {
@@ -119,7 +260,71 @@ public class LidarDisplay extends View {
                     mGraphPointArray[graphPoint.getAngle()] = graphPoint;
                 }
             }
-            createPointArray();
+            createWorldPointArray();
+            scanAngle = -1;
+        }
+    }
+
+    /**
+     * Updates the graph data with the angles of a single packet that was just published into a
+     * LidarFrame.  This does not allocate, so it can be called for every packet as it arrives.
+     * It does not update the visual graph.
+     * @param frame The frame holding the latest readings.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     */
+    public synchronized void updateGraphWithFrame(LidarFrame frame, int baseAngle, int angleCount) {
+        if (scanAngle >= 0 && baseAngle <= scanAngle) {
+            // The sweep wrapped around, so the previous revolution becomes a history layer.
+            pushHistoryLayer();
+        }
+        for (int angle = baseAngle; angle < baseAngle + angleCount; angle++) {
+            float scaledDistance = frame.getDistance(angle) / lidarViewScaleRate;
+            mWorldPointArray[angle * 2] = scaledDistance * cosineTable[angle];
+            mWorldPointArray[(angle * 2) + 1] = -scaledDistance * sineTable[angle];
+        }
+        scanAngle = baseAngle + angleCount - 1;
+    }
+
+    /**
+     * Notes the acquisition time of data passed to the view, so the next draw can record how old
+     * the data it shows is.
+     * @param acquisitionTime Time, from System.nanoTime, at which the data was acquired.
+     */
+    public synchronized void markAcquisitionTime(long acquisitionTime) {
+        if (oldestUndrawnAcquisitionTime == Long.MIN_VALUE || acquisitionTime < oldestUndrawnAcquisitionTime) {
+            oldestUndrawnAcquisitionTime = acquisitionTime;
+        }
+    }
+
+    /**
+     * Returns the latencies from acquisition to drawing, recorded for data passed with
+     * markAcquisitionTime.  Each draw records the age of the oldest data it shows for the first
+     * time.
+     * @return The draw latency histogram.
+     */
+    public LatencyHistogram getDrawLatency() {
+        return drawLatency;
+    }
+
+    /**
+     * Stores the unzoomed chart coordinates for every angle with a reading.  Angles without a
+     * distance are skipped since they would all be drawn on top of the sensor.
+     */
+    private void createWorldPointArray() {
+        for (int angle = 0; angle < mGraphPointArray.length; angle++) {
+            GraphPoint graphPoint = mGraphPointArray[angle];
+            // Check to make sure that we have logged a value for that angle.
+            if (graphPoint == null || graphPoint.getDistance() <= 0) {
+                mWorldPointArray[angle * 2] = 0f;
+                mWorldPointArray[(angle * 2) + 1] = 0f;
+            } else {
+                // Placed from the sample tables rather than the GraphPoint coordinates, which
+                // assume one sample per degree.  The canvas y axis points down.
+                float scaledDistance = graphPoint.getDistance() / lidarViewScaleRate;
+                mWorldPointArray[angle * 2] = scaledDistance * cosineTable[angle];
+                mWorldPointArray[(angle * 2) + 1] = -scaledDistance * sineTable[angle];
+            }
         }
     }
 
@@ -180,6 +385,24 @@ public class LidarDisplay extends View {
         this.drawLines = drawLines;
     }
 
+    /**
+     * Returns true if a scan line is drawn through the freshest angle while the view is updated
+     * one packet at a time.
+     * @return
+     */
+    public boolean isDrawScanLine() {
+        return drawScanLine;
+    }
+
+    /**
+     * Pass true in order to draw a scan line through the freshest angle while the view is updated
+     * one packet at a time.
+     * @param drawScanLine boolean value for turning on and off the scan line.
+     */
+    public void setDrawScanLine(boolean drawScanLine) {
+        this.drawScanLine = drawScanLine;
+    }
+
     /**
      * Get the color value used for drawing on the canvas.
      * @return The hex color value.
@@ -196,73 +419,383 @@ public class LidarDisplay extends View {
         this.hexColorValue = hexColorValue;
     }
 
+    /**
+     * Returns the current zoom factor applied on top of the scale rate.
+     * @return Current zoom factor.
+     */
+    public float getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Sets the zoom factor applied on top of the scale rate.  The value is clamped between the
+     * minimum and maximum zoom.
+     * @param zoom The zoom factor, 1 being the default view.
+     */
+    public synchronized void setZoom(float zoom) {
+        this.zoom = Math.max(minimumZoom, Math.min(maximumZoom, zoom));
+        updateViewportMatrix();
+    }
+
+    /**
+     * Returns the horizontal pan offset, in pixels, from the center of the chart.
+     * @return Horizontal pan offset.
+     */
+    public float getPanX() {
+        return panX;
+    }
+
+    /**
+     * Returns the vertical pan offset, in pixels, from the center of the chart.
+     * @return Vertical pan offset.
+     */
+    public float getPanY() {
+        return panY;
+    }
+
+    /**
+     * Sets the pan offset, in pixels, from the center of the chart.
+     * @param panX Horizontal pan offset.
+     * @param panY Vertical pan offset.
+     */
+    public synchronized void setPan(float panX, float panY) {
+        this.panX = panX;
+        this.panY = panY;
+        updateViewportMatrix();
+    }
+
+    /**
+     * Resets the viewport to the default centered, unzoomed view.
+     */
+    public synchronized void resetViewport() {
+        zoom = 1f;
+        panX = 0f;
+        panY = 0f;
+        updateViewportMatrix();
+    }
+
+    /**
+     * Sets the range the zoom factor is clamped to while pinch zooming.
+     * @param minimumZoom The smallest zoom factor.
+     * @param maximumZoom The largest zoom factor.
+     */
+    public synchronized void setZoomRange(float minimumZoom, float maximumZoom) {
+        if (minimumZoom > 0 && minimumZoom <= maximumZoom) {
+            this.minimumZoom = minimumZoom;
+            this.maximumZoom = maximumZoom;
+            setZoom(zoom);
+        }
+    }
+
+    /**
+     * Returns true if touch gestures pan and zoom the view.
+     * @return
+     */
+    public boolean isPanZoomEnabled() {
+        return panZoomEnabled;
+    }
+
+    /**
+     * Pass true to let pinch and drag gestures zoom and pan the view.
+     * @param panZoomEnabled boolean value for turning on and off the gestures.
+     */
+    public void setPanZoomEnabled(boolean panZoomEnabled) {
+        this.panZoomEnabled = panZoomEnabled;
+    }
+
+    /**
+     * Returns the number of previous sweeps which are drawn underneath the latest sweep.
+     * @return Number of history layers.
+     */
+    public int getHistoryLayerCount() {
+        return historyLayerCount;
+    }
+
+    /**
+     * Sets the number of previous sweeps which are drawn underneath the latest sweep.  Passing 0
+     * only draws the latest sweep.
+     * @param historyLayerCount Number of history layers.
+     */
+    public synchronized void setHistoryLayerCount(int historyLayerCount) {
+        this.historyLayerCount = Math.max(0, historyLayerCount);
+        mHistoryLayers = new float[this.historyLayerCount][samplesPerRevolution * 2];
+        historyCursor = 0;
+        mPointArray = new float[(this.historyLayerCount + 1) * samplesPerRevolution * 4];
+    }
+
+    /**
+     * Returns the size, in pixels, of the screen cells used to decimate points when zoomed out.
+     * @return Decimation cell size.
+     */
+    public int getDecimationCellSize() {
+        return decimationCellSize;
+    }
+
+    /**
+     * Sets the size, in pixels, of the screen cells used to decimate points when zoomed out.  Only
+     * one point is drawn per cell.
+     * @param decimationCellSize Decimation cell size.
+     */
+    public synchronized void setDecimationCellSize(int decimationCellSize) {
+        this.decimationCellSize = Math.max(1, decimationCellSize);
+        createDecimationCells();
+    }
+
+    /**
+     * Returns the zoom at or below which points are decimated while history layers are drawn.
+     * @return Decimation zoom threshold.
+     */
+    public float getDecimationZoomThreshold() {
+        return decimationZoomThreshold;
+    }
+
+    /**
+     * Sets the zoom at or below which points are decimated while history layers are drawn.
+     * Passing 0 turns decimation off.
+     * @param decimationZoomThreshold Decimation zoom threshold.
+     */
+    public synchronized void setDecimationZoomThreshold(float decimationZoomThreshold) {
+        this.decimationZoomThreshold = Math.max(0f, decimationZoomThreshold);
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
 
-        chartHeight = h;
-        chartWidth = w;
+        synchronized (this) {
+            chartHeight = h;
+            chartWidth = w;
 
-        createPointArray();
+            updateViewportMatrix();
+            createDecimationCells();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!panZoomEnabled) {
+            return super.onTouchEvent(event);
+        }
+        scaleGestureDetector.onTouchEvent(event);
+        if (!scaleGestureDetector.isInProgress()) {
+            panGestureDetector.onTouchEvent(event);
+        }
+        return true;
     }
 
     @Override
     public synchronized void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (drawLines) {
-            canvas.drawLines(mPointArray, shapePaint);
-        } else {
-            canvas.drawPoints(mPointArray, shapePaint);
+        if (oldestUndrawnAcquisitionTime != Long.MIN_VALUE) {
+            drawLatency.record(System.nanoTime() - oldestUndrawnAcquisitionTime);
+            oldestUndrawnAcquisitionTime = Long.MIN_VALUE;
+        }
+        int pointCount = createPointArray();
+        if (pointCount > 0) {
+            if (drawLines) {
+                canvas.drawLines(mPointArray, 0, pointCount * 2, shapePaint);
+            } else {
+                canvas.drawPoints(mPointArray, 0, pointCount * 2, shapePaint);
+            }
+        }
+        if (drawScanLine && scanAngle >= 0) {
+            drawScanLine(canvas);
         }
     }
 
     /**
-     * Creates the point array used to draw on the canvas.
+     * Draws a line from the sensor through the freshest angle, out to the maximum range.
+     */
+    private void drawScanLine(Canvas canvas) {
+        final float maximum_distance = 3500f;
+        float scaledDistance = maximum_distance / lidarViewScaleRate;
+        mScanLineArray[0] = 0f;
+        mScanLineArray[1] = 0f;
+        mScanLineArray[2] = scaledDistance * cosineTable[scanAngle];
+        mScanLineArray[3] = -scaledDistance * sineTable[scanAngle];
+        viewportMatrix.mapPoints(mScanLineArray);
+        canvas.drawLines(mScanLineArray, scanLinePaint);
+    }
+
+    /**
+     * Rebuilds the viewport matrix from the chart size, pan and zoom, along with the visible
+     * region of the view expressed in unzoomed chart coordinates.
      */
-    private void createPointArray() {
+    private void updateViewportMatrix() {
+        viewportMatrix.reset();
+        viewportMatrix.postScale(zoom, zoom);
+        viewportMatrix.postTranslate((chartWidth / 2f) + panX, (chartHeight / 2f) + panY);
+
+        visibleLeft = (-(chartWidth / 2f) - panX) / zoom;
+        visibleRight = ((chartWidth / 2f) - panX) / zoom;
+        visibleTop = (-(chartHeight / 2f) - panY) / zoom;
+        visibleBottom = ((chartHeight / 2f) - panY) / zoom;
+    }
 
-        if (drawLines) {
-            mPointArray = new float[1440];
-        } else {
-            mPointArray = new float[720];
+    /**
+     * Allocates the screen cell stamps used for decimating points.
+     */
+    private void createDecimationCells() {
+        decimationColumns = Math.max(1, (chartWidth + decimationCellSize - 1) / decimationCellSize);
+        int rows = Math.max(1, (chartHeight + decimationCellSize - 1) / decimationCellSize);
+        mDecimationCells = new int[decimationColumns * rows];
+        decimationStamp = 0;
+    }
+
+    /**
+     * Creates the point array used to draw on the canvas.  Points outside of the viewport are
+     * culled before any coordinates are written, and when zoomed out over history layers only one
+     * point is kept per screen cell.  The viewport matrix is then applied to the remaining points
+     * in a single pass.
+     * @return The number of points, or line end points, written to the point array.
+     */
+    private int createPointArray() {
+        boolean decimate = historyLayerCount > 0 && zoom <= decimationZoomThreshold;
+        if (decimate && ++decimationStamp == 0) {
+            Arrays.fill(mDecimationCells, 0);
+            decimationStamp = 1;
         }
 
-        float currentSectionX, currentSectionY;
-        int pointArrayCursor = 0;
-        int paintArrayCursor = 0;
-        for (GraphPoint graphPoint : mGraphPointArray) {
-            // Check to make sure that we have logged a value for that angle.
-            if (graphPoint != null) {
-                float xValue = graphPoint.getxCoordinate();
-                currentSectionX = (chartWidth / 2f) + xValue;
+        int pointCount = appendVisiblePoints(mWorldPointArray, 0, decimate);
+        for (int i = 0; i < historyLayerCount; i++) {
+            pointCount = appendVisiblePoints(mHistoryLayers[i], pointCount, decimate);
+        }
 
-                float yValue = graphPoint.getyCoordinate();
-                Log.i("lighthouse", "Angle " + graphPoint.getAngle() + " yValue: " + yValue);
-                currentSectionY = (chartHeight / 2f) - yValue;
+        viewportMatrix.mapPoints(mPointArray, 0, mPointArray, 0, pointCount);
+        return pointCount;
+    }
 
-                if (alphaByDistance) {
-                    mPaintArray[paintArrayCursor] = graphPoint.getCustomPaint();
-                    paintArrayCursor++;
+    /**
+     * Appends the points of a layer that fall inside the viewport to the point array.
+     * @param layer Unzoomed chart coordinates, stored as x and y pairs indexed by angle.
+     * @param pointCount Number of points already written to the point array.
+     * @param decimate True to keep only one point per screen cell.
+     * @return The new number of points written to the point array.
+     */
+    private int appendVisiblePoints(float[] layer, int pointCount, boolean decimate) {
+        int pointArrayCursor = pointCount * 2;
+        for (int i = 0; i < layer.length / 2; i++) {
+            float xValue = layer[i * 2];
+            float yValue = layer[(i * 2) + 1];
+            // Angles without a distance would all be drawn on top of the sensor.
+            if (xValue == 0f && yValue == 0f) {
+                continue;
+            }
+
+            int outcode = getOutcode(xValue, yValue);
+            if (drawLines) {
+                // The ray starts at the sensor, so it is only culled when both ends are off the same
+                // side of the viewport.
+                if ((outcode & getOutcode(0f, 0f)) != 0) {
+                    continue;
                 }
+            } else if (outcode != 0) {
+                continue;
+            }
 
-            } else {
-                currentSectionX = (chartWidth / 2);
-                currentSectionY = (chartHeight / 2);
+            if (decimate && outcode == 0 && !claimDecimationCell(xValue, yValue)) {
+                continue;
             }
 
             if (drawLines) {
-                mPointArray[pointArrayCursor] = chartWidth / 2;
-                mPointArray[pointArrayCursor + 1] = chartHeight / 2;
-                mPointArray[pointArrayCursor + 2] = currentSectionX;
-                mPointArray[pointArrayCursor + 3] = currentSectionY;
+                mPointArray[pointArrayCursor] = 0f;
+                mPointArray[pointArrayCursor + 1] = 0f;
+                mPointArray[pointArrayCursor + 2] = xValue;
+                mPointArray[pointArrayCursor + 3] = yValue;
                 pointArrayCursor = pointArrayCursor + 4;
             } else {
-                mPointArray[pointArrayCursor] = currentSectionX;
-                mPointArray[pointArrayCursor + 1] = currentSectionY;
+                mPointArray[pointArrayCursor] = xValue;
+                mPointArray[pointArrayCursor + 1] = yValue;
                 pointArrayCursor = pointArrayCursor + 2;
             }
         }
+        return pointArrayCursor / 2;
+    }
+
+    /**
+     * Returns the Cohen-Sutherland outcode of a point against the visible region.  Zero means the
+     * point is inside the viewport.
+     */
+    private int getOutcode(float xValue, float yValue) {
+        int outcode = 0;
+        if (xValue < visibleLeft) {
+            outcode |= 1;
+        } else if (xValue > visibleRight) {
+            outcode |= 2;
+        }
+        if (yValue < visibleTop) {
+            outcode |= 4;
+        } else if (yValue > visibleBottom) {
+            outcode |= 8;
+        }
+        return outcode;
+    }
+
+    /**
+     * Marks the screen cell under a visible point as drawn for this frame.  Returns false if
+     * another point already claimed the cell.
+     */
+    private boolean claimDecimationCell(float xValue, float yValue) {
+        int column = (int) (((xValue - visibleLeft) * zoom) / decimationCellSize);
+        int row = (int) (((yValue - visibleTop) * zoom) / decimationCellSize);
+        int cell = (row * decimationColumns) + Math.min(column, decimationColumns - 1);
+        if (cell < 0 || cell >= mDecimationCells.length || mDecimationCells[cell] == decimationStamp) {
+            return false;
+        }
+        mDecimationCells[cell] = decimationStamp;
+        return true;
+    }
 
+    /**
+     * Pushes the current sweep onto the history layers, overwriting the oldest layer.
+     */
+    private void pushHistoryLayer() {
+        if (historyLayerCount == 0) {
+            return;
+        }
+        System.arraycopy(mWorldPointArray, 0, mHistoryLayers[historyCursor], 0, mWorldPointArray.length);
+        historyCursor = (historyCursor + 1) % historyLayerCount;
+    }
+
+    /**
+     * Pans the view while dragging.
+     */
+    private class PanGestureListener extends GestureDetector.SimpleOnGestureListener {
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            setPan(panX - distanceX, panY - distanceY);
+            invalidate();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            resetViewport();
+            invalidate();
+            return true;
+        }
+    }
+
+    /**
+     * Zooms the view around the pinch focus point.
+     */
+    private class ZoomGestureListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            synchronized (LidarDisplay.this) {
+                float previousZoom = zoom;
+                setZoom(zoom * detector.getScaleFactor());
+                // Keep the chart point under the focus point in place.
+                float focusX = detector.getFocusX() - (chartWidth / 2f);
+                float focusY = detector.getFocusY() - (chartHeight / 2f);
+                float ratio = zoom / previousZoom;
+                setPan(focusX - ((focusX - panX) * ratio), focusY - ((focusY - panY) * ratio));
+            }
+            invalidate();
+            return true;
+        }
     }
 
     private int getAlphaValueFromDistance(int distance) {
@@ -0,0 +1,19 @@
+package com.lighthouse.Mapping;
+
+/**
+ * Storage for the chunks of an OccupancyGrid which are kept outside of the grid itself, such as a
+ * file backed tile store.
+ */
+public interface ChunkStore {
+
+    /**
+     * Returns the cells of a chunk, stored row by row.  The array is only valid until the next call
+     * to the store, since the store is free to reuse it for another chunk afterwards.
+     * @param chunkX Chunk x coordinate.
+     * @param chunkY Chunk y coordinate.
+     * @param forWrite True if the caller is going to modify the cells.
+     * @return The cells of the chunk, or null if the chunk is outside of the store, or has never
+     * been written and forWrite is false.
+     */
+    short[] getChunk(int chunkX, int chunkY, boolean forWrite);
+}
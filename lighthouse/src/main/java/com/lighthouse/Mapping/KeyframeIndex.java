@@ -0,0 +1,269 @@
+package com.lighthouse.Mapping;
+
+import java.util.Arrays;
+
+/**
+ * Nearest neighbour index of keyframe descriptors for loop closure.  Descriptors are stored one
+ * after the other in a single float array and indexed by a k-d tree, kept as a permutation of the
+ * keyframes with each median holding the split of its subtree.
+ *
+ * Keyframes added after the tree was last built are searched linearly.  The tree is rebuilt when
+ * the number of keyframes doubles, so adding stays O(log n) amortized and the linear part is never
+ * larger than the tree.  Candidates found here should be verified with the ScanMatcher before a
+ * loop is closed.  The index is not thread safe.
+ */
+public class KeyframeIndex {
+
+    /**
+     * Smallest number of keyframes before a tree is built at all.
+     */
+    private static final int MINIMUM_TREE_SIZE = 64;
+
+    private final int dimensions;
+
+    private float[] descriptors;
+
+    private int[] keyframeIds;
+
+    private int size = 0;
+
+    /**
+     * Keyframes ordered as the tree, and the split dimension of the subtree whose median is at
+     * each position.
+     */
+    private int[] order = new int[0];
+
+    private byte[] splitDimensions = new byte[0];
+
+    private int treeSize = 0;
+
+    /**
+     * Search state, kept in fields so the recursion does not allocate.
+     */
+    private float[] query;
+
+    private int resultCapacity;
+
+    private int resultCount;
+
+    private int[] resultIds;
+
+    private float[] resultDistances;
+
+    private int maximumKeyframeId;
+
+    /**
+     * Constructor.
+     * @param dimensions Length of the descriptors.
+     * @param initialCapacity Number of keyframes to allocate room for.
+     */
+    public KeyframeIndex(int dimensions, int initialCapacity) {
+        if (dimensions <= 0 || dimensions > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Dimensions must be between 1 and " + Byte.MAX_VALUE);
+        }
+        this.dimensions = dimensions;
+        int capacity = Math.max(1, initialCapacity);
+        descriptors = new float[capacity * dimensions];
+        keyframeIds = new int[capacity];
+    }
+
+    /**
+     * Adds a keyframe.
+     * @param descriptor The descriptor of the keyframe.
+     * @param keyframeId ID of the keyframe, such as its position in the mapping run.
+     */
+    public void add(float[] descriptor, int keyframeId) {
+        if (size == keyframeIds.length) {
+            keyframeIds = Arrays.copyOf(keyframeIds, size * 2);
+            descriptors = Arrays.copyOf(descriptors, size * 2 * dimensions);
+        }
+        System.arraycopy(descriptor, 0, descriptors, size * dimensions, dimensions);
+        keyframeIds[size] = keyframeId;
+        size++;
+        if (size >= MINIMUM_TREE_SIZE && size >= 2 * treeSize) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Rebuilds the tree over every keyframe.
+     */
+    private void rebuild() {
+        if (order.length < size) {
+            order = new int[keyframeIds.length];
+            splitDimensions = new byte[keyframeIds.length];
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        treeSize = size;
+        build(0, treeSize);
+    }
+
+    /**
+     * Builds the subtree of a range of the order, splitting at the median of the dimension with
+     * the largest spread.
+     */
+    private void build(int low, int high) {
+        if (high - low <= 1) {
+            if (high - low == 1) {
+                splitDimensions[low] = 0;
+            }
+            return;
+        }
+        int split = 0;
+        float largestSpread = -1;
+        for (int dimension = 0; dimension < dimensions; dimension++) {
+            float minimum = Float.POSITIVE_INFINITY;
+            float maximum = Float.NEGATIVE_INFINITY;
+            for (int i = low; i < high; i++) {
+                float value = descriptors[(order[i] * dimensions) + dimension];
+                minimum = Math.min(minimum, value);
+                maximum = Math.max(maximum, value);
+            }
+            if (maximum - minimum > largestSpread) {
+                largestSpread = maximum - minimum;
+                split = dimension;
+            }
+        }
+        int median = (low + high) >>> 1;
+        select(low, high - 1, median, split);
+        splitDimensions[median] = (byte) split;
+        build(low, median);
+        build(median + 1, high);
+    }
+
+    /**
+     * Quickselect, leaving the k-th smallest value of a dimension at position k of the order.
+     */
+    private void select(int low, int high, int k, int dimension) {
+        while (high > low) {
+            float pivot = descriptors[(order[(low + high) >>> 1] * dimensions) + dimension];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (descriptors[(order[i] * dimensions) + dimension] < pivot) {
+                    i++;
+                }
+                while (descriptors[(order[j] * dimensions) + dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the keyframes with the closest descriptors, ignoring keyframes with an ID above a
+     * limit so that the most recent keyframes, which are always similar, can be left out.
+     * @param descriptor The query descriptor.
+     * @param maximumKeyframeId Largest keyframe ID to consider.
+     * @param ids Array which receives the IDs of the closest keyframes, closest first.  Its length
+     * is the number of keyframes wanted.
+     * @param distances Array which receives the squared descriptor distances of the closest
+     * keyframes.
+     * @return Number of keyframes found.
+     */
+    public int findNearest(float[] descriptor, int maximumKeyframeId, int[] ids, float[] distances) {
+        query = descriptor;
+        resultIds = ids;
+        resultDistances = distances;
+        resultCapacity = Math.min(ids.length, distances.length);
+        resultCount = 0;
+        this.maximumKeyframeId = maximumKeyframeId;
+
+        if (resultCapacity > 0) {
+            search(0, treeSize);
+            for (int i = treeSize; i < size; i++) {
+                consider(i);
+            }
+        }
+        query = null;
+        resultIds = null;
+        resultDistances = null;
+        return resultCount;
+    }
+
+    private void search(int low, int high) {
+        if (high <= low) {
+            return;
+        }
+        int median = (low + high) >>> 1;
+        int keyframe = order[median];
+        consider(keyframe);
+        if (high - low == 1) {
+            return;
+        }
+        int split = splitDimensions[median];
+        float difference = query[split] - descriptors[(keyframe * dimensions) + split];
+        if (difference < 0) {
+            search(low, median);
+            if (isWorthSearching(difference)) {
+                search(median + 1, high);
+            }
+        } else {
+            search(median + 1, high);
+            if (isWorthSearching(difference)) {
+                search(low, median);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the far side of a split may still hold a closer keyframe.
+     */
+    private boolean isWorthSearching(float difference) {
+        return resultCount < resultCapacity || (difference * difference) < resultDistances[resultCount - 1];
+    }
+
+    /**
+     * Inserts a keyframe into the sorted results if it is close enough.
+     */
+    private void consider(int keyframe) {
+        if (keyframeIds[keyframe] > maximumKeyframeId) {
+            return;
+        }
+        int offset = keyframe * dimensions;
+        float distance = 0;
+        for (int dimension = 0; dimension < dimensions; dimension++) {
+            float difference = query[dimension] - descriptors[offset + dimension];
+            distance += difference * difference;
+        }
+        if (resultCount == resultCapacity && distance >= resultDistances[resultCount - 1]) {
+            return;
+        }
+        int position = resultCount < resultCapacity ? resultCount++ : resultCount - 1;
+        while (position > 0 && resultDistances[position - 1] > distance) {
+            resultDistances[position] = resultDistances[position - 1];
+            resultIds[position] = resultIds[position - 1];
+            position--;
+        }
+        resultDistances[position] = distance;
+        resultIds[position] = keyframeIds[keyframe];
+    }
+
+    /**
+     * Returns the number of keyframes in the index.
+     * @return Keyframe count.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+}
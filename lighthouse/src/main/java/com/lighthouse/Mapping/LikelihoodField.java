@@ -0,0 +1,235 @@
+package com.lighthouse.Mapping;
+
+/**
+ * Likelihood field precomputed from an occupancy grid.  Every cell holds, as an unsigned byte, how
+ * likely a LIDAR return is to land there given the distance to the closest occupied cell, so a
+ * candidate pose is scored with one table lookup per point.
+ *
+ * Coarser levels are precomputed for branch and bound searches.  A cell of level k holds the
+ * largest value of the 2^k by 2^k block of level 0 cells starting at it, so a level k score is an
+ * upper bound for every translation within the block.
+ */
+public class LikelihoodField {
+
+    /**
+     * Value of a cell holding an occupied cell.
+     */
+    public static final int MAXIMUM_VALUE = 255;
+
+    private final float resolution;
+
+    private final int minimumCellX;
+
+    private final int minimumCellY;
+
+    private final int columns;
+
+    private final int rows;
+
+    /**
+     * Field values of every level, stored row by row.
+     */
+    private final byte[][] levels;
+
+    /**
+     * Constructor.  Builds the field over a window of the grid with an exact Euclidean distance
+     * transform.
+     * @param grid The occupancy grid.
+     * @param minimumCellX Smallest cell x coordinate of the window.
+     * @param minimumCellY Smallest cell y coordinate of the window.
+     * @param columns Number of cell columns in the window.
+     * @param rows Number of cell rows in the window.
+     * @param sigma Standard deviation of the measurement noise, in the unit of the grid.
+     * @param levelCount Number of levels, including the full resolution level.
+     */
+    public LikelihoodField(OccupancyGrid grid,
+                           int minimumCellX,
+                           int minimumCellY,
+                           int columns,
+                           int rows,
+                           float sigma,
+                           int levelCount) {
+        if (columns <= 0 || rows <= 0 || sigma <= 0 || levelCount <= 0) {
+            throw new IllegalArgumentException("Window, sigma and level count must be positive");
+        }
+        this.resolution = grid.getResolution();
+        this.minimumCellX = minimumCellX;
+        this.minimumCellY = minimumCellY;
+        this.columns = columns;
+        this.rows = rows;
+
+        float[] squaredDistances = new float[columns * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                squaredDistances[(row * columns) + column] =
+                        grid.isCellOccupied(minimumCellX + column, minimumCellY + row) ? 0 : Float.POSITIVE_INFINITY;
+            }
+        }
+        distanceTransform(squaredDistances, columns, rows);
+
+        levels = new byte[levelCount][];
+        byte[] base = new byte[columns * rows];
+        double scale = (resolution * resolution) / (2.0 * sigma * sigma);
+        for (int i = 0; i < base.length; i++) {
+            base[i] = (byte) Math.round(MAXIMUM_VALUE * Math.exp(-squaredDistances[i] * scale));
+        }
+        levels[0] = base;
+        for (int level = 1; level < levelCount; level++) {
+            levels[level] = createMaximumLevel(levels[level - 1], 1 << (level - 1));
+        }
+    }
+
+    /**
+     * Convenience constructor which covers the whole chunk directory of an in-memory grid.
+     * @param grid The occupancy grid.
+     * @param sigma Standard deviation of the measurement noise, in the unit of the grid.
+     * @param levelCount Number of levels, including the full resolution level.
+     */
+    public LikelihoodField(OccupancyGrid grid, float sigma, int levelCount) {
+        this(grid, grid.getMinimumCellX(), grid.getMinimumCellY(), grid.getCellColumns(), grid.getCellRows(),
+                sigma, levelCount);
+    }
+
+    /**
+     * Squared Euclidean distance transform, in cells, with the linear time algorithm of
+     * Felzenszwalb and Huttenlocher applied to the columns and then the rows.
+     */
+    private static void distanceTransform(float[] grid, int columns, int rows) {
+        int length = Math.max(columns, rows);
+        float[] input = new float[length];
+        float[] output = new float[length];
+        int[] parabolas = new int[length];
+        float[] boundaries = new float[length + 1];
+        for (int column = 0; column < columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                input[row] = grid[(row * columns) + column];
+            }
+            distanceTransform1D(input, rows, output, parabolas, boundaries);
+            for (int row = 0; row < rows; row++) {
+                grid[(row * columns) + column] = output[row];
+            }
+        }
+        for (int row = 0; row < rows; row++) {
+            System.arraycopy(grid, row * columns, input, 0, columns);
+            distanceTransform1D(input, columns, output, parabolas, boundaries);
+            System.arraycopy(output, 0, grid, row * columns, columns);
+        }
+    }
+
+    private static void distanceTransform1D(float[] f, int n, float[] d, int[] v, float[] z) {
+        int k = -1;
+        for (int q = 0; q < n; q++) {
+            if (f[q] == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            if (k < 0) {
+                k = 0;
+                v[0] = q;
+                z[0] = Float.NEGATIVE_INFINITY;
+                z[1] = Float.POSITIVE_INFINITY;
+                continue;
+            }
+            float s = intersection(f, q, v[k]);
+            while (s <= z[k]) {
+                k--;
+                if (k < 0) {
+                    break;
+                }
+                s = intersection(f, q, v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = k == 0 ? Float.NEGATIVE_INFINITY : s;
+            z[k + 1] = Float.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            for (int q = 0; q < n; q++) {
+                d[q] = Float.POSITIVE_INFINITY;
+            }
+            return;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            float offset = q - v[k];
+            d[q] = (offset * offset) + f[v[k]];
+        }
+    }
+
+    private static float intersection(float[] f, int q, int p) {
+        return ((f[q] + ((float) q * q)) - (f[p] + ((float) p * p))) / (2f * (q - p));
+    }
+
+    /**
+     * Creates the next level, where each cell holds the largest of the four cells of the previous
+     * level which are half a block apart.
+     */
+    private byte[] createMaximumLevel(byte[] previous, int half) {
+        byte[] level = new byte[previous.length];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int value = previous[(row * columns) + column] & 0xFF;
+                if (column + half < columns) {
+                    value = Math.max(value, previous[(row * columns) + column + half] & 0xFF);
+                }
+                if (row + half < rows) {
+                    value = Math.max(value, previous[((row + half) * columns) + column] & 0xFF);
+                    if (column + half < columns) {
+                        value = Math.max(value, previous[((row + half) * columns) + column + half] & 0xFF);
+                    }
+                }
+                level[(row * columns) + column] = (byte) value;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Returns the value of a cell of a level, relative to the window.  Cells outside of the window
+     * return 0.
+     * @param level The level.
+     * @param column Column inside the window.
+     * @param row Row inside the window.
+     * @return Value from 0 to MAXIMUM_VALUE.
+     */
+    public int getValue(int level, int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return 0;
+        }
+        return levels[level][(row * columns) + column] & 0xFF;
+    }
+
+    /**
+     * Returns the field values of a level, stored row by row, for callers that do their own
+     * bounds checks.
+     */
+    byte[] getLevel(int level) {
+        return levels[level];
+    }
+
+    public float getResolution() {
+        return resolution;
+    }
+
+    public int getMinimumCellX() {
+        return minimumCellX;
+    }
+
+    public int getMinimumCellY() {
+        return minimumCellY;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+}
@@ -0,0 +1,88 @@
+package com.lighthouse.Mapping;
+
+/**
+ * Result of localizing a sweep against a map.  Results are mutable so that a localizer can fill
+ * the same result every sweep without allocating.
+ */
+public class LocalizationResult {
+
+    private float x;
+
+    private float y;
+
+    private float theta;
+
+    private float score;
+
+    private int evaluations;
+
+    private boolean valid;
+
+    /**
+     * Stores a result.
+     */
+    void set(float x, float y, float theta, float score, int evaluations, boolean valid) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        this.score = score;
+        this.evaluations = evaluations;
+        this.valid = valid;
+    }
+
+    /**
+     * Returns the x position on the map.
+     * @return X position.
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y position on the map.
+     * @return Y position.
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Returns the heading in radians.
+     * @return Heading.
+     */
+    public float getTheta() {
+        return theta;
+    }
+
+    /**
+     * Returns how well the sweep fits the map at the pose, from 0 to 1.
+     * @return Score.
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the number of candidate poses which were scored.
+     * @return Evaluation count.
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Returns true if the score reached the minimum score of the localizer.
+     * @return True if valid.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Creates a Pose2D holding the position and heading.
+     * @return The pose.
+     */
+    public Pose2D toPose() {
+        return new Pose2D(x, y, theta);
+    }
+}
@@ -0,0 +1,420 @@
+package com.lighthouse.Mapping;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+import java.util.Arrays;
+
+/**
+ * Localizes sweeps against a map through a precomputed LikelihoodField.  A candidate pose is scored
+ * by projecting the points of the sweep into the field and summing the values they land on.
+ *
+ * localize refines a pose guess every sweep with a hill climbing search whose steps halve until
+ * they reach the resolution of the field, and does not allocate.  relocalize searches the whole
+ * field for the best pose with branch and bound over the levels of the field, for when the pose is
+ * unknown or tracking was lost.
+ */
+public class Localizer {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private final LikelihoodField field;
+
+    /**
+     * Points of the sweep being localized, in the sensor frame.
+     */
+    private final float[] pointX = new float[ANGLES];
+
+    private final float[] pointY = new float[ANGLES];
+
+    private int pointCount = 0;
+
+    /**
+     * Sweeps scoring below this fraction of the best possible score are not valid.
+     */
+    private float minimumScore = 0.5f;
+
+    /**
+     * Initial steps of the hill climbing search.
+     */
+    private float linearSearchStep;
+
+    private float angularSearchStep = (float) Math.toRadians(2);
+
+    /**
+     * Angular step of the global search.
+     */
+    private float relocalizationAngularStep = (float) Math.toRadians(1);
+
+    private int evaluations;
+
+    /**
+     * Constructor.
+     * @param field The likelihood field of the map.
+     */
+    public Localizer(LikelihoodField field) {
+        this.field = field;
+        this.linearSearchStep = field.getResolution() * 4;
+    }
+
+    /**
+     * Refines a pose guess for a sweep.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param guess The pose guess, usually the previous pose composed with the odometry.
+     * @param result Result which is filled with the refined pose.
+     * @return True if the refined pose is valid.
+     */
+    public boolean localize(DataPoint[] dataPointArray, Pose2D guess, LocalizationResult result) {
+        loadPoints(dataPointArray);
+        return localizeLoadedPoints(guess.getX(), guess.getY(), guess.getTheta(), result);
+    }
+
+    /**
+     * Refines a pose guess for the current contents of a degree frame.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param guess The pose guess, usually the previous pose composed with the odometry.
+     * @param result Result which is filled with the refined pose.
+     * @return True if the refined pose is valid.
+     */
+    public boolean localize(LidarFrame frame, Pose2D guess, LocalizationResult result) {
+        LidarFrame.requireDegreeFrame(frame);
+        loadPoints(frame);
+        return localizeLoadedPoints(guess.getX(), guess.getY(), guess.getTheta(), result);
+    }
+
+    /**
+     * Searches the whole field for the pose of a sweep, then refines it.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param result Result which is filled with the best pose.
+     * @return True if the best pose is valid.
+     */
+    public boolean relocalize(DataPoint[] dataPointArray, LocalizationResult result) {
+        loadPoints(dataPointArray);
+        return relocalizeLoadedPoints(result);
+    }
+
+    /**
+     * Searches the whole field for the pose of the current contents of a degree frame, then refines
+     * it.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param result Result which is filled with the best pose.
+     * @return True if the best pose is valid.
+     */
+    public boolean relocalize(LidarFrame frame, LocalizationResult result) {
+        LidarFrame.requireDegreeFrame(frame);
+        loadPoints(frame);
+        return relocalizeLoadedPoints(result);
+    }
+
+    /**
+     * Returns the score of a pose, from 0 to 1, for the points of the last sweep.
+     * @param x X position on the map.
+     * @param y Y position on the map.
+     * @param theta Heading in radians.
+     * @return Score.
+     */
+    public float getScore(float x, float y, float theta) {
+        if (pointCount == 0) {
+            return 0;
+        }
+        return score(x, y, theta) / (float) (pointCount * LikelihoodField.MAXIMUM_VALUE);
+    }
+
+    private void loadPoints(DataPoint[] dataPointArray) {
+        pointCount = 0;
+        for (int angle = 0; angle < ANGLES && angle < dataPointArray.length; angle++) {
+            DataPoint dataPoint = dataPointArray[angle];
+            if (dataPoint != null) {
+                addPoint(angle, dataPoint.getDistance());
+            }
+        }
+    }
+
+    private void loadPoints(LidarFrame frame) {
+        pointCount = 0;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            addPoint(angle, frame.getDistance(angle));
+        }
+    }
+
+    private void addPoint(int angle, float distance) {
+        if (distance > 0) {
+            pointX[pointCount] = distance * LidarFrame.getCosine(angle);
+            pointY[pointCount] = distance * LidarFrame.getSine(angle);
+            pointCount++;
+        }
+    }
+
+    private boolean localizeLoadedPoints(float x, float y, float theta, LocalizationResult result) {
+        evaluations = 0;
+        int bestScore = score(x, y, theta);
+        float linearStep = linearSearchStep;
+        float angularStep = angularSearchStep;
+        float minimumLinearStep = field.getResolution() / 2;
+        float minimumAngularStep = (float) Math.toRadians(0.1);
+
+        while (linearStep >= minimumLinearStep || angularStep >= minimumAngularStep) {
+            // Try a step in each direction and take the best one that improves the score.
+            float bestX = x;
+            float bestY = y;
+            float bestTheta = theta;
+            for (int direction = 0; direction < 6; direction++) {
+                float candidateX = x;
+                float candidateY = y;
+                float candidateTheta = theta;
+                switch (direction) {
+                    case 0: candidateX += linearStep; break;
+                    case 1: candidateX -= linearStep; break;
+                    case 2: candidateY += linearStep; break;
+                    case 3: candidateY -= linearStep; break;
+                    case 4: candidateTheta += angularStep; break;
+                    default: candidateTheta -= angularStep; break;
+                }
+                int candidateScore = score(candidateX, candidateY, candidateTheta);
+                if (candidateScore > bestScore) {
+                    bestScore = candidateScore;
+                    bestX = candidateX;
+                    bestY = candidateY;
+                    bestTheta = candidateTheta;
+                }
+            }
+            if (bestX == x && bestY == y && bestTheta == theta) {
+                linearStep /= 2;
+                angularStep /= 2;
+            } else {
+                x = bestX;
+                y = bestY;
+                theta = bestTheta;
+            }
+        }
+
+        float normalizedScore = pointCount == 0 ? 0 :
+                bestScore / (float) (pointCount * LikelihoodField.MAXIMUM_VALUE);
+        boolean valid = pointCount > 0 && normalizedScore >= minimumScore;
+        result.set(x, y, Pose2D.normalizeAngle(theta), normalizedScore, evaluations, valid);
+        return valid;
+    }
+
+    /**
+     * Sums the full resolution field values under the points of the sweep at a pose.
+     */
+    private int score(float x, float y, float theta) {
+        evaluations++;
+        float cosine = (float) Math.cos(theta);
+        float sine = (float) Math.sin(theta);
+        float resolution = field.getResolution();
+        int minimumCellX = field.getMinimumCellX();
+        int minimumCellY = field.getMinimumCellY();
+        int columns = field.getColumns();
+        int rows = field.getRows();
+        byte[] values = field.getLevel(0);
+        int score = 0;
+        for (int i = 0; i < pointCount; i++) {
+            float worldX = x + (cosine * pointX[i]) - (sine * pointY[i]);
+            float worldY = y + (sine * pointX[i]) + (cosine * pointY[i]);
+            int column = (int) Math.floor(worldX / resolution) - minimumCellX;
+            int row = (int) Math.floor(worldY / resolution) - minimumCellY;
+            if (column >= 0 && row >= 0 && column < columns && row < rows) {
+                score += values[(row * columns) + column] & 0xFF;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Branch and bound search over every rotation and every translation in the field.  Each
+     * rotation of the sweep is discretized once into cell offsets from the sensor cell, so scoring
+     * a translation on any level is one lookup per point.
+     */
+    private boolean relocalizeLoadedPoints(LocalizationResult result) {
+        evaluations = 0;
+        if (pointCount == 0) {
+            result.set(0, 0, 0, 0, 0, false);
+            return false;
+        }
+        float resolution = field.getResolution();
+        int rotations = Math.max(1, (int) Math.round((2 * Math.PI) / relocalizationAngularStep));
+        int[][] offsetColumns = new int[rotations][pointCount];
+        int[][] offsetRows = new int[rotations][pointCount];
+        for (int rotation = 0; rotation < rotations; rotation++) {
+            double theta = rotation * ((2 * Math.PI) / rotations);
+            float cosine = (float) Math.cos(theta);
+            float sine = (float) Math.sin(theta);
+            for (int i = 0; i < pointCount; i++) {
+                offsetColumns[rotation][i] = (int) Math.floor(((cosine * pointX[i]) - (sine * pointY[i])) / resolution);
+                offsetRows[rotation][i] = (int) Math.floor(((sine * pointX[i]) + (cosine * pointY[i])) / resolution);
+            }
+        }
+
+        // Score every top level block of translations for every rotation.
+        int topLevel = field.getLevelCount() - 1;
+        int blockSize = 1 << topLevel;
+        int blockColumns = (field.getColumns() + blockSize - 1) / blockSize;
+        int blockRows = (field.getRows() + blockSize - 1) / blockSize;
+        int candidateCount = rotations * blockColumns * blockRows;
+        long[] candidates = new long[candidateCount];
+        int cursor = 0;
+        for (int rotation = 0; rotation < rotations; rotation++) {
+            for (int blockRow = 0; blockRow < blockRows; blockRow++) {
+                for (int blockColumn = 0; blockColumn < blockColumns; blockColumn++) {
+                    int candidate = (((rotation * blockRows) + blockRow) * blockColumns) + blockColumn;
+                    int bound = scoreOnLevel(topLevel, offsetColumns[rotation], offsetRows[rotation],
+                            blockColumn * blockSize, blockRow * blockSize);
+                    candidates[cursor++] = ((long) bound << 32) | candidate;
+                }
+            }
+        }
+        Arrays.sort(candidates);
+
+        BranchAndBound search = new BranchAndBound(offsetColumns, offsetRows,
+                (int) Math.ceil(minimumScore * pointCount * LikelihoodField.MAXIMUM_VALUE) - 1);
+        for (int i = candidateCount - 1; i >= 0; i--) {
+            int bound = (int) (candidates[i] >>> 32);
+            if (bound <= search.bestScore) {
+                break;
+            }
+            int candidate = (int) candidates[i];
+            int blockColumn = candidate % blockColumns;
+            int blockRow = (candidate / blockColumns) % blockRows;
+            int rotation = candidate / (blockColumns * blockRows);
+            search.branch(rotation, blockColumn * blockSize, blockRow * blockSize, topLevel, bound);
+        }
+
+        int globalEvaluations = evaluations;
+        if (search.bestRotation < 0) {
+            result.set(0, 0, 0, search.bestScore < 0 ? 0 :
+                    search.bestScore / (float) (pointCount * LikelihoodField.MAXIMUM_VALUE), evaluations, false);
+            return false;
+        }
+        float x = (field.getMinimumCellX() + search.bestColumn + 0.5f) * resolution;
+        float y = (field.getMinimumCellY() + search.bestRow + 0.5f) * resolution;
+        float theta = (float) (search.bestRotation * ((2 * Math.PI) / rotations));
+        boolean valid = localizeLoadedPoints(x, y, theta, result);
+        result.set(result.getX(), result.getY(), result.getTheta(), result.getScore(),
+                globalEvaluations + result.getEvaluations(), valid);
+        return valid;
+    }
+
+    /**
+     * Sums the values of a level under the points of a rotation placed with the sensor in a cell.
+     * A point left of or below the field still counts when its block reaches into the field, with
+     * the value of the edge cell, whose block covers the overlap, so the score stays an upper bound.
+     */
+    private int scoreOnLevel(int level, int[] offsetColumns, int[] offsetRows, int sensorColumn, int sensorRow) {
+        evaluations++;
+        int columns = field.getColumns();
+        int rows = field.getRows();
+        int blockSize = 1 << level;
+        byte[] values = field.getLevel(level);
+        int score = 0;
+        for (int i = 0; i < pointCount; i++) {
+            int column = sensorColumn + offsetColumns[i];
+            int row = sensorRow + offsetRows[i];
+            if (column < 0 && column + blockSize > 0) {
+                column = 0;
+            }
+            if (row < 0 && row + blockSize > 0) {
+                row = 0;
+            }
+            if (column >= 0 && row >= 0 && column < columns && row < rows) {
+                score += values[(row * columns) + column] & 0xFF;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Depth first branch and bound state for a single relocalization.
+     */
+    private class BranchAndBound {
+
+        private final int[][] offsetColumns;
+
+        private final int[][] offsetRows;
+
+        private int bestScore;
+
+        private int bestRotation = -1;
+
+        private int bestColumn;
+
+        private int bestRow;
+
+        BranchAndBound(int[][] offsetColumns, int[][] offsetRows, int minimumScore) {
+            this.offsetColumns = offsetColumns;
+            this.offsetRows = offsetRows;
+            this.bestScore = minimumScore;
+        }
+
+        /**
+         * Explores the block of translations starting at a sensor cell on a level, best child first.
+         */
+        void branch(int rotation, int column, int row, int level, int bound) {
+            if (bound <= bestScore) {
+                return;
+            }
+            if (level == 0) {
+                bestScore = bound;
+                bestRotation = rotation;
+                bestColumn = column;
+                bestRow = row;
+                return;
+            }
+            int half = 1 << (level - 1);
+            long[] children = new long[4];
+            for (int child = 0; child < 4; child++) {
+                int childColumn = column + ((child & 1) * half);
+                int childRow = row + ((child >> 1) * half);
+                int score = childColumn < field.getColumns() && childRow < field.getRows() ?
+                        scoreOnLevel(level - 1, offsetColumns[rotation], offsetRows[rotation], childColumn, childRow) : -1;
+                children[child] = ((long) (score + 1) << 32) | child;
+            }
+            Arrays.sort(children);
+            for (int i = 3; i >= 0; i--) {
+                int child = (int) children[i];
+                int score = (int) (children[i] >>> 32) - 1;
+                if (score <= bestScore) {
+                    return;
+                }
+                branch(rotation, column + ((child & 1) * half), row + ((child >> 1) * half), level - 1, score);
+            }
+        }
+    }
+
+    /**
+     * Sets the fraction of the best possible score a pose needs to be valid.
+     * @param minimumScore Minimum score from 0 to 1.
+     */
+    public void setMinimumScore(float minimumScore) {
+        this.minimumScore = Math.max(0, Math.min(1, minimumScore));
+    }
+
+    public float getMinimumScore() {
+        return minimumScore;
+    }
+
+    /**
+     * Sets the initial steps of the hill climbing search.  They should cover the expected error of
+     * the pose guess.
+     * @param linearSearchStep Initial linear step, in the unit of the map.
+     * @param angularSearchStep Initial angular step, in radians.
+     */
+    public void setSearchSteps(float linearSearchStep, float angularSearchStep) {
+        this.linearSearchStep = linearSearchStep;
+        this.angularSearchStep = angularSearchStep;
+    }
+
+    /**
+     * Sets the angular step of the global search.  Smaller steps find the pose more reliably in
+     * large maps at a higher cost.
+     * @param relocalizationAngularStep Angular step, in radians.
+     */
+    public void setRelocalizationAngularStep(float relocalizationAngularStep) {
+        if (relocalizationAngularStep <= 0) {
+            throw new IllegalArgumentException("The angular step must be positive");
+        }
+        this.relocalizationAngularStep = relocalizationAngularStep;
+    }
+}
@@ -0,0 +1,513 @@
+package com.lighthouse.Mapping;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Occupancy grid built from LIDAR sweeps.  Every cell stores the log-odds of being occupied as a
+ * short, scaled by 100, so 0 means unknown, positive values mean occupied and negative values mean
+ * free.  Each reading marks the cells between the sensor and the return as free with integer
+ * Bresenham traversal and the cell of the return as occupied.
+ *
+ * Cells are stored in square chunks which are only allocated once a ray touches them, and the
+ * chunk directory grows as the mapped area grows.  For areas too large to keep in memory the chunks
+ * can be kept in a ChunkStore instead, such as a TiledMapStore.  The grid is not thread safe;
+ * sweeps should be integrated and queried from the same thread.
+ */
+public class OccupancyGrid {
+
+    /**
+     * Number of bits of a cell coordinate used for the position within a chunk.
+     */
+    public static final int CHUNK_SHIFT = 6;
+
+    /**
+     * Number of cells along each side of a chunk.
+     */
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Size of a cell, in the same unit as the LIDAR distances.
+     */
+    private final float resolution;
+
+    /**
+     * Log-odds added to the cell of a return.
+     */
+    private short hitLogOdds = 85;
+
+    /**
+     * Log-odds added to the cells a ray passes through.
+     */
+    private short missLogOdds = -40;
+
+    /**
+     * Lowest log-odds a cell is clamped to.
+     */
+    private short minimumLogOdds = -200;
+
+    /**
+     * Highest log-odds a cell is clamped to.
+     */
+    private short maximumLogOdds = 350;
+
+    /**
+     * Cells with log-odds above this value are considered occupied.
+     */
+    private short occupiedThreshold = 100;
+
+    /**
+     * Cells with log-odds below this value are considered free.
+     */
+    private short freeThreshold = -100;
+
+    /**
+     * Chunk directory, stored row by row, covering the chunks from minimumChunkX and minimumChunkY.
+     */
+    private short[][] chunks = new short[1][];
+
+    private int minimumChunkX = 0;
+
+    private int minimumChunkY = 0;
+
+    private int chunkColumns = 1;
+
+    private int chunkRows = 1;
+
+    private int allocatedChunkCount = 0;
+
+    private boolean directoryInitialized = false;
+
+    /**
+     * Store the chunks are kept in, or null to keep them in the chunk directory.
+     */
+    private final ChunkStore chunkStore;
+
+    /**
+     * The chunk touched last while tracing, cached since consecutive cells share a chunk.
+     */
+    private short[] cachedChunk;
+
+    private int cachedChunkX = Integer.MIN_VALUE;
+
+    private int cachedChunkY = Integer.MIN_VALUE;
+
+    /**
+     * Distances of the sweep being integrated.
+     */
+    private final float[] sweepDistances = new float[LidarFrame.ANGLES_PER_REVOLUTION];
+
+    /**
+     * Constructor.
+     * @param resolution Size of a cell, in the same unit as the LIDAR distances.
+     */
+    public OccupancyGrid(float resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.resolution = resolution;
+        this.chunkStore = null;
+    }
+
+    /**
+     * Constructor for a grid which keeps its chunks in a ChunkStore.
+     * @param resolution Size of a cell, in the same unit as the LIDAR distances.
+     * @param chunkStore Store the chunks are kept in.
+     */
+    public OccupancyGrid(float resolution, ChunkStore chunkStore) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("Resolution must be positive");
+        }
+        this.resolution = resolution;
+        this.chunkStore = chunkStore;
+    }
+
+    /**
+     * Integrates a sweep taken from the given pose.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param pose Pose of the LIDAR device when the sweep was taken.
+     */
+    public void integrateSweep(DataPoint[] dataPointArray, Pose2D pose) {
+        for (int angle = 0; angle < sweepDistances.length; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        integrateSweepDistances(pose);
+    }
+
+    /**
+     * Integrates the current contents of a degree frame taken from the given pose.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param pose Pose of the LIDAR device when the sweep was taken.
+     */
+    public void integrateSweep(LidarFrame frame, Pose2D pose) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < sweepDistances.length; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        integrateSweepDistances(pose);
+    }
+
+    /**
+     * Traces a ray for every angle with a return.  The chunk directory is grown to cover the whole
+     * sweep first so that tracing never has to check the directory bounds.
+     */
+    private void integrateSweepDistances(Pose2D pose) {
+        int sensorCellX = worldToCell(pose.getX());
+        int sensorCellY = worldToCell(pose.getY());
+        float cosine = (float) Math.cos(pose.getTheta());
+        float sine = (float) Math.sin(pose.getTheta());
+
+        float maximumDistance = 0;
+        for (float distance : sweepDistances) {
+            maximumDistance = Math.max(maximumDistance, distance);
+        }
+        int reach = (int) Math.ceil(maximumDistance / resolution) + 1;
+        if (chunkStore == null) {
+            ensureCellRange(sensorCellX - reach, sensorCellY - reach, sensorCellX + reach, sensorCellY + reach);
+        }
+
+        for (int angle = 0; angle < sweepDistances.length; angle++) {
+            float distance = sweepDistances[angle];
+            if (distance <= 0) {
+                continue;
+            }
+            // Rotate the reading from the sensor frame into the map frame.
+            float localX = distance * LidarFrame.getCosine(angle);
+            float localY = distance * LidarFrame.getSine(angle);
+            float worldX = pose.getX() + (localX * cosine) - (localY * sine);
+            float worldY = pose.getY() + (localX * sine) + (localY * cosine);
+            traceRay(sensorCellX, sensorCellY, worldToCell(worldX), worldToCell(worldY));
+        }
+    }
+
+    /**
+     * Walks the cells from the sensor to the return with Bresenham's algorithm, marking the cells
+     * on the way as free and the last cell as occupied.
+     */
+    private void traceRay(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+        while (x0 != x1 || y0 != y1) {
+            addLogOdds(x0, y0, missLogOdds);
+            int doubledError = 2 * error;
+            if (doubledError >= dy) {
+                error += dy;
+                x0 += stepX;
+            }
+            if (doubledError <= dx) {
+                error += dx;
+                y0 += stepY;
+            }
+        }
+        addLogOdds(x1, y1, hitLogOdds);
+    }
+
+    /**
+     * Adds to the log-odds of a cell with clamping.  The cell must be inside the chunk directory.
+     */
+    private void addLogOdds(int cellX, int cellY, short delta) {
+        int chunkX = cellX >> CHUNK_SHIFT;
+        int chunkY = cellY >> CHUNK_SHIFT;
+        if (chunkStore != null) {
+            // Chunks from a store may be reused once another chunk is requested, so they are never
+            // cached here.  Cells outside of the store are dropped.
+            cachedChunk = chunkStore.getChunk(chunkX, chunkY, true);
+            if (cachedChunk == null) {
+                return;
+            }
+        } else if (chunkX != cachedChunkX || chunkY != cachedChunkY) {
+            int index = ((chunkY - minimumChunkY) * chunkColumns) + (chunkX - minimumChunkX);
+            short[] chunk = chunks[index];
+            if (chunk == null) {
+                chunk = new short[CHUNK_SIZE * CHUNK_SIZE];
+                chunks[index] = chunk;
+                allocatedChunkCount++;
+            }
+            cachedChunk = chunk;
+            cachedChunkX = chunkX;
+            cachedChunkY = chunkY;
+        }
+        int cell = ((cellY & CHUNK_MASK) << CHUNK_SHIFT) + (cellX & CHUNK_MASK);
+        int value = cachedChunk[cell] + delta;
+        if (value > maximumLogOdds) {
+            value = maximumLogOdds;
+        } else if (value < minimumLogOdds) {
+            value = minimumLogOdds;
+        }
+        cachedChunk[cell] = (short) value;
+    }
+
+    /**
+     * Grows the chunk directory so that it covers the given cells.  The directory at least doubles
+     * in each direction it grows, so growing is rare once mapping is under way.
+     */
+    private void ensureCellRange(int minimumCellX, int minimumCellY, int maximumCellX, int maximumCellY) {
+        int fromChunkX = minimumCellX >> CHUNK_SHIFT;
+        int fromChunkY = minimumCellY >> CHUNK_SHIFT;
+        int toChunkX = maximumCellX >> CHUNK_SHIFT;
+        int toChunkY = maximumCellY >> CHUNK_SHIFT;
+        if (directoryInitialized &&
+                fromChunkX >= minimumChunkX && toChunkX < minimumChunkX + chunkColumns &&
+                fromChunkY >= minimumChunkY && toChunkY < minimumChunkY + chunkRows) {
+            return;
+        }
+
+        int newMinimumChunkX, newMinimumChunkY, newColumns, newRows;
+        if (!directoryInitialized) {
+            newMinimumChunkX = fromChunkX;
+            newMinimumChunkY = fromChunkY;
+            newColumns = toChunkX - fromChunkX + 1;
+            newRows = toChunkY - fromChunkY + 1;
+        } else {
+            newMinimumChunkX = Math.min(minimumChunkX, fromChunkX);
+            newMinimumChunkY = Math.min(minimumChunkY, fromChunkY);
+            int newMaximumChunkX = Math.max(minimumChunkX + chunkColumns - 1, toChunkX);
+            int newMaximumChunkY = Math.max(minimumChunkY + chunkRows - 1, toChunkY);
+            if (newMinimumChunkX < minimumChunkX) {
+                newMinimumChunkX = Math.min(newMinimumChunkX, minimumChunkX - chunkColumns);
+            }
+            if (newMaximumChunkX >= minimumChunkX + chunkColumns) {
+                newMaximumChunkX = Math.max(newMaximumChunkX, minimumChunkX + (2 * chunkColumns) - 1);
+            }
+            if (newMinimumChunkY < minimumChunkY) {
+                newMinimumChunkY = Math.min(newMinimumChunkY, minimumChunkY - chunkRows);
+            }
+            if (newMaximumChunkY >= minimumChunkY + chunkRows) {
+                newMaximumChunkY = Math.max(newMaximumChunkY, minimumChunkY + (2 * chunkRows) - 1);
+            }
+            newColumns = newMaximumChunkX - newMinimumChunkX + 1;
+            newRows = newMaximumChunkY - newMinimumChunkY + 1;
+        }
+
+        short[][] newChunks = new short[newColumns * newRows][];
+        if (directoryInitialized) {
+            for (int row = 0; row < chunkRows; row++) {
+                System.arraycopy(chunks, row * chunkColumns,
+                        newChunks, ((row + minimumChunkY - newMinimumChunkY) * newColumns) + (minimumChunkX - newMinimumChunkX),
+                        chunkColumns);
+            }
+        }
+        chunks = newChunks;
+        minimumChunkX = newMinimumChunkX;
+        minimumChunkY = newMinimumChunkY;
+        chunkColumns = newColumns;
+        chunkRows = newRows;
+        directoryInitialized = true;
+        cachedChunkX = Integer.MIN_VALUE;
+        cachedChunkY = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Converts a map coordinate to a cell coordinate.
+     * @param coordinate Map coordinate.
+     * @return Cell coordinate.
+     */
+    public int worldToCell(float coordinate) {
+        return (int) Math.floor(coordinate / resolution);
+    }
+
+    /**
+     * Returns the log-odds of a cell.  Cells which have never been observed return 0.
+     * @param cellX Cell x coordinate.
+     * @param cellY Cell y coordinate.
+     * @return Log-odds scaled by 100.
+     */
+    public short getLogOdds(int cellX, int cellY) {
+        if (chunkStore != null) {
+            short[] chunk = chunkStore.getChunk(cellX >> CHUNK_SHIFT, cellY >> CHUNK_SHIFT, false);
+            return chunk == null ? 0 : chunk[((cellY & CHUNK_MASK) << CHUNK_SHIFT) + (cellX & CHUNK_MASK)];
+        }
+        int chunkX = (cellX >> CHUNK_SHIFT) - minimumChunkX;
+        int chunkY = (cellY >> CHUNK_SHIFT) - minimumChunkY;
+        if (chunkX < 0 || chunkY < 0 || chunkX >= chunkColumns || chunkY >= chunkRows) {
+            return 0;
+        }
+        short[] chunk = chunks[(chunkY * chunkColumns) + chunkX];
+        if (chunk == null) {
+            return 0;
+        }
+        return chunk[((cellY & CHUNK_MASK) << CHUNK_SHIFT) + (cellX & CHUNK_MASK)];
+    }
+
+    /**
+     * Returns true if a cell is considered occupied.
+     * @param cellX Cell x coordinate.
+     * @param cellY Cell y coordinate.
+     * @return True if occupied.
+     */
+    public boolean isCellOccupied(int cellX, int cellY) {
+        return getLogOdds(cellX, cellY) > occupiedThreshold;
+    }
+
+    /**
+     * Returns the probability that the cell holding a map position is occupied.
+     * @param x X position on the map.
+     * @param y Y position on the map.
+     * @return Probability from 0 to 1, 0.5 if unknown.
+     */
+    public float getOccupancyProbability(float x, float y) {
+        double logOdds = getLogOdds(worldToCell(x), worldToCell(y)) / 100.0;
+        return (float) (1.0 - (1.0 / (1.0 + Math.exp(logOdds))));
+    }
+
+    /**
+     * Returns true if the cell holding a map position is considered occupied.
+     * @param x X position on the map.
+     * @param y Y position on the map.
+     * @return True if occupied.
+     */
+    public boolean isOccupied(float x, float y) {
+        return getLogOdds(worldToCell(x), worldToCell(y)) > occupiedThreshold;
+    }
+
+    /**
+     * Returns true if the cell holding a map position is considered free.
+     * @param x X position on the map.
+     * @param y Y position on the map.
+     * @return True if free.
+     */
+    public boolean isFree(float x, float y) {
+        return getLogOdds(worldToCell(x), worldToCell(y)) < freeThreshold;
+    }
+
+    /**
+     * Returns true if every cell a straight line between two map positions passes through is
+     * considered free.
+     * @param x0 X position of the start of the line.
+     * @param y0 Y position of the start of the line.
+     * @param x1 X position of the end of the line.
+     * @param y1 Y position of the end of the line.
+     * @return True if the line is free.
+     */
+    public boolean isLineFree(float x0, float y0, float x1, float y1) {
+        int cellX = worldToCell(x0);
+        int cellY = worldToCell(y0);
+        int endX = worldToCell(x1);
+        int endY = worldToCell(y1);
+        int dx = Math.abs(endX - cellX);
+        int dy = -Math.abs(endY - cellY);
+        int stepX = cellX < endX ? 1 : -1;
+        int stepY = cellY < endY ? 1 : -1;
+        int error = dx + dy;
+        while (true) {
+            if (getLogOdds(cellX, cellY) >= freeThreshold) {
+                return false;
+            }
+            if (cellX == endX && cellY == endY) {
+                return true;
+            }
+            int doubledError = 2 * error;
+            if (doubledError >= dy) {
+                error += dy;
+                cellX += stepX;
+            }
+            if (doubledError <= dx) {
+                error += dx;
+                cellY += stepY;
+            }
+        }
+    }
+
+    /**
+     * Returns the size of a cell.
+     * @return Cell size.
+     */
+    public float getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Returns the store the chunks are kept in.
+     * @return The chunk store, or null if the chunks are kept in the chunk directory.
+     */
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    /**
+     * Returns the smallest cell x coordinate covered by the chunk directory.
+     * @return Smallest cell x coordinate.
+     */
+    public int getMinimumCellX() {
+        return minimumChunkX << CHUNK_SHIFT;
+    }
+
+    /**
+     * Returns the smallest cell y coordinate covered by the chunk directory.
+     * @return Smallest cell y coordinate.
+     */
+    public int getMinimumCellY() {
+        return minimumChunkY << CHUNK_SHIFT;
+    }
+
+    /**
+     * Returns the number of cell columns covered by the chunk directory.
+     * @return Number of cell columns.
+     */
+    public int getCellColumns() {
+        return chunkColumns << CHUNK_SHIFT;
+    }
+
+    /**
+     * Returns the number of cell rows covered by the chunk directory.
+     * @return Number of cell rows.
+     */
+    public int getCellRows() {
+        return chunkRows << CHUNK_SHIFT;
+    }
+
+    /**
+     * Returns the number of chunks which have been allocated.
+     * @return Number of allocated chunks.
+     */
+    public int getAllocatedChunkCount() {
+        return allocatedChunkCount;
+    }
+
+    /**
+     * Sets the log-odds, scaled by 100, added for a return and for a cell a ray passes through.
+     * @param hitLogOdds Log-odds added to the cell of a return, must be positive.
+     * @param missLogOdds Log-odds added to the cells before the return, must be negative.
+     */
+    public void setUpdateLogOdds(short hitLogOdds, short missLogOdds) {
+        if (hitLogOdds <= 0 || missLogOdds >= 0) {
+            throw new IllegalArgumentException("Hits must be positive and misses negative");
+        }
+        this.hitLogOdds = hitLogOdds;
+        this.missLogOdds = missLogOdds;
+    }
+
+    /**
+     * Sets the range the log-odds of a cell are clamped to, so cells can still change after being
+     * observed many times.
+     * @param minimumLogOdds Lowest log-odds.
+     * @param maximumLogOdds Highest log-odds.
+     */
+    public void setLogOddsClamp(short minimumLogOdds, short maximumLogOdds) {
+        if (minimumLogOdds >= 0 || maximumLogOdds <= 0) {
+            throw new IllegalArgumentException("The clamp range must contain 0");
+        }
+        this.minimumLogOdds = minimumLogOdds;
+        this.maximumLogOdds = maximumLogOdds;
+    }
+
+    /**
+     * Sets the log-odds thresholds used by isOccupied and isFree.
+     * @param occupiedThreshold Cells above this value are occupied.
+     * @param freeThreshold Cells below this value are free.
+     */
+    public void setThresholds(short occupiedThreshold, short freeThreshold) {
+        if (freeThreshold > occupiedThreshold) {
+            throw new IllegalArgumentException("The free threshold must not exceed the occupied threshold");
+        }
+        this.occupiedThreshold = occupiedThreshold;
+        this.freeThreshold = freeThreshold;
+    }
+}
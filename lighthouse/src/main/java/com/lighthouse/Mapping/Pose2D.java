@@ -0,0 +1,98 @@
+package com.lighthouse.Mapping;
+
+/**
+ * Position and heading of the LIDAR device on a map.  Distances use the same unit as the LIDAR
+ * readings and the heading is in radians, counter clockwise from the map x axis.
+ */
+public class Pose2D {
+
+    /**
+     * X position on the map.
+     */
+    private final float x;
+
+    /**
+     * Y position on the map.
+     */
+    private final float y;
+
+    /**
+     * Heading in radians.
+     */
+    private final float theta;
+
+    /**
+     * Constructor.
+     * @param x X position on the map.
+     * @param y Y position on the map.
+     * @param theta Heading in radians.
+     */
+    public Pose2D(float x, float y, float theta) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+    }
+
+    /**
+     * Returns the x position on the map.
+     * @return X position.
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y position on the map.
+     * @return Y position.
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Returns the heading in radians.
+     * @return Heading.
+     */
+    public float getTheta() {
+        return theta;
+    }
+
+    /**
+     * Returns the pose reached by applying a motion, expressed in this pose's frame, to this pose.
+     * @param relative Motion relative to this pose.
+     * @return The composed pose.
+     */
+    public Pose2D compose(Pose2D relative) {
+        float cosine = (float) Math.cos(theta);
+        float sine = (float) Math.sin(theta);
+        return new Pose2D(x + (relative.x * cosine) - (relative.y * sine),
+                y + (relative.x * sine) + (relative.y * cosine),
+                normalizeAngle(theta + relative.theta));
+    }
+
+    /**
+     * Wraps an angle into the range -PI to PI.
+     * @param angle Angle in radians.
+     * @return The wrapped angle, or NaN if the angle is not finite.
+     */
+    public static float normalizeAngle(float angle) {
+        if (Float.isNaN(angle) || Float.isInfinite(angle)) {
+            return Float.NaN;
+        }
+        if (Math.abs(angle) > 4 * Math.PI) {
+            angle = (float) Math.IEEEremainder(angle, 2 * Math.PI);
+        }
+        while (angle > Math.PI) {
+            angle -= 2 * Math.PI;
+        }
+        while (angle < -Math.PI) {
+            angle += 2 * Math.PI;
+        }
+        return angle;
+    }
+
+    @Override
+    public String toString() {
+        return "Pose2D(" + x + ", " + y + ", " + theta + ")";
+    }
+}
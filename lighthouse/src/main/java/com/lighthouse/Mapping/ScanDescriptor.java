@@ -0,0 +1,81 @@
+package com.lighthouse.Mapping;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Computes a compact rotation invariant signature of a sweep for place recognition.  The range out
+ * to a maximum is divided into rings, and the descriptor holds the fraction of the angles whose
+ * return falls in each ring.  Turning on the spot only reorders the angles, so it does not change
+ * the descriptor, while moving to another place changes how far away the walls are.
+ *
+ * A last element holds the fraction of angles without a return or beyond the maximum range, which
+ * separates open areas from enclosed ones.
+ */
+public class ScanDescriptor {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private final int ringCount;
+
+    private final float ringWidth;
+
+    /**
+     * Constructor.
+     * @param ringCount Number of range rings.
+     * @param maximumRange Range covered by the rings.
+     */
+    public ScanDescriptor(int ringCount, float maximumRange) {
+        if (ringCount <= 0 || maximumRange <= 0) {
+            throw new IllegalArgumentException("Ring count and maximum range must be positive");
+        }
+        this.ringCount = ringCount;
+        this.ringWidth = maximumRange / ringCount;
+    }
+
+    /**
+     * Returns the length of the descriptors.
+     * @return Number of elements.
+     */
+    public int getDimensions() {
+        return ringCount + 1;
+    }
+
+    /**
+     * Computes the descriptor of a sweep.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param descriptor Array of getDimensions() elements which receives the descriptor.
+     */
+    public void compute(DataPoint[] dataPointArray, float[] descriptor) {
+        clear(descriptor);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            addReading(dataPoint == null ? 0 : dataPoint.getDistance(), descriptor);
+        }
+    }
+
+    /**
+     * Computes the descriptor of the current contents of a degree frame.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param descriptor Array of getDimensions() elements which receives the descriptor.
+     */
+    public void compute(LidarFrame frame, float[] descriptor) {
+        LidarFrame.requireDegreeFrame(frame);
+        clear(descriptor);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            addReading(frame.getDistance(angle), descriptor);
+        }
+    }
+
+    private void clear(float[] descriptor) {
+        for (int i = 0; i <= ringCount; i++) {
+            descriptor[i] = 0;
+        }
+    }
+
+    private void addReading(float distance, float[] descriptor) {
+        int ring = distance > 0 ? (int) (distance / ringWidth) : ringCount;
+        descriptor[Math.min(ring, ringCount)] += 1f / ANGLES;
+    }
+}
@@ -0,0 +1,122 @@
+package com.lighthouse.Mapping;
+
+/**
+ * Result of aligning a sweep against a reference sweep.  The motion is the pose of the new sweep
+ * in the frame of the reference sweep.  Results are mutable so that a matcher can fill the same
+ * result every sweep without allocating.
+ */
+public class ScanMatchResult {
+
+    private float x;
+
+    private float y;
+
+    private float theta;
+
+    /**
+     * Row major 3x3 covariance of x, y and theta.
+     */
+    private final double[] covariance = new double[9];
+
+    private int iterations;
+
+    private int correspondenceCount;
+
+    private float rmsError;
+
+    private boolean valid;
+
+    /**
+     * Stores a result.
+     */
+    void set(float x, float y, float theta, int iterations, int correspondenceCount, float rmsError, boolean valid) {
+        this.x = x;
+        this.y = y;
+        this.theta = theta;
+        this.iterations = iterations;
+        this.correspondenceCount = correspondenceCount;
+        this.rmsError = rmsError;
+        this.valid = valid;
+    }
+
+    /**
+     * Returns the covariance array so the matcher can fill it in place.
+     */
+    double[] getCovarianceArray() {
+        return covariance;
+    }
+
+    /**
+     * Returns the x motion since the reference sweep.
+     * @return X motion.
+     */
+    public float getX() {
+        return x;
+    }
+
+    /**
+     * Returns the y motion since the reference sweep.
+     * @return Y motion.
+     */
+    public float getY() {
+        return y;
+    }
+
+    /**
+     * Returns the rotation since the reference sweep, in radians.
+     * @return Rotation.
+     */
+    public float getTheta() {
+        return theta;
+    }
+
+    /**
+     * Returns an element of the 3x3 covariance of x, y and theta.
+     * @param row Row, 0 for x, 1 for y and 2 for theta.
+     * @param column Column, 0 for x, 1 for y and 2 for theta.
+     * @return Covariance value.
+     */
+    public double getCovariance(int row, int column) {
+        return covariance[(row * 3) + column];
+    }
+
+    /**
+     * Returns the number of iterations the alignment took.
+     * @return Iteration count.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Returns the number of point to line correspondences used in the final iteration.
+     * @return Correspondence count.
+     */
+    public int getCorrespondenceCount() {
+        return correspondenceCount;
+    }
+
+    /**
+     * Returns the root mean square point to line distance of the final iteration.
+     * @return RMS error.
+     */
+    public float getRmsError() {
+        return rmsError;
+    }
+
+    /**
+     * Returns true if enough correspondences were found for the motion to be trusted.
+     * @return True if valid.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Creates a Pose2D holding the motion.
+     * @return The motion as a pose.
+     */
+    public Pose2D toPose() {
+        return new Pose2D(x, y, theta);
+    }
+}
@@ -0,0 +1,649 @@
+package com.lighthouse.Mapping;
+
+import android.os.Build;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Estimates the motion of the LIDAR device between consecutive sweeps with point to line ICP.
+ * Each new sweep is aligned against the previous one and then becomes the reference for the next.
+ *
+ * Correspondences are found through the angular order of the reference sweep: a point is projected
+ * into the reference frame, its bearing gives an index into the reference, and only a small window
+ * of angles around it is searched.  All working arrays and coarse search tasks are allocated up
+ * front, so matching does not allocate after the first sweep.  The optional coarse to fine mode
+ * first scores a grid of candidate motions against a rasterized copy of the reference on a
+ * fork-join pool, which helps when the device turns or moves quickly between sweeps.
+ */
+public class ScanMatcher {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Points of the reference sweep, indexed by angle, and whether each angle had a return.
+     */
+    private final float[] referenceX = new float[ANGLES];
+
+    private final float[] referenceY = new float[ANGLES];
+
+    private final boolean[] referenceValid = new boolean[ANGLES];
+
+    /**
+     * Unit normals of the line through each reference point and its neighbours.
+     */
+    private final float[] normalX = new float[ANGLES];
+
+    private final float[] normalY = new float[ANGLES];
+
+    private final boolean[] normalValid = new boolean[ANGLES];
+
+    private boolean hasReference = false;
+
+    /**
+     * Points of the sweep being matched.
+     */
+    private final float[] currentX = new float[ANGLES];
+
+    private final float[] currentY = new float[ANGLES];
+
+    private final boolean[] currentValid = new boolean[ANGLES];
+
+    private final float[] sweepDistances = new float[ANGLES];
+
+    /**
+     * Normal equations of a Gauss-Newton step, reused every iteration.
+     */
+    private final double[] hessian = new double[9];
+
+    private final double[] gradient = new double[3];
+
+    private final double[] inverse = new double[9];
+
+    /**
+     * Motion found for the previous sweep, used as the starting guess for the next one.
+     */
+    private float previousX = 0;
+
+    private float previousY = 0;
+
+    private float previousTheta = 0;
+
+    private int maximumIterations = 30;
+
+    /**
+     * Number of angles searched on each side of the projected bearing.
+     */
+    private int searchWindow = 8;
+
+    /**
+     * Correspondences further apart than this are rejected as outliers.
+     */
+    private float maximumCorrespondenceDistance = 300f;
+
+    /**
+     * Neighbouring reference points further apart than this are not used to build a line.
+     */
+    private float maximumNeighbourDistance = 200f;
+
+    private int minimumCorrespondences = 20;
+
+    private boolean useConstantVelocityGuess = true;
+
+    /**
+     * Coarse to fine search configuration.  The pool is null when the mode is off.
+     */
+    private ForkJoinPool coarsePool = null;
+
+    private float coarseAngleRange = (float) Math.toRadians(20);
+
+    private float coarseAngleStep = (float) Math.toRadians(1);
+
+    private float coarseTranslationRange = 300f;
+
+    private float coarseTranslationStep = 50f;
+
+    /**
+     * Largest distance, from the sensor, covered by the rasterized reference.
+     */
+    private static final float COARSE_GRID_REACH = 4000f;
+
+    /**
+     * Rasterized reference used to score coarse candidates.  Its cells are one translation step
+     * wide, so moving a candidate by one step moves every point by exactly one cell.
+     */
+    private boolean[] coarseGrid = new boolean[0];
+
+    private int coarseGridHalfSize = 0;
+
+    private int coarseGridSize = 0;
+
+    private int[] coarseScores = new int[0];
+
+    private float[] coarseBestX = new float[0];
+
+    private float[] coarseBestY = new float[0];
+
+    /**
+     * Cells of the current sweep for every candidate rotation, packed as row * size + column, or -1
+     * for angles without a return.
+     */
+    private int[][] coarseCells = new int[0][];
+
+    /**
+     * Best motion found by the last coarse search.
+     */
+    private float coarseGuessX, coarseGuessY, coarseGuessTheta;
+
+    /**
+     * Guess around which the current coarse search scores its candidates.
+     */
+    private float coarseSearchX, coarseSearchY, coarseSearchTheta;
+
+    /**
+     * Tree of tasks covering every candidate rotation, built with the coarse buffers and
+     * reinitialized for each search so that searching does not allocate.
+     */
+    private CoarseSearchTask coarseSearch = null;
+
+    /**
+     * Aligns a sweep against the previous sweep.  The first sweep only becomes the reference.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param result Result which is filled with the motion since the previous sweep.
+     * @return True if a motion was estimated.
+     */
+    public boolean match(DataPoint[] dataPointArray, ScanMatchResult result) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        return matchSweepDistances(result);
+    }
+
+    /**
+     * Aligns the current contents of a degree frame against the previous sweep.  The first sweep
+     * only becomes the reference.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param result Result which is filled with the motion since the previous sweep.
+     * @return True if a motion was estimated.
+     */
+    public boolean match(LidarFrame frame, ScanMatchResult result) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        return matchSweepDistances(result);
+    }
+
+    /**
+     * Forgets the reference sweep and the previous motion.
+     */
+    public void reset() {
+        hasReference = false;
+        previousX = 0;
+        previousY = 0;
+        previousTheta = 0;
+    }
+
+    private boolean matchSweepDistances(ScanMatchResult result) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            float distance = sweepDistances[angle];
+            currentValid[angle] = distance > 0;
+            currentX[angle] = distance * LidarFrame.getCosine(angle);
+            currentY[angle] = distance * LidarFrame.getSine(angle);
+        }
+
+        if (!hasReference) {
+            setCurrentAsReference();
+            result.set(0, 0, 0, 0, 0, 0, false);
+            return false;
+        }
+
+        float x = 0;
+        float y = 0;
+        float theta = 0;
+        if (useConstantVelocityGuess) {
+            x = previousX;
+            y = previousY;
+            theta = previousTheta;
+        }
+        if (coarsePool != null) {
+            searchCoarse(x, y, theta);
+            x = coarseGuessX;
+            y = coarseGuessY;
+            theta = coarseGuessTheta;
+        }
+
+        int iteration = 0;
+        int correspondences = 0;
+        double squaredError = 0;
+        for (; iteration < maximumIterations; iteration++) {
+            Arrays.fill(hessian, 0);
+            Arrays.fill(gradient, 0);
+            squaredError = 0;
+            correspondences = 0;
+
+            float cosine = (float) Math.cos(theta);
+            float sine = (float) Math.sin(theta);
+            for (int angle = 0; angle < ANGLES; angle++) {
+                if (!currentValid[angle]) {
+                    continue;
+                }
+                float px = (cosine * currentX[angle]) - (sine * currentY[angle]) + x;
+                float py = (sine * currentX[angle]) + (cosine * currentY[angle]) + y;
+
+                int match = findClosestReference(px, py);
+                if (match < 0 || !normalValid[match]) {
+                    continue;
+                }
+                double nx = normalX[match];
+                double ny = normalY[match];
+                double residual = (nx * (px - referenceX[match])) + (ny * (py - referenceY[match]));
+                // Derivative of the rotated point with respect to theta.
+                double jacobianTheta = (nx * -(py - y)) + (ny * (px - x));
+
+                hessian[0] += nx * nx;
+                hessian[1] += nx * ny;
+                hessian[2] += nx * jacobianTheta;
+                hessian[4] += ny * ny;
+                hessian[5] += ny * jacobianTheta;
+                hessian[8] += jacobianTheta * jacobianTheta;
+                gradient[0] += nx * residual;
+                gradient[1] += ny * residual;
+                gradient[2] += jacobianTheta * residual;
+                squaredError += residual * residual;
+                correspondences++;
+            }
+            if (correspondences < minimumCorrespondences) {
+                break;
+            }
+            hessian[3] = hessian[1];
+            hessian[6] = hessian[2];
+            hessian[7] = hessian[5];
+            if (!invert3x3(hessian, inverse)) {
+                correspondences = 0;
+                break;
+            }
+            double stepX = -((inverse[0] * gradient[0]) + (inverse[1] * gradient[1]) + (inverse[2] * gradient[2]));
+            double stepY = -((inverse[3] * gradient[0]) + (inverse[4] * gradient[1]) + (inverse[5] * gradient[2]));
+            double stepTheta = -((inverse[6] * gradient[0]) + (inverse[7] * gradient[1]) + (inverse[8] * gradient[2]));
+            x += stepX;
+            y += stepY;
+            theta = Pose2D.normalizeAngle((float) (theta + stepTheta));
+            if (Math.abs(stepX) < 0.1 && Math.abs(stepY) < 0.1 && Math.abs(stepTheta) < 1e-5) {
+                iteration++;
+                break;
+            }
+        }
+
+        boolean valid = correspondences >= minimumCorrespondences;
+        double[] covariance = result.getCovarianceArray();
+        if (valid) {
+            // Scale the inverse of the information matrix by the residual variance.
+            double variance = squaredError / Math.max(1, correspondences - 3);
+            for (int i = 0; i < 9; i++) {
+                covariance[i] = inverse[i] * variance;
+            }
+            previousX = x;
+            previousY = y;
+            previousTheta = theta;
+        } else {
+            Arrays.fill(covariance, Double.POSITIVE_INFINITY);
+            previousX = 0;
+            previousY = 0;
+            previousTheta = 0;
+        }
+        float rmsError = correspondences > 0 ? (float) Math.sqrt(squaredError / correspondences) : 0;
+        result.set(x, y, theta, iteration, correspondences, rmsError, valid);
+
+        setCurrentAsReference();
+        return valid;
+    }
+
+    /**
+     * Finds the closest reference point by searching the angles around the bearing of a point.
+     * @return The angle of the closest reference point, or -1 if none is close enough.
+     */
+    private int findClosestReference(float px, float py) {
+        double bearing = Math.toDegrees(Math.atan2(py, px));
+        int center = (int) Math.round(bearing);
+        float bestDistance = maximumCorrespondenceDistance * maximumCorrespondenceDistance;
+        int best = -1;
+        for (int offset = -searchWindow; offset <= searchWindow; offset++) {
+            int angle = (((center + offset) % ANGLES) + ANGLES) % ANGLES;
+            if (!referenceValid[angle]) {
+                continue;
+            }
+            float dx = px - referenceX[angle];
+            float dy = py - referenceY[angle];
+            float squaredDistance = (dx * dx) + (dy * dy);
+            if (squaredDistance < bestDistance) {
+                bestDistance = squaredDistance;
+                best = angle;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Copies the current sweep into the reference and computes the reference line normals.
+     */
+    private void setCurrentAsReference() {
+        System.arraycopy(currentX, 0, referenceX, 0, ANGLES);
+        System.arraycopy(currentY, 0, referenceY, 0, ANGLES);
+        System.arraycopy(currentValid, 0, referenceValid, 0, ANGLES);
+        float maximumSquared = maximumNeighbourDistance * maximumNeighbourDistance;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            normalValid[angle] = false;
+            if (!referenceValid[angle]) {
+                continue;
+            }
+            int previous = (angle + ANGLES - 1) % ANGLES;
+            int next = (angle + 1) % ANGLES;
+            boolean usePrevious = referenceValid[previous] &&
+                    squaredDistance(angle, previous) < maximumSquared;
+            boolean useNext = referenceValid[next] &&
+                    squaredDistance(angle, next) < maximumSquared;
+            if (!usePrevious && !useNext) {
+                continue;
+            }
+            int from = usePrevious ? previous : angle;
+            int to = useNext ? next : angle;
+            float tangentX = referenceX[to] - referenceX[from];
+            float tangentY = referenceY[to] - referenceY[from];
+            float length = (float) Math.sqrt((tangentX * tangentX) + (tangentY * tangentY));
+            if (length == 0) {
+                continue;
+            }
+            normalX[angle] = -tangentY / length;
+            normalY[angle] = tangentX / length;
+            normalValid[angle] = true;
+        }
+        hasReference = true;
+        if (coarsePool != null) {
+            rasterizeReference();
+        }
+    }
+
+    private float squaredDistance(int first, int second) {
+        float dx = referenceX[first] - referenceX[second];
+        float dy = referenceY[first] - referenceY[second];
+        return (dx * dx) + (dy * dy);
+    }
+
+    /**
+     * Sizes the coarse search buffers for the current search window.
+     */
+    private void createCoarseBuffers() {
+        coarseGridHalfSize = (int) Math.ceil((COARSE_GRID_REACH + coarseTranslationRange) / coarseTranslationStep) + 2;
+        coarseGridSize = coarseGridHalfSize * 2;
+        coarseGrid = new boolean[coarseGridSize * coarseGridSize];
+        int rotations = ((int) (coarseAngleRange / coarseAngleStep) * 2) + 1;
+        coarseScores = new int[rotations];
+        coarseBestX = new float[rotations];
+        coarseBestY = new float[rotations];
+        coarseCells = new int[rotations][ANGLES];
+        coarseSearch = new CoarseSearchTask(0, rotations);
+    }
+
+    /**
+     * Marks the coarse cells holding a reference point, and their neighbours, so that a candidate
+     * motion can be scored with one lookup per point.
+     */
+    private void rasterizeReference() {
+        Arrays.fill(coarseGrid, false);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            if (!referenceValid[angle]) {
+                continue;
+            }
+            int cellX = (int) Math.floor(referenceX[angle] / coarseTranslationStep) + coarseGridHalfSize;
+            int cellY = (int) Math.floor(referenceY[angle] / coarseTranslationStep) + coarseGridHalfSize;
+            for (int row = cellY - 1; row <= cellY + 1; row++) {
+                for (int column = cellX - 1; column <= cellX + 1; column++) {
+                    if (row >= 0 && column >= 0 && row < coarseGridSize && column < coarseGridSize) {
+                        coarseGrid[(row * coarseGridSize) + column] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scores a grid of motions around the guess on the pool and stores the best one.
+     */
+    private void searchCoarse(float x, float y, float theta) {
+        int rotations = coarseScores.length;
+        coarseSearchX = x;
+        coarseSearchY = y;
+        coarseSearchTheta = theta;
+        coarseSearch.reinitialize();
+        coarsePool.invoke(coarseSearch);
+
+        int best = 0;
+        for (int i = 1; i < rotations; i++) {
+            // Prefer the smallest rotation on ties so a static scene stays put.
+            if (coarseScores[i] > coarseScores[best] ||
+                    (coarseScores[i] == coarseScores[best] &&
+                            Math.abs(i - (rotations / 2)) < Math.abs(best - (rotations / 2)))) {
+                best = i;
+            }
+        }
+        coarseGuessTheta = Pose2D.normalizeAngle(theta + ((best - (rotations / 2)) * coarseAngleStep));
+        coarseGuessX = coarseBestX[best];
+        coarseGuessY = coarseBestY[best];
+    }
+
+    /**
+     * Scores a range of candidate rotations, each against every candidate translation, around the
+     * current coarse search guess.  Larger ranges are split in half between two children.
+     */
+    private class CoarseSearchTask extends RecursiveAction {
+
+        private final int start;
+
+        private final int end;
+
+        private final CoarseSearchTask first;
+
+        private final CoarseSearchTask second;
+
+        CoarseSearchTask(int start, int end) {
+            this.start = start;
+            this.end = end;
+            if (end - start > 4) {
+                int middle = (start + end) >>> 1;
+                first = new CoarseSearchTask(start, middle);
+                second = new CoarseSearchTask(middle, end);
+            } else {
+                first = null;
+                second = null;
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (first != null) {
+                first.reinitialize();
+                second.reinitialize();
+                invokeAll(first, second);
+                return;
+            }
+            float x = coarseSearchX;
+            float y = coarseSearchY;
+            float theta = coarseSearchTheta;
+            int rotations = coarseScores.length;
+            int translations = (int) (coarseTranslationRange / coarseTranslationStep);
+            int margin = translations + 1;
+            for (int rotation = start; rotation < end; rotation++) {
+                // Rasterize the rotated sweep once, every translation is then a shift of the cells.
+                float candidateTheta = theta + ((rotation - (rotations / 2)) * coarseAngleStep);
+                float cosine = (float) Math.cos(candidateTheta);
+                float sine = (float) Math.sin(candidateTheta);
+                int[] cells = coarseCells[rotation];
+                for (int angle = 0; angle < ANGLES; angle++) {
+                    cells[angle] = -1;
+                    if (!currentValid[angle]) {
+                        continue;
+                    }
+                    float px = (cosine * currentX[angle]) - (sine * currentY[angle]) + x;
+                    float py = (sine * currentX[angle]) + (cosine * currentY[angle]) + y;
+                    int cellX = (int) Math.floor(px / coarseTranslationStep) + coarseGridHalfSize;
+                    int cellY = (int) Math.floor(py / coarseTranslationStep) + coarseGridHalfSize;
+                    if (cellX >= margin && cellY >= margin &&
+                            cellX < coarseGridSize - margin && cellY < coarseGridSize - margin) {
+                        cells[angle] = (cellY * coarseGridSize) + cellX;
+                    }
+                }
+
+                int bestScore = -1;
+                float bestX = x;
+                float bestY = y;
+                for (int j = -translations; j <= translations; j++) {
+                    for (int i = -translations; i <= translations; i++) {
+                        int shift = (j * coarseGridSize) + i;
+                        int score = 0;
+                        for (int angle = 0; angle < ANGLES; angle++) {
+                            int cell = cells[angle];
+                            if (cell >= 0 && coarseGrid[cell + shift]) {
+                                score++;
+                            }
+                        }
+                        if (score > bestScore || (score == bestScore && i == 0 && j == 0)) {
+                            bestScore = score;
+                            bestX = x + (i * coarseTranslationStep);
+                            bestY = y + (j * coarseTranslationStep);
+                        }
+                    }
+                }
+                coarseScores[rotation] = bestScore;
+                coarseBestX[rotation] = bestX;
+                coarseBestY[rotation] = bestY;
+            }
+        }
+    }
+
+    /**
+     * Inverts a symmetric 3x3 matrix.  Returns false if the matrix is singular, which happens when
+     * the sweep does not constrain every direction of motion, such as in a long corridor.
+     */
+    private static boolean invert3x3(double[] m, double[] result) {
+        double c0 = (m[4] * m[8]) - (m[5] * m[7]);
+        double c1 = (m[5] * m[6]) - (m[3] * m[8]);
+        double c2 = (m[3] * m[7]) - (m[4] * m[6]);
+        double determinant = (m[0] * c0) + (m[1] * c1) + (m[2] * c2);
+        if (Math.abs(determinant) < 1e-12) {
+            return false;
+        }
+        double inverseDeterminant = 1.0 / determinant;
+        result[0] = c0 * inverseDeterminant;
+        result[1] = ((m[2] * m[7]) - (m[1] * m[8])) * inverseDeterminant;
+        result[2] = ((m[1] * m[5]) - (m[2] * m[4])) * inverseDeterminant;
+        result[3] = c1 * inverseDeterminant;
+        result[4] = ((m[0] * m[8]) - (m[2] * m[6])) * inverseDeterminant;
+        result[5] = ((m[2] * m[3]) - (m[0] * m[5])) * inverseDeterminant;
+        result[6] = c2 * inverseDeterminant;
+        result[7] = ((m[1] * m[6]) - (m[0] * m[7])) * inverseDeterminant;
+        result[8] = ((m[0] * m[4]) - (m[1] * m[3])) * inverseDeterminant;
+        return true;
+    }
+
+    /**
+     * Turns on the coarse to fine mode, which scores a grid of candidate motions on the pool before
+     * refining the best one with ICP.
+     * @param pool The pool candidates are scored on.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    public void enableCoarseToFine(ForkJoinPool pool) {
+        this.coarsePool = pool;
+        createCoarseBuffers();
+        if (hasReference) {
+            rasterizeReference();
+        }
+    }
+
+    /**
+     * Turns off the coarse to fine mode.
+     */
+    public void disableCoarseToFine() {
+        this.coarsePool = null;
+    }
+
+    /**
+     * Sets the range and step of the candidate motions searched in coarse to fine mode.
+     * @param angleRange Largest rotation searched on each side of the guess, in radians.
+     * @param angleStep Rotation step, in radians.
+     * @param translationRange Largest translation searched on each side of the guess.
+     * @param translationStep Translation step, which is also the cell size used for scoring.
+     */
+    public void setCoarseSearchWindow(float angleRange, float angleStep, float translationRange, float translationStep) {
+        if (angleStep <= 0 || translationStep <= 0 || angleRange < 0 || translationRange < 0) {
+            throw new IllegalArgumentException("Search ranges must not be negative and steps must be positive");
+        }
+        this.coarseAngleRange = angleRange;
+        this.coarseAngleStep = angleStep;
+        this.coarseTranslationRange = translationRange;
+        this.coarseTranslationStep = translationStep;
+        if (coarsePool != null) {
+            createCoarseBuffers();
+            if (hasReference) {
+                rasterizeReference();
+            }
+        }
+    }
+
+    public int getMaximumIterations() {
+        return maximumIterations;
+    }
+
+    public void setMaximumIterations(int maximumIterations) {
+        this.maximumIterations = Math.max(1, maximumIterations);
+    }
+
+    /**
+     * Returns the number of angles searched on each side of a projected bearing.
+     * @return Search window.
+     */
+    public int getSearchWindow() {
+        return searchWindow;
+    }
+
+    /**
+     * Sets the number of angles searched on each side of a projected bearing.  Larger windows
+     * tolerate faster motion at a higher cost per iteration.
+     * @param searchWindow Search window.
+     */
+    public void setSearchWindow(int searchWindow) {
+        this.searchWindow = Math.max(1, Math.min(ANGLES / 2, searchWindow));
+    }
+
+    public float getMaximumCorrespondenceDistance() {
+        return maximumCorrespondenceDistance;
+    }
+
+    public void setMaximumCorrespondenceDistance(float maximumCorrespondenceDistance) {
+        this.maximumCorrespondenceDistance = maximumCorrespondenceDistance;
+    }
+
+    public int getMinimumCorrespondences() {
+        return minimumCorrespondences;
+    }
+
+    public void setMinimumCorrespondences(int minimumCorrespondences) {
+        this.minimumCorrespondences = Math.max(3, minimumCorrespondences);
+    }
+
+    /**
+     * Pass true to start each alignment from the motion found for the previous sweep.
+     * @param useConstantVelocityGuess boolean value for turning on and off the guess.
+     */
+    public void setUseConstantVelocityGuess(boolean useConstantVelocityGuess) {
+        this.useConstantVelocityGuess = useConstantVelocityGuess;
+    }
+}
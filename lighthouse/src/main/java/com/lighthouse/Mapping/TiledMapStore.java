@@ -0,0 +1,434 @@
+package com.lighthouse.Mapping;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * ChunkStore which keeps the tiles of a large map in a memory-mapped file, with a bounded LRU
+ * cache of hot tiles on the heap.  Tiles are laid out in the file by their position inside a fixed
+ * extent, so no index has to be kept in memory and tiles which are never written stay holes in a
+ * sparse file.  Modified tiles are written back to the mapping when they are evicted or flushed.
+ *
+ * A bitmap at the start of the file records which tiles have ever been written, so read-only
+ * lookups of other tiles return null without loading them or evicting anything from the cache.
+ * Tiles are only read from the file when they are first touched.  The cache should hold at least
+ * every tile within the scan radius so that crossing a tile boundary only loads the new row or
+ * column of tiles.  The heap used by the store does not depend on the size of the map.  The store
+ * is not thread safe.
+ */
+public class TiledMapStore implements ChunkStore, Closeable {
+
+    /**
+     * Number of cells in a tile.
+     */
+    private static final int TILE_CELLS = OccupancyGrid.CHUNK_SIZE * OccupancyGrid.CHUNK_SIZE;
+
+    /**
+     * Number of bytes a tile takes up in the file.
+     */
+    private static final int TILE_BYTES = TILE_CELLS * 2;
+
+    /**
+     * Number of tiles in each mapped segment of the file.  Segments are mapped separately since a
+     * single mapping is limited to 2GB.
+     */
+    private static final int TILES_PER_SEGMENT = 4096;
+
+    private static final int NO_SLOT = -1;
+
+    /**
+     * The bitmap of written tiles is padded to this size, so the tiles after it stay page aligned.
+     */
+    private static final int HEADER_ALIGNMENT = 4096;
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    /**
+     * One bit per tile, set once the tile has been handed out for writing.
+     */
+    private final MappedByteBuffer writtenTiles;
+
+    private final long headerBytes;
+
+    /**
+     * Mapped segments of the file, created the first time one of their tiles is used.
+     */
+    private final MappedByteBuffer[] segments;
+
+    private final ShortBuffer[] segmentShorts;
+
+    private final int minimumChunkX;
+
+    private final int minimumChunkY;
+
+    private final int chunkColumns;
+
+    private final int chunkRows;
+
+    /**
+     * Cached tiles.  Every slot owns one tile buffer for the life of the store.
+     */
+    private final short[][] slotTiles;
+
+    private final long[] slotKeys;
+
+    private final boolean[] slotDirty;
+
+    /**
+     * Doubly linked LRU list of occupied slots, from the most recently used head to the tail.
+     */
+    private final int[] slotPrevious;
+
+    private final int[] slotNext;
+
+    private int head = NO_SLOT;
+
+    private int tail = NO_SLOT;
+
+    private int usedSlots = 0;
+
+    /**
+     * Open addressing hash table from tile key to slot.
+     */
+    private final long[] tableKeys;
+
+    private final int[] tableSlots;
+
+    private final int tableMask;
+
+    private long lastKey = Long.MIN_VALUE;
+
+    private int lastSlot = NO_SLOT;
+
+    private long tileLoads = 0;
+
+    private long tileWriteBacks = 0;
+
+    /**
+     * Constructor.  The file is created if it does not exist, and grows as segments are mapped.
+     * @param backingFile The file the tiles are stored in.
+     * @param minimumChunkX Smallest chunk x coordinate of the map extent.
+     * @param minimumChunkY Smallest chunk y coordinate of the map extent.
+     * @param chunkColumns Number of chunk columns in the map extent.
+     * @param chunkRows Number of chunk rows in the map extent.
+     * @param cachedTileCount Number of tiles kept on the heap.
+     * @throws IOException If the file cannot be opened.
+     */
+    public TiledMapStore(File backingFile,
+                         int minimumChunkX,
+                         int minimumChunkY,
+                         int chunkColumns,
+                         int chunkRows,
+                         int cachedTileCount) throws IOException {
+        if (chunkColumns <= 0 || chunkRows <= 0 || cachedTileCount <= 0) {
+            throw new IllegalArgumentException("Extent and cache size must be positive");
+        }
+        long tileCount = (long) chunkColumns * chunkRows;
+        long segmentCount = (tileCount + TILES_PER_SEGMENT - 1) / TILES_PER_SEGMENT;
+        long bitmapBytes = (tileCount + 7) / 8;
+        long paddedBitmapBytes = ((bitmapBytes + HEADER_ALIGNMENT - 1) / HEADER_ALIGNMENT) * HEADER_ALIGNMENT;
+        if (segmentCount > Integer.MAX_VALUE || paddedBitmapBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Map extent is too large");
+        }
+        this.minimumChunkX = minimumChunkX;
+        this.minimumChunkY = minimumChunkY;
+        this.chunkColumns = chunkColumns;
+        this.chunkRows = chunkRows;
+
+        file = new RandomAccessFile(backingFile, "rw");
+        channel = file.getChannel();
+        headerBytes = paddedBitmapBytes;
+        writtenTiles = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes);
+        segments = new MappedByteBuffer[(int) segmentCount];
+        segmentShorts = new ShortBuffer[(int) segmentCount];
+
+        slotTiles = new short[cachedTileCount][TILE_CELLS];
+        slotKeys = new long[cachedTileCount];
+        slotDirty = new boolean[cachedTileCount];
+        slotPrevious = new int[cachedTileCount];
+        slotNext = new int[cachedTileCount];
+
+        int tableSize = Integer.highestOneBit(cachedTileCount * 2 - 1) << 1;
+        tableKeys = new long[tableSize];
+        tableSlots = new int[tableSize];
+        tableMask = tableSize - 1;
+        Arrays.fill(tableSlots, NO_SLOT);
+    }
+
+    @Override
+    public short[] getChunk(int chunkX, int chunkY, boolean forWrite) {
+        int column = chunkX - minimumChunkX;
+        int row = chunkY - minimumChunkY;
+        if (column < 0 || row < 0 || column >= chunkColumns || row >= chunkRows) {
+            return null;
+        }
+        long key = toKey(chunkX, chunkY);
+        long tileIndex = ((long) row * chunkColumns) + column;
+        int slot;
+        if (key == lastKey) {
+            slot = lastSlot;
+        } else {
+            slot = findSlot(key);
+            if (slot == NO_SLOT) {
+                if (!forWrite && !isWritten(tileIndex)) {
+                    return null;
+                }
+                try {
+                    slot = loadTile(key, tileIndex);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            } else {
+                moveToHead(slot);
+            }
+            lastKey = key;
+            lastSlot = slot;
+        }
+        if (forWrite) {
+            slotDirty[slot] = true;
+            if (!isWritten(tileIndex)) {
+                int bitmapIndex = (int) (tileIndex >>> 3);
+                writtenTiles.put(bitmapIndex, (byte) (writtenTiles.get(bitmapIndex) | (1 << (tileIndex & 7))));
+            }
+        }
+        return slotTiles[slot];
+    }
+
+    private boolean isWritten(long tileIndex) {
+        return (writtenTiles.get((int) (tileIndex >>> 3)) & (1 << (tileIndex & 7))) != 0;
+    }
+
+    /**
+     * Loads the written tiles in a square around a chunk so that they are hot before the map
+     * reaches them.
+     * @param centerChunkX Chunk x coordinate of the center.
+     * @param centerChunkY Chunk y coordinate of the center.
+     * @param radiusChunks Number of chunks on each side of the center.
+     */
+    public void prefetch(int centerChunkX, int centerChunkY, int radiusChunks) {
+        for (int chunkY = centerChunkY - radiusChunks; chunkY <= centerChunkY + radiusChunks; chunkY++) {
+            for (int chunkX = centerChunkX - radiusChunks; chunkX <= centerChunkX + radiusChunks; chunkX++) {
+                getChunk(chunkX, chunkY, false);
+            }
+        }
+    }
+
+    /**
+     * Writes every modified tile back to the mapping and forces the mapped segments to the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void flush() throws IOException {
+        for (int slot = head; slot != NO_SLOT; slot = slotNext[slot]) {
+            if (slotDirty[slot]) {
+                writeBack(slot);
+            }
+        }
+        for (MappedByteBuffer segment : segments) {
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        writtenTiles.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the number of tiles read from the file.
+     * @return Tile loads.
+     */
+    public long getTileLoads() {
+        return tileLoads;
+    }
+
+    /**
+     * Returns the number of modified tiles written back to the file.
+     * @return Tile write backs.
+     */
+    public long getTileWriteBacks() {
+        return tileWriteBacks;
+    }
+
+    /**
+     * Returns the number of tiles currently cached on the heap.
+     * @return Cached tile count.
+     */
+    public int getCachedTileCount() {
+        return usedSlots;
+    }
+
+    /**
+     * Reads a tile into a free slot, evicting the least recently used tile if the cache is full.
+     */
+    private int loadTile(long key, long tileIndex) throws IOException {
+        int slot;
+        if (usedSlots < slotTiles.length) {
+            slot = usedSlots++;
+        } else {
+            slot = tail;
+            if (slotDirty[slot]) {
+                writeBack(slot);
+            }
+            removeFromTable(slotKeys[slot]);
+            unlink(slot);
+        }
+
+        if (isWritten(tileIndex)) {
+            ShortBuffer shorts = getSegmentShorts((int) (tileIndex / TILES_PER_SEGMENT));
+            shorts.position((int) (tileIndex % TILES_PER_SEGMENT) * TILE_CELLS);
+            shorts.get(slotTiles[slot]);
+            tileLoads++;
+        } else {
+            // A tile which was never written is a hole in the file, so there is nothing to read.
+            Arrays.fill(slotTiles[slot], (short) 0);
+        }
+
+        slotKeys[slot] = key;
+        slotDirty[slot] = false;
+        insertIntoTable(key, slot);
+        linkAtHead(slot);
+        return slot;
+    }
+
+    /**
+     * Copies a cached tile into its place in the mapping.
+     */
+    private void writeBack(int slot) throws IOException {
+        long key = slotKeys[slot];
+        long tileIndex = (((long) (toChunkY(key) - minimumChunkY)) * chunkColumns) + (toChunkX(key) - minimumChunkX);
+        ShortBuffer shorts = getSegmentShorts((int) (tileIndex / TILES_PER_SEGMENT));
+        shorts.position((int) (tileIndex % TILES_PER_SEGMENT) * TILE_CELLS);
+        shorts.put(slotTiles[slot]);
+        slotDirty[slot] = false;
+        tileWriteBacks++;
+    }
+
+    private ShortBuffer getSegmentShorts(int segment) throws IOException {
+        ShortBuffer shorts = segmentShorts[segment];
+        if (shorts == null) {
+            long segmentBytes = (long) TILES_PER_SEGMENT * TILE_BYTES;
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                    headerBytes + (segment * segmentBytes),
+                    segmentBytes);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            segments[segment] = mapped;
+            shorts = mapped.asShortBuffer();
+            segmentShorts[segment] = shorts;
+        }
+        return shorts;
+    }
+
+    private int findSlot(long key) {
+        int index = hash(key);
+        while (tableSlots[index] != NO_SLOT) {
+            if (tableKeys[index] == key) {
+                return tableSlots[index];
+            }
+            index = (index + 1) & tableMask;
+        }
+        return NO_SLOT;
+    }
+
+    private void insertIntoTable(long key, int slot) {
+        int index = hash(key);
+        while (tableSlots[index] != NO_SLOT) {
+            index = (index + 1) & tableMask;
+        }
+        tableKeys[index] = key;
+        tableSlots[index] = slot;
+    }
+
+    /**
+     * Removes a key with backward shift deletion so that no tombstones are left in the table.
+     */
+    private void removeFromTable(long key) {
+        int index = hash(key);
+        while (tableKeys[index] != key || tableSlots[index] == NO_SLOT) {
+            index = (index + 1) & tableMask;
+        }
+        int next = (index + 1) & tableMask;
+        while (tableSlots[next] != NO_SLOT) {
+            int home = hash(tableKeys[next]);
+            // Move the entry back if its home is not between the hole and its current position.
+            if (((next - home) & tableMask) >= ((next - index) & tableMask)) {
+                tableKeys[index] = tableKeys[next];
+                tableSlots[index] = tableSlots[next];
+                index = next;
+            }
+            next = (next + 1) & tableMask;
+        }
+        tableSlots[index] = NO_SLOT;
+        if (key == lastKey) {
+            lastKey = Long.MIN_VALUE;
+        }
+    }
+
+    private void moveToHead(int slot) {
+        if (slot != head) {
+            unlink(slot);
+            linkAtHead(slot);
+        }
+    }
+
+    private void linkAtHead(int slot) {
+        slotPrevious[slot] = NO_SLOT;
+        slotNext[slot] = head;
+        if (head != NO_SLOT) {
+            slotPrevious[head] = slot;
+        }
+        head = slot;
+        if (tail == NO_SLOT) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int previous = slotPrevious[slot];
+        int next = slotNext[slot];
+        if (previous != NO_SLOT) {
+            slotNext[previous] = next;
+        } else {
+            head = next;
+        }
+        if (next != NO_SLOT) {
+            slotPrevious[next] = previous;
+        } else {
+            tail = previous;
+        }
+    }
+
+    private int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 40) & tableMask;
+    }
+
+    private static long toKey(int chunkX, int chunkY) {
+        return (((long) chunkX) << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    private static int toChunkX(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int toChunkY(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,363 @@
+package com.lighthouse.Navigation;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Vector field histogram obstacle avoidance.  Every sweep is turned into a polar obstacle density
+ * histogram with one sector per angle, where closer returns weigh more and every return is widened
+ * by the angle the robot radius covers at its distance.  The histogram is smoothed across sectors
+ * and over time, thresholded with hysteresis into blocked and free sectors, and runs of free
+ * sectors become the valleys the robot can steer through.
+ *
+ * Widening uses a difference array, so each return costs O(1) however wide it is, and smoothing
+ * uses a running sum, so an update is O(360) with the buffers allocated up front.
+ */
+public class VectorFieldHistogram {
+
+    private static final int SECTORS = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Returns further away than this are ignored.
+     */
+    private float activeRange = 2000;
+
+    /**
+     * Robot radius plus the clearance to keep from obstacles.
+     */
+    private float enlargementRadius = 300;
+
+    /**
+     * Half width, in sectors, of the moving average across sectors.
+     */
+    private int smoothingHalfWidth = 2;
+
+    /**
+     * Weight of the new sweep in the temporal smoothing, 1 to disable it.
+     */
+    private float temporalWeight = 0.5f;
+
+    /**
+     * Densities above the high threshold block a sector and densities below the low threshold free
+     * it; densities in between keep the previous state.
+     */
+    private float lowThreshold = 0.3f;
+
+    private float highThreshold = 0.6f;
+
+    /**
+     * Valleys at least this many sectors wide are wide valleys, where the heading keeps half this
+     * width away from the edges rather than taking the centre.
+     */
+    private int wideValleySectors = 40;
+
+    private final float[] sweepDistances = new float[SECTORS];
+
+    /**
+     * Difference array of the widened densities, with one extra entry for the end of the last
+     * range.
+     */
+    private final float[] differences = new float[SECTORS + 1];
+
+    private final float[] rawDensities = new float[SECTORS];
+
+    private final float[] densities = new float[SECTORS];
+
+    private final boolean[] blocked = new boolean[SECTORS];
+
+    private boolean hasUpdated = false;
+
+    /**
+     * Valleys, as first and last free sector going counterclockwise.
+     */
+    private final int[] valleyStarts = new int[SECTORS / 2];
+
+    private final int[] valleyEnds = new int[SECTORS / 2];
+
+    private int valleyCount = 0;
+
+    /**
+     * Updates the histogram with a sweep.
+     * @param dataPointArray The sweep, indexed by angle.
+     */
+    public void update(DataPoint[] dataPointArray) {
+        for (int angle = 0; angle < SECTORS; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        updateSweepDistances();
+    }
+
+    /**
+     * Updates the histogram with the current contents of a degree frame.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     */
+    public void update(LidarFrame frame) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < SECTORS; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        updateSweepDistances();
+    }
+
+    private void updateSweepDistances() {
+        for (int sector = 0; sector <= SECTORS; sector++) {
+            differences[sector] = 0;
+        }
+        for (int angle = 0; angle < SECTORS; angle++) {
+            float distance = sweepDistances[angle];
+            if (distance <= 0 || distance >= activeRange) {
+                continue;
+            }
+            float closeness = 1 - (distance / activeRange);
+            float magnitude = closeness * closeness;
+            int halfWidth = distance <= enlargementRadius
+                    ? SECTORS / 2
+                    : (int) Math.toDegrees(Math.asin(enlargementRadius / distance));
+            addRange(angle - halfWidth, angle + halfWidth, magnitude);
+        }
+        float running = 0;
+        for (int sector = 0; sector < SECTORS; sector++) {
+            running += differences[sector];
+            rawDensities[sector] = running;
+        }
+
+        // Moving average across sectors with a running sum, wrapping around
+        float windowSum = 0;
+        for (int offset = -smoothingHalfWidth; offset <= smoothingHalfWidth; offset++) {
+            windowSum += rawDensities[wrap(offset)];
+        }
+        float windowSize = (2 * smoothingHalfWidth) + 1;
+        for (int sector = 0; sector < SECTORS; sector++) {
+            float smoothed = windowSum / windowSize;
+            densities[sector] = hasUpdated
+                    ? densities[sector] + (temporalWeight * (smoothed - densities[sector]))
+                    : smoothed;
+            windowSum += rawDensities[wrap(sector + smoothingHalfWidth + 1)] - rawDensities[wrap(sector - smoothingHalfWidth)];
+        }
+        hasUpdated = true;
+
+        for (int sector = 0; sector < SECTORS; sector++) {
+            if (densities[sector] > highThreshold) {
+                blocked[sector] = true;
+            } else if (densities[sector] < lowThreshold) {
+                blocked[sector] = false;
+            }
+        }
+        findValleys();
+    }
+
+    /**
+     * Adds a value to a circular range of sectors of the difference array.
+     */
+    private void addRange(int first, int last, float value) {
+        if (last - first + 1 >= SECTORS) {
+            differences[0] += value;
+            differences[SECTORS] -= value;
+            return;
+        }
+        first = wrap(first);
+        last = wrap(last);
+        if (first <= last) {
+            differences[first] += value;
+            differences[last + 1] -= value;
+        } else {
+            differences[first] += value;
+            differences[SECTORS] -= value;
+            differences[0] += value;
+            differences[last + 1] -= value;
+        }
+    }
+
+    private static int wrap(int sector) {
+        return ((sector % SECTORS) + SECTORS) % SECTORS;
+    }
+
+    /**
+     * Collects the runs of free sectors, joining a run which wraps past 359.
+     */
+    private void findValleys() {
+        valleyCount = 0;
+        int start = -1;
+        for (int sector = 0; sector < SECTORS; sector++) {
+            if (blocked[sector]) {
+                start = sector;
+                break;
+            }
+        }
+        if (start < 0) {
+            // Nothing blocked, so the whole circle is one valley
+            valleyStarts[0] = 0;
+            valleyEnds[0] = SECTORS - 1;
+            valleyCount = 1;
+            return;
+        }
+        int valleyStart = -1;
+        for (int i = 1; i <= SECTORS; i++) {
+            int sector = (start + i) % SECTORS;
+            if (!blocked[sector]) {
+                if (valleyStart < 0) {
+                    valleyStart = sector;
+                }
+            } else if (valleyStart >= 0) {
+                valleyStarts[valleyCount] = valleyStart;
+                valleyEnds[valleyCount] = wrap(sector - 1);
+                valleyCount++;
+                valleyStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the heading to steer towards a goal.  The goal itself is returned if it lies in a
+     * valley far enough from its edges, and otherwise the closest safe heading of the valley
+     * nearest to the goal.
+     * @param goalAngle The goal direction, in degrees.
+     * @return Heading in degrees, or -1 if every sector is blocked.
+     */
+    public int findHeading(int goalAngle) {
+        goalAngle = wrap(goalAngle);
+        int bestHeading = -1;
+        int bestDifference = Integer.MAX_VALUE;
+        for (int valley = 0; valley < valleyCount; valley++) {
+            int width = getValleyWidth(valley);
+            int heading;
+            if (width >= SECTORS) {
+                return goalAngle;
+            }
+            int start = valleyStarts[valley];
+            if (width < wideValleySectors) {
+                heading = wrap(start + (width / 2));
+            } else {
+                // Keep half a wide valley away from the edges, and head for the goal within that
+                int margin = wideValleySectors / 2;
+                int first = start + margin;
+                int last = start + width - 1 - margin;
+                int offset = wrap(goalAngle - first);
+                heading = offset <= last - first ? goalAngle
+                        : angularDifference(goalAngle, first) <= angularDifference(goalAngle, last) ? wrap(first) : wrap(last);
+            }
+            int difference = angularDifference(goalAngle, heading);
+            if (difference < bestDifference) {
+                bestDifference = difference;
+                bestHeading = heading;
+            }
+        }
+        return bestHeading;
+    }
+
+    private static int angularDifference(int a, int b) {
+        int difference = wrap(a - b);
+        return difference > SECTORS / 2 ? SECTORS - difference : difference;
+    }
+
+    /**
+     * Forgets the smoothed histogram.
+     */
+    public void reset() {
+        for (int sector = 0; sector < SECTORS; sector++) {
+            densities[sector] = 0;
+            blocked[sector] = false;
+        }
+        hasUpdated = false;
+        valleyCount = 0;
+    }
+
+    /**
+     * Returns the smoothed obstacle density of a sector.
+     * @param sector The sector, in degrees.
+     * @return Density.
+     */
+    public float getDensity(int sector) {
+        return densities[sector];
+    }
+
+    /**
+     * Returns true if a sector is blocked.
+     * @param sector The sector, in degrees.
+     * @return True if blocked.
+     */
+    public boolean isBlocked(int sector) {
+        return blocked[sector];
+    }
+
+    /**
+     * Returns the number of valleys of free sectors.
+     * @return Valley count.
+     */
+    public int getValleyCount() {
+        return valleyCount;
+    }
+
+    /**
+     * Returns the first free sector of a valley, going counterclockwise.
+     * @param valley The valley.
+     * @return First sector.
+     */
+    public int getValleyStart(int valley) {
+        return valleyStarts[valley];
+    }
+
+    /**
+     * Returns the last free sector of a valley, going counterclockwise.
+     * @param valley The valley.
+     * @return Last sector.
+     */
+    public int getValleyEnd(int valley) {
+        return valleyEnds[valley];
+    }
+
+    /**
+     * Returns the number of sectors in a valley.
+     * @param valley The valley.
+     * @return Width in sectors.
+     */
+    public int getValleyWidth(int valley) {
+        return wrap(valleyEnds[valley] - valleyStarts[valley]) + 1;
+    }
+
+    /**
+     * Sets the range within which returns count as obstacles.
+     * @param activeRange Active range.
+     */
+    public void setActiveRange(float activeRange) {
+        this.activeRange = activeRange;
+    }
+
+    /**
+     * Sets the radius every return is widened by, normally the robot radius plus a clearance.
+     * @param enlargementRadius Enlargement radius.
+     */
+    public void setEnlargementRadius(float enlargementRadius) {
+        this.enlargementRadius = enlargementRadius;
+    }
+
+    /**
+     * Sets the smoothing of the histogram.
+     * @param smoothingHalfWidth Half width of the moving average across sectors.
+     * @param temporalWeight Weight of the new sweep against the previous histogram, 1 to disable.
+     */
+    public void setSmoothing(int smoothingHalfWidth, float temporalWeight) {
+        this.smoothingHalfWidth = Math.max(0, smoothingHalfWidth);
+        this.temporalWeight = temporalWeight;
+    }
+
+    /**
+     * Sets the hysteresis thresholds which block and free sectors.
+     * @param lowThreshold Densities below this free a sector.
+     * @param highThreshold Densities above this block a sector.
+     */
+    public void setThresholds(float lowThreshold, float highThreshold) {
+        this.lowThreshold = lowThreshold;
+        this.highThreshold = highThreshold;
+    }
+
+    /**
+     * Sets the width from which a valley is wide.
+     * @param wideValleySectors Width in sectors.
+     */
+    public void setWideValleySectors(int wideValleySectors) {
+        this.wideValleySectors = wideValleySectors;
+    }
+}
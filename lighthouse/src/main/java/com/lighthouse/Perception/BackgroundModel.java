@@ -0,0 +1,246 @@
+package com.lighthouse.Perception;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Learns the static scene seen by a fixed LIDAR device and reports the angles which differ from it.
+ * Every angle keeps a running mean and variance of its distance.  While the model is learning the
+ * statistics are plain averages; afterwards they follow the scene slowly with an exponential moving
+ * average, so furniture which is moved is eventually absorbed into the background.
+ *
+ * A reading differs from the background when it is further from the mean than a number of standard
+ * deviations.  An angle only becomes changed after several differing sweeps in a row, and only
+ * returns to the background after several matching sweeps in a row, so noise does not make angles
+ * flicker.  Readings without a return are ignored.
+ */
+public class BackgroundModel {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Number of sweeps which are averaged before the model starts detecting changes.
+     */
+    private int learningSweeps = 25;
+
+    /**
+     * Weight of a new reading once learning is over.
+     */
+    private float learningRate = 0.02f;
+
+    /**
+     * Weight of a new reading at an angle which differs from the background.
+     */
+    private float changedLearningRate = 0.001f;
+
+    /**
+     * Number of standard deviations a reading must be from the mean to differ from the background.
+     */
+    private float deviationThreshold = 4;
+
+    /**
+     * Smallest standard deviation of an angle, fixed and relative to the range, so that very
+     * stable angles do not report every millimetre.
+     */
+    private float minimumDeviation = 20;
+
+    private float minimumDeviationRatio = 0.01f;
+
+    private int enterSweeps = 2;
+
+    private int exitSweeps = 3;
+
+    private final float[] means = new float[ANGLES];
+
+    private final float[] variances = new float[ANGLES];
+
+    private final int[] sampleCounts = new int[ANGLES];
+
+    /**
+     * Consecutive differing, or matching while changed, sweeps of every angle.
+     */
+    private final int[] streaks = new int[ANGLES];
+
+    private final boolean[] changed = new boolean[ANGLES];
+
+    private final float[] sweepDistances = new float[ANGLES];
+
+    private int sweepCount = 0;
+
+    private int changedCount = 0;
+
+    /**
+     * Updates the model with a sweep and reports the changed angles.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param changes Changes which are replaced with those of the sweep.
+     */
+    public void update(DataPoint[] dataPointArray, SceneChanges changes) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        updateSweepDistances(changes);
+    }
+
+    /**
+     * Updates the model with the current contents of a degree frame and reports the changed angles.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param changes Changes which are replaced with those of the sweep.
+     */
+    public void update(LidarFrame frame, SceneChanges changes) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        updateSweepDistances(changes);
+    }
+
+    private void updateSweepDistances(SceneChanges changes) {
+        changes.clear();
+        boolean learning = sweepCount < learningSweeps;
+        sweepCount++;
+
+        for (int angle = 0; angle < ANGLES; angle++) {
+            float distance = sweepDistances[angle];
+            if (distance <= 0) {
+                if (changed[angle]) {
+                    changes.addEvent(angle, SceneChanges.CHANGE_CONTINUED, distance, means[angle]);
+                }
+                continue;
+            }
+
+            if (learning || sampleCounts[angle] == 0) {
+                // Welford's running mean and variance
+                int count = ++sampleCounts[angle];
+                float delta = distance - means[angle];
+                means[angle] += delta / count;
+                variances[angle] += ((delta * (distance - means[angle])) - variances[angle]) / count;
+                continue;
+            }
+
+            float mean = means[angle];
+            float deviation = Math.max((float) Math.sqrt(variances[angle]),
+                    Math.max(minimumDeviation, mean * minimumDeviationRatio));
+            float difference = distance - mean;
+            boolean differs = Math.abs(difference) > deviationThreshold * deviation;
+
+            // Learn the background, slowly if the angle looks changed
+            float rate = (changed[angle] || differs) ? changedLearningRate : learningRate;
+            means[angle] = mean + (rate * difference);
+            variances[angle] = (1 - rate) * (variances[angle] + (rate * difference * difference));
+
+            if (changed[angle]) {
+                streaks[angle] = differs ? 0 : streaks[angle] + 1;
+                if (streaks[angle] >= exitSweeps) {
+                    changed[angle] = false;
+                    streaks[angle] = 0;
+                    changedCount--;
+                    changes.addEvent(angle, SceneChanges.CHANGE_ENDED, distance, mean);
+                } else {
+                    changes.addEvent(angle, SceneChanges.CHANGE_CONTINUED, distance, mean);
+                }
+            } else {
+                streaks[angle] = differs ? streaks[angle] + 1 : 0;
+                if (streaks[angle] >= enterSweeps) {
+                    changed[angle] = true;
+                    streaks[angle] = 0;
+                    changedCount++;
+                    changes.addEvent(angle, SceneChanges.CHANGE_STARTED, distance, mean);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the background and starts learning again.
+     */
+    public void reset() {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            means[angle] = 0;
+            variances[angle] = 0;
+            sampleCounts[angle] = 0;
+            streaks[angle] = 0;
+            changed[angle] = false;
+        }
+        sweepCount = 0;
+        changedCount = 0;
+    }
+
+    /**
+     * Returns true while the model is still averaging its first sweeps.
+     * @return True if learning.
+     */
+    public boolean isLearning() {
+        return sweepCount < learningSweeps;
+    }
+
+    /**
+     * Returns true if an angle currently differs from the background.
+     * @param angle The angle.
+     * @return True if changed.
+     */
+    public boolean isChanged(int angle) {
+        return changed[angle];
+    }
+
+    /**
+     * Returns the number of angles which currently differ from the background.
+     * @return Changed angle count.
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    /**
+     * Returns the background distance of an angle.
+     * @param angle The angle.
+     * @return Mean distance.
+     */
+    public float getBackgroundDistance(int angle) {
+        return means[angle];
+    }
+
+    /**
+     * Returns the standard deviation of the background distance of an angle.
+     * @param angle The angle.
+     * @return Standard deviation.
+     */
+    public float getBackgroundDeviation(int angle) {
+        return (float) Math.sqrt(variances[angle]);
+    }
+
+    /**
+     * Sets how the background is learnt.
+     * @param learningSweeps Sweeps which are averaged before changes are detected.
+     * @param learningRate Weight of a new reading afterwards.
+     * @param changedLearningRate Weight of a new reading at a changed angle.
+     */
+    public void setLearning(int learningSweeps, float learningRate, float changedLearningRate) {
+        this.learningSweeps = learningSweeps;
+        this.learningRate = learningRate;
+        this.changedLearningRate = changedLearningRate;
+    }
+
+    /**
+     * Sets when a reading differs from the background.
+     * @param deviationThreshold Number of standard deviations from the mean.
+     * @param minimumDeviation Smallest standard deviation.
+     * @param minimumDeviationRatio Smallest standard deviation relative to the range.
+     */
+    public void setDeviationThreshold(float deviationThreshold, float minimumDeviation, float minimumDeviationRatio) {
+        this.deviationThreshold = deviationThreshold;
+        this.minimumDeviation = minimumDeviation;
+        this.minimumDeviationRatio = minimumDeviationRatio;
+    }
+
+    /**
+     * Sets the hysteresis of the change detection.
+     * @param enterSweeps Differing sweeps in a row before an angle becomes changed.
+     * @param exitSweeps Matching sweeps in a row before a changed angle returns to the background.
+     */
+    public void setHysteresis(int enterSweeps, int exitSweeps) {
+        this.enterSweeps = Math.max(1, enterSweeps);
+        this.exitSweeps = Math.max(1, exitSweeps);
+    }
+}
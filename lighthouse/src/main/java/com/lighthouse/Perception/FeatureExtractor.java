@@ -0,0 +1,316 @@
+package com.lighthouse.Perception;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Extracts line segments and corners from a sweep with incremental line fitting.  Points are
+ * visited once in angular order while the sums of a least squares line fit are kept up to date, so
+ * a sweep costs O(n).  A line is closed when the next point is too far from it, when there is a gap
+ * between neighbouring returns or when an angle has no return.  Consecutive lines whose ends meet
+ * at a large enough angle produce a corner.
+ *
+ * The extractor keeps its working arrays between sweeps and writes into a caller supplied
+ * SweepFeatures, so extracting does not allocate.
+ */
+public class FeatureExtractor {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Largest distance of a point from the line fitted so far before the line is closed.
+     */
+    private float lineTolerance = 30;
+
+    /**
+     * Gaps which break a line.  Neighbouring angles are about 0.017 of the range apart on a surface
+     * facing the sensor, so the default ratio allows for surfaces at a steep angle.
+     */
+    private final SweepBreaks breaks = new SweepBreaks(100, 0.1f);
+
+    private int minimumPoints = 5;
+
+    private float minimumLength = 200;
+
+    /**
+     * Largest distance between the meeting ends of two lines and their intersection for a corner.
+     */
+    private float cornerDistance = 150;
+
+    /**
+     * Smallest angle between two lines for their meeting point to be a corner, in radians.
+     */
+    private float minimumCornerAngle = (float) Math.toRadians(45);
+
+    private final float[] sweepDistances = new float[ANGLES];
+
+    /**
+     * Sums of the line being fitted.
+     */
+    private int pointCount;
+
+    private double sumX, sumY, sumXX, sumYY, sumXY;
+
+    private int firstAngle;
+
+    private float firstX, firstY, lastX, lastY;
+
+    /**
+     * Centroid and unit normal of the last fit.
+     */
+    private double fitX, fitY, fitNormalX, fitNormalY, fitResidual;
+
+    /**
+     * Extracts the features of a sweep.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param features Features which are replaced with those of the sweep.
+     */
+    public void extract(DataPoint[] dataPointArray, SweepFeatures features) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        extractSweepDistances(features);
+    }
+
+    /**
+     * Extracts the features of the current contents of a degree frame.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param features Features which are replaced with those of the sweep.
+     */
+    public void extract(LidarFrame frame, SweepFeatures features) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        extractSweepDistances(features);
+    }
+
+    private void extractSweepDistances(SweepFeatures features) {
+        features.clear();
+
+        // Start right after a break so a wall crossing angle 0 is not split in two
+        int start = breaks.findStartAfterBreak(sweepDistances);
+        if (start < 0) {
+            start = findSharpestAngle();
+        }
+
+        pointCount = 0;
+        int previous = -1;
+        for (int i = 0; i < ANGLES; i++) {
+            int angle = start + i;
+            if (angle >= ANGLES) {
+                angle -= ANGLES;
+            }
+            float distance = sweepDistances[angle];
+            if (distance <= 0) {
+                closeLine(features);
+                previous = -1;
+                continue;
+            }
+            float x = distance * LidarFrame.getCosine(angle);
+            float y = distance * LidarFrame.getSine(angle);
+
+            if (previous >= 0 && breaks.isBreak(sweepDistances, previous, angle)) {
+                closeLine(features);
+            } else if (pointCount >= 2) {
+                fitLine();
+                double offset = ((x - fitX) * fitNormalX) + ((y - fitY) * fitNormalY);
+                if (Math.abs(offset) > lineTolerance) {
+                    // The last point of the closed line is shared, so corners get a line on both sides
+                    float sharedX = lastX;
+                    float sharedY = lastY;
+                    closeLine(features);
+                    addPoint(previous, sharedX, sharedY);
+                }
+            }
+            addPoint(angle, x, y);
+            previous = angle;
+        }
+        closeLine(features);
+
+        findCorners(features);
+    }
+
+    /**
+     * Returns the angle whose point is furthest from the chord between the points two angles to
+     * either side.  Used as the starting point when the sweep is unbroken all the way round, since
+     * it is the most likely corner.
+     */
+    private int findSharpestAngle() {
+        int sharpest = 0;
+        float largest = -1;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            int before = (angle + ANGLES - 2) % ANGLES;
+            int after = (angle + 2) % ANGLES;
+            float beforeX = sweepDistances[before] * LidarFrame.getCosine(before);
+            float beforeY = sweepDistances[before] * LidarFrame.getSine(before);
+            float chordX = (sweepDistances[after] * LidarFrame.getCosine(after)) - beforeX;
+            float chordY = (sweepDistances[after] * LidarFrame.getSine(after)) - beforeY;
+            float offsetX = (sweepDistances[angle] * LidarFrame.getCosine(angle)) - beforeX;
+            float offsetY = (sweepDistances[angle] * LidarFrame.getSine(angle)) - beforeY;
+            float chordLength = (float) Math.sqrt((chordX * chordX) + (chordY * chordY));
+            if (chordLength == 0) {
+                continue;
+            }
+            float offset = Math.abs((chordX * offsetY) - (chordY * offsetX)) / chordLength;
+            if (offset > largest) {
+                largest = offset;
+                sharpest = angle;
+            }
+        }
+        return sharpest;
+    }
+
+    private void addPoint(int angle, float x, float y) {
+        if (pointCount == 0) {
+            sumX = 0;
+            sumY = 0;
+            sumXX = 0;
+            sumYY = 0;
+            sumXY = 0;
+            firstAngle = angle;
+            firstX = x;
+            firstY = y;
+        }
+        pointCount++;
+        sumX += x;
+        sumY += y;
+        sumXX += (double) x * x;
+        sumYY += (double) y * y;
+        sumXY += (double) x * y;
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * Fits a line through the current points from the sums, as the principal axis of their
+     * covariance.  The smaller eigenvalue is the mean squared distance of the points from the
+     * line, so the residual, its square root, is their root mean square distance.
+     */
+    private void fitLine() {
+        double n = pointCount;
+        fitX = sumX / n;
+        fitY = sumY / n;
+        double covarianceXX = (sumXX / n) - (fitX * fitX);
+        double covarianceYY = (sumYY / n) - (fitY * fitY);
+        double covarianceXY = (sumXY / n) - (fitX * fitY);
+        double direction = 0.5 * Math.atan2(2 * covarianceXY, covarianceXX - covarianceYY);
+        fitNormalX = -Math.sin(direction);
+        fitNormalY = Math.cos(direction);
+        double half = (covarianceXX - covarianceYY) / 2;
+        double smallest = ((covarianceXX + covarianceYY) / 2) - Math.sqrt((half * half) + (covarianceXY * covarianceXY));
+        fitResidual = Math.sqrt(Math.max(0, smallest));
+    }
+
+    /**
+     * Stores the current line if it is long enough and starts a new one.
+     */
+    private void closeLine(SweepFeatures features) {
+        if (pointCount >= minimumPoints) {
+            fitLine();
+            // Project the first and last points onto the line to get its endpoints
+            double startOffset = ((firstX - fitX) * fitNormalX) + ((firstY - fitY) * fitNormalY);
+            double endOffset = ((lastX - fitX) * fitNormalX) + ((lastY - fitY) * fitNormalY);
+            float startX = (float) (firstX - (startOffset * fitNormalX));
+            float startY = (float) (firstY - (startOffset * fitNormalY));
+            float endX = (float) (lastX - (endOffset * fitNormalX));
+            float endY = (float) (lastY - (endOffset * fitNormalY));
+            float dx = endX - startX;
+            float dy = endY - startY;
+            if ((dx * dx) + (dy * dy) >= minimumLength * minimumLength) {
+                features.addLine(startX, startY, endX, endY, (float) fitResidual, firstAngle, pointCount);
+            }
+        }
+        pointCount = 0;
+    }
+
+    /**
+     * Adds a corner where the end of a line meets the start of the next one at a large enough
+     * angle.  The corner is placed at the intersection of the two lines.
+     */
+    private void findCorners(SweepFeatures features) {
+        int lineCount = features.getLineCount();
+        if (lineCount < 2) {
+            return;
+        }
+        float minimumSine = (float) Math.sin(minimumCornerAngle);
+        for (int line = 0; line < lineCount; line++) {
+            int next = line + 1 == lineCount ? 0 : line + 1;
+            float endX = features.getLineEndX(line);
+            float endY = features.getLineEndY(line);
+            float startX = features.getLineStartX(next);
+            float startY = features.getLineStartY(next);
+
+            float directionX = endX - features.getLineStartX(line);
+            float directionY = endY - features.getLineStartY(line);
+            float nextDirectionX = features.getLineEndX(next) - startX;
+            float nextDirectionY = features.getLineEndY(next) - startY;
+            float length = features.getLineLength(line);
+            float nextLength = features.getLineLength(next);
+            float cross = (directionX * nextDirectionY) - (directionY * nextDirectionX);
+            if (Math.abs(cross) < minimumSine * length * nextLength) {
+                continue;
+            }
+
+            // Intersection of the two lines, as a distance along the first line from its end
+            float t = (((startX - endX) * nextDirectionY) - ((startY - endY) * nextDirectionX)) / cross;
+            float cornerX = endX + (t * directionX);
+            float cornerY = endY + (t * directionY);
+            if (distanceSquared(cornerX, cornerY, endX, endY) > cornerDistance * cornerDistance
+                    || distanceSquared(cornerX, cornerY, startX, startY) > cornerDistance * cornerDistance) {
+                continue;
+            }
+
+            // Angle inside the corner, between the way back along the first line and the second line
+            float dot = (directionX * nextDirectionX) + (directionY * nextDirectionY);
+            float angle = (float) Math.acos(Math.max(-1f, Math.min(1f, -dot / (length * nextLength))));
+            features.addCorner(cornerX, cornerY, angle, line);
+        }
+    }
+
+    private static float distanceSquared(float x1, float y1, float x2, float y2) {
+        float dx = x2 - x1;
+        float dy = y2 - y1;
+        return (dx * dx) + (dy * dy);
+    }
+
+    /**
+     * Sets the largest distance of a point from the line being fitted before the line is closed.
+     * @param lineTolerance Tolerance, in the unit of the LIDAR distances.
+     */
+    public void setLineTolerance(float lineTolerance) {
+        this.lineTolerance = lineTolerance;
+    }
+
+    /**
+     * Sets when a gap between neighbouring returns breaks a line.  A gap breaks a line if it is
+     * larger than both the fixed distance and the ratio times the range.
+     * @param breakDistance Fixed break distance.
+     * @param breakDistanceRatio Break distance relative to the range.
+     */
+    public void setBreakDistance(float breakDistance, float breakDistanceRatio) {
+        breaks.set(breakDistance, breakDistanceRatio);
+    }
+
+    /**
+     * Sets the smallest line which is reported.
+     * @param minimumPoints Smallest number of points.
+     * @param minimumLength Smallest length.
+     */
+    public void setMinimumLine(int minimumPoints, float minimumLength) {
+        this.minimumPoints = Math.max(2, minimumPoints);
+        this.minimumLength = minimumLength;
+    }
+
+    /**
+     * Sets when two consecutive lines form a corner.
+     * @param minimumCornerAngle Smallest angle between the lines, in radians.
+     * @param cornerDistance Largest distance from the line ends to their intersection.
+     */
+    public void setCornerDetection(float minimumCornerAngle, float cornerDistance) {
+        this.minimumCornerAngle = minimumCornerAngle;
+        this.cornerDistance = cornerDistance;
+    }
+}
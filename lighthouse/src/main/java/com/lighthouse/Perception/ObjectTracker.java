@@ -0,0 +1,400 @@
+package com.lighthouse.Perception;
+
+/**
+ * Follows clusters across sweeps.  Every track has a constant velocity Kalman filter for each axis.
+ * On every sweep the tracks are predicted to the sweep time, clusters are gated by their
+ * Mahalanobis distance from the predicted positions, and the closest gated pairs are associated
+ * greedily.  Unassociated clusters start tentative tracks, which are confirmed after enough hits,
+ * and tracks which miss too many sweeps are dropped.
+ *
+ * Tracks are stored in primitive arrays sized in the constructor, so updating does not allocate and
+ * is cheap enough to run on the reader thread.  Track indices change between updates as dropped
+ * tracks are removed, while track IDs stay the same for the life of a track.
+ */
+public class ObjectTracker {
+
+    /**
+     * Squared Mahalanobis distance within which a cluster may be associated with a track, the 99%
+     * point of the chi-squared distribution with two degrees of freedom.
+     */
+    private static final float DEFAULT_GATE = 9.21f;
+
+    private final int maximumTracks;
+
+    private final int maximumClusters;
+
+    private float gate = DEFAULT_GATE;
+
+    /**
+     * Variance of the cluster centroid measurements.
+     */
+    private float measurementVariance = 50f * 50f;
+
+    /**
+     * Spectral density of the white acceleration noise of the motion model, per second cubed.
+     */
+    private float accelerationNoise = 1000f * 1000f;
+
+    /**
+     * Position variance of a new track, and velocity variance, which allows for walking speed.
+     */
+    private float initialVelocityVariance = 1500f * 1500f;
+
+    private int confirmationHits = 3;
+
+    private int maximumMisses = 5;
+
+    /**
+     * State of every track.  The covariance of each axis is the symmetric 2x2 matrix of position
+     * and velocity, stored as its three distinct elements.
+     */
+    private final int[] trackId;
+
+    private final float[] positionX, positionY, velocityX, velocityY;
+
+    private final float[] covarianceXPP, covarianceXPV, covarianceXVV;
+
+    private final float[] covarianceYPP, covarianceYPV, covarianceYVV;
+
+    private final int[] hits, misses;
+
+    private final boolean[] confirmed;
+
+    private int trackCount = 0;
+
+    private int nextTrackId = 1;
+
+    private long lastUpdateTime;
+
+    private boolean hasUpdated = false;
+
+    /**
+     * Association working arrays.
+     */
+    private final float[] costs;
+
+    private final int[] clusterTrack;
+
+    private final boolean[] trackAssociated;
+
+    /**
+     * Constructor.
+     * @param maximumTracks The largest number of tracks that can be followed.
+     * @param maximumClusters The largest number of clusters per sweep.
+     */
+    public ObjectTracker(int maximumTracks, int maximumClusters) {
+        this.maximumTracks = maximumTracks;
+        this.maximumClusters = maximumClusters;
+        trackId = new int[maximumTracks];
+        positionX = new float[maximumTracks];
+        positionY = new float[maximumTracks];
+        velocityX = new float[maximumTracks];
+        velocityY = new float[maximumTracks];
+        covarianceXPP = new float[maximumTracks];
+        covarianceXPV = new float[maximumTracks];
+        covarianceXVV = new float[maximumTracks];
+        covarianceYPP = new float[maximumTracks];
+        covarianceYPV = new float[maximumTracks];
+        covarianceYVV = new float[maximumTracks];
+        hits = new int[maximumTracks];
+        misses = new int[maximumTracks];
+        confirmed = new boolean[maximumTracks];
+        costs = new float[maximumTracks * maximumClusters];
+        clusterTrack = new int[maximumClusters];
+        trackAssociated = new boolean[maximumTracks];
+    }
+
+    /**
+     * Updates the tracks with the clusters of a new sweep.
+     * @param clusters The clusters of the sweep.
+     * @param updateTime Time of the sweep, from System.nanoTime().
+     */
+    public void update(SweepClusters clusters, long updateTime) {
+        float dt = hasUpdated ? (updateTime - lastUpdateTime) / 1e9f : 0;
+        if (dt < 0) {
+            dt = 0;
+        }
+        lastUpdateTime = updateTime;
+        hasUpdated = true;
+
+        for (int track = 0; track < trackCount; track++) {
+            predict(track, dt);
+            trackAssociated[track] = false;
+        }
+
+        int clusterCount = Math.min(clusters.getClusterCount(), maximumClusters);
+        associate(clusters, clusterCount);
+
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            int track = clusterTrack[cluster];
+            if (track >= 0) {
+                correct(track, clusters.getCentroidX(cluster), clusters.getCentroidY(cluster));
+                hits[track]++;
+                misses[track] = 0;
+                if (hits[track] >= confirmationHits) {
+                    confirmed[track] = true;
+                }
+            }
+        }
+
+        // Drop tracks which missed too often, keeping the remaining tracks packed
+        int kept = 0;
+        for (int track = 0; track < trackCount; track++) {
+            if (!trackAssociated[track]) {
+                misses[track]++;
+                if (misses[track] > maximumMisses || (!confirmed[track] && misses[track] > 1)) {
+                    continue;
+                }
+            }
+            if (kept != track) {
+                moveTrack(track, kept);
+            }
+            kept++;
+        }
+        trackCount = kept;
+
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            if (clusterTrack[cluster] < 0 && trackCount < maximumTracks) {
+                startTrack(clusters.getCentroidX(cluster), clusters.getCentroidY(cluster));
+            }
+        }
+    }
+
+    /**
+     * Forgets every track.
+     */
+    public void reset() {
+        trackCount = 0;
+        hasUpdated = false;
+    }
+
+    /**
+     * Predicts a track forward with the constant velocity model.
+     */
+    private void predict(int track, float dt) {
+        if (dt == 0) {
+            return;
+        }
+        positionX[track] += velocityX[track] * dt;
+        positionY[track] += velocityY[track] * dt;
+
+        float dt2 = dt * dt;
+        float noisePP = accelerationNoise * dt2 * dt / 3;
+        float noisePV = accelerationNoise * dt2 / 2;
+        float noiseVV = accelerationNoise * dt;
+
+        float pp = covarianceXPP[track];
+        float pv = covarianceXPV[track];
+        float vv = covarianceXVV[track];
+        covarianceXPP[track] = pp + (2 * dt * pv) + (dt2 * vv) + noisePP;
+        covarianceXPV[track] = pv + (dt * vv) + noisePV;
+        covarianceXVV[track] = vv + noiseVV;
+
+        pp = covarianceYPP[track];
+        pv = covarianceYPV[track];
+        vv = covarianceYVV[track];
+        covarianceYPP[track] = pp + (2 * dt * pv) + (dt2 * vv) + noisePP;
+        covarianceYPV[track] = pv + (dt * vv) + noisePV;
+        covarianceYVV[track] = vv + noiseVV;
+    }
+
+    /**
+     * Gates every cluster and track pair and associates the closest pairs first.
+     */
+    private void associate(SweepClusters clusters, int clusterCount) {
+        int pairs = 0;
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            clusterTrack[cluster] = -1;
+            float x = clusters.getCentroidX(cluster);
+            float y = clusters.getCentroidY(cluster);
+            for (int track = 0; track < trackCount; track++) {
+                float dx = x - positionX[track];
+                float dy = y - positionY[track];
+                float distance = ((dx * dx) / (covarianceXPP[track] + measurementVariance))
+                        + ((dy * dy) / (covarianceYPP[track] + measurementVariance));
+                if (distance <= gate) {
+                    pairs++;
+                } else {
+                    distance = Float.POSITIVE_INFINITY;
+                }
+                costs[(cluster * maximumTracks) + track] = distance;
+            }
+        }
+
+        while (pairs > 0) {
+            float best = Float.POSITIVE_INFINITY;
+            int bestCluster = -1;
+            int bestTrack = -1;
+            for (int cluster = 0; cluster < clusterCount; cluster++) {
+                if (clusterTrack[cluster] >= 0) {
+                    continue;
+                }
+                int row = cluster * maximumTracks;
+                for (int track = 0; track < trackCount; track++) {
+                    if (!trackAssociated[track] && costs[row + track] < best) {
+                        best = costs[row + track];
+                        bestCluster = cluster;
+                        bestTrack = track;
+                    }
+                }
+            }
+            if (bestCluster < 0) {
+                break;
+            }
+            clusterTrack[bestCluster] = bestTrack;
+            trackAssociated[bestTrack] = true;
+            pairs--;
+        }
+    }
+
+    /**
+     * Corrects a track with a cluster centroid.
+     */
+    private void correct(int track, float measuredX, float measuredY) {
+        float pp = covarianceXPP[track];
+        float pv = covarianceXPV[track];
+        float innovationVariance = pp + measurementVariance;
+        float innovation = measuredX - positionX[track];
+        positionX[track] += (pp / innovationVariance) * innovation;
+        velocityX[track] += (pv / innovationVariance) * innovation;
+        covarianceXPP[track] = pp - ((pp * pp) / innovationVariance);
+        covarianceXPV[track] = pv - ((pp * pv) / innovationVariance);
+        covarianceXVV[track] -= (pv * pv) / innovationVariance;
+
+        pp = covarianceYPP[track];
+        pv = covarianceYPV[track];
+        innovationVariance = pp + measurementVariance;
+        innovation = measuredY - positionY[track];
+        positionY[track] += (pp / innovationVariance) * innovation;
+        velocityY[track] += (pv / innovationVariance) * innovation;
+        covarianceYPP[track] = pp - ((pp * pp) / innovationVariance);
+        covarianceYPV[track] = pv - ((pp * pv) / innovationVariance);
+        covarianceYVV[track] -= (pv * pv) / innovationVariance;
+    }
+
+    private void startTrack(float x, float y) {
+        int track = trackCount++;
+        trackId[track] = nextTrackId++;
+        positionX[track] = x;
+        positionY[track] = y;
+        velocityX[track] = 0;
+        velocityY[track] = 0;
+        covarianceXPP[track] = measurementVariance;
+        covarianceXPV[track] = 0;
+        covarianceXVV[track] = initialVelocityVariance;
+        covarianceYPP[track] = measurementVariance;
+        covarianceYPV[track] = 0;
+        covarianceYVV[track] = initialVelocityVariance;
+        hits[track] = 1;
+        misses[track] = 0;
+        confirmed[track] = confirmationHits <= 1;
+    }
+
+    private void moveTrack(int from, int to) {
+        trackId[to] = trackId[from];
+        positionX[to] = positionX[from];
+        positionY[to] = positionY[from];
+        velocityX[to] = velocityX[from];
+        velocityY[to] = velocityY[from];
+        covarianceXPP[to] = covarianceXPP[from];
+        covarianceXPV[to] = covarianceXPV[from];
+        covarianceXVV[to] = covarianceXVV[from];
+        covarianceYPP[to] = covarianceYPP[from];
+        covarianceYPV[to] = covarianceYPV[from];
+        covarianceYVV[to] = covarianceYVV[from];
+        hits[to] = hits[from];
+        misses[to] = misses[from];
+        confirmed[to] = confirmed[from];
+    }
+
+    /**
+     * Returns the number of tracks, including tentative ones.
+     * @return Track count.
+     */
+    public int getTrackCount() {
+        return trackCount;
+    }
+
+    /**
+     * Returns the ID of a track, which stays the same for the life of the track.
+     * @param track Track index.
+     * @return Track ID.
+     */
+    public int getTrackId(int track) {
+        return trackId[track];
+    }
+
+    public float getTrackX(int track) {
+        return positionX[track];
+    }
+
+    public float getTrackY(int track) {
+        return positionY[track];
+    }
+
+    /**
+     * Returns the x velocity of a track, in the unit of the LIDAR distances per second.
+     * @param track Track index.
+     * @return X velocity.
+     */
+    public float getTrackVelocityX(int track) {
+        return velocityX[track];
+    }
+
+    /**
+     * Returns the y velocity of a track, in the unit of the LIDAR distances per second.
+     * @param track Track index.
+     * @return Y velocity.
+     */
+    public float getTrackVelocityY(int track) {
+        return velocityY[track];
+    }
+
+    /**
+     * Returns true if a track has been associated often enough to be trusted.
+     * @param track Track index.
+     * @return True if confirmed.
+     */
+    public boolean isTrackConfirmed(int track) {
+        return confirmed[track];
+    }
+
+    /**
+     * Returns the number of sweeps in a row a track has not been associated.
+     * @param track Track index.
+     * @return Miss count.
+     */
+    public int getTrackMisses(int track) {
+        return misses[track];
+    }
+
+    /**
+     * Sets the squared Mahalanobis distance within which a cluster may be associated with a track.
+     * @param gate Gate.
+     */
+    public void setGate(float gate) {
+        this.gate = gate;
+    }
+
+    /**
+     * Sets the noise of the filters.
+     * @param measurementDeviation Standard deviation of the cluster centroids.
+     * @param accelerationDeviation Standard deviation of the acceleration, per second squared.
+     * @param initialVelocityDeviation Standard deviation of the velocity of a new track.
+     */
+    public void setNoise(float measurementDeviation, float accelerationDeviation, float initialVelocityDeviation) {
+        measurementVariance = measurementDeviation * measurementDeviation;
+        accelerationNoise = accelerationDeviation * accelerationDeviation;
+        initialVelocityVariance = initialVelocityDeviation * initialVelocityDeviation;
+    }
+
+    /**
+     * Sets the track life cycle.
+     * @param confirmationHits Associations needed to confirm a track.
+     * @param maximumMisses Sweeps in a row a confirmed track may miss before it is dropped.
+     */
+    public void setTrackLifetime(int confirmationHits, int maximumMisses) {
+        this.confirmationHits = confirmationHits;
+        this.maximumMisses = maximumMisses;
+    }
+}
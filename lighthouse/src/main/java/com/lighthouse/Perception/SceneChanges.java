@@ -0,0 +1,103 @@
+package com.lighthouse.Perception;
+
+/**
+ * Change events produced by a BackgroundModel for a single sweep.  Only angles which differ from
+ * the background, or which just stopped differing, produce an event, so a static scene produces
+ * none.  Events are kept in preallocated primitive arrays so the same instance can be filled every
+ * sweep.
+ */
+public class SceneChanges {
+
+    /**
+     * The angle started differing from the background in this sweep.
+     */
+    public static final int CHANGE_STARTED = 0;
+
+    /**
+     * The angle still differs from the background.
+     */
+    public static final int CHANGE_CONTINUED = 1;
+
+    /**
+     * The angle matches the background again.
+     */
+    public static final int CHANGE_ENDED = 2;
+
+    private final int[] angles;
+
+    private final int[] types;
+
+    private final float[] distances;
+
+    private final float[] backgroundDistances;
+
+    private int eventCount = 0;
+
+    /**
+     * Constructor.  Holds one event for every angle of a sweep.
+     * @param angleCount Number of angles in a sweep.
+     */
+    public SceneChanges(int angleCount) {
+        angles = new int[angleCount];
+        types = new int[angleCount];
+        distances = new float[angleCount];
+        backgroundDistances = new float[angleCount];
+    }
+
+    /**
+     * Removes every event.
+     */
+    void clear() {
+        eventCount = 0;
+    }
+
+    /**
+     * Stores an event.
+     */
+    void addEvent(int angle, int type, float distance, float backgroundDistance) {
+        angles[eventCount] = angle;
+        types[eventCount] = type;
+        distances[eventCount] = distance;
+        backgroundDistances[eventCount] = backgroundDistance;
+        eventCount++;
+    }
+
+    /**
+     * Returns the number of events in the sweep.
+     * @return Event count.
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public int getAngle(int event) {
+        return angles[event];
+    }
+
+    /**
+     * Returns the type of an event, CHANGE_STARTED, CHANGE_CONTINUED or CHANGE_ENDED.
+     * @param event The event.
+     * @return Event type.
+     */
+    public int getType(int event) {
+        return types[event];
+    }
+
+    /**
+     * Returns the distance measured at the angle of an event.
+     * @param event The event.
+     * @return Distance.
+     */
+    public float getDistance(int event) {
+        return distances[event];
+    }
+
+    /**
+     * Returns the background distance at the angle of an event.
+     * @param event The event.
+     * @return Background distance.
+     */
+    public float getBackgroundDistance(int event) {
+        return backgroundDistances[event];
+    }
+}
@@ -0,0 +1,61 @@
+package com.lighthouse.Perception;
+
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Decides where a sweep breaks between neighbouring angles, for the passes which walk a sweep in
+ * angular order.  Two neighbouring returns are apart when the gap between them is larger than both
+ * a fixed distance and a ratio times the range, since the spacing between angles grows with the
+ * range.  An angle without a return always breaks.
+ */
+class SweepBreaks {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private float breakDistance;
+
+    private float breakDistanceRatio;
+
+    SweepBreaks(float breakDistance, float breakDistanceRatio) {
+        set(breakDistance, breakDistanceRatio);
+    }
+
+    void set(float breakDistance, float breakDistanceRatio) {
+        this.breakDistance = breakDistance;
+        this.breakDistanceRatio = breakDistanceRatio;
+    }
+
+    /**
+     * Returns true if the sweep breaks between two neighbouring angles.
+     * @param sweepDistances Distances of the sweep, indexed by angle.
+     * @param previous The earlier angle.
+     * @param angle The later angle.
+     * @return True if the angles are apart.
+     */
+    boolean isBreak(float[] sweepDistances, int previous, int angle) {
+        float previousDistance = sweepDistances[previous];
+        float distance = sweepDistances[angle];
+        if (previousDistance <= 0 || distance <= 0) {
+            return true;
+        }
+        float dx = (distance * LidarFrame.getCosine(angle)) - (previousDistance * LidarFrame.getCosine(previous));
+        float dy = (distance * LidarFrame.getSine(angle)) - (previousDistance * LidarFrame.getSine(previous));
+        float limit = Math.max(breakDistance, Math.min(distance, previousDistance) * breakDistanceRatio);
+        return ((dx * dx) + (dy * dy)) > limit * limit;
+    }
+
+    /**
+     * Returns the first angle right after a break, where a pass can start so that nothing crossing
+     * angle 0 is split in two.
+     * @param sweepDistances Distances of the sweep, indexed by angle.
+     * @return The angle, or -1 if the sweep is unbroken all the way round.
+     */
+    int findStartAfterBreak(float[] sweepDistances) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            if (isBreak(sweepDistances, angle == 0 ? ANGLES - 1 : angle - 1, angle)) {
+                return angle;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,148 @@
+package com.lighthouse.Perception;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Groups the returns of a sweep into clusters of neighbouring points.  Since a sweep is ordered by
+ * angle, only consecutive angles need to be compared, so clustering is a single O(n) pass rather
+ * than a general neighbourhood search.  Two neighbouring returns belong to the same cluster when
+ * they are closer than a break distance which grows with the range, as the spacing between angles
+ * does.
+ *
+ * Clusters which are too small or too wide to be a person or a vehicle, such as single outliers
+ * and walls, are dropped.
+ */
+public class SweepClusterer {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    /**
+     * Gaps which start a new cluster.
+     */
+    private final SweepBreaks breaks = new SweepBreaks(150, 0.05f);
+
+    private int minimumPoints = 2;
+
+    private float maximumWidth = 2500;
+
+    private final float[] sweepDistances = new float[ANGLES];
+
+    /**
+     * Running values of the cluster being built.
+     */
+    private int pointCount;
+
+    private float sumX, sumY;
+
+    private int firstAngle;
+
+    private float firstX, firstY, lastX, lastY;
+
+    /**
+     * Clusters a sweep.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param clusters Clusters which are replaced with those of the sweep.
+     */
+    public void cluster(DataPoint[] dataPointArray, SweepClusters clusters) {
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            sweepDistances[angle] = dataPoint == null ? 0 : dataPoint.getDistance();
+        }
+        clusterSweepDistances(clusters);
+    }
+
+    /**
+     * Clusters the current contents of a degree frame.
+     * @param frame The frame holding the sweep, with one sample per degree such as
+     * LIDAR.getDegreeFrame().
+     * @param clusters Clusters which are replaced with those of the sweep.
+     */
+    public void cluster(LidarFrame frame, SweepClusters clusters) {
+        LidarFrame.requireDegreeFrame(frame);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            sweepDistances[angle] = frame.getDistance(angle);
+        }
+        clusterSweepDistances(clusters);
+    }
+
+    private void clusterSweepDistances(SweepClusters clusters) {
+        clusters.clear();
+
+        // Start right after a break so an object crossing angle 0 is not split in two
+        int start = breaks.findStartAfterBreak(sweepDistances);
+        if (start < 0) {
+            // Unbroken all the way round, which is a wall rather than an object
+            return;
+        }
+
+        pointCount = 0;
+        int previous = -1;
+        for (int i = 0; i < ANGLES; i++) {
+            int angle = start + i;
+            if (angle >= ANGLES) {
+                angle -= ANGLES;
+            }
+            float distance = sweepDistances[angle];
+            if (distance <= 0) {
+                closeCluster(clusters);
+                previous = -1;
+                continue;
+            }
+            if (previous >= 0 && breaks.isBreak(sweepDistances, previous, angle)) {
+                closeCluster(clusters);
+            }
+            float x = distance * LidarFrame.getCosine(angle);
+            float y = distance * LidarFrame.getSine(angle);
+            if (pointCount == 0) {
+                sumX = 0;
+                sumY = 0;
+                firstAngle = angle;
+                firstX = x;
+                firstY = y;
+            }
+            pointCount++;
+            sumX += x;
+            sumY += y;
+            lastX = x;
+            lastY = y;
+            previous = angle;
+        }
+        closeCluster(clusters);
+    }
+
+    /**
+     * Stores the current cluster if it has a plausible size and starts a new one.
+     */
+    private void closeCluster(SweepClusters clusters) {
+        if (pointCount >= minimumPoints) {
+            float dx = lastX - firstX;
+            float dy = lastY - firstY;
+            float width = (float) Math.sqrt((dx * dx) + (dy * dy));
+            if (width <= maximumWidth) {
+                clusters.addCluster(sumX / pointCount, sumY / pointCount, width, firstAngle, pointCount);
+            }
+        }
+        pointCount = 0;
+    }
+
+    /**
+     * Sets when a gap between neighbouring returns starts a new cluster, with the same rule as
+     * FeatureExtractor.setBreakDistance.
+     * @param breakDistance Fixed break distance.
+     * @param breakDistanceRatio Break distance relative to the range.
+     */
+    public void setBreakDistance(float breakDistance, float breakDistanceRatio) {
+        breaks.set(breakDistance, breakDistanceRatio);
+    }
+
+    /**
+     * Sets the size of the clusters which are kept.
+     * @param minimumPoints Smallest number of points.
+     * @param maximumWidth Largest distance between the first and last points.
+     */
+    public void setClusterSize(int minimumPoints, float maximumWidth) {
+        this.minimumPoints = Math.max(1, minimumPoints);
+        this.maximumWidth = maximumWidth;
+    }
+}
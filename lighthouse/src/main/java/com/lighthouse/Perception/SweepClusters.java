@@ -0,0 +1,106 @@
+package com.lighthouse.Perception;
+
+/**
+ * Clusters of neighbouring returns found in a single sweep.  All values are kept in preallocated
+ * primitive arrays so the same instance can be filled every sweep.  Coordinates are in the sensor
+ * frame, in the same unit as the LIDAR distances.
+ */
+public class SweepClusters {
+
+    private final int capacity;
+
+    private final float[] centroidX;
+
+    private final float[] centroidY;
+
+    private final float[] width;
+
+    private final int[] firstAngle;
+
+    private final int[] pointCount;
+
+    private int clusterCount = 0;
+
+    /**
+     * Constructor.
+     * @param capacity The largest number of clusters that can be stored.
+     */
+    public SweepClusters(int capacity) {
+        this.capacity = capacity;
+        centroidX = new float[capacity];
+        centroidY = new float[capacity];
+        width = new float[capacity];
+        firstAngle = new int[capacity];
+        pointCount = new int[capacity];
+    }
+
+    /**
+     * Removes every cluster.
+     */
+    void clear() {
+        clusterCount = 0;
+    }
+
+    /**
+     * Stores a cluster.  Returns false if the buffers are full.
+     */
+    boolean addCluster(float centroidX, float centroidY, float width, int firstAngle, int pointCount) {
+        if (clusterCount == capacity) {
+            return false;
+        }
+        this.centroidX[clusterCount] = centroidX;
+        this.centroidY[clusterCount] = centroidY;
+        this.width[clusterCount] = width;
+        this.firstAngle[clusterCount] = firstAngle;
+        this.pointCount[clusterCount] = pointCount;
+        clusterCount++;
+        return true;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of clusters found in the sweep.
+     * @return Cluster count.
+     */
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public float getCentroidX(int cluster) {
+        return centroidX[cluster];
+    }
+
+    public float getCentroidY(int cluster) {
+        return centroidY[cluster];
+    }
+
+    /**
+     * Returns the distance between the first and last points of a cluster.
+     * @param cluster The cluster.
+     * @return Width.
+     */
+    public float getWidth(int cluster) {
+        return width[cluster];
+    }
+
+    /**
+     * Returns the angle of the first point of a cluster.
+     * @param cluster The cluster.
+     * @return First angle.
+     */
+    public int getFirstAngle(int cluster) {
+        return firstAngle[cluster];
+    }
+
+    /**
+     * Returns the number of points in a cluster.
+     * @param cluster The cluster.
+     * @return Point count.
+     */
+    public int getPointCount(int cluster) {
+        return pointCount[cluster];
+    }
+}
@@ -0,0 +1,198 @@
+package com.lighthouse.Perception;
+
+/**
+ * Line segments and corners extracted from a single sweep.  All values are kept in preallocated
+ * primitive arrays so the same instance can be filled every sweep.  Coordinates are in the sensor
+ * frame, in the same unit as the LIDAR distances.
+ */
+public class SweepFeatures {
+
+    private final int capacity;
+
+    private final float[] lineStartX;
+
+    private final float[] lineStartY;
+
+    private final float[] lineEndX;
+
+    private final float[] lineEndY;
+
+    private final float[] lineResidual;
+
+    private final int[] lineFirstAngle;
+
+    private final int[] linePointCount;
+
+    private int lineCount = 0;
+
+    private final float[] cornerX;
+
+    private final float[] cornerY;
+
+    private final float[] cornerAngle;
+
+    private final int[] cornerFirstLine;
+
+    private int cornerCount = 0;
+
+    /**
+     * Constructor.
+     * @param capacity The largest number of lines, and of corners, that can be stored.
+     */
+    public SweepFeatures(int capacity) {
+        this.capacity = capacity;
+        lineStartX = new float[capacity];
+        lineStartY = new float[capacity];
+        lineEndX = new float[capacity];
+        lineEndY = new float[capacity];
+        lineResidual = new float[capacity];
+        lineFirstAngle = new int[capacity];
+        linePointCount = new int[capacity];
+        cornerX = new float[capacity];
+        cornerY = new float[capacity];
+        cornerAngle = new float[capacity];
+        cornerFirstLine = new int[capacity];
+    }
+
+    /**
+     * Removes every line and corner.
+     */
+    void clear() {
+        lineCount = 0;
+        cornerCount = 0;
+    }
+
+    /**
+     * Stores a line.  Returns false if the buffers are full.
+     */
+    boolean addLine(float startX, float startY, float endX, float endY, float residual, int firstAngle, int pointCount) {
+        if (lineCount == capacity) {
+            return false;
+        }
+        lineStartX[lineCount] = startX;
+        lineStartY[lineCount] = startY;
+        lineEndX[lineCount] = endX;
+        lineEndY[lineCount] = endY;
+        lineResidual[lineCount] = residual;
+        lineFirstAngle[lineCount] = firstAngle;
+        linePointCount[lineCount] = pointCount;
+        lineCount++;
+        return true;
+    }
+
+    /**
+     * Stores a corner.  Returns false if the buffers are full.
+     */
+    boolean addCorner(float x, float y, float angle, int firstLine) {
+        if (cornerCount == capacity) {
+            return false;
+        }
+        cornerX[cornerCount] = x;
+        cornerY[cornerCount] = y;
+        cornerAngle[cornerCount] = angle;
+        cornerFirstLine[cornerCount] = firstLine;
+        cornerCount++;
+        return true;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of lines found in the sweep.
+     * @return Line count.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public float getLineStartX(int line) {
+        return lineStartX[line];
+    }
+
+    public float getLineStartY(int line) {
+        return lineStartY[line];
+    }
+
+    public float getLineEndX(int line) {
+        return lineEndX[line];
+    }
+
+    public float getLineEndY(int line) {
+        return lineEndY[line];
+    }
+
+    /**
+     * Returns the root mean square distance of the points of a line from the fitted line.
+     * @param line The line.
+     * @return Fit residual.
+     */
+    public float getLineResidual(int line) {
+        return lineResidual[line];
+    }
+
+    /**
+     * Returns the angle of the first point of a line.
+     * @param line The line.
+     * @return First angle.
+     */
+    public int getLineFirstAngle(int line) {
+        return lineFirstAngle[line];
+    }
+
+    /**
+     * Returns the number of points a line was fitted to.
+     * @param line The line.
+     * @return Point count.
+     */
+    public int getLinePointCount(int line) {
+        return linePointCount[line];
+    }
+
+    /**
+     * Returns the length of a line.
+     * @param line The line.
+     * @return Length.
+     */
+    public float getLineLength(int line) {
+        float dx = lineEndX[line] - lineStartX[line];
+        float dy = lineEndY[line] - lineStartY[line];
+        return (float) Math.sqrt((dx * dx) + (dy * dy));
+    }
+
+    /**
+     * Returns the number of corners found in the sweep.
+     * @return Corner count.
+     */
+    public int getCornerCount() {
+        return cornerCount;
+    }
+
+    public float getCornerX(int corner) {
+        return cornerX[corner];
+    }
+
+    public float getCornerY(int corner) {
+        return cornerY[corner];
+    }
+
+    /**
+     * Returns the angle between the two lines meeting at a corner, in radians.
+     * @param corner The corner.
+     * @return Corner angle.
+     */
+    public float getCornerAngle(int corner) {
+        return cornerAngle[corner];
+    }
+
+    /**
+     * Returns the first of the two consecutive lines meeting at a corner.  The second line is the
+     * next line, wrapping around to the first line of the sweep.
+     * @param corner The corner.
+     * @return Index of the first line.
+     */
+    public int getCornerFirstLine(int corner) {
+        return cornerFirstLine[corner];
+    }
+}
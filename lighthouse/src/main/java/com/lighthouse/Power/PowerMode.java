@@ -0,0 +1,28 @@
+package com.lighthouse.Power;
+
+/**
+ * How hard the LIDAR device is driven by a ScanPowerManager.
+ */
+public enum PowerMode {
+
+    /**
+     * The device spins at its full rate and every packet is processed.
+     */
+    FULL,
+
+    /**
+     * The scene has been still for a while, so the device spins at a reduced rate.  Every
+     * revolution is still checked for motion.
+     */
+    REDUCED,
+
+    /**
+     * The scene has been still for a long time, so the device is stopped between wake scans.
+     */
+    SLEEPING,
+
+    /**
+     * The device has been started for a few revolutions to check a sleeping scene for motion.
+     */
+    WAKE_SCAN
+}
@@ -0,0 +1,313 @@
+package com.lighthouse.Power;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Chooses a PowerMode for the LIDAR device from how much the scene moves and what consumers ask
+ * for, so battery powered units do not run flat out while nothing happens.
+ *
+ * Every angle is compared with its last return.  When enough angles of a revolution moved by more
+ * than a tolerance the scene is in motion and the mode goes straight back to FULL, on the packet
+ * which showed it when packets are evaluated one at a time, so the full rate is back within the
+ * revolution.  Readings without a return are ignored, since the filters drop single readings all
+ * the time.  After the scene has been still for a while the mode steps down to REDUCED, then to
+ * SLEEPING, which is broken by a WAKE_SCAN of a few revolutions at a regular interval.  Consumers
+ * which need the full rate regardless hold it with holdFullRate.
+ *
+ * The manager only decides.  LIDAR sends the commands for each mode, and calls update regularly
+ * so a sleeping device which sends nothing is still woken up.  The time spent in each mode is
+ * kept for measuring the savings.
+ */
+public class ScanPowerManager {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private static final long NANOS_PER_MILLISECOND = 1000000L;
+
+    /**
+     * Still time, in nanoseconds, before the mode is reduced and before the device sleeps.  0 turns
+     * the step off.
+     */
+    private long reduceAfter = 30000 * NANOS_PER_MILLISECOND;
+
+    private long sleepAfter = 120000 * NANOS_PER_MILLISECOND;
+
+    /**
+     * Time, in nanoseconds, from the start of a sleep to the next wake scan.
+     */
+    private long wakeInterval = 10000 * NANOS_PER_MILLISECOND;
+
+    private int wakeScanRevolutions = 2;
+
+    private float distanceTolerance = 50;
+
+    private float distanceToleranceRatio = 0.02f;
+
+    private int minimumChangedAngles = 3;
+
+    /**
+     * Rotation rates which LIDAR sends to the device for FULL and for REDUCED.  0 sends no rate.
+     */
+    private int fullRpm = 300;
+
+    private int reducedRpm = 180;
+
+    /**
+     * Last return of every angle.
+     */
+    private final float[] referenceDistances = new float[ANGLES];
+
+    private int changedAngleCount = 0;
+
+    private int lastBaseAngle = -1;
+
+    private volatile PowerMode mode = PowerMode.FULL;
+
+    private long modeSince;
+
+    private long lastMotionTime;
+
+    private int wakeScanSweeps = 0;
+
+    private int fullRateHolds = 0;
+
+    private final long[] timeInModes = new long[PowerMode.values().length];
+
+    private long modeChangeCount = 0;
+
+    public ScanPowerManager() {
+        long now = System.nanoTime();
+        modeSince = now;
+        lastMotionTime = now;
+    }
+
+    /**
+     * Evaluates the angles of a packet which was just decoded into a live frame.  Must only be
+     * called by the reader thread.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     * @return The mode the device should be in.
+     */
+    public synchronized PowerMode evaluate(LidarFrame frame, int baseAngle, int angleCount, long receiveTime) {
+        if (baseAngle < 0) {
+            return mode;
+        }
+        if (baseAngle <= lastBaseAngle) {
+            endRevolution();
+        }
+        lastBaseAngle = baseAngle;
+        int lastAngle = Math.min(baseAngle + angleCount, ANGLES) - 1;
+        for (int angle = baseAngle; angle <= lastAngle; angle++) {
+            compareAngle(angle, frame.getDistance(angle));
+        }
+        if (changedAngleCount >= minimumChangedAngles) {
+            onMotion(receiveTime);
+        }
+        return update(receiveTime);
+    }
+
+    /**
+     * Evaluates a whole sweep.  Must only be called by the reader thread.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param receiveTime Time, from System.nanoTime, at which the sweep was received.
+     * @return The mode the device should be in.
+     */
+    public synchronized PowerMode evaluate(DataPoint[] dataPointArray, long receiveTime) {
+        int angleCount = Math.min(dataPointArray.length, ANGLES);
+        changedAngleCount = 0;
+        for (int angle = 0; angle < angleCount; angle++) {
+            DataPoint dataPoint = dataPointArray[angle];
+            compareAngle(angle, dataPoint == null ? 0 : dataPoint.getDistance());
+        }
+        if (changedAngleCount >= minimumChangedAngles) {
+            onMotion(receiveTime);
+        }
+        endRevolution();
+        return update(receiveTime);
+    }
+
+    private void compareAngle(int angle, float distance) {
+        if (distance <= 0) {
+            return;
+        }
+        float reference = referenceDistances[angle];
+        referenceDistances[angle] = distance;
+        if (reference > 0 &&
+                Math.abs(distance - reference) > Math.max(distanceTolerance, reference * distanceToleranceRatio)) {
+            changedAngleCount++;
+        }
+    }
+
+    private void endRevolution() {
+        changedAngleCount = 0;
+        if (mode == PowerMode.WAKE_SCAN) {
+            wakeScanSweeps++;
+        }
+    }
+
+    private void onMotion(long now) {
+        lastMotionTime = now;
+        if (mode != PowerMode.FULL) {
+            setMode(PowerMode.FULL, now);
+        }
+    }
+
+    /**
+     * Moves between modes as time passes.  This is called with every evaluation, and must also be
+     * called regularly while the device is sleeping.
+     * @param now Current time, from System.nanoTime.
+     * @return The mode the device should be in.
+     */
+    public synchronized PowerMode update(long now) {
+        if (fullRateHolds > 0) {
+            lastMotionTime = now;
+            if (mode != PowerMode.FULL) {
+                setMode(PowerMode.FULL, now);
+            }
+            return mode;
+        }
+        long stillTime = now - lastMotionTime;
+        switch (mode) {
+            case FULL:
+            case REDUCED:
+                if (sleepAfter > 0 && stillTime >= sleepAfter) {
+                    setMode(PowerMode.SLEEPING, now);
+                } else if (mode == PowerMode.FULL && reduceAfter > 0 && stillTime >= reduceAfter) {
+                    setMode(PowerMode.REDUCED, now);
+                }
+                break;
+            case SLEEPING:
+                if (now - modeSince >= wakeInterval) {
+                    setMode(PowerMode.WAKE_SCAN, now);
+                }
+                break;
+            case WAKE_SCAN:
+                if (wakeScanSweeps >= wakeScanRevolutions) {
+                    setMode(PowerMode.SLEEPING, now);
+                }
+                break;
+        }
+        return mode;
+    }
+
+    private void setMode(PowerMode newMode, long now) {
+        timeInModes[mode.ordinal()] += now - modeSince;
+        modeSince = now;
+        mode = newMode;
+        modeChangeCount++;
+        wakeScanSweeps = 0;
+        lastBaseAngle = -1;
+        changedAngleCount = 0;
+    }
+
+    /**
+     * Returns to FULL straight away, as if motion was seen, such as when the user opens a view.
+     * @return The mode the device should be in.
+     */
+    public synchronized PowerMode wake() {
+        onMotion(System.nanoTime());
+        return mode;
+    }
+
+    /**
+     * Keeps the mode at FULL until the hold is released, for consumers which need every
+     * revolution however still the scene is.  Holds are counted.
+     */
+    public synchronized void holdFullRate() {
+        fullRateHolds++;
+        onMotion(System.nanoTime());
+    }
+
+    /**
+     * Releases a hold taken with holdFullRate.  The still time counts from the release.
+     */
+    public synchronized void releaseFullRate() {
+        if (fullRateHolds > 0) {
+            fullRateHolds--;
+            lastMotionTime = System.nanoTime();
+        }
+    }
+
+    public PowerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the total time spent in a mode, including the current stay.
+     * @param powerMode The mode.
+     * @return Time in milliseconds.
+     */
+    public synchronized long getTimeInMode(PowerMode powerMode) {
+        long time = timeInModes[powerMode.ordinal()];
+        if (powerMode == mode) {
+            time += System.nanoTime() - modeSince;
+        }
+        return time / NANOS_PER_MILLISECOND;
+    }
+
+    /**
+     * Returns the number of mode changes.
+     * @return Mode change count.
+     */
+    public synchronized long getModeChangeCount() {
+        return modeChangeCount;
+    }
+
+    /**
+     * Sets how long the scene must be still before stepping down.
+     * @param reduceAfter Still time in milliseconds before REDUCED, or 0 to never reduce.
+     * @param sleepAfter Still time in milliseconds before SLEEPING, or 0 to never sleep.
+     */
+    public synchronized void setIdleTimeouts(int reduceAfter, int sleepAfter) {
+        this.reduceAfter = Math.max(0, reduceAfter) * NANOS_PER_MILLISECOND;
+        this.sleepAfter = Math.max(0, sleepAfter) * NANOS_PER_MILLISECOND;
+    }
+
+    /**
+     * Sets how a sleeping device is checked for motion.
+     * @param wakeInterval Time in milliseconds from the start of a sleep to the next wake scan.
+     * @param wakeScanRevolutions Revolutions of each wake scan.  The first one after starting may
+     * be partial, so this should be at least 2.
+     */
+    public synchronized void setDutyCycle(int wakeInterval, int wakeScanRevolutions) {
+        this.wakeInterval = Math.max(0, wakeInterval) * NANOS_PER_MILLISECOND;
+        this.wakeScanRevolutions = Math.max(1, wakeScanRevolutions);
+    }
+
+    /**
+     * Sets what counts as motion.
+     * @param distanceTolerance Largest distance change of an angle which is not a change.
+     * @param distanceToleranceRatio Largest change relative to the distance which is not a change,
+     * used when it is more than the fixed tolerance.
+     * @param minimumChangedAngles Number of changed angles in a revolution which are motion.
+     */
+    public synchronized void setMotionThreshold(float distanceTolerance,
+                                                float distanceToleranceRatio,
+                                                int minimumChangedAngles) {
+        this.distanceTolerance = distanceTolerance;
+        this.distanceToleranceRatio = distanceToleranceRatio;
+        this.minimumChangedAngles = Math.max(1, minimumChangedAngles);
+    }
+
+    public int getFullRpm() {
+        return fullRpm;
+    }
+
+    public int getReducedRpm() {
+        return reducedRpm;
+    }
+
+    /**
+     * Sets the rotation rates sent to the device.  The device firmware must support the rate
+     * command, otherwise REDUCED saves nothing and only SLEEPING helps.
+     * @param fullRpm Rate for FULL and WAKE_SCAN, or 0 to not send one.
+     * @param reducedRpm Rate for REDUCED, or 0 to not send one.
+     */
+    public synchronized void setRotationRates(int fullRpm, int reducedRpm) {
+        this.fullRpm = Math.max(0, fullRpm);
+        this.reducedRpm = Math.max(0, reducedRpm);
+    }
+}
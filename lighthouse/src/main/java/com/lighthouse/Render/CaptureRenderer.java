@@ -0,0 +1,268 @@
+package com.lighthouse.Render;
+
+import android.os.Build;
+
+import com.lighthouse.Data.DataPoint;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Renders recorded captures to PNG frame sequences in parallel on a fork-join pool.  Every worker
+ * thread keeps its own rasterizer, pixel buffer and encoder for the length of a call, so frames are
+ * rendered without allocating new buffers.  The encoders are closed when the call returns.
+ */
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class CaptureRenderer {
+
+    /**
+     * Number of frames a task renders itself instead of splitting further.
+     */
+    private static final int FRAMES_PER_TASK = 8;
+
+    private final ForkJoinPool pool;
+
+    private final SweepRasterizer prototype;
+
+    /**
+     * Constructor which renders on the common fork-join pool.
+     * @param prototype Rasterizer whose configuration is copied by every worker.
+     */
+    public CaptureRenderer(SweepRasterizer prototype) {
+        this(prototype, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor.
+     * @param prototype Rasterizer whose configuration is copied by every worker.
+     * @param pool The pool frames are rendered on.
+     */
+    public CaptureRenderer(SweepRasterizer prototype, ForkJoinPool pool) {
+        this.prototype = new SweepRasterizer(prototype);
+        this.pool = pool;
+    }
+
+    /**
+     * Renders every sweep of a capture to a numbered PNG file in the output directory.
+     * @param sweeps The sweeps of the capture, in order.
+     * @param outputDirectory Directory the frames are written to.
+     * @param filePrefix Prefix of the frame file names.
+     * @throws IOException If a frame could not be written.
+     */
+    public void renderToPngSequence(List<DataPoint[]> sweeps, File outputDirectory, String filePrefix) throws IOException {
+        List<List<DataPoint[]>> captures = new ArrayList<>();
+        captures.add(sweeps);
+        List<File> outputDirectories = new ArrayList<>();
+        outputDirectories.add(outputDirectory);
+        renderCaptures(captures, outputDirectories, filePrefix);
+    }
+
+    /**
+     * Renders several captures at once.  The frames of all captures are split across the pool, so
+     * short captures do not leave cores idle.
+     * @param captures The sweeps of each capture, in order.
+     * @param outputDirectories Directory the frames of each capture are written to.
+     * @param filePrefix Prefix of the frame file names.
+     * @throws IOException If a frame could not be written.
+     */
+    public void renderCaptures(List<List<DataPoint[]>> captures, List<File> outputDirectories, String filePrefix) throws IOException {
+        if (captures.size() != outputDirectories.size()) {
+            throw new IllegalArgumentException("Every capture needs an output directory");
+        }
+        // Flatten the frames of every capture so a single task tree covers all of them.
+        int frameCount = 0;
+        int[] captureStarts = new int[captures.size() + 1];
+        for (int i = 0; i < captures.size(); i++) {
+            captureStarts[i] = frameCount;
+            frameCount += captures.get(i).size();
+            File directory = outputDirectories.get(i);
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+        }
+        captureStarts[captures.size()] = frameCount;
+
+        Workers workers = new Workers();
+        try {
+            pool.invoke(new RenderTask(workers, captures, outputDirectories, filePrefix, captureStarts, 0, frameCount));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            workers.close();
+        }
+    }
+
+    /**
+     * Reads a capture written in the LIDAR file output format, one "angle,distance,intensity,rpm"
+     * line per reading.  A new sweep starts whenever the angle wraps around.  Angles may have a
+     * fraction, as written for finer protocols, in which case each degree keeps its closest return.
+     * @param reader Reader for the capture.
+     * @return The sweeps of the capture, in order.
+     * @throws IOException If reading fails or a line is malformed.
+     */
+    public static List<DataPoint[]> readCsvCapture(Reader reader) throws IOException {
+        List<DataPoint[]> sweeps = new ArrayList<>();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+        DataPoint[] sweep = null;
+        float previousAngle = Float.POSITIVE_INFINITY;
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] values = line.split(",");
+            if (values.length != 4) {
+                throw new IOException("Malformed capture line: " + line);
+            }
+            try {
+                float angle = Float.parseFloat(values[0]);
+                if (!(angle >= 0 && angle < 360)) {
+                    throw new IOException("Angle out of range: " + line);
+                }
+                if (sweep == null || angle <= previousAngle) {
+                    sweep = new DataPoint[360];
+                    sweeps.add(sweep);
+                }
+                int degree = (int) angle;
+                float distance = Float.parseFloat(values[1]);
+                DataPoint existing = sweep[degree];
+                if (existing == null || existing.getDistance() <= 0 ||
+                        (distance > 0 && distance < existing.getDistance())) {
+                    sweep[degree] = new DataPoint(distance,
+                            Float.parseFloat(values[2]),
+                            degree,
+                            (int) Float.parseFloat(values[3]));
+                }
+                previousAngle = angle;
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed capture line: " + line, e);
+            }
+        }
+        return sweeps;
+    }
+
+    /**
+     * Splits a range of frames in half until it is small enough to render directly.
+     */
+    private static class RenderTask extends RecursiveAction {
+
+        private final Workers workers;
+
+        private final List<List<DataPoint[]>> captures;
+
+        private final List<File> outputDirectories;
+
+        private final String filePrefix;
+
+        private final int[] captureStarts;
+
+        private final int start;
+
+        private final int end;
+
+        RenderTask(Workers workers,
+                   List<List<DataPoint[]>> captures,
+                   List<File> outputDirectories,
+                   String filePrefix,
+                   int[] captureStarts,
+                   int start,
+                   int end) {
+            this.workers = workers;
+            this.captures = captures;
+            this.outputDirectories = outputDirectories;
+            this.filePrefix = filePrefix;
+            this.captureStarts = captureStarts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= FRAMES_PER_TASK) {
+                Worker worker = workers.get();
+                int capture = 0;
+                for (int frame = start; frame < end; frame++) {
+                    while (frame >= captureStarts[capture + 1]) {
+                        capture++;
+                    }
+                    int frameInCapture = frame - captureStarts[capture];
+                    File file = new File(outputDirectories.get(capture),
+                            String.format(Locale.US, "%s%06d.png", filePrefix, frameInCapture));
+                    try {
+                        worker.renderFrame(captures.get(capture).get(frameInCapture), file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new RenderTask(workers, captures, outputDirectories, filePrefix, captureStarts, start, middle),
+                    new RenderTask(workers, captures, outputDirectories, filePrefix, captureStarts, middle, end));
+        }
+    }
+
+    /**
+     * Rendering state of each thread taking part in a call.  Every worker created is remembered,
+     * so all of their encoders can be closed once the pool has finished.
+     */
+    private class Workers extends ThreadLocal<Worker> {
+
+        private final List<Worker> created = new ArrayList<>();
+
+        @Override
+        protected Worker initialValue() {
+            Worker worker = new Worker(new SweepRasterizer(prototype));
+            synchronized (created) {
+                created.add(worker);
+            }
+            return worker;
+        }
+
+        void close() {
+            synchronized (created) {
+                for (Worker worker : created) {
+                    worker.encoder.close();
+                }
+                created.clear();
+            }
+        }
+    }
+
+    /**
+     * Reusable rendering state for a single thread.
+     */
+    private static class Worker {
+
+        private final SweepRasterizer rasterizer;
+
+        private final int[] pixels;
+
+        private final PngEncoder encoder = new PngEncoder();
+
+        Worker(SweepRasterizer rasterizer) {
+            this.rasterizer = rasterizer;
+            this.pixels = rasterizer.createPixelBuffer();
+        }
+
+        void renderFrame(DataPoint[] sweep, File file) throws IOException {
+            rasterizer.render(sweep, pixels);
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+                encoder.write(pixels, rasterizer.getWidth(), rasterizer.getHeight(), outputStream);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.lighthouse.Render;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Minimal PNG encoder for ARGB pixel buffers.  The scanline, compression and chunk buffers are
+ * kept between images, so an encoder should be reused by a single thread for a whole sequence, and
+ * closed once the sequence is written to release the native compression memory.
+ */
+public class PngEncoder implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    /**
+     * PNG color type for 8 bit red, green, blue and alpha samples.
+     */
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+
+    private final byte[] headerBuffer = new byte[13];
+
+    private byte[] scanline = new byte[0];
+
+    /**
+     * Constructor which favours speed over file size.
+     */
+    public PngEncoder() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Constructor.
+     * @param compressionLevel Deflate compression level, from 0 to 9.
+     */
+    public PngEncoder(int compressionLevel) {
+        deflater = new Deflater(compressionLevel);
+    }
+
+    /**
+     * Writes the pixel buffer to the output stream as a PNG image.  The stream is not closed.
+     * @param pixels ARGB pixels, one row after another.
+     * @param width Width of the image in pixels.
+     * @param height Height of the image in pixels.
+     * @param outputStream The stream the image is written to.
+     * @throws IOException If writing to the stream fails.
+     */
+    public void write(int[] pixels, int width, int height, OutputStream outputStream) throws IOException {
+        outputStream.write(SIGNATURE);
+
+        writeInt(headerBuffer, 0, width);
+        writeInt(headerBuffer, 4, height);
+        headerBuffer[8] = 8;
+        headerBuffer[9] = COLOR_TYPE_RGBA;
+        headerBuffer[10] = 0;
+        headerBuffer[11] = 0;
+        headerBuffer[12] = 0;
+        writeChunk(outputStream, IHDR, headerBuffer, headerBuffer.length);
+
+        int scanlineLength = 1 + (width * 4);
+        if (scanline.length != scanlineLength) {
+            scanline = new byte[scanlineLength];
+        }
+        deflater.reset();
+        for (int row = 0; row < height; row++) {
+            // Filter type 0, the samples are stored unchanged.
+            scanline[0] = 0;
+            int rowStart = row * width;
+            for (int column = 0; column < width; column++) {
+                int pixel = pixels[rowStart + column];
+                int cursor = 1 + (column * 4);
+                scanline[cursor] = (byte) (pixel >> 16);
+                scanline[cursor + 1] = (byte) (pixel >> 8);
+                scanline[cursor + 2] = (byte) pixel;
+                scanline[cursor + 3] = (byte) (pixel >>> 24);
+            }
+            deflater.setInput(scanline, 0, scanlineLength);
+            while (!deflater.needsInput()) {
+                writeDeflatedData(outputStream);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            writeDeflatedData(outputStream);
+        }
+
+        writeChunk(outputStream, IEND, headerBuffer, 0);
+    }
+
+    /**
+     * Writes whatever the deflater has produced as an IDAT chunk.
+     */
+    private void writeDeflatedData(OutputStream outputStream) throws IOException {
+        int length = deflater.deflate(deflateBuffer);
+        if (length > 0) {
+            writeChunk(outputStream, IDAT, deflateBuffer, length);
+        }
+    }
+
+    /**
+     * Writes a chunk with its length and CRC.
+     */
+    private void writeChunk(OutputStream outputStream, byte[] type, byte[] data, int length) throws IOException {
+        writeInt(outputStream, length);
+        outputStream.write(type);
+        outputStream.write(data, 0, length);
+        crc.reset();
+        crc.update(type, 0, type.length);
+        crc.update(data, 0, length);
+        writeInt(outputStream, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream outputStream, int value) throws IOException {
+        outputStream.write(value >>> 24);
+        outputStream.write(value >>> 16);
+        outputStream.write(value >>> 8);
+        outputStream.write(value);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Releases the native compression resources.  The encoder cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+}
@@ -0,0 +1,314 @@
+package com.lighthouse.Render;
+
+import com.lighthouse.Data.DataPoint;
+
+import java.util.Arrays;
+
+/**
+ * Software rasterizer which draws a sweep of LIDAR data into an ARGB pixel buffer the same way the
+ * LidarDisplay draws it on a Canvas.  It does not depend on any Android classes, so sweeps can be
+ * rendered on a server.
+ */
+public class SweepRasterizer {
+
+    /**
+     * This is the minimum distance that the LIDAR device can produce a reading for.
+     */
+    private static final int MINIMUM_DISTANCE = 120;
+
+    /**
+     * This is the maximum distance that the LIDAR device can produce a reading for.
+     */
+    private static final int MAXIMUM_DISTANCE = 3500;
+
+    /**
+     * Width of the rendered image in pixels.
+     */
+    private final int width;
+
+    /**
+     * Height of the rendered image in pixels.
+     */
+    private final int height;
+
+    /**
+     * Configurable value used to set the scale to which the LIDAR values will be modified with
+     * when rendering.
+     */
+    private float lidarViewScaleRate = 8f;
+
+    /**
+     * Boolean value to draw lines from the center to the distance point instead of points.
+     */
+    private boolean drawLines = false;
+
+    /**
+     * Boolean value to fade points out the further away they are.
+     */
+    private boolean alphaByDistance = false;
+
+    /**
+     * Color used for the points and lines, in ARGB.
+     */
+    private int color = 0xFF212121;
+
+    /**
+     * Color the image is cleared to before every sweep, in ARGB.
+     */
+    private int backgroundColor = 0xFFFFFFFF;
+
+    /**
+     * Width, in pixels, of points and lines.
+     */
+    private int strokeWidth = 3;
+
+    /**
+     * Constructor.
+     * @param width Width of the rendered image in pixels.
+     * @param height Height of the rendered image in pixels.
+     */
+    public SweepRasterizer(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Image size must be positive");
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Constructor which copies the configuration of another rasterizer.
+     * @param other The rasterizer to copy.
+     */
+    public SweepRasterizer(SweepRasterizer other) {
+        this(other.width, other.height);
+        this.lidarViewScaleRate = other.lidarViewScaleRate;
+        this.drawLines = other.drawLines;
+        this.alphaByDistance = other.alphaByDistance;
+        this.color = other.color;
+        this.backgroundColor = other.backgroundColor;
+        this.strokeWidth = other.strokeWidth;
+    }
+
+    /**
+     * Creates a pixel buffer sized for this rasterizer.  Buffers can be reused for every sweep.
+     * @return A new pixel buffer.
+     */
+    public int[] createPixelBuffer() {
+        return new int[width * height];
+    }
+
+    /**
+     * Clears the pixel buffer and draws the sweep into it.
+     * @param dataPointArray The sweep to draw.
+     * @param pixels Pixel buffer created by createPixelBuffer.
+     */
+    public void render(DataPoint[] dataPointArray, int[] pixels) {
+        if (pixels.length != width * height) {
+            throw new IllegalArgumentException("Pixel buffer does not match the image size");
+        }
+        Arrays.fill(pixels, backgroundColor);
+
+        int centerX = width / 2;
+        int centerY = height / 2;
+        for (DataPoint dataPoint : dataPointArray) {
+            // Angles without a distance would all be drawn on top of the sensor.
+            if (dataPoint == null || dataPoint.getDistance() <= 0) {
+                continue;
+            }
+            double radians = Math.toRadians(dataPoint.getAngle());
+            float scaledDistance = dataPoint.getDistance() / lidarViewScaleRate;
+            int x = Math.round(centerX + (float) (scaledDistance * Math.cos(radians)));
+            int y = Math.round(centerY - (float) (scaledDistance * Math.sin(radians)));
+
+            int alpha = alphaByDistance ? getAlphaValueFromDistance(dataPoint.getDistance()) : color >>> 24;
+            if (drawLines) {
+                drawLine(pixels, centerX, centerY, x, y, alpha);
+            } else {
+                fillSquare(pixels, x, y, alpha);
+            }
+        }
+    }
+
+    /**
+     * Draws a line of strokeWidth pixels with Bresenham's algorithm.  Each step fills a span across
+     * the line so no pixel is blended twice.
+     */
+    private void drawLine(int[] pixels, int x0, int y0, int x1, int y1, int alpha) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        boolean mostlyHorizontal = dx >= -dy;
+        int spanStart = -(strokeWidth / 2);
+        int error = dx + dy;
+        while (true) {
+            for (int i = spanStart; i < spanStart + strokeWidth; i++) {
+                if (mostlyHorizontal) {
+                    blendPixel(pixels, x0, y0 + i, alpha);
+                } else {
+                    blendPixel(pixels, x0 + i, y0, alpha);
+                }
+            }
+            if (x0 == x1 && y0 == y1) {
+                break;
+            }
+            int doubledError = 2 * error;
+            if (doubledError >= dy) {
+                error += dy;
+                x0 += stepX;
+            }
+            if (doubledError <= dx) {
+                error += dx;
+                y0 += stepY;
+            }
+        }
+    }
+
+    /**
+     * Fills a square of strokeWidth pixels centered on a point, matching how a Canvas draws a
+     * point with a square cap.
+     */
+    private void fillSquare(int[] pixels, int x, int y, int alpha) {
+        int start = -(strokeWidth / 2);
+        for (int row = y + start; row < y + start + strokeWidth; row++) {
+            for (int column = x + start; column < x + start + strokeWidth; column++) {
+                blendPixel(pixels, column, row, alpha);
+            }
+        }
+    }
+
+    /**
+     * Blends the drawing color over a pixel with source-over compositing.
+     */
+    private void blendPixel(int[] pixels, int x, int y, int alpha) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        int index = (y * width) + x;
+        if (alpha >= 255) {
+            pixels[index] = color | 0xFF000000;
+            return;
+        }
+        int destination = pixels[index];
+        int inverse = 255 - alpha;
+        int red = ((((color >> 16) & 0xFF) * alpha) + (((destination >> 16) & 0xFF) * inverse)) / 255;
+        int green = ((((color >> 8) & 0xFF) * alpha) + (((destination >> 8) & 0xFF) * inverse)) / 255;
+        int blue = (((color & 0xFF) * alpha) + ((destination & 0xFF) * inverse)) / 255;
+        int resultAlpha = alpha + ((((destination >>> 24) & 0xFF) * inverse) / 255);
+        pixels[index] = (resultAlpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Returns an alpha value which fades linearly from opaque at the minimum distance to
+     * transparent at the maximum distance.
+     */
+    private int getAlphaValueFromDistance(float distance) {
+        final int opaque = 255;
+        float normalized = (distance - MINIMUM_DISTANCE) / (MAXIMUM_DISTANCE - MINIMUM_DISTANCE);
+        return Math.max(0, Math.min(opaque, Math.round(opaque - (normalized * opaque))));
+    }
+
+    /**
+     * Returns the width of the rendered image in pixels.
+     * @return Width of the image.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the rendered image in pixels.
+     * @return Height of the image.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the scale rate used for rendering the LIDAR data.
+     * @return Current scale rate value.
+     */
+    public float getLidarViewScaleRate() {
+        return lidarViewScaleRate;
+    }
+
+    /**
+     * Set the scale rate used for rendering the LIDAR data.
+     * @param lidarViewScaleRate The scale rate to be used when rendering LIDAR data.
+     */
+    public void setLidarViewScaleRate(float lidarViewScaleRate) {
+        this.lidarViewScaleRate = lidarViewScaleRate;
+    }
+
+    /**
+     * Returns true if lines are drawn from the center to the distance point.
+     * @return
+     */
+    public boolean isDrawLines() {
+        return drawLines;
+    }
+
+    /**
+     * Pass true in order to draw lines from the center to the distance point.
+     * @param drawLines boolean value for turning on and off lines.
+     */
+    public void setDrawLines(boolean drawLines) {
+        this.drawLines = drawLines;
+    }
+
+    public boolean isAlphaByDistance() {
+        return alphaByDistance;
+    }
+
+    public void setAlphaByDistance(boolean alphaByDistance) {
+        this.alphaByDistance = alphaByDistance;
+    }
+
+    /**
+     * Get the color used for drawing, in ARGB.
+     * @return The color value.
+     */
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Set the color used for drawing, in ARGB.
+     * @param color The color value.
+     */
+    public void setColor(int color) {
+        this.color = color;
+    }
+
+    /**
+     * Get the color the image is cleared to, in ARGB.
+     * @return The background color value.
+     */
+    public int getBackgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * Set the color the image is cleared to, in ARGB.
+     * @param backgroundColor The background color value.
+     */
+    public void setBackgroundColor(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+    }
+
+    /**
+     * Returns the width, in pixels, of points and lines.
+     * @return Stroke width.
+     */
+    public int getStrokeWidth() {
+        return strokeWidth;
+    }
+
+    /**
+     * Sets the width, in pixels, of points and lines.
+     * @param strokeWidth Stroke width.
+     */
+    public void setStrokeWidth(int strokeWidth) {
+        this.strokeWidth = Math.max(1, strokeWidth);
+    }
+}
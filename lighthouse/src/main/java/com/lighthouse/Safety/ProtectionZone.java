@@ -0,0 +1,278 @@
+package com.lighthouse.Safety;
+
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * An area around the LIDAR device which must stay clear, precompiled into a range interval for
+ * every angle.  A return breaches the zone when its distance lies within the interval of its
+ * angle, so checking a reading is two comparisons whatever the shape of the zone.
+ *
+ * Zones are created with the sector, rectangle and polygon factories, in the sensor frame and in
+ * the unit of the LIDAR distances.  A polygon ray which crosses the boundary more than twice is
+ * given a single interval from the first crossing to the last, so a concave polygon may be
+ * breached slightly outside of its outline but never missed inside it.
+ *
+ * The breach state is kept in the zone and updated by a ProtectionZoneMonitor on the reader
+ * thread.
+ */
+public class ProtectionZone {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private final String name;
+
+    /**
+     * Range interval of every angle.  An angle whose maximum is 0 is not covered by the zone.
+     */
+    private final float[] minimumRanges = new float[ANGLES];
+
+    private final float[] maximumRanges = new float[ANGLES];
+
+    /**
+     * Smallest number of angles which must be breached at once for the zone to be breached, so a
+     * single noisy return does not stop a vehicle.
+     */
+    private int minimumBreachingAngles = 1;
+
+    /**
+     * Time the zone must be breached before the breach is reported.
+     */
+    private long breachDelay = 0;
+
+    /**
+     * Time the zone must be clear before the clear is reported.  The default is a little over one
+     * revolution, so every angle is seen again before the zone is cleared.
+     */
+    private long clearDelay = 250000000L;
+
+    /**
+     * Breach state, only touched by the monitor on the reader thread.
+     */
+    final boolean[] breachingAngles = new boolean[ANGLES];
+
+    /**
+     * Distance of the latest reading of each breaching angle.
+     */
+    final float[] breachingDistances = new float[ANGLES];
+
+    int breachingAngleCount = 0;
+
+    boolean breached = false;
+
+    /**
+     * True while the breach condition disagrees with the reported state, since pendingSince.
+     */
+    boolean pending = false;
+
+    long pendingSince = 0;
+
+    private ProtectionZone(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Creates a zone covering a sector out to a range.
+     * @param name Name of the zone.
+     * @param fromAngle First angle of the sector.  Angles outside 0 to 359 are wrapped into it.
+     * @param toAngle Last angle of the sector, going counterclockwise and wrapping past 359.
+     * @param range Range of the sector.
+     * @return The zone.
+     */
+    public static ProtectionZone sector(String name, int fromAngle, int toAngle, float range) {
+        ProtectionZone zone = new ProtectionZone(name);
+        int lastAngle = normalize(toAngle);
+        for (int angle = normalize(fromAngle); ; angle = (angle + 1) % ANGLES) {
+            zone.maximumRanges[angle] = range;
+            if (angle == lastAngle) {
+                break;
+            }
+        }
+        return zone;
+    }
+
+    private static int normalize(int angle) {
+        return ((angle % ANGLES) + ANGLES) % ANGLES;
+    }
+
+    /**
+     * Creates a zone covering an axis aligned rectangle.
+     * @param name Name of the zone.
+     * @param minimumX Smallest x of the rectangle.
+     * @param minimumY Smallest y of the rectangle.
+     * @param maximumX Largest x of the rectangle.
+     * @param maximumY Largest y of the rectangle.
+     * @return The zone.
+     */
+    public static ProtectionZone rectangle(String name, float minimumX, float minimumY, float maximumX, float maximumY) {
+        ProtectionZone zone = new ProtectionZone(name);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            double cosine = Math.cos(Math.toRadians(angle));
+            double sine = Math.sin(Math.toRadians(angle));
+            // Slab intersection of the ray with the rectangle
+            double near = 0;
+            double far = Double.POSITIVE_INFINITY;
+            if (Math.abs(cosine) < 1e-9) {
+                if (minimumX > 0 || maximumX < 0) {
+                    continue;
+                }
+            } else {
+                double t1 = minimumX / cosine;
+                double t2 = maximumX / cosine;
+                near = Math.max(near, Math.min(t1, t2));
+                far = Math.min(far, Math.max(t1, t2));
+            }
+            if (Math.abs(sine) < 1e-9) {
+                if (minimumY > 0 || maximumY < 0) {
+                    continue;
+                }
+            } else {
+                double t1 = minimumY / sine;
+                double t2 = maximumY / sine;
+                near = Math.max(near, Math.min(t1, t2));
+                far = Math.min(far, Math.max(t1, t2));
+            }
+            if (far > near) {
+                zone.minimumRanges[angle] = (float) near;
+                zone.maximumRanges[angle] = (float) far;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * Creates a zone covering a polygon.
+     * @param name Name of the zone.
+     * @param xs X coordinates of the vertices, in order.
+     * @param ys Y coordinates of the vertices, in order.
+     * @return The zone.
+     */
+    public static ProtectionZone polygon(String name, float[] xs, float[] ys) {
+        if (xs.length != ys.length || xs.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least three vertices");
+        }
+        ProtectionZone zone = new ProtectionZone(name);
+        boolean containsSensor = contains(xs, ys, 0, 0);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            double cosine = Math.cos(Math.toRadians(angle));
+            double sine = Math.sin(Math.toRadians(angle));
+            double near = Double.POSITIVE_INFINITY;
+            double far = 0;
+            for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+                // Solve t * (cosine, sine) = vertex j + u * (vertex i - vertex j)
+                double edgeX = xs[i] - xs[j];
+                double edgeY = ys[i] - ys[j];
+                double denominator = (cosine * edgeY) - (sine * edgeX);
+                if (Math.abs(denominator) < 1e-12) {
+                    continue;
+                }
+                double t = ((xs[j] * edgeY) - (ys[j] * edgeX)) / denominator;
+                double u = ((xs[j] * sine) - (ys[j] * cosine)) / denominator;
+                if (t > 0 && u >= 0 && u <= 1) {
+                    near = Math.min(near, t);
+                    far = Math.max(far, t);
+                }
+            }
+            if (containsSensor) {
+                near = 0;
+            }
+            if (far > near) {
+                zone.minimumRanges[angle] = (float) near;
+                zone.maximumRanges[angle] = (float) far;
+            }
+        }
+        return zone;
+    }
+
+    /**
+     * Even-odd point in polygon test.
+     */
+    private static boolean contains(float[] xs, float[] ys, float x, float y) {
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y)
+                    && x < (((xs[j] - xs[i]) * (y - ys[i])) / (ys[j] - ys[i])) + xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Returns true if a reading lies inside the zone.
+     * @param angle The angle of the reading.
+     * @param distance The distance of the reading, or 0 if there was no return.
+     * @return True if the reading breaches the zone.
+     */
+    public boolean contains(int angle, float distance) {
+        return distance > 0 && distance >= minimumRanges[angle] && distance <= maximumRanges[angle];
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the closest distance of an angle which breaches the zone.
+     * @param angle The angle.
+     * @return Minimum range, meaningless if the angle is not covered.
+     */
+    public float getMinimumRange(int angle) {
+        return minimumRanges[angle];
+    }
+
+    /**
+     * Returns the furthest distance of an angle which breaches the zone.
+     * @param angle The angle.
+     * @return Maximum range, or 0 if the angle is not covered.
+     */
+    public float getMaximumRange(int angle) {
+        return maximumRanges[angle];
+    }
+
+    /**
+     * Returns true if the zone is currently reported as breached.
+     * @return True if breached.
+     */
+    public boolean isBreached() {
+        return breached;
+    }
+
+    /**
+     * Returns the number of angles whose latest reading breaches the zone.
+     * @return Breaching angle count.
+     */
+    public int getBreachingAngleCount() {
+        return breachingAngleCount;
+    }
+
+    public int getMinimumBreachingAngles() {
+        return minimumBreachingAngles;
+    }
+
+    /**
+     * Sets the smallest number of angles which must be breached at once for the zone to be
+     * breached.
+     * @param minimumBreachingAngles Angle count.
+     */
+    public void setMinimumBreachingAngles(int minimumBreachingAngles) {
+        this.minimumBreachingAngles = Math.max(1, minimumBreachingAngles);
+    }
+
+    /**
+     * Sets how long the breach condition must hold before the breach or clear is reported.
+     * @param breachDelay Breach delay in nanoseconds.
+     * @param clearDelay Clear delay in nanoseconds.
+     */
+    public void setDebounce(long breachDelay, long clearDelay) {
+        this.breachDelay = breachDelay;
+        this.clearDelay = clearDelay;
+    }
+
+    long getBreachDelay() {
+        return breachDelay;
+    }
+
+    long getClearDelay() {
+        return clearDelay;
+    }
+}
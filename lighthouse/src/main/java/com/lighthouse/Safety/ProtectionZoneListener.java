@@ -0,0 +1,24 @@
+package com.lighthouse.Safety;
+
+/**
+ * Receives protection zone breaches and clears.  Callbacks run on the LIDAR reader thread as soon
+ * as the packet which changed the zone is decoded, so they must return quickly and must not block.
+ */
+public interface ProtectionZoneListener {
+
+    /**
+     * Called when a zone becomes breached.
+     * @param zone The zone.
+     * @param angle Angle of the closest return breaching the zone when the breach is reported.
+     * @param distance Distance of the closest return breaching the zone when the breach is reported.
+     * @param latency Nanoseconds from the packet being received to this call.
+     */
+    void onZoneBreached(ProtectionZone zone, int angle, float distance, long latency);
+
+    /**
+     * Called when a breached zone becomes clear.
+     * @param zone The zone.
+     * @param latency Nanoseconds from the packet being received to this call.
+     */
+    void onZoneCleared(ProtectionZone zone, long latency);
+}
@@ -0,0 +1,218 @@
+package com.lighthouse.Safety;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Evaluates protection zones inline on the LIDAR reader thread, one packet at a time.  Each zone
+ * remembers which of its angles are breached, so a packet only costs a comparison per zone and
+ * angle of the packet and evaluation never allocates.  Breaches and clears are debounced per zone
+ * and reported to the listeners on the reader thread straight away.
+ *
+ * The time from the packet being received to each callback is measured, and the last and largest
+ * latencies are kept.  Zones and listeners may be added and removed from any thread; the reader
+ * always works on a consistent array of each.
+ */
+public class ProtectionZoneMonitor {
+
+    private volatile ProtectionZone[] zones = new ProtectionZone[0];
+
+    private volatile ProtectionZoneListener[] listeners = new ProtectionZoneListener[0];
+
+    private volatile long lastLatency = 0;
+
+    private volatile long maximumLatency = 0;
+
+    private volatile long callbackCount = 0;
+
+    /**
+     * Adds a zone.  The zone starts clear.
+     * @param zone The zone.
+     */
+    public synchronized void addZone(ProtectionZone zone) {
+        ProtectionZone[] current = zones;
+        ProtectionZone[] updated = new ProtectionZone[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = zone;
+        zones = updated;
+    }
+
+    /**
+     * Removes a zone.
+     * @param zone The zone.
+     */
+    public synchronized void removeZone(ProtectionZone zone) {
+        ProtectionZone[] current = zones;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == zone) {
+                ProtectionZone[] updated = new ProtectionZone[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                zones = updated;
+                return;
+            }
+        }
+    }
+
+    public synchronized void addListener(ProtectionZoneListener listener) {
+        ProtectionZoneListener[] current = listeners;
+        ProtectionZoneListener[] updated = new ProtectionZoneListener[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    public synchronized void removeListener(ProtectionZoneListener listener) {
+        ProtectionZoneListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                ProtectionZoneListener[] updated = new ProtectionZoneListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evaluates the angles of a packet which was just decoded into a live frame.  Must only be
+     * called by the reader thread.
+     * @param frame The frame holding the packet.
+     * @param baseAngle The first angle of the packet.
+     * @param angleCount The number of angles in the packet.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     */
+    public void evaluate(LidarFrame frame, int baseAngle, int angleCount, long receiveTime) {
+        if (baseAngle < 0) {
+            return;
+        }
+        int lastAngle = Math.min(baseAngle + angleCount, LidarFrame.ANGLES_PER_REVOLUTION) - 1;
+        ProtectionZone[] current = zones;
+        for (ProtectionZone zone : current) {
+            for (int angle = baseAngle; angle <= lastAngle; angle++) {
+                float distance = frame.getDistance(angle);
+                boolean breaching = zone.contains(angle, distance);
+                if (breaching != zone.breachingAngles[angle]) {
+                    zone.breachingAngles[angle] = breaching;
+                    zone.breachingAngleCount += breaching ? 1 : -1;
+                }
+                if (breaching) {
+                    zone.breachingDistances[angle] = distance;
+                }
+            }
+            updateZoneState(zone, receiveTime);
+        }
+    }
+
+    /**
+     * Evaluates a whole sweep.  Must only be called by the reader thread.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param receiveTime Time, from System.nanoTime, at which the sweep was received.
+     */
+    public void evaluate(DataPoint[] dataPointArray, long receiveTime) {
+        int angleCount = Math.min(dataPointArray.length, LidarFrame.ANGLES_PER_REVOLUTION);
+        ProtectionZone[] current = zones;
+        for (ProtectionZone zone : current) {
+            for (int angle = 0; angle < angleCount; angle++) {
+                DataPoint dataPoint = dataPointArray[angle];
+                float distance = dataPoint == null ? 0 : dataPoint.getDistance();
+                boolean breaching = zone.contains(angle, distance);
+                if (breaching != zone.breachingAngles[angle]) {
+                    zone.breachingAngles[angle] = breaching;
+                    zone.breachingAngleCount += breaching ? 1 : -1;
+                }
+                if (breaching) {
+                    zone.breachingDistances[angle] = distance;
+                }
+            }
+            updateZoneState(zone, receiveTime);
+        }
+    }
+
+    /**
+     * Applies the debounce of a zone and fires the callbacks when its reported state changes.  A
+     * breach reports the closest of all the angles breaching the zone at that moment, since the
+     * packet which ends the debounce may not hold any of them.
+     */
+    private void updateZoneState(ProtectionZone zone, long receiveTime) {
+        boolean condition = zone.breachingAngleCount >= zone.getMinimumBreachingAngles();
+        if (condition == zone.breached) {
+            zone.pending = false;
+            return;
+        }
+        if (!zone.pending) {
+            zone.pending = true;
+            zone.pendingSince = receiveTime;
+        }
+        long delay = condition ? zone.getBreachDelay() : zone.getClearDelay();
+        if (receiveTime - zone.pendingSince < delay) {
+            return;
+        }
+        zone.breached = condition;
+        zone.pending = false;
+
+        int closestAngle = -1;
+        float closestDistance = Float.POSITIVE_INFINITY;
+        if (condition) {
+            for (int angle = 0; angle < LidarFrame.ANGLES_PER_REVOLUTION; angle++) {
+                if (zone.breachingAngles[angle] && zone.breachingDistances[angle] < closestDistance) {
+                    closestDistance = zone.breachingDistances[angle];
+                    closestAngle = angle;
+                }
+            }
+        }
+
+        ProtectionZoneListener[] current = listeners;
+        for (ProtectionZoneListener listener : current) {
+            long latency = System.nanoTime() - receiveTime;
+            if (condition) {
+                listener.onZoneBreached(zone, closestAngle, closestDistance, latency);
+            } else {
+                listener.onZoneCleared(zone, latency);
+            }
+            recordLatency(latency);
+        }
+    }
+
+    private void recordLatency(long latency) {
+        lastLatency = latency;
+        if (latency > maximumLatency) {
+            maximumLatency = latency;
+        }
+        callbackCount++;
+    }
+
+    /**
+     * Returns the time from packet receipt to the most recent callback.
+     * @return Latency in nanoseconds.
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Returns the largest time from packet receipt to a callback.
+     * @return Latency in nanoseconds.
+     */
+    public long getMaximumLatency() {
+        return maximumLatency;
+    }
+
+    /**
+     * Returns the number of callbacks fired.
+     * @return Callback count.
+     */
+    public long getCallbackCount() {
+        return callbackCount;
+    }
+
+    /**
+     * Clears the latency measurements.
+     */
+    public void resetLatency() {
+        lastLatency = 0;
+        maximumLatency = 0;
+        callbackCount = 0;
+    }
+}
@@ -0,0 +1,511 @@
+package com.lighthouse.Server;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+import com.lighthouse.Stream.Subscription;
+import com.lighthouse.Stream.TimedSubscriber;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TCP server which rebroadcasts sweeps to any number of clients on the local network.  Each sweep
+ * is encoded once into a pooled direct buffer, and the same bytes are queued for every client and
+ * written with gathering writes by a single selector thread, so an extra client costs a queue entry
+ * and its share of the writes rather than another encoding.
+ *
+ * The server subscribes to a sweep stream, such as LIDAR.getSweepPublisher(), or sweeps can be
+ * passed to broadcast directly.  Every sweep is sent as one big endian frame:
+ *
+ * <pre>
+ * magic       2 bytes   0x4C48, "LH"
+ * version     1 byte    1
+ * flags       1 byte    0
+ * sequence    4 bytes   sweep number, starting at 0
+ * timestamp   8 bytes   milliseconds since the epoch when the sweep was acquired
+ * rpm         2 bytes   mean RPM of the sweep
+ * angles      2 bytes   number of angles, 360
+ * readings    4 bytes per angle, an unsigned 16 bit distance then an unsigned 16 bit intensity
+ * </pre>
+ *
+ * A client whose queue of unsent frames fills up is handled by the SlowClientPolicy.
+ */
+public class LidarServer implements TimedSubscriber<DataPoint[]>, Closeable {
+
+    public static final short MAGIC = 0x4C48;
+
+    public static final byte VERSION = 1;
+
+    public static final int HEADER_SIZE = 20;
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    public static final int FRAME_SIZE = HEADER_SIZE + (ANGLES * 4);
+
+    /**
+     * Number of encoded frames waiting for the selector thread before new sweeps are dropped.
+     */
+    private static final int OUTGOING_CAPACITY = 16;
+
+    private final int maximumPendingFrames;
+
+    private final SlowClientPolicy slowClientPolicy;
+
+    /**
+     * Frames which are free to encode into.  Frames are allocated when the pool is empty and only
+     * as many as the pool holds are kept when they are released.
+     */
+    private final ArrayBlockingQueue<Frame> framePool;
+
+    private final ArrayBlockingQueue<Frame> outgoingFrames = new ArrayBlockingQueue<>(OUTGOING_CAPACITY);
+
+    private final ArrayList<Client> clients = new ArrayList<>();
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(256);
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread selectorThread;
+
+    private volatile boolean running = false;
+
+    private int sequence = 0;
+
+    private volatile int clientCount = 0;
+
+    private volatile long sentFrameCount = 0;
+
+    private volatile long skippedFrameCount = 0;
+
+    private volatile long droppedSweepCount = 0;
+
+    private volatile long disconnectedClientCount = 0;
+
+    /**
+     * A pooled, encoded sweep shared by every client it is queued for.
+     */
+    private final class Frame {
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_SIZE).order(ByteOrder.BIG_ENDIAN);
+
+        final AtomicInteger references = new AtomicInteger();
+
+        void retain() {
+            references.incrementAndGet();
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                framePool.offer(this);
+            }
+        }
+    }
+
+    /**
+     * A connected client and the ring of frames it has not been sent yet.  Only touched by the
+     * selector thread.
+     */
+    private final class Client {
+
+        final SocketChannel channel;
+
+        final SelectionKey key;
+
+        final Frame[] frames;
+
+        final ByteBuffer[] views;
+
+        int head = 0;
+
+        int count = 0;
+
+        Client(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.frames = new Frame[maximumPendingFrames];
+            this.views = new ByteBuffer[maximumPendingFrames];
+        }
+
+        /**
+         * Queues a frame and tries to send it.  Returns false if the client had to be closed.
+         */
+        boolean enqueue(Frame frame) {
+            if (count == frames.length) {
+                if (slowClientPolicy == SlowClientPolicy.DISCONNECT) {
+                    return false;
+                }
+                skippedFrameCount++;
+                return true;
+            }
+            int slot = (head + count) % frames.length;
+            frame.retain();
+            frames[slot] = frame;
+            views[slot] = frame.buffer.duplicate();
+            count++;
+            return flush();
+        }
+
+        /**
+         * Writes as much as the socket takes, with one gathering write per contiguous run of the
+         * ring.  Returns false if the client had to be closed.
+         */
+        boolean flush() {
+            try {
+                while (count > 0) {
+                    int length = Math.min(count, frames.length - head);
+                    channel.write(views, head, length);
+                    int sent = 0;
+                    while (sent < length && !views[head + sent].hasRemaining()) {
+                        sent++;
+                    }
+                    for (int i = 0; i < sent; i++) {
+                        frames[head].release();
+                        frames[head] = null;
+                        views[head] = null;
+                        head = (head + 1) % frames.length;
+                        count--;
+                        sentFrameCount++;
+                    }
+                    if (sent < length) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            int interest = count > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != interest) {
+                key.interestOps(interest);
+            }
+            return true;
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            while (count > 0) {
+                frames[head].release();
+                frames[head] = null;
+                views[head] = null;
+                head = (head + 1) % frames.length;
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param maximumPendingFrames Number of frames queued for a client before it counts as slow.
+     * @param slowClientPolicy What to do with slow clients.
+     */
+    public LidarServer(int maximumPendingFrames, SlowClientPolicy slowClientPolicy) {
+        if (maximumPendingFrames <= 0 || slowClientPolicy == null) {
+            throw new IllegalArgumentException("A positive pending frame count and a slow client policy are required");
+        }
+        this.maximumPendingFrames = maximumPendingFrames;
+        this.slowClientPolicy = slowClientPolicy;
+        this.framePool = new ArrayBlockingQueue<>(OUTGOING_CAPACITY + maximumPendingFrames);
+    }
+
+    /**
+     * Starts listening and starts the selector thread.
+     * @param address The address to listen on, such as new InetSocketAddress(0) for any free port.
+     * @throws IOException If the server socket cannot be opened.
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (running) {
+            throw new IllegalStateException("The server is already running");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "lighthouse-server");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The port, or -1 if the server is not running.
+     */
+    public synchronized int getLocalPort() {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Encodes a sweep acquired now and hands it to the selector thread.  Never waits; if the
+     * selector thread is behind, the sweep is dropped.
+     * @param dataPointArray The sweep, indexed by angle.
+     */
+    public void broadcast(DataPoint[] dataPointArray) {
+        broadcast(dataPointArray, System.nanoTime());
+    }
+
+    /**
+     * Encodes a sweep and hands it to the selector thread.  Never waits; if the selector thread
+     * is behind, the sweep is dropped.
+     * @param dataPointArray The sweep, indexed by angle.
+     * @param acquisitionTime Time, from System.nanoTime, at which the sweep was acquired.
+     */
+    public void broadcast(DataPoint[] dataPointArray, long acquisitionTime) {
+        if (!running || clientCount == 0) {
+            return;
+        }
+        Frame frame = framePool.poll();
+        if (frame == null) {
+            frame = new Frame();
+        }
+        frame.references.set(1);
+        long timestamp = System.currentTimeMillis() - ((System.nanoTime() - acquisitionTime) / 1000000L);
+        encode(dataPointArray, timestamp, frame.buffer);
+        if (!outgoingFrames.offer(frame)) {
+            droppedSweepCount++;
+            frame.release();
+            return;
+        }
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    private void encode(DataPoint[] dataPointArray, long timestamp, ByteBuffer buffer) {
+        buffer.clear();
+        long rpmSum = 0;
+        int rpmCount = 0;
+        buffer.position(HEADER_SIZE);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            if (dataPoint == null) {
+                buffer.putInt(0);
+                continue;
+            }
+            buffer.putShort((short) clampUnsignedShort(dataPoint.getDistance()));
+            buffer.putShort((short) clampUnsignedShort(dataPoint.getIntensity()));
+            if (dataPoint.getRPM() > 0) {
+                rpmSum += dataPoint.getRPM();
+                rpmCount++;
+            }
+        }
+        buffer.putShort(0, MAGIC);
+        buffer.put(2, VERSION);
+        buffer.put(3, (byte) 0);
+        buffer.putInt(4, sequence++);
+        buffer.putLong(8, timestamp);
+        buffer.putShort(16, (short) clampUnsignedShort(rpmCount == 0 ? 0 : rpmSum / rpmCount));
+        buffer.putShort(18, (short) ANGLES);
+        buffer.flip();
+    }
+
+    private static int clampUnsignedShort(float value) {
+        return Math.max(0, Math.min(0xFFFF, Math.round(value)));
+    }
+
+    private void runSelector() {
+        try {
+            while (running) {
+                selector.select();
+                Frame frame;
+                while ((frame = outgoingFrames.poll()) != null) {
+                    for (int i = clients.size() - 1; i >= 0; i--) {
+                        Client client = clients.get(i);
+                        if (!client.enqueue(frame)) {
+                            disconnect(i);
+                        }
+                    }
+                    frame.release();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable() && !drain(client)) {
+                        disconnect(clients.indexOf(client));
+                        continue;
+                    }
+                    if (key.isValid() && key.isWritable() && !client.flush()) {
+                        disconnect(clients.indexOf(client));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                clients.get(i).close();
+            }
+            clients.clear();
+            clientCount = 0;
+            Frame frame;
+            while ((frame = outgoingFrames.poll()) != null) {
+                frame.release();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        Client client = new Client(channel, key);
+        key.attach(client);
+        clients.add(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * Discards anything a client sends.  Returns false once the client has closed its end.
+     */
+    private boolean drain(Client client) {
+        try {
+            int bytes;
+            do {
+                readBuffer.clear();
+                bytes = client.channel.read(readBuffer);
+            } while (bytes > 0);
+            return bytes == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void disconnect(int index) {
+        if (index < 0) {
+            return;
+        }
+        clients.remove(index).close();
+        clientCount = clients.size();
+        disconnectedClientCount++;
+    }
+
+    /**
+     * Stops the server and closes every client.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            selector.wakeup();
+            thread = selectorThread;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            serverChannel.close();
+            selector.close();
+            serverChannel = null;
+            selector = null;
+            selectorThread = null;
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(DataPoint[] dataPointArray) {
+        broadcast(dataPointArray);
+    }
+
+    @Override
+    public void onNext(DataPoint[] dataPointArray, long acquisitionTime) {
+        broadcast(dataPointArray, acquisitionTime);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        throwable.printStackTrace();
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    /**
+     * Returns the number of connected clients.
+     * @return Client count.
+     */
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Returns the number of frames fully written, counted once per client.
+     * @return Sent frame count.
+     */
+    public long getSentFrameCount() {
+        return sentFrameCount;
+    }
+
+    /**
+     * Returns the number of frames skipped for slow clients.
+     * @return Skipped frame count.
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    /**
+     * Returns the number of sweeps dropped because the selector thread was behind.
+     * @return Dropped sweep count.
+     */
+    public long getDroppedSweepCount() {
+        return droppedSweepCount;
+    }
+
+    /**
+     * Returns the number of clients disconnected, whether they closed the connection or were
+     * slow.
+     * @return Disconnected client count.
+     */
+    public long getDisconnectedClientCount() {
+        return disconnectedClientCount;
+    }
+}
@@ -0,0 +1,18 @@
+package com.lighthouse.Server;
+
+/**
+ * What a LidarServer does with a client whose queue of unsent frames is full.
+ */
+public enum SlowClientPolicy {
+
+    /**
+     * Close the connection, so the client can reconnect and start again from the latest sweep.
+     */
+    DISCONNECT,
+
+    /**
+     * Keep the connection and skip sweeps for the client until its queue has room again.  Frames
+     * are always skipped whole, so the stream stays readable.
+     */
+    SKIP
+}
@@ -0,0 +1,123 @@
+package com.lighthouse.Stream;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+/**
+ * Turns a stream of whole sweeps into a stream of SweepDelta for one subscriber.  Each sweep is
+ * compared against the values last sent to that subscriber, and only angles which moved by more
+ * than a tolerance, or gained or lost their return, are sent.  Since the comparison is against what
+ * was actually sent, sweeps dropped upstream for a slow subscriber are caught up on in the next
+ * delta, and the error at any angle stays within the tolerance.
+ *
+ * Every sweep becomes at most one delta, so the subscriber's demand is passed straight upstream.
+ * Sweeps without changes are not sent and are requested again instead, so a static scene costs
+ * the subscriber nothing between keyframes.
+ */
+public class DeltaSubscriber implements Subscriber<DataPoint[]> {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private final Subscriber<? super SweepDelta> subscriber;
+
+    private final float distanceTolerance;
+
+    private final float intensityTolerance;
+
+    private final int keyframeInterval;
+
+    private final float[] sentDistances = new float[ANGLES];
+
+    private final float[] sentIntensities = new float[ANGLES];
+
+    /**
+     * Angles which changed in the current sweep, reused between sweeps.
+     */
+    private final int[] changedAngles = new int[ANGLES];
+
+    private Subscription subscription;
+
+    private long sequence = 0;
+
+    private int sweepsSinceKeyframe = 0;
+
+    private boolean hasKeyframe = false;
+
+    /**
+     * Constructor.
+     * @param subscriber The subscriber which receives the deltas.
+     * @param distanceTolerance Largest distance change which is not sent.
+     * @param intensityTolerance Largest intensity change which is not sent.
+     * @param keyframeInterval Number of sweeps between keyframes, or 0 for only the first one.
+     */
+    public DeltaSubscriber(Subscriber<? super SweepDelta> subscriber,
+                           float distanceTolerance,
+                           float intensityTolerance,
+                           int keyframeInterval) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        this.subscriber = subscriber;
+        this.distanceTolerance = distanceTolerance;
+        this.intensityTolerance = intensityTolerance;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        subscriber.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(DataPoint[] dataPointArray) {
+        sweepsSinceKeyframe++;
+        boolean keyframe = !hasKeyframe || (keyframeInterval > 0 && sweepsSinceKeyframe >= keyframeInterval);
+        int changeCount = 0;
+        for (int angle = 0; angle < ANGLES; angle++) {
+            DataPoint dataPoint = angle < dataPointArray.length ? dataPointArray[angle] : null;
+            float distance = dataPoint == null ? 0 : dataPoint.getDistance();
+            float intensity = dataPoint == null ? 0 : dataPoint.getIntensity();
+            float sentDistance = sentDistances[angle];
+            boolean changed = keyframe
+                    || (distance > 0) != (sentDistance > 0)
+                    || Math.abs(distance - sentDistance) > distanceTolerance
+                    || Math.abs(intensity - sentIntensities[angle]) > intensityTolerance;
+            if (changed) {
+                sentDistances[angle] = distance;
+                sentIntensities[angle] = intensity;
+                changedAngles[changeCount++] = angle;
+            }
+        }
+
+        if (changeCount == 0) {
+            // Nothing to send, so ask for another sweep in place of this one
+            subscription.request(1);
+            return;
+        }
+        int[] angles = new int[changeCount];
+        float[] distances = new float[changeCount];
+        float[] intensities = new float[changeCount];
+        for (int change = 0; change < changeCount; change++) {
+            int angle = changedAngles[change];
+            angles[change] = angle;
+            distances[change] = sentDistances[angle];
+            intensities[change] = sentIntensities[angle];
+        }
+        if (keyframe) {
+            hasKeyframe = true;
+            sweepsSinceKeyframe = 0;
+        }
+        subscriber.onNext(new SweepDelta(sequence++, keyframe, angles, distances, intensities));
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        subscriber.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        subscriber.onComplete();
+    }
+}
@@ -0,0 +1,484 @@
+package com.lighthouse.Stream;
+
+import com.lighthouse.Timing.LatencyHistogram;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher which fans items out to any number of subscribers without ever waiting for them.
+ * Every subscriber has its own bounded buffer, demand and executor.  Publishing only puts the item
+ * into each buffer and, if the subscriber is idle, schedules a task on its executor which sends
+ * items for as long as there is demand.  When a buffer is full the subscriber's overflow policy
+ * drops an item, so a slow subscriber loses items instead of stalling the reader or the other
+ * subscribers.
+ *
+ * Items published with an acquisition time are timed from acquisition to the moment they are
+ * handed to each subscriber, giving a latency histogram per subscriber.  A TimedSubscriber is
+ * also given the acquisition time with each item.
+ *
+ * Subscribers may be added and removed at any time from any thread.  publish must only be called
+ * by one thread, normally the LIDAR reader.
+ * @param <T> The item type.
+ */
+public class LidarPublisher<T> implements Publisher<T> {
+
+    /**
+     * Buffer size used when none is given.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16;
+
+    /**
+     * Acquisition time of items published without one, which are not timed.
+     */
+    private static final long NO_ACQUISITION_TIME = Long.MIN_VALUE;
+
+    private static ExecutorService defaultExecutor;
+
+    private final Executor executor;
+
+    private final int bufferSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private volatile BufferedSubscription<?>[] subscriptions = new BufferedSubscription<?>[0];
+
+    private boolean closed = false;
+
+    private Throwable closedException = null;
+
+    private volatile long droppedCount = 0;
+
+    private volatile long publishedCount = 0;
+
+    /**
+     * Constructor which delivers on a shared pool of daemon threads, with the default buffer size
+     * and dropping the oldest items.
+     */
+    public LidarPublisher() {
+        this(getDefaultExecutor(), DEFAULT_BUFFER_SIZE, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Constructor.
+     * @param executor Executor which delivers items to subscribers by default.
+     * @param bufferSize Buffer size of each subscriber by default.
+     * @param overflowPolicy Overflow policy of each subscriber by default.
+     */
+    public LidarPublisher(Executor executor, int bufferSize, OverflowPolicy overflowPolicy) {
+        if (executor == null || overflowPolicy == null || bufferSize <= 0) {
+            throw new IllegalArgumentException("An executor, overflow policy and positive buffer size are required");
+        }
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Returns the shared pool used by publishers created without an executor.  Its threads are
+     * daemon threads, created when needed and stopped when idle.
+     * @return The default executor.
+     */
+    public static synchronized Executor getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "lighthouse-stream-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        subscribe(subscriber, executor, bufferSize, overflowPolicy);
+    }
+
+    /**
+     * Adds a subscriber with its own delivery settings.
+     * @param subscriber The subscriber.
+     * @param executor Executor which delivers items to the subscriber.
+     * @param bufferSize Number of items buffered for the subscriber.
+     * @param overflowPolicy What to drop when the buffer is full.
+     */
+    public void subscribe(Subscriber<? super T> subscriber, Executor executor, int bufferSize, OverflowPolicy overflowPolicy) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (executor == null || overflowPolicy == null || bufferSize <= 0) {
+            throw new IllegalArgumentException("An executor, overflow policy and positive buffer size are required");
+        }
+        BufferedSubscription<T> subscription =
+                new BufferedSubscription<>(this, subscriber, executor, bufferSize, overflowPolicy);
+        synchronized (this) {
+            if (closed) {
+                subscription.complete(closedException);
+            } else {
+                BufferedSubscription<?>[] current = subscriptions;
+                BufferedSubscription<?>[] updated = new BufferedSubscription<?>[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, current.length);
+                updated[current.length] = subscription;
+                subscriptions = updated;
+            }
+        }
+        subscription.signal();
+    }
+
+    /**
+     * Hands an item to every subscriber.  Never waits.
+     * @param item The item, which subscribers must not modify since it is shared between them.
+     * @return Number of subscribers which dropped an item because their buffer was full.
+     */
+    public int publish(T item) {
+        return publish(item, NO_ACQUISITION_TIME);
+    }
+
+    /**
+     * Hands an item to every subscriber and times its delivery to each of them.  Never waits.
+     * @param item The item, which subscribers must not modify since it is shared between them.
+     * @param acquisitionTime Time, from System.nanoTime, at which the data of the item was
+     * acquired.
+     * @return Number of subscribers which dropped an item because their buffer was full.
+     */
+    @SuppressWarnings("unchecked")
+    public int publish(T item, long acquisitionTime) {
+        if (item == null) {
+            throw new NullPointerException("item");
+        }
+        int dropped = 0;
+        BufferedSubscription<?>[] current = subscriptions;
+        for (BufferedSubscription<?> subscription : current) {
+            if (!((BufferedSubscription<T>) subscription).offer(item, acquisitionTime)) {
+                dropped++;
+            }
+        }
+        publishedCount++;
+        if (dropped > 0) {
+            droppedCount += dropped;
+        }
+        return dropped;
+    }
+
+    /**
+     * Completes every subscriber once its buffered items have been sent.  Later subscribers are
+     * completed straight away.
+     */
+    public void close() {
+        closeWith(null);
+    }
+
+    /**
+     * Fails every subscriber once its buffered items have been sent.  Later subscribers fail
+     * straight away.
+     * @param throwable The failure.
+     */
+    public void closeExceptionally(Throwable throwable) {
+        closeWith(throwable);
+    }
+
+    private void closeWith(Throwable throwable) {
+        BufferedSubscription<?>[] current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closedException = throwable;
+            current = subscriptions;
+            subscriptions = new BufferedSubscription<?>[0];
+        }
+        for (BufferedSubscription<?> subscription : current) {
+            subscription.complete(throwable);
+        }
+    }
+
+    private synchronized void remove(BufferedSubscription<?> subscription) {
+        BufferedSubscription<?>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                BufferedSubscription<?>[] updated = new BufferedSubscription<?>[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the latencies from acquisition to delivery of the items handed to a subscriber.
+     * @param subscriber The subscriber, as passed to subscribe.
+     * @return The latency histogram, or null if the subscriber is not subscribed.
+     */
+    public LatencyHistogram getDeliveryLatency(Subscriber<?> subscriber) {
+        for (BufferedSubscription<?> subscription : subscriptions) {
+            if (subscription.subscriber == subscriber) {
+                return subscription.deliveryLatency;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if anyone is subscribed, so callers can skip building items nobody wants.
+     * @return True if there are subscribers.
+     */
+    public boolean hasSubscribers() {
+        return subscriptions.length > 0;
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.length;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Returns the number of items published.
+     * @return Published count.
+     */
+    public long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Returns the number of items dropped across all subscribers.
+     * @return Dropped count.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Buffer, demand and delivery task of a single subscriber.  The work-in-progress counter makes
+     * sure only one delivery task runs at a time, so the subscriber is never called concurrently.
+     */
+    private static final class BufferedSubscription<T> implements Subscription, Runnable {
+
+        private final LidarPublisher<T> publisher;
+
+        private final Subscriber<? super T> subscriber;
+
+        private final Executor executor;
+
+        private final OverflowPolicy overflowPolicy;
+
+        /**
+         * Ring buffer of items and their acquisition times, guarded by this subscription.
+         */
+        private final Object[] buffer;
+
+        private final long[] acquisitionTimes;
+
+        private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+        private int head = 0;
+
+        private int count = 0;
+
+        private final AtomicLong demand = new AtomicLong();
+
+        private final AtomicInteger workInProgress = new AtomicInteger();
+
+        private boolean subscribed = false;
+
+        private volatile boolean cancelled = false;
+
+        private volatile boolean done = false;
+
+        private volatile Throwable completionException = null;
+
+        private volatile Throwable requestException = null;
+
+        BufferedSubscription(LidarPublisher<T> publisher,
+                             Subscriber<? super T> subscriber,
+                             Executor executor,
+                             int bufferSize,
+                             OverflowPolicy overflowPolicy) {
+            this.publisher = publisher;
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.overflowPolicy = overflowPolicy;
+            this.buffer = new Object[bufferSize];
+            this.acquisitionTimes = new long[bufferSize];
+        }
+
+        /**
+         * Buffers an item.  Returns false if an item was dropped.
+         */
+        boolean offer(T item, long acquisitionTime) {
+            if (cancelled || done) {
+                return true;
+            }
+            boolean accepted = true;
+            synchronized (this) {
+                if (count == buffer.length) {
+                    accepted = false;
+                    if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                        return false;
+                    }
+                    buffer[head] = null;
+                    head = (head + 1) % buffer.length;
+                    count--;
+                }
+                int slot = (head + count) % buffer.length;
+                buffer[slot] = item;
+                acquisitionTimes[slot] = acquisitionTime;
+                count++;
+            }
+            signal();
+            return accepted;
+        }
+
+        void complete(Throwable throwable) {
+            completionException = throwable;
+            done = true;
+            signal();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                requestException = new IllegalArgumentException("Requested " + n + " items, which is not positive");
+            } else {
+                long current;
+                long updated;
+                do {
+                    current = demand.get();
+                    updated = current + n;
+                    if (updated < 0) {
+                        updated = Long.MAX_VALUE;
+                    }
+                } while (!demand.compareAndSet(current, updated));
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            publisher.remove(this);
+            signal();
+        }
+
+        /**
+         * Schedules the delivery task unless it is already running.
+         */
+        void signal() {
+            if (workInProgress.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    cancelled = true;
+                    publisher.remove(this);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (!subscribed) {
+                    subscribed = true;
+                    try {
+                        subscriber.onSubscribe(this);
+                    } catch (Throwable throwable) {
+                        cancel();
+                    }
+                }
+                while (true) {
+                    if (cancelled) {
+                        clearBuffer();
+                        break;
+                    }
+                    Throwable badRequest = requestException;
+                    if (badRequest != null) {
+                        cancelled = true;
+                        publisher.remove(this);
+                        subscriber.onError(badRequest);
+                        continue;
+                    }
+                    T item = null;
+                    long acquisitionTime = NO_ACQUISITION_TIME;
+                    boolean empty;
+                    synchronized (this) {
+                        if (count > 0 && demand.get() > 0) {
+                            item = (T) buffer[head];
+                            acquisitionTime = acquisitionTimes[head];
+                            buffer[head] = null;
+                            head = (head + 1) % buffer.length;
+                            count--;
+                        }
+                        empty = count == 0;
+                    }
+                    if (item != null) {
+                        if (demand.get() != Long.MAX_VALUE) {
+                            demand.decrementAndGet();
+                        }
+                        if (acquisitionTime != NO_ACQUISITION_TIME) {
+                            deliveryLatency.record(System.nanoTime() - acquisitionTime);
+                        }
+                        try {
+                            if (acquisitionTime != NO_ACQUISITION_TIME && subscriber instanceof TimedSubscriber) {
+                                ((TimedSubscriber<? super T>) subscriber).onNext(item, acquisitionTime);
+                            } else {
+                                subscriber.onNext(item);
+                            }
+                        } catch (Throwable throwable) {
+                            failSubscriber(throwable);
+                        }
+                        continue;
+                    }
+                    if (done && empty) {
+                        cancelled = true;
+                        Throwable throwable = completionException;
+                        if (throwable != null) {
+                            subscriber.onError(throwable);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                    break;
+                }
+                missed = workInProgress.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Tells a subscriber whose onNext threw why it gets nothing more, then cancels it.
+         */
+        private void failSubscriber(Throwable throwable) {
+            try {
+                subscriber.onError(throwable);
+            } catch (Throwable ignored) {
+                // The subscriber is being dropped anyway, and the delivery task must carry on.
+            }
+            cancel();
+        }
+
+        private synchronized void clearBuffer() {
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = null;
+            }
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.lighthouse.Stream;
+
+/**
+ * What a publisher does when a subscriber's buffer is full, because the subscriber is slower than
+ * the LIDAR device.  Publishing never waits for a subscriber.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Drop the oldest buffered item, so the subscriber always catches up with the latest data.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new item, so the subscriber sees an unbroken but delayed run of items.
+     */
+    DROP_NEWEST
+}
@@ -0,0 +1,17 @@
+package com.lighthouse.Stream;
+
+/**
+ * A source of items which subscribers pull from by requesting demand, following the Reactive
+ * Streams contract.  java.util.concurrent.Flow is not available on the Android versions this
+ * library supports, so the interfaces are defined here with the same methods.
+ * @param <T> The item type.
+ */
+public interface Publisher<T> {
+
+    /**
+     * Adds a subscriber.  The subscriber's onSubscribe is called with its subscription before any
+     * other method.
+     * @param subscriber The subscriber.
+     */
+    void subscribe(Subscriber<? super T> subscriber);
+}
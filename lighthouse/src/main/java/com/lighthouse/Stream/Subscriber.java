@@ -0,0 +1,34 @@
+package com.lighthouse.Stream;
+
+/**
+ * Receives the items of a Publisher.  Methods of a subscriber are never called concurrently.
+ * @param <T> The item type.
+ */
+public interface Subscriber<T> {
+
+    /**
+     * Called once when the subscriber is added.  No items are sent until demand is requested
+     * through the subscription.
+     * @param subscription The subscription.
+     */
+    void onSubscribe(Subscription subscription);
+
+    /**
+     * Called for each item, never more often than the demand requested.
+     * @param item The item.
+     */
+    void onNext(T item);
+
+    /**
+     * Called once if the publisher fails or the subscription breaks the contract.  No more
+     * methods are called afterwards.
+     * @param throwable The failure.
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Called once when the publisher is closed and every buffered item has been sent.  No more
+     * methods are called afterwards.
+     */
+    void onComplete();
+}
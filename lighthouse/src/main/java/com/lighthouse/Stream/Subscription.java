@@ -0,0 +1,19 @@
+package com.lighthouse.Stream;
+
+/**
+ * Link between a Publisher and one of its subscribers.
+ */
+public interface Subscription {
+
+    /**
+     * Adds demand for items.  Demand is added up and capped at Long.MAX_VALUE, which means
+     * unbounded.
+     * @param n Number of items wanted, which must be positive.
+     */
+    void request(long n);
+
+    /**
+     * Stops sending items.  Items may still arrive for a short while after this returns.
+     */
+    void cancel();
+}
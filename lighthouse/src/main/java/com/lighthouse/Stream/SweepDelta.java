@@ -0,0 +1,78 @@
+package com.lighthouse.Stream;
+
+/**
+ * The angles of a sweep which changed since the previous delta sent to the same subscriber.  A
+ * keyframe holds every angle, so a subscriber which starts or loses track can resynchronise from
+ * it.  Instances are immutable.
+ */
+public class SweepDelta {
+
+    private final long sequence;
+
+    private final boolean keyframe;
+
+    private final int[] angles;
+
+    private final float[] distances;
+
+    private final float[] intensities;
+
+    /**
+     * Constructor.  The arrays are kept, not copied.
+     */
+    SweepDelta(long sequence, boolean keyframe, int[] angles, float[] distances, float[] intensities) {
+        this.sequence = sequence;
+        this.keyframe = keyframe;
+        this.angles = angles;
+        this.distances = distances;
+        this.intensities = intensities;
+    }
+
+    /**
+     * Returns the number of the delta among those sent to the subscriber, starting at 0.
+     * @return Sequence number.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns true if the delta holds every angle.
+     * @return True for a keyframe.
+     */
+    public boolean isKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * Returns the number of angles in the delta.
+     * @return Change count.
+     */
+    public int getChangeCount() {
+        return angles.length;
+    }
+
+    public int getAngle(int change) {
+        return angles[change];
+    }
+
+    public float getDistance(int change) {
+        return distances[change];
+    }
+
+    public float getIntensity(int change) {
+        return intensities[change];
+    }
+
+    /**
+     * Applies the delta to a subscriber's copy of the sweep.
+     * @param sweepDistances Distances indexed by angle, updated in place.
+     * @param sweepIntensities Intensities indexed by angle, updated in place.
+     */
+    public void applyTo(float[] sweepDistances, float[] sweepIntensities) {
+        for (int change = 0; change < angles.length; change++) {
+            sweepDistances[angles[change]] = distances[change];
+            sweepIntensities[angles[change]] = intensities[change];
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.lighthouse.Stream;
+
+/**
+ * Subscriber which is also told when the data of each item was acquired.  A LidarPublisher calls
+ * onNext(item, acquisitionTime) instead of onNext(item) for items published with an acquisition
+ * time, and onNext(item) for the others.
+ * @param <T> The item type.
+ */
+public interface TimedSubscriber<T> extends Subscriber<T> {
+
+    /**
+     * Called for each item published with an acquisition time, never more often than the demand
+     * requested.
+     * @param item The item.
+     * @param acquisitionTime Time, from System.nanoTime, at which the data of the item was
+     * acquired.
+     */
+    void onNext(T item, long acquisitionTime);
+}
@@ -0,0 +1,321 @@
+package com.lighthouse.Timing;
+
+import com.lighthouse.Data.LidarProtocol;
+
+import java.nio.charset.Charset;
+
+/**
+ * Estimates the offset and drift between the clock of the LIDAR device and System.nanoTime on the
+ * phone with NTP style ping exchanges over the command channel.
+ *
+ * The phone sends "ping" followed by its send time t1 in nanoseconds.  The device answers on the
+ * data stream with a reply frame, which the reader picks out from between the packets:
+ *
+ * <pre>
+ * sync        1 byte    0xFB
+ * type        1 byte    0x54, "T"
+ * t1          8 bytes   the send time of the ping, echoed back
+ * t2          8 bytes   device time, in microseconds, when the ping was received
+ * t3          8 bytes   device time, in microseconds, when the reply was sent
+ * </pre>
+ *
+ * all big endian.  With t4 the time the reply was read, each exchange gives an offset of
+ * ((t2 - t1) + (t3 - t4)) / 2 and a round trip delay of (t4 - t1) - (t3 - t2).  Exchanges delayed
+ * by queueing are the least accurate, so the estimate is a least squares line through the
+ * exchanges with the lowest delays of the most recent ones, and its slope is the drift.
+ *
+ * Replies are handled on the reader thread while any thread reads the estimate, which is
+ * replaced as a whole so it is always consistent.
+ */
+public class ClockSynchronizer {
+
+    /**
+     * Command which starts an exchange.
+     */
+    public static final String PING_COMMAND = "ping";
+
+    public static final int REPLY_SYNC_BYTE = 0xFB;
+
+    public static final int REPLY_TYPE = 0x54;
+
+    /**
+     * Number of bytes in a reply frame.
+     */
+    public static final int REPLY_SIZE = 26;
+
+    /**
+     * Number of recent exchanges kept.
+     */
+    private static final int SAMPLE_COUNT = 16;
+
+    /**
+     * Exchanges with a delay up to this multiple of the lowest delay are used for the estimate.
+     */
+    private static final double DELAY_TOLERANCE = 1.5;
+
+    /**
+     * Send times of the most recent pings.  Replies echoing any other time are ignored, so stray
+     * bytes which look like a reply are not taken for one.
+     */
+    private final long[] pingTimes = new long[4];
+
+    private int pingCursor = 0;
+
+    private final long[] sampleTimes = new long[SAMPLE_COUNT];
+
+    private final long[] sampleOffsets = new long[SAMPLE_COUNT];
+
+    private final long[] sampleDelays = new long[SAMPLE_COUNT];
+
+    private int sampleCount = 0;
+
+    private int sampleCursor = 0;
+
+    private volatile Estimate estimate = null;
+
+    private volatile long exchangeCount = 0;
+
+    /**
+     * A fitted clock model: device time in nanoseconds is local time plus
+     * offset + drift * (local time - reference time).
+     */
+    private static final class Estimate {
+
+        final long referenceTime;
+
+        final long offset;
+
+        final double drift;
+
+        final long roundTripDelay;
+
+        Estimate(long referenceTime, long offset, double drift, long roundTripDelay) {
+            this.referenceTime = referenceTime;
+            this.offset = offset;
+            this.drift = drift;
+            this.roundTripDelay = roundTripDelay;
+        }
+
+        long getOffset(long localTime) {
+            return offset + (long) (drift * (localTime - referenceTime));
+        }
+    }
+
+    /**
+     * Creates the command which starts an exchange, stamped with the current time.
+     * @return Command bytes to send to the device.
+     */
+    public byte[] createPing() {
+        long pingTime = System.nanoTime();
+        synchronized (this) {
+            pingTimes[pingCursor] = pingTime;
+            pingCursor = (pingCursor + 1) % pingTimes.length;
+        }
+        return (PING_COMMAND + pingTime).getBytes(Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * Returns true if a reply frame starts at the offset.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the candidate reply.
+     * @return True if a reply starts at the offset.
+     */
+    public static boolean isReplyStart(byte[] data, int offset) {
+        return (data[offset] & 0xFF) == REPLY_SYNC_BYTE && (data[offset + 1] & 0xFF) == REPLY_TYPE;
+    }
+
+    /**
+     * Handles a reply frame.  REPLY_SIZE bytes must be available from the offset.
+     * @param data Raw bytes from the LIDAR device.
+     * @param offset Offset of the reply.
+     * @param receiveTime Time, from System.nanoTime, at which the reply was read.
+     * @return False if the reply does not answer a recent ping created by createPing.
+     */
+    public boolean handleReply(byte[] data, int offset, long receiveTime) {
+        long pingTime = readLong(data, offset + 2);
+        synchronized (this) {
+            boolean pending = false;
+            for (int i = 0; i < pingTimes.length; i++) {
+                if (pingTimes[i] == pingTime && pingTime != 0) {
+                    pingTimes[i] = 0;
+                    pending = true;
+                }
+            }
+            if (!pending) {
+                return false;
+            }
+        }
+        long deviceReceiveTime = readLong(data, offset + 10) * 1000;
+        long deviceSendTime = readLong(data, offset + 18) * 1000;
+        addExchange(pingTime, deviceReceiveTime, deviceSendTime, receiveTime);
+        return true;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Adds an exchange and updates the estimate.  Exchanges which are impossible, such as ones
+     * answered before they were sent, are ignored.
+     * @param pingTime Local time the ping was sent, t1.
+     * @param deviceReceiveTime Device time in nanoseconds the ping was received, t2.
+     * @param deviceSendTime Device time in nanoseconds the reply was sent, t3.
+     * @param receiveTime Local time the reply was received, t4.
+     */
+    public synchronized void addExchange(long pingTime, long deviceReceiveTime, long deviceSendTime, long receiveTime) {
+        long delay = (receiveTime - pingTime) - (deviceSendTime - deviceReceiveTime);
+        if (receiveTime < pingTime || deviceSendTime < deviceReceiveTime || delay < 0) {
+            return;
+        }
+        sampleTimes[sampleCursor] = pingTime + ((receiveTime - pingTime) / 2);
+        sampleOffsets[sampleCursor] = ((deviceReceiveTime - pingTime) + (deviceSendTime - receiveTime)) / 2;
+        sampleDelays[sampleCursor] = delay;
+        sampleCursor = (sampleCursor + 1) % SAMPLE_COUNT;
+        sampleCount = Math.min(SAMPLE_COUNT, sampleCount + 1);
+        exchangeCount++;
+        updateEstimate();
+    }
+
+    private void updateEstimate() {
+        long lowestDelay = Long.MAX_VALUE;
+        for (int i = 0; i < sampleCount; i++) {
+            lowestDelay = Math.min(lowestDelay, sampleDelays[i]);
+        }
+        long delayLimit = (long) (lowestDelay * DELAY_TOLERANCE) + 1;
+
+        // Least squares fit of offset against time, relative to the first good exchange so the
+        // sums stay small.
+        long referenceTime = 0;
+        long referenceOffset = 0;
+        boolean referenceSet = false;
+        int used = 0;
+        double sumT = 0;
+        double sumO = 0;
+        double sumTT = 0;
+        double sumTO = 0;
+        long delaySum = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            if (sampleDelays[i] > delayLimit) {
+                continue;
+            }
+            if (!referenceSet) {
+                referenceTime = sampleTimes[i];
+                referenceOffset = sampleOffsets[i];
+                referenceSet = true;
+            }
+            double t = sampleTimes[i] - referenceTime;
+            double o = sampleOffsets[i] - referenceOffset;
+            sumT += t;
+            sumO += o;
+            sumTT += t * t;
+            sumTO += t * o;
+            delaySum += sampleDelays[i];
+            used++;
+        }
+        double drift = 0;
+        double denominator = (used * sumTT) - (sumT * sumT);
+        if (used >= 2 && denominator > 0) {
+            drift = ((used * sumTO) - (sumT * sumO)) / denominator;
+        }
+        double meanT = sumT / used;
+        double meanO = sumO / used;
+        // The line passes through the mean, which becomes the reference point of the estimate.
+        estimate = new Estimate(referenceTime + (long) meanT,
+                referenceOffset + (long) meanO,
+                drift,
+                delaySum / used);
+    }
+
+    /**
+     * Returns true once at least one exchange has completed.
+     * @return True if the clocks are synchronized.
+     */
+    public boolean isSynchronized() {
+        return estimate != null;
+    }
+
+    /**
+     * Converts a device time to local System.nanoTime.
+     * @param deviceTime Device time in nanoseconds.
+     * @return Local time, or deviceTime unchanged if no exchange has completed.
+     */
+    public long toLocalTime(long deviceTime) {
+        Estimate current = estimate;
+        if (current == null) {
+            return deviceTime;
+        }
+        // Solve deviceTime = local + offset + drift * (local - reference) for local.
+        double local = ((deviceTime - current.offset) + (current.drift * current.referenceTime)) / (1 + current.drift);
+        return (long) local;
+    }
+
+    /**
+     * Converts a local System.nanoTime to device time.
+     * @param localTime Local time.
+     * @return Device time in nanoseconds, or localTime unchanged if no exchange has completed.
+     */
+    public long toDeviceTime(long localTime) {
+        Estimate current = estimate;
+        return current == null ? localTime : localTime + current.getOffset(localTime);
+    }
+
+    /**
+     * Returns the estimated time at which a packet was acquired by the device.  When the protocol
+     * stamps packets with device time it is converted to local time, otherwise the one way delay
+     * of the link is taken off the time the packet was received.
+     * @param deviceTime Device time of the packet in microseconds, or
+     * LidarProtocol.NO_DEVICE_TIME.
+     * @param receiveTime Time, from System.nanoTime, at which the packet was received.
+     * @return Acquisition time in local System.nanoTime.
+     */
+    public long getAcquisitionTime(long deviceTime, long receiveTime) {
+        Estimate current = estimate;
+        if (current == null) {
+            return receiveTime;
+        }
+        if (deviceTime != LidarProtocol.NO_DEVICE_TIME) {
+            return Math.min(receiveTime, toLocalTime(deviceTime * 1000));
+        }
+        return receiveTime - (current.roundTripDelay / 2);
+    }
+
+    /**
+     * Returns the current offset of the device clock from the local clock.
+     * @return Offset in nanoseconds, or 0 if no exchange has completed.
+     */
+    public long getOffset() {
+        Estimate current = estimate;
+        return current == null ? 0 : current.getOffset(System.nanoTime());
+    }
+
+    /**
+     * Returns the rate at which the device clock drifts from the local clock.
+     * @return Drift in parts per million, positive when the device clock runs fast.
+     */
+    public double getDriftPpm() {
+        Estimate current = estimate;
+        return current == null ? 0 : current.drift * 1e6;
+    }
+
+    /**
+     * Returns the mean round trip delay of the exchanges used for the estimate.
+     * @return Round trip delay in nanoseconds, or 0 if no exchange has completed.
+     */
+    public long getRoundTripDelay() {
+        Estimate current = estimate;
+        return current == null ? 0 : current.roundTripDelay;
+    }
+
+    /**
+     * Returns the number of exchanges completed.
+     * @return Exchange count.
+     */
+    public long getExchangeCount() {
+        return exchangeCount;
+    }
+}
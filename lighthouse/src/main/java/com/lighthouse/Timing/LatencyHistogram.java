@@ -0,0 +1,135 @@
+package com.lighthouse.Timing;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, so percentiles are accurate to
+ * about 3% of the value from nanoseconds up to hours while the histogram stays a fixed 11 KB.
+ * Recording is lock free and never allocates, so it can be done on the reader thread for every
+ * packet, and any thread can read percentiles while latencies are recorded.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Each power of two is split into this many buckets.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Latencies from 2^45 ns, about 9.7 hours, are counted in the last bucket.
+     */
+    private static final int MAXIMUM_EXPONENT = 45;
+
+    private static final long MAXIMUM_VALUE = (1L << MAXIMUM_EXPONENT) - 1;
+
+    private static final int BUCKET_COUNT = getBucket(MAXIMUM_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong maximum = new AtomicLong();
+
+    /**
+     * Records a latency.  Negative latencies, which can come from clock estimates, are recorded
+     * as 0.
+     * @param latency The latency in nanoseconds.
+     */
+    public void record(long latency) {
+        long value = Math.max(0, Math.min(MAXIMUM_VALUE, latency));
+        counts.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = maximum.get())) {
+            if (maximum.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    private static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value which falls into a bucket.
+     */
+    private static long getBucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket / SUB_BUCKETS) - 1;
+        long mantissa = (bucket % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the latency which a percentage of the recorded latencies are at or below.  The
+     * value is the upper limit of its bucket, so it is never understated.
+     * @param percentile The percentage, from 0 to 100, such as 99.9.
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil((Math.max(0, Math.min(100, percentile)) / 100) * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(getBucketLimit(bucket), maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     * @return Count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     * @return Maximum latency in nanoseconds.
+     */
+    public long getMaximum() {
+        return maximum.get();
+    }
+
+    /**
+     * Returns the mean of the latencies recorded.
+     * @return Mean latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : (double) sum.get() / total;
+    }
+
+    /**
+     * Clears the histogram, such as at the start of a measurement period.  Latencies recorded
+     * while clearing may be partly kept.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts.set(bucket, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        maximum.set(0);
+    }
+}
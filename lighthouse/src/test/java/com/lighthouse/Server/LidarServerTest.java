@@ -0,0 +1,249 @@
+package com.lighthouse.Server;
+
+import com.lighthouse.Data.DataPoint;
+import com.lighthouse.Data.LidarFrame;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a LidarServer over loopback and checks what its clients receive: every frame whole, in
+ * order and matching the sweep it was encoded from, and a client which stops reading handled by
+ * each SlowClientPolicy without holding up the others.
+ */
+public class LidarServerTest {
+
+    private static final int ANGLES = LidarFrame.ANGLES_PER_REVOLUTION;
+
+    private static final long TIMEOUT = 10000;
+
+    private static final int SWEEP_COUNT = 200;
+
+    /**
+     * Creates a sweep whose readings identify it and each angle.
+     */
+    private static DataPoint[] createSweep(int sweep) {
+        DataPoint[] dataPointArray = new DataPoint[ANGLES];
+        for (int angle = 0; angle < ANGLES; angle++) {
+            dataPointArray[angle] = new DataPoint(((sweep * 7) + angle) % 0xFFFF, (sweep + angle) % 256, angle, 300);
+        }
+        return dataPointArray;
+    }
+
+    private static LidarServer startServer(int maximumPendingFrames, SlowClientPolicy slowClientPolicy) throws IOException {
+        LidarServer server = new LidarServer(maximumPendingFrames, slowClientPolicy);
+        server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return server;
+    }
+
+    private static Socket connect(LidarServer server, int receiveBufferSize) throws IOException {
+        Socket socket = new Socket();
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+        socket.setSoTimeout((int) TIMEOUT);
+        return socket;
+    }
+
+    private static void awaitClients(LidarServer server, int clientCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (server.getClientCount() != clientCount) {
+            assertTrue("Timed out waiting for " + clientCount + " clients", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Reads one frame, checks its header and that its readings are those of the sweep its
+     * sequence number names, and returns the sequence number.
+     */
+    private static int readFrame(DataInputStream input) throws IOException {
+        assertEquals(LidarServer.MAGIC, input.readShort());
+        assertEquals(LidarServer.VERSION, input.readByte());
+        assertEquals(0, input.readByte());
+        int sequence = input.readInt();
+        input.readLong();
+        assertEquals(300, input.readUnsignedShort());
+        assertEquals(ANGLES, input.readUnsignedShort());
+        DataPoint[] expected = createSweep(sequence);
+        for (int angle = 0; angle < ANGLES; angle++) {
+            assertEquals(Math.round(expected[angle].getDistance()), input.readUnsignedShort());
+            assertEquals(Math.round(expected[angle].getIntensity()), input.readUnsignedShort());
+        }
+        return sequence;
+    }
+
+    /**
+     * Reads and checks frames on its own thread until the socket is closed.
+     */
+    private static class FrameReader extends Thread {
+
+        private final DataInputStream input;
+
+        volatile int frameCount = 0;
+
+        volatile Throwable failure = null;
+
+        FrameReader(Socket socket) throws IOException {
+            input = new DataInputStream(socket.getInputStream());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int previous = -1;
+            try {
+                while (true) {
+                    int sequence = readFrame(input);
+                    assertTrue("Sequence " + sequence + " after " + previous, sequence > previous);
+                    previous = sequence;
+                    frameCount++;
+                }
+            } catch (IOException e) {
+                // The socket was closed at the end of the test.
+            } catch (Throwable throwable) {
+                failure = throwable;
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    /**
+     * Broadcasts sweeps until a condition holds, such as to fill the socket buffers of a client
+     * which is not reading.
+     */
+    private static void broadcastUntil(LidarServer server, Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        int sweep = 0;
+        while (!condition.holds()) {
+            assertTrue("Timed out broadcasting", System.currentTimeMillis() < deadline);
+            server.broadcast(createSweep(sweep++));
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void sendsEveryFrameWholeAndInOrder() throws Exception {
+        LidarServer server = startServer(SWEEP_COUNT, SlowClientPolicy.DISCONNECT);
+        Socket socket = connect(server, 0);
+        try {
+            awaitClients(server, 1);
+            for (int sweep = 0; sweep < SWEEP_COUNT; sweep++) {
+                server.broadcast(createSweep(sweep));
+                Thread.sleep(1);
+            }
+
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            int expectedFrames = (int) (SWEEP_COUNT - server.getDroppedSweepCount());
+            int previous = -1;
+            for (int frame = 0; frame < expectedFrames; frame++) {
+                int sequence = readFrame(input);
+                assertTrue("Sequence " + sequence + " after " + previous, sequence > previous);
+                previous = sequence;
+            }
+            assertEquals(SWEEP_COUNT - 1, previous);
+            assertEquals(0, server.getDisconnectedClientCount());
+            assertEquals(0, server.getSkippedFrameCount());
+        } finally {
+            socket.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void stampsFramesWithTheAcquisitionTime() throws Exception {
+        LidarServer server = startServer(4, SlowClientPolicy.DISCONNECT);
+        Socket socket = connect(server, 0);
+        try {
+            awaitClients(server, 1);
+            long expectedTimestamp = System.currentTimeMillis() - 5000;
+            server.broadcast(createSweep(0), System.nanoTime() - 5000000000L);
+
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            input.readLong();
+            long timestamp = input.readLong();
+            assertTrue("Timestamp " + timestamp + " is not " + expectedTimestamp,
+                    Math.abs(timestamp - expectedTimestamp) < 1000);
+        } finally {
+            socket.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void disconnectsClientWhichStopsReading() throws Exception {
+        final LidarServer server = startServer(4, SlowClientPolicy.DISCONNECT);
+        Socket slowSocket = connect(server, 4096);
+        Socket fastSocket = connect(server, 0);
+        final FrameReader fastReader = new FrameReader(fastSocket);
+        try {
+            awaitClients(server, 2);
+            fastReader.start();
+            broadcastUntil(server, new Condition() {
+                public boolean holds() {
+                    return server.getDisconnectedClientCount() > 0;
+                }
+            });
+            assertEquals(1, server.getDisconnectedClientCount());
+            assertEquals(1, server.getClientCount());
+
+            final int framesBefore = fastReader.frameCount;
+            broadcastUntil(server, new Condition() {
+                public boolean holds() {
+                    return fastReader.frameCount > framesBefore + 10;
+                }
+            });
+            assertEquals(null, fastReader.failure);
+        } finally {
+            slowSocket.close();
+            fastSocket.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void skipsFramesForClientWhichStopsReading() throws Exception {
+        final LidarServer server = startServer(4, SlowClientPolicy.SKIP);
+        Socket slowSocket = connect(server, 4096);
+        Socket fastSocket = connect(server, 0);
+        final FrameReader fastReader = new FrameReader(fastSocket);
+        try {
+            awaitClients(server, 2);
+            fastReader.start();
+            broadcastUntil(server, new Condition() {
+                public boolean holds() {
+                    return server.getSkippedFrameCount() > 0;
+                }
+            });
+            assertEquals(0, server.getDisconnectedClientCount());
+            assertEquals(2, server.getClientCount());
+
+            // Once the slow client reads again it gets whole frames in order, with gaps.
+            final FrameReader slowReader = new FrameReader(slowSocket);
+            slowReader.start();
+            broadcastUntil(server, new Condition() {
+                public boolean holds() {
+                    return slowReader.frameCount > 10;
+                }
+            });
+            assertEquals(null, slowReader.failure);
+            assertEquals(null, fastReader.failure);
+        } finally {
+            slowSocket.close();
+            fastSocket.close();
+            server.close();
+        }
+    }
+}
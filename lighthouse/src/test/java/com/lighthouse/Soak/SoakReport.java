@@ -0,0 +1,160 @@
+package com.lighthouse.Soak;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a soak run as a flat set of named metrics and the checks made against them, written
+ * out as JSON for CI to keep and compare.
+ */
+public class SoakReport {
+
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    private final List<String> checkNames = new ArrayList<>();
+
+    private final List<Double> checkValues = new ArrayList<>();
+
+    private final List<Double> checkLimits = new ArrayList<>();
+
+    private final List<Boolean> checkMaximums = new ArrayList<>();
+
+    public void put(String name, long value) {
+        metrics.put(name, value);
+    }
+
+    public void put(String name, double value) {
+        metrics.put(name, value);
+    }
+
+    public void put(String name, String value) {
+        metrics.put(name, value);
+    }
+
+    /**
+     * Checks that a value is at most a limit.
+     * @param name Name of the check.
+     * @param value The measured value.
+     * @param limit The largest value which passes.
+     */
+    public void checkMaximum(String name, double value, double limit) {
+        addCheck(name, value, limit, true);
+    }
+
+    /**
+     * Checks that a value is at least a limit.
+     * @param name Name of the check.
+     * @param value The measured value.
+     * @param limit The smallest value which passes.
+     */
+    public void checkMinimum(String name, double value, double limit) {
+        addCheck(name, value, limit, false);
+    }
+
+    private void addCheck(String name, double value, double limit, boolean maximum) {
+        checkNames.add(name);
+        checkValues.add(value);
+        checkLimits.add(limit);
+        checkMaximums.add(maximum);
+    }
+
+    private boolean isPassed(int check) {
+        double value = checkValues.get(check);
+        double limit = checkLimits.get(check);
+        return checkMaximums.get(check) ? value <= limit : value >= limit;
+    }
+
+    /**
+     * Returns true if every check passed.
+     * @return True if the run passed.
+     */
+    public boolean isPassed() {
+        for (int check = 0; check < checkNames.size(); check++) {
+            if (!isPassed(check)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a description of the failed checks.
+     * @return One line per failed check.
+     */
+    public String getFailures() {
+        StringBuilder failures = new StringBuilder();
+        for (int check = 0; check < checkNames.size(); check++) {
+            if (!isPassed(check)) {
+                failures.append(checkNames.get(check))
+                        .append(": ")
+                        .append(checkValues.get(check))
+                        .append(checkMaximums.get(check) ? " > " : " < ")
+                        .append(checkLimits.get(check))
+                        .append('\n');
+            }
+        }
+        return failures.toString();
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"passed\": ").append(isPassed()).append(",\n  \"metrics\": {");
+        boolean first = true;
+        for (Map.Entry<String, Object> metric : metrics.entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    ").append(quote(metric.getKey())).append(": ");
+            Object value = metric.getValue();
+            json.append(value instanceof String ? quote((String) value) : formatNumber(value));
+            first = false;
+        }
+        json.append("\n  },\n  \"checks\": [");
+        for (int check = 0; check < checkNames.size(); check++) {
+            json.append(check == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quote(checkNames.get(check)))
+                    .append(", \"value\": ").append(formatNumber(checkValues.get(check)))
+                    .append(checkMaximums.get(check) ? ", \"maximum\": " : ", \"minimum\": ")
+                    .append(formatNumber(checkLimits.get(check)))
+                    .append(", \"passed\": ").append(isPassed(check))
+                    .append('}');
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static String formatNumber(Object value) {
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                return "null";
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Writes the report as JSON.
+     * @param file The file to write, whose directory is created if needed.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.lighthouse.Soak;
+
+import com.lighthouse.Data.IndexedPacketProtocol;
+import com.lighthouse.LIDAR;
+import com.lighthouse.Stream.Subscriber;
+import com.lighthouse.Stream.Subscription;
+import com.lighthouse.Timing.LatencyHistogram;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Soak test which drives the progressive ingest path of LIDAR from a SyntheticLidarSource for a
+ * long run, and writes a JSON report of sustained packet rate, drops, latency percentiles, heap
+ * high water mark and GC time with pass or fail checks.  It needs no Android hardware, and only
+ * runs when LIGHTHOUSE_SOAK_SECONDS is set, such as for an 8 hour shift at twice the real rate:
+ *
+ * <pre>
+ * LIGHTHOUSE_SOAK_SECONDS=28800 LIGHTHOUSE_SOAK_RATE=2 \
+ *     ./gradlew :lighthouse:testDebugUnitTest --tests com.lighthouse.Soak.SoakTest
+ * </pre>
+ *
+ * Other settings, all optional, are LIGHTHOUSE_SOAK_RPM, LIGHTHOUSE_SOAK_SAMPLES_PER_PACKET,
+ * LIGHTHOUSE_SOAK_REPORT for the report file and the limits LIGHTHOUSE_SOAK_MIN_RATE_RATIO,
+ * LIGHTHOUSE_SOAK_MAX_DROPS, LIGHTHOUSE_SOAK_MAX_P99_MS, LIGHTHOUSE_SOAK_MAX_HEAP_MB and
+ * LIGHTHOUSE_SOAK_MAX_GC_PERCENT.  The first tenth of the run, up to 30 seconds, is a warm up
+ * which is left out of every measurement.
+ */
+public class SoakTest {
+
+    private static final int LINK_BUFFER_SIZE = 64 * 1024;
+
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    private static final long NANOS_PER_MILLISECOND = 1000000L;
+
+    /**
+     * Counts the items it is given and asks for more straight away, and keeps the error which
+     * ended the stream, if any.
+     */
+    private static class CountingSubscriber implements Subscriber<Object> {
+
+        volatile long count = 0;
+
+        volatile Throwable error = null;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Object item) {
+            count++;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    @Test
+    public void sustainsRateWithinLimits() throws Exception {
+        String seconds = System.getenv("LIGHTHOUSE_SOAK_SECONDS");
+        Assume.assumeTrue("Set LIGHTHOUSE_SOAK_SECONDS to run the soak test", seconds != null);
+        long duration = Long.parseLong(seconds) * 1000;
+        long warmUp = Math.min(30000, duration / 10);
+        double rateMultiplier = getSetting("LIGHTHOUSE_SOAK_RATE", 1);
+        int rpm = (int) getSetting("LIGHTHOUSE_SOAK_RPM", 300);
+        int samplesPerPacket = (int) getSetting("LIGHTHOUSE_SOAK_SAMPLES_PER_PACKET", 6);
+        String reportPath = System.getenv("LIGHTHOUSE_SOAK_REPORT");
+        File reportFile = new File(reportPath != null ? reportPath : "build/reports/soak/soak-report.json");
+
+        IndexedPacketProtocol protocol = new IndexedPacketProtocol(samplesPerPacket);
+        SyntheticLidarSource source = new SyntheticLidarSource(protocol, rpm, rateMultiplier, LINK_BUFFER_SIZE);
+        LIDAR lidar = new LIDAR(null);
+        lidar.setLidarProtocol(protocol);
+        lidar.setProgressiveRendering(true);
+        lidar.connectToStreams(source, new OutputStream() {
+            @Override
+            public void write(int b) {
+                // Commands to the device are not needed by the synthetic source.
+            }
+        });
+        CountingSubscriber packets = new CountingSubscriber();
+        CountingSubscriber sweeps = new CountingSubscriber();
+        lidar.getPacketPublisher().subscribe(packets);
+        lidar.getSweepPublisher().subscribe(sweeps);
+
+        List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        lidar.startLIDAR();
+        long startTime = System.currentTimeMillis();
+        Thread.sleep(warmUp);
+
+        // Measurements start after the warm up.
+        LatencyHistogram packetLatency = lidar.getPacketPublisher().getDeliveryLatency(packets);
+        LatencyHistogram sweepLatency = lidar.getSweepPublisher().getDeliveryLatency(sweeps);
+        packetLatency.reset();
+        sweepLatency.reset();
+        source.getLinkLatency().reset();
+        for (MemoryPoolMXBean memoryPool : memoryPools) {
+            memoryPool.resetPeakUsage();
+        }
+        long gcCountBefore = getCollectionCount(collectors);
+        long gcTimeBefore = getCollectionTime(collectors);
+        long linkDropsBefore = source.getDroppedPacketCount();
+        long publisherDropsBefore = lidar.getPacketPublisher().getDroppedCount() + lidar.getSweepPublisher().getDroppedCount();
+        long packetsBefore = packets.count;
+        long sweepsBefore = sweeps.count;
+        long measureStart = System.nanoTime();
+
+        double lowestRate = Double.POSITIVE_INFINITY;
+        long heapUsedHighWater = 0;
+        long previousCount = packets.count;
+        long previousTime = measureStart;
+        while (System.currentTimeMillis() - startTime < duration) {
+            Thread.sleep(SAMPLE_INTERVAL);
+            long now = System.nanoTime();
+            long count = packets.count;
+            lowestRate = Math.min(lowestRate, (count - previousCount) * 1e9 / (now - previousTime));
+            previousCount = count;
+            previousTime = now;
+            heapUsedHighWater = Math.max(heapUsedHighWater, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        long measureEnd = System.nanoTime();
+        long deliveredPackets = packets.count - packetsBefore;
+        long deliveredSweeps = sweeps.count - sweepsBefore;
+        long gcCount = getCollectionCount(collectors) - gcCountBefore;
+        long gcTime = getCollectionTime(collectors) - gcTimeBefore;
+        long heapPeak = 0;
+        for (MemoryPoolMXBean memoryPool : memoryPools) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                heapPeak += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+
+        // Stop the source and let the reader finish the bytes it already has.
+        source.close();
+        Thread.sleep(500);
+        long linkDrops = source.getDroppedPacketCount() - linkDropsBefore;
+        long publisherDrops = lidar.getPacketPublisher().getDroppedCount() +
+                lidar.getSweepPublisher().getDroppedCount() - publisherDropsBefore;
+        long undecodedPackets = Math.max(0, source.getSentPacketCount() - lidar.getLiveFrame().getPacketCount());
+
+        double elapsedSeconds = (measureEnd - measureStart) / 1e9;
+        double targetRate = source.getPacketRate();
+        double sustainedRate = deliveredPackets / elapsedSeconds;
+
+        SoakReport report = new SoakReport();
+        report.put("durationSeconds", elapsedSeconds);
+        report.put("warmUpSeconds", warmUp / 1000.0);
+        report.put("rateMultiplier", rateMultiplier);
+        report.put("rpm", rpm);
+        report.put("samplesPerPacket", samplesPerPacket);
+        report.put("targetPacketsPerSecond", targetRate);
+        report.put("sustainedPacketsPerSecond", sustainedRate);
+        report.put("lowestPacketsPerSecond", lowestRate);
+        report.put("deliveredPackets", deliveredPackets);
+        report.put("deliveredSweeps", deliveredSweeps);
+        report.put("linkDroppedPackets", linkDrops);
+        report.put("publisherDroppedItems", publisherDrops);
+        report.put("undecodedPackets", undecodedPackets);
+        putLatency(report, "packetLatency", packetLatency);
+        putLatency(report, "sweepLatency", sweepLatency);
+        putLatency(report, "linkLatency", source.getLinkLatency());
+        report.put("heapPeakBytes", heapPeak);
+        report.put("heapUsedHighWaterBytes", heapUsedHighWater);
+        report.put("gcCount", gcCount);
+        report.put("gcTimeMillis", gcTime);
+        report.put("gcTimePercent", gcTime / (elapsedSeconds * 10));
+
+        report.checkMinimum("lowestRateRatio", lowestRate / targetRate, getSetting("LIGHTHOUSE_SOAK_MIN_RATE_RATIO", 0.95));
+        report.checkMaximum("drops", linkDrops + publisherDrops + undecodedPackets, getSetting("LIGHTHOUSE_SOAK_MAX_DROPS", 0));
+        report.checkMaximum("packetLatencyP99Millis",
+                packetLatency.getPercentile(99) / (double) NANOS_PER_MILLISECOND,
+                getSetting("LIGHTHOUSE_SOAK_MAX_P99_MS", 50));
+        report.checkMaximum("heapUsedHighWaterMegabytes",
+                heapUsedHighWater / (1024.0 * 1024.0),
+                getSetting("LIGHTHOUSE_SOAK_MAX_HEAP_MB", 256));
+        report.checkMaximum("gcTimePercent", gcTime / (elapsedSeconds * 10), getSetting("LIGHTHOUSE_SOAK_MAX_GC_PERCENT", 5));
+
+        report.write(reportFile);
+        if (reportPath == null) {
+            System.out.println(report.toJson());
+        }
+        assertNoError("packet", packets);
+        assertNoError("sweep", sweeps);
+        assertTrue(report.getFailures(), report.isPassed());
+    }
+
+    private static void assertNoError(String stream, CountingSubscriber subscriber) {
+        Throwable error = subscriber.error;
+        if (error != null) {
+            throw new AssertionError("The " + stream + " stream failed", error);
+        }
+    }
+
+    private static double getSetting(String name, double defaultValue) {
+        String value = System.getenv(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    private static void putLatency(SoakReport report, String name, LatencyHistogram histogram) {
+        report.put(name + "Count", histogram.getCount());
+        report.put(name + "MeanMillis", histogram.getMean() / NANOS_PER_MILLISECOND);
+        report.put(name + "P50Millis", histogram.getPercentile(50) / (double) NANOS_PER_MILLISECOND);
+        report.put(name + "P99Millis", histogram.getPercentile(99) / (double) NANOS_PER_MILLISECOND);
+        report.put(name + "P999Millis", histogram.getPercentile(99.9) / (double) NANOS_PER_MILLISECOND);
+        report.put(name + "MaxMillis", histogram.getMaximum() / (double) NANOS_PER_MILLISECOND);
+    }
+
+    private static long getCollectionCount(List<GarbageCollectorMXBean> collectors) {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getCollectionTime(List<GarbageCollectorMXBean> collectors) {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,193 @@
+package com.lighthouse.Soak;
+
+import com.lighthouse.Data.IndexedPacketProtocol;
+import com.lighthouse.Timing.LatencyHistogram;
+
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An input stream which behaves like the LIDAR device at a multiple of its real rate.  Packets
+ * become due at a steady rate from the time the source is created, and reads block until the
+ * next packet is due.  A reader which falls behind gets the backlog in one go, up to the size of
+ * the link buffer, and the oldest packets beyond it are dropped as the Bluetooth link would.
+ *
+ * The scene is a wall with a target moving around it, with a little noise on every distance.
+ * The source must only be read by one thread.  Its counters can be read from any thread.
+ */
+public class SyntheticLidarSource extends InputStream {
+
+    private static final int INTENSITY = 100;
+
+    private final IndexedPacketProtocol protocol;
+
+    private final int packetSize;
+
+    private final int rpm;
+
+    private final long packetInterval;
+
+    private final long linkBufferPackets;
+
+    private final long startTime = System.nanoTime();
+
+    private final byte[] packet;
+
+    private final Random random = new Random(42);
+
+    /**
+     * Time from a packet becoming due to it being read, which is how long it waited in the link.
+     */
+    private final LatencyHistogram linkLatency = new LatencyHistogram();
+
+    /**
+     * Number of the next packet to hand out, counting dropped ones.
+     */
+    private long nextPacket = 0;
+
+    /**
+     * Bytes of the current packet already handed out.
+     */
+    private int packetOffset = 0;
+
+    private volatile long sentPacketCount = 0;
+
+    private volatile long droppedPacketCount = 0;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param protocol Protocol of the packets.
+     * @param rpm Rotation rate of the simulated device.
+     * @param rateMultiplier Multiple of the real packet rate to send at.
+     * @param linkBufferSize Number of bytes the link holds for a reader which falls behind.
+     */
+    public SyntheticLidarSource(IndexedPacketProtocol protocol, int rpm, double rateMultiplier, int linkBufferSize) {
+        if (rpm <= 0 || rateMultiplier <= 0) {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+        this.protocol = protocol;
+        this.packetSize = protocol.getPacketSize();
+        this.rpm = rpm;
+        double packetsPerSecond = (rpm / 60.0) * IndexedPacketProtocol.PACKETS_PER_REVOLUTION * rateMultiplier;
+        this.packetInterval = Math.max(1, (long) (1e9 / packetsPerSecond));
+        this.linkBufferPackets = Math.max(1, linkBufferSize / packetSize);
+        this.packet = new byte[packetSize];
+    }
+
+    /**
+     * Returns the number of packets sent per second.
+     * @return Packet rate.
+     */
+    public double getPacketRate() {
+        return 1e9 / packetInterval;
+    }
+
+    @Override
+    public int read() {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        long duePackets;
+        while (true) {
+            if (closed) {
+                return -1;
+            }
+            long now = System.nanoTime();
+            duePackets = ((now - startTime) / packetInterval) + 1;
+            if (packetOffset > 0 || duePackets > nextPacket) {
+                break;
+            }
+            LockSupport.parkNanos((startTime + (nextPacket * packetInterval)) - now);
+        }
+        if (packetOffset == 0 && duePackets - nextPacket > linkBufferPackets) {
+            long dropped = (duePackets - nextPacket) - linkBufferPackets;
+            nextPacket += dropped;
+            droppedPacketCount += dropped;
+        }
+
+        int copied = 0;
+        while (copied < length && (packetOffset > 0 || nextPacket < duePackets)) {
+            if (packetOffset == 0) {
+                fillPacket(nextPacket);
+                linkLatency.record(System.nanoTime() - (startTime + (nextPacket * packetInterval)));
+            }
+            int count = Math.min(length - copied, packetSize - packetOffset);
+            System.arraycopy(packet, packetOffset, buffer, offset + copied, count);
+            copied += count;
+            packetOffset += count;
+            if (packetOffset == packetSize) {
+                packetOffset = 0;
+                nextPacket++;
+                sentPacketCount++;
+            }
+        }
+        return copied;
+    }
+
+    @Override
+    public int available() {
+        long duePackets = ((System.nanoTime() - startTime) / packetInterval) + 1;
+        long backlog = Math.min(duePackets - nextPacket, linkBufferPackets);
+        return (int) Math.max(0, (backlog * packetSize) - packetOffset);
+    }
+
+    private void fillPacket(long packetNumber) {
+        int packetIndex = (int) (packetNumber % IndexedPacketProtocol.PACKETS_PER_REVOLUTION);
+        long revolution = packetNumber / IndexedPacketProtocol.PACKETS_PER_REVOLUTION;
+        int samplesPerPacket = protocol.getSamplesPerPacket();
+        int samplesPerRevolution = protocol.getSamplesPerRevolution();
+        int targetSample = (int) ((revolution * 3) % samplesPerRevolution);
+
+        packet[0] = (byte) IndexedPacketProtocol.SYNC_BYTE;
+        packet[1] = (byte) (IndexedPacketProtocol.FIRST_PACKET_INDEX + packetIndex);
+        packet[2] = (byte) (rpm & 0xFF);
+        packet[3] = (byte) (rpm >> 8);
+        packet[4] = (byte) INTENSITY;
+        packet[5] = 0;
+        for (int x = 0; x < samplesPerPacket; x++) {
+            int sample = (packetIndex * samplesPerPacket) + x;
+            int distance = 1500 + (int) (800 * Math.sin((2 * Math.PI * sample) / samplesPerRevolution));
+            if (Math.abs(sample - targetSample) < 4) {
+                distance = 600;
+            }
+            distance += random.nextInt(16);
+            int position = 6 + (x * 6);
+            packet[position] = (byte) (distance & 0xFF);
+            packet[position + 1] = (byte) (distance >> 8);
+            packet[position + 2] = (byte) INTENSITY;
+            packet[position + 3] = 0;
+            packet[position + 4] = 0;
+            packet[position + 5] = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    public long getSentPacketCount() {
+        return sentPacketCount;
+    }
+
+    /**
+     * Returns the number of packets which the link dropped because the reader fell behind.
+     * @return Dropped packet count.
+     */
+    public long getDroppedPacketCount() {
+        return droppedPacketCount;
+    }
+
+    public LatencyHistogram getLinkLatency() {
+        return linkLatency;
+    }
+}